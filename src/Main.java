@@ -1,24 +1,270 @@
+import balance.BalanceConfig;
+import api.GameApi;
+import archive.RunArchive;
+import batch.BatchRunner;
+import analytics.StreamAnalytics;
 import game.Game;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import leaderboard.Leaderboard;
+import profile.ProfileStore;
+import scheduler.OverloadController;
+import server.TelnetServer;
+import session.Checkpointer;
+import session.SessionManager;
+import spectate.SpectatorHub;
 
 /**
  * Main entry point for the Labyrinth of VUB game.
  * This class initializes and starts the game session.
  */
 public class Main {
+    /** Time between two background saves of the leaderboard */
+    private static final long LEADERBOARD_SAVE_MILLIS = 30_000;
+
+    /** Longest a finished run waits in memory before the archive writes it */
+    private static final long ARCHIVE_FLUSH_MILLIS = 60_000;
+
+    /** Time between two checkpoints of the games being served */
+    private static final long CHECKPOINT_MILLIS = 1_000;
+
+    /** Command line flag that unlocks admin commands like stats */
+    private static final String ADMIN_FLAG = "--admin";
+
+    /** Command line flag that plays scripts instead of the console, see BatchRunner */
+    private static final String BATCH_FLAG = "--batch";
+
+    /** Command line flag that serves the game over telnet instead of the console, optionally followed by a port */
+    private static final String TELNET_FLAG = "--telnet";
+
+    /** Command line flag that also serves the binary protocol next to telnet, optionally followed by a port */
+    private static final String BINARY_FLAG = "--binary";
+
+    /** Command line flag that serves the game as a JSON API instead of the console, optionally followed by a port */
+    private static final String HTTP_FLAG = "--http";
+
+    /** Command line flag followed by the address the JSON API listens on; without it only this machine can reach it */
+    private static final String HTTP_ADDRESS_FLAG = "--http-address";
+
+    /** Command line flag followed by the directory where profiles, the leaderboard, past runs and served games are kept */
+    private static final String DATA_FLAG = "--data";
 
     /**
      * Main method that starts the game.
      * Handles any unexpected errors during gameplay.
      *
-     * @param args Command line arguments (not used)
+     * @param args Command line arguments, --admin unlocks admin commands,
+     *             --batch followed by BatchRunner options plays scripts,
+     *             --telnet [port] serves the game over telnet,
+     *             --binary [port] also serves the binary protocol, next to telnet,
+     *             --http [port] serves the game as a JSON API over HTTP,
+     *             --http-address ADDRESS listens for the API there instead of on loopback only,
+     *             --data DIR saves profiles, the leaderboard and past runs in DIR,
+     *             and served games so they survive a restart; without it nothing is saved
      */
 
     public static void main(String[] args) {
         try{
-            Game game  = new Game();
-            game.start();
+            BalanceConfig.loadDefault();
+            if (args.length > 0 && args[0].equals(BATCH_FLAG)) {
+                BatchRunner.main(Arrays.copyOfRange(args, 1, args.length));
+                return;
+            }
+            Path data = dataDirectory(args);
+            try (ProfileStore profiles = data == null ? null : ProfileStore.open(data.resolve("profiles"));
+                 Leaderboard leaderboard = data == null ? null : Leaderboard.open(data.resolve("leaderboard.dat"));
+                 RunArchive archive = data == null ? null : RunArchive.open(data.resolve("runs"))) {
+                if (leaderboard != null) {
+                    leaderboard.startSaving(LEADERBOARD_SAVE_MILLIS);
+                }
+                if (archive != null) {
+                    archive.startFlushing(ARCHIVE_FLUSH_MILLIS);
+                }
+                int telnet = Arrays.asList(args).indexOf(TELNET_FLAG);
+                int http = Arrays.asList(args).indexOf(HTTP_FLAG);
+                int binary = Arrays.asList(args).indexOf(BINARY_FLAG);
+                if (binary >= 0 && telnet < 0) {
+                    throw new IllegalArgumentException(BINARY_FLAG + " needs " + TELNET_FLAG);
+                }
+                if (telnet >= 0 || http >= 0) {
+                    serve(profiles, leaderboard, archive, port(args, telnet, TelnetServer.DEFAULT_PORT),
+                            port(args, binary, TelnetServer.DEFAULT_BINARY_PORT),
+                            port(args, http, GameApi.DEFAULT_PORT), httpAddress(args), data);
+                    return;
+                }
+                Game game  = new Game();
+                game.setProfileStore(profiles);
+                game.setLeaderboard(leaderboard);
+                game.setRunArchive(archive);
+                game.setAnalytics(new StreamAnalytics());
+                game.setAdmin(Arrays.asList(args).contains(ADMIN_FLAG));
+                game.start();
+            }
         } catch(Exception e){
             System.out.println("Error message : " + e.getMessage());
         }
     }
+
+    /**
+     * Finds the port given after a flag
+     * @return The port, the default if the flag has none, or -1 if the flag is missing
+     */
+    private static int port(String[] args, int flag, int defaultPort) {
+        if (flag < 0) {
+            return -1;
+        }
+        return flag + 1 < args.length && args[flag + 1].matches("[0-9]+") ?
+                Integer.parseInt(args[flag + 1]) : defaultPort;
+    }
+
+    /**
+     * Finds the directory given after DATA_FLAG
+     * @return The directory, or null if the flag is missing
+     */
+    private static Path dataDirectory(String[] args) {
+        int flag = Arrays.asList(args).indexOf(DATA_FLAG);
+        if (flag < 0) {
+            return null;
+        }
+        if (flag + 1 >= args.length) {
+            throw new IllegalArgumentException(DATA_FLAG + " needs a directory");
+        }
+        return Paths.get(args[flag + 1]);
+    }
+
+    /**
+     * Finds the address given after HTTP_ADDRESS_FLAG
+     * @return The address, or the loopback address if the flag is missing
+     */
+    private static InetAddress httpAddress(String[] args) throws UnknownHostException {
+        int flag = Arrays.asList(args).indexOf(HTTP_ADDRESS_FLAG);
+        if (flag < 0) {
+            return InetAddress.getLoopbackAddress();
+        }
+        if (flag + 1 >= args.length) {
+            throw new IllegalArgumentException(HTTP_ADDRESS_FLAG + " needs an address");
+        }
+        return InetAddress.getByName(args[flag + 1]);
+    }
+
+    /**
+     * Serves games over telnet, HTTP or both until the process is stopped
+     * @param telnetPort Port for telnet, or -1 for none
+     * @param binaryPort Port for the binary protocol, or -1 for none; needs telnet
+     * @param httpPort Port for the JSON API, or -1 for none
+     * @param httpAddress Address the JSON API listens on
+     * @param dataDirectory Where games are checkpointed and recovered from, or null to keep them in memory only
+     */
+    private static void serve(ProfileStore profiles, Leaderboard leaderboard, RunArchive archive,
+                              int telnetPort, int binaryPort, int httpPort, InetAddress httpAddress,
+                              Path dataDirectory) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        try (SessionManager sessions = new SessionManager()) {
+            sessions.setProfileStore(profiles);
+            sessions.setLeaderboard(leaderboard);
+            sessions.setRunArchive(archive);
+            sessions.setAnalytics(new StreamAnalytics());
+            Checkpointer checkpointer = dataDirectory == null ? null
+                    : recover(sessions, dataDirectory.resolve("checkpoints"));
+            sessions.startSweeping();
+            GameApi api = null;
+            if (httpPort >= 0) {
+                api = GameApi.start(sessions, new InetSocketAddress(httpAddress, httpPort), cores * 2);
+                api.setSpectatorHub(new SpectatorHub(sessions, Math.max(1, cores / 2)));
+                System.out.println("Serving the labyrinth API on http://" + httpAddress.getHostAddress() + ":"
+                        + api.getPort() + "/sessions");
+            }
+            TelnetServer server = null;
+            if (telnetPort >= 0) {
+                server = TelnetServer.start(sessions, new InetSocketAddress(telnetPort),
+                        Math.max(1, cores / 2), cores);
+                // Players get terser replies rather than slower ones when the server is overloaded
+                new OverloadController(sessions, server.getScheduler()).start();
+                System.out.println("Serving the labyrinth on telnet port " + server.getPort());
+                if (binaryPort >= 0) {
+                    server.listenBinary(new InetSocketAddress(binaryPort));
+                    System.out.println("Serving the binary protocol on port " + server.getBinaryPort());
+                }
+            }
+            stopOnShutdown(sessions, checkpointer, api, server, profiles, leaderboard, archive);
+            if (server != null) {
+                server.join();
+            } else {
+                // The API's threads are daemons, so wait here until the process is stopped
+                Thread.currentThread().join();
+            }
+        }
+    }
+
+    /**
+     * Puts back the games checkpointed before the last stop and keeps
+     * checkpointing from then on; runs before any connection is accepted
+     * @param sessions Where the games are served
+     * @param directory The checkpoint segments
+     * @return The checkpointer, still running
+     */
+    private static Checkpointer recover(SessionManager sessions, Path directory) {
+        Checkpointer checkpointer = new Checkpointer(directory);
+        Map<String, Game> games = checkpointer.recover();
+        games.forEach(sessions::resume);
+        sessions.setCheckpointer(checkpointer);
+        checkpointer.start(sessions, CHECKPOINT_MILLIS);
+        System.out.println("Recovered " + games.size() + " games from " + directory);
+        return checkpointer;
+    }
+
+    /**
+     * Stops serving when the process is stopped, in one hook so the steps
+     * keep their order; the JVM runs separate hooks all at once
+     * @param checkpointer Saves the games being played, or null
+     * @param api The JSON API, or null
+     * @param server The telnet server, or null
+     * @param profiles Saved once no more games can end, or null
+     * @param leaderboard Saved once no more games can end, or null
+     * @param archive Written once no more games can end, or null
+     */
+    private static void stopOnShutdown(SessionManager sessions, Checkpointer checkpointer, GameApi api,
+                                       TelnetServer server, ProfileStore profiles, Leaderboard leaderboard,
+                                       RunArchive archive) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (checkpointer != null) {
+                // Connections closed while shutting down should not end their games in the log
+                sessions.setCheckpointer(null);
+                checkpointer.checkpointAll(sessions.getSessions());
+            }
+            if (api != null) {
+                api.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+            if (checkpointer != null) {
+                checkpointer.close();
+            }
+            // serve() never returns, so the stores are not closed by main; save what they hold in memory
+            try {
+                if (profiles != null) {
+                    profiles.flush();
+                }
+                if (leaderboard != null) {
+                    leaderboard.save();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Could not save on shutdown: " + e);
+            }
+            try {
+                if (archive != null) {
+                    archive.flush();
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Could not write the run archive on shutdown: " + e);
+            }
+        }, "shutdown"));
+    }
 }
\ No newline at end of file
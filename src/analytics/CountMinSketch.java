@@ -0,0 +1,49 @@
+package analytics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Estimates how often each key was seen, in fixed memory.
+ * Every key bumps one counter in each row; the estimate is the smallest of
+ * its counters, which can only be too high, never too low. Counters are
+ * updated with atomic adds so any thread can count without a lock.
+ */
+final class CountMinSketch {
+    private final int depth;
+    private final int width;
+    private final AtomicLongArray counters;
+
+    /**
+     * Creates a sketch
+     * @param depth Number of rows; more rows make a bad estimate less likely
+     * @param width Counters per row, a power of two; wider rows make estimates closer
+     */
+    CountMinSketch(int depth, int width) {
+        if (Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("Width must be a power of two: " + width);
+        }
+        this.depth = depth;
+        this.width = width;
+        this.counters = new AtomicLongArray(depth * width);
+    }
+
+    void add(String key, long count) {
+        long hash = Hashing.hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int row = 0; row < depth; row++) {
+            counters.addAndGet(row * width + ((h1 + row * h2) & (width - 1)), count);
+        }
+    }
+
+    long estimate(String key) {
+        long hash = Hashing.hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(row * width + ((h1 + row * h2) & (width - 1))));
+        }
+        return estimate;
+    }
+}
@@ -0,0 +1,38 @@
+package analytics;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 64-bit hashing shared by the sketches. String.hashCode has too few bits
+ * and too much structure for sketches that split one hash into several.
+ */
+final class Hashing {
+    private Hashing() {
+    }
+
+    /**
+     * Hashes a text
+     * @param text The text
+     * @return A well mixed 64-bit hash
+     */
+    static long hash(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Spreads the bits of a value over the whole word
+     */
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,71 @@
+package analytics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the most frequent keys of a stream in a fixed number of slots.
+ * When a new key arrives and every slot is taken, it replaces the key with
+ * the smallest count and inherits that count as its possible overcount.
+ * Any key seen more often than total / capacity times is sure to be kept.
+ */
+final class SpaceSaving {
+    private final int capacity;
+    private final Map<String, Entry> entries;
+
+    SpaceSaving(int capacity) {
+        this.capacity = capacity;
+        this.entries = new HashMap<>(capacity * 2);
+    }
+
+    synchronized void add(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.count++;
+            return;
+        }
+        if (entries.size() < capacity) {
+            entries.put(key, new Entry(key, 1, 0));
+            return;
+        }
+        Entry smallest = null;
+        for (Entry candidate : entries.values()) {
+            if (smallest == null || candidate.count < smallest.count) {
+                smallest = candidate;
+            }
+        }
+        entries.remove(smallest.key);
+        entries.put(key, new Entry(key, smallest.count + 1, smallest.count));
+    }
+
+    /**
+     * Gets the kept keys, most frequent first
+     * @param limit How many to get
+     * @return Copies of the entries
+     */
+    synchronized List<Entry> top(int limit) {
+        List<Entry> top = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            top.add(new Entry(entry.key, entry.count, entry.error));
+        }
+        top.sort((a, b) -> Long.compare(b.count, a.count));
+        return top.subList(0, Math.min(limit, top.size()));
+    }
+
+    /**
+     * A kept key with its count, which may be too high by at most its error
+     */
+    static final class Entry {
+        final String key;
+        long count;
+        final long error;
+
+        Entry(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package analytics;
+
+import command.Command;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Always-on counters about how the game is played, in fixed memory.
+ * Nothing raw is stored: unknown commands go into a count-min sketch and a
+ * space-saving list, players into one HyperLogLog per hour of the last day,
+ * and turns per room and damage per round into t-digests. Memory stays the
+ * same however many players and commands come through.
+ * One instance is shared by every game of a server. Nothing on the way of a
+ * turn takes a shared lock: the t-digests are split in stripes picked by
+ * thread and merged when read, and the hourly player sketch is only locked
+ * when its hour rolls over.
+ */
+public final class StreamAnalytics {
+    /** Unknown commands shown in the report */
+    private static final int REPORTED_TYPOS = 10;
+    /** Hours of unique player counts kept */
+    private static final int HOURS = 24;
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /** Longest word that is still looked at, so one long line can't cost much */
+    private static final int MAX_WORD_LENGTH = 32;
+    private static final double COMPRESSION = 100;
+
+    private final CountMinSketch typoCounts = new CountMinSketch(4, 2048);
+    private final SpaceSaving topTypos = new SpaceSaving(64);
+    private final HyperLogLog[] playersByHour = new HyperLogLog[HOURS];
+    private final AtomicLongArray hourOfSlot = new AtomicLongArray(HOURS);
+    private final TDigest[] turnsPerRoom;
+    private final TDigest[] damagePerRound;
+
+    /**
+     * Creates empty counters, with a t-digest stripe for about every two threads that may record at once
+     */
+    public StreamAnalytics() {
+        for (int i = 0; i < HOURS; i++) {
+            playersByHour[i] = new HyperLogLog();
+            hourOfSlot.set(i, -1);
+        }
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) * 2;
+        turnsPerRoom = stripes(stripes);
+        damagePerRound = stripes(stripes);
+    }
+
+    private static TDigest[] stripes(int count) {
+        TDigest[] stripes = new TDigest[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new TDigest(COMPRESSION);
+        }
+        return stripes;
+    }
+
+    /**
+     * Picks the calling thread's stripe, so threads rarely wait on each other's digest
+     */
+    private static TDigest stripeOf(TDigest[] stripes) {
+        return stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+    }
+
+    /**
+     * Merges the stripes of a digest for reading
+     */
+    private static TDigest merged(TDigest[] stripes) {
+        TDigest all = new TDigest(COMPRESSION);
+        for (TDigest stripe : stripes) {
+            all.addAll(stripe);
+        }
+        return all;
+    }
+
+    /**
+     * Counts a command word the game did not understand
+     * @param word The first word the player typed
+     */
+    public void recordUnknownCommand(String word) {
+        String key = word.length() > MAX_WORD_LENGTH ? word.substring(0, MAX_WORD_LENGTH) : word;
+        typoCounts.add(key, 1);
+        topTypos.add(key);
+    }
+
+    /**
+     * Counts a player as active in the current hour
+     * @param name The player's name
+     */
+    public void recordPlayer(String name) {
+        recordPlayer(name, System.currentTimeMillis());
+    }
+
+    void recordPlayer(String name, long nowMillis) {
+        slotFor(nowMillis / HOUR_MILLIS).add(Hashing.hash(name));
+    }
+
+    /**
+     * Adds how many commands a player spent in a room before leaving it
+     * @param turns The commands typed in the room
+     */
+    public void recordTurnsInRoom(int turns) {
+        stripeOf(turnsPerRoom).add(turns);
+    }
+
+    /**
+     * Adds the damage a player took in one round of enemy attacks
+     * @param damage Health lost in the round
+     */
+    public void recordRoundDamage(int damage) {
+        stripeOf(damagePerRound).add(damage);
+    }
+
+    /**
+     * Estimates how often an unknown command was typed
+     * @param word The command word
+     * @return The estimate, never below the true count
+     */
+    public long estimateUnknownCommand(String word) {
+        return typoCounts.estimate(word);
+    }
+
+    /**
+     * Estimates the different players active in the last hours
+     * @param hours How many hours to look back, the current one included
+     * @return The estimate
+     */
+    public long uniquePlayers(int hours) {
+        return uniquePlayers(hours, System.currentTimeMillis());
+    }
+
+    long uniquePlayers(int hours, long nowMillis) {
+        long hour = nowMillis / HOUR_MILLIS;
+        int[] registers = HyperLogLog.emptyRegisters();
+        for (int back = 0; back < Math.min(hours, HOURS); back++) {
+            int slot = (int) Math.floorMod(hour - back, (long) HOURS);
+            if (hourOfSlot.get(slot) == hour - back) {
+                playersByHour[slot].mergeInto(registers);
+            }
+        }
+        return HyperLogLog.estimate(registers);
+    }
+
+    /**
+     * Gets the sketch for an hour, clearing it first if it still holds a day-old hour.
+     * Only the first player of an hour takes the lock; the sketch itself takes adds without one.
+     */
+    private HyperLogLog slotFor(long hour) {
+        int slot = (int) Math.floorMod(hour, (long) HOURS);
+        HyperLogLog sketch = playersByHour[slot];
+        if (hourOfSlot.get(slot) != hour) {
+            synchronized (sketch) {
+                if (hourOfSlot.get(slot) != hour) {
+                    sketch.clear();
+                    // Set after clearing, so nobody adds to the new hour before it is empty
+                    hourOfSlot.set(slot, hour);
+                }
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * Describes everything counted so far, for the admin view
+     * @return The report text
+     */
+    public String report() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("Unique players: %d this hour, %d in the last %d hours%n",
+                uniquePlayers(1), uniquePlayers(HOURS), HOURS));
+        appendQuantiles(text, "Turns per room", merged(turnsPerRoom));
+        appendQuantiles(text, "Damage per round", merged(damagePerRound));
+
+        List<SpaceSaving.Entry> typos = topTypos.top(REPORTED_TYPOS);
+        text.append(typos.isEmpty() ? "No unknown commands yet" : "Most typed unknown commands:")
+                .append(System.lineSeparator());
+        for (SpaceSaving.Entry typo : typos) {
+            String closest = closestCommand(typo.key);
+            text.append(String.format("  %-16s ~%d (at most %d too high)%s%n", typo.key,
+                    Math.min(typo.count, typoCounts.estimate(typo.key)), typo.error,
+                    closest != null ? ", alias for " + closest + "?" : ""));
+        }
+        return text.toString();
+    }
+
+    private static void appendQuantiles(StringBuilder text, String label, TDigest digest) {
+        if (digest.count() == 0) {
+            text.append(label).append(": nothing yet").append(System.lineSeparator());
+            return;
+        }
+        text.append(String.format("%s: p50 %.1f, p90 %.1f, p99 %.1f (%d samples)%n", label,
+                digest.quantile(0.5), digest.quantile(0.9), digest.quantile(0.99), digest.count()));
+    }
+
+    /**
+     * Finds the command a typo was most likely meant to be
+     * @param word The typed word
+     * @return The command's name, or null if none is within two edits
+     */
+    static String closestCommand(String word) {
+        String best = null;
+        int bestDistance = 3;
+        for (Command command : Command.values()) {
+            int distance = editDistance(word, command.getName());
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = command.getName();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Counts the insertions, deletions, changes and swaps of neighbouring
+     * letters needed to turn one word into another
+     */
+    static int editDistance(String a, String b) {
+        int[][] distance = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            distance[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            distance[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int best = Math.min(Math.min(distance[i - 1][j] + 1, distance[i][j - 1] + 1),
+                        distance[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    best = Math.min(best, distance[i - 2][j - 2] + 1);
+                }
+                distance[i][j] = best;
+            }
+        }
+        return distance[a.length()][b.length()];
+    }
+}
@@ -0,0 +1,205 @@
+package analytics;
+
+import java.util.Arrays;
+
+/**
+ * Estimates quantiles of a stream of numbers, in fixed memory.
+ * Values are gathered in a buffer and merged into a sorted list of
+ * centroids. Centroids near the middle may grow large while those near the
+ * edges stay small, so tail quantiles like p99 stay accurate.
+ */
+final class TDigest {
+    private final double compression;
+    private final double[] means;
+    private final double[] weights;
+    private final double[] buffer;
+    private int centroids;
+    private int buffered;
+    private double totalWeight;
+    private double min;
+    private double max;
+
+    /**
+     * Creates a digest
+     * @param compression Roughly the number of centroids kept; higher is more accurate
+     */
+    TDigest(double compression) {
+        this.compression = compression;
+        int capacity = (int) Math.ceil(compression) * 2 + 10;
+        this.means = new double[capacity];
+        this.weights = new double[capacity];
+        this.buffer = new double[capacity * 4];
+        this.min = Double.POSITIVE_INFINITY;
+        this.max = Double.NEGATIVE_INFINITY;
+    }
+
+    synchronized void add(double value) {
+        if (buffered == buffer.length) {
+            merge();
+        }
+        buffer[buffered++] = value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds everything another digest has seen; the other digest stays as it is
+     * @param other The digest to add
+     */
+    void addAll(TDigest other) {
+        double[] otherMeans;
+        double[] otherWeights;
+        double otherTotal;
+        double otherMin;
+        double otherMax;
+        synchronized (other) {
+            other.merge();
+            otherMeans = Arrays.copyOf(other.means, other.centroids);
+            otherWeights = Arrays.copyOf(other.weights, other.centroids);
+            otherTotal = other.totalWeight;
+            otherMin = other.min;
+            otherMax = other.max;
+        }
+        if (otherMeans.length == 0) {
+            return;
+        }
+        synchronized (this) {
+            merge();
+            int count = centroids + otherMeans.length;
+            double[] allMeans = new double[count];
+            double[] allWeights = new double[count];
+            System.arraycopy(means, 0, allMeans, 0, centroids);
+            System.arraycopy(weights, 0, allWeights, 0, centroids);
+            System.arraycopy(otherMeans, 0, allMeans, centroids, otherMeans.length);
+            System.arraycopy(otherWeights, 0, allWeights, centroids, otherWeights.length);
+            sortByMean(allMeans, allWeights, centroids);
+            min = Math.min(min, otherMin);
+            max = Math.max(max, otherMax);
+            compress(allMeans, allWeights, count, totalWeight + otherTotal);
+        }
+    }
+
+    synchronized long count() {
+        return Math.round(totalWeight) + buffered;
+    }
+
+    /**
+     * Estimates a quantile
+     * @param q Between 0 and 1, for example 0.99
+     * @return The estimate, or NaN if nothing was added
+     */
+    synchronized double quantile(double q) {
+        merge();
+        if (centroids == 0) {
+            return Double.NaN;
+        }
+        if (centroids == 1) {
+            return means[0];
+        }
+        double target = q * totalWeight;
+        double before = 0;
+        for (int i = 0; i < centroids; i++) {
+            double center = before + weights[i] / 2;
+            if (target < center) {
+                if (i == 0) {
+                    return min + (means[0] - min) * target / center;
+                }
+                double previousCenter = before - weights[i - 1] / 2;
+                double fraction = (target - previousCenter) / (center - previousCenter);
+                return means[i - 1] + (means[i] - means[i - 1]) * fraction;
+            }
+            before += weights[i];
+        }
+        double lastCenter = totalWeight - weights[centroids - 1] / 2;
+        double fraction = (target - lastCenter) / Math.max(1e-9, totalWeight - lastCenter);
+        return means[centroids - 1] + (max - means[centroids - 1]) * Math.min(1, fraction);
+    }
+
+    /**
+     * Folds the buffer into the centroids
+     */
+    private void merge() {
+        if (buffered == 0) {
+            return;
+        }
+        int count = centroids + buffered;
+        double[] allMeans = new double[count];
+        double[] allWeights = new double[count];
+        System.arraycopy(means, 0, allMeans, 0, centroids);
+        System.arraycopy(weights, 0, allWeights, 0, centroids);
+        Arrays.sort(buffer, 0, buffered);
+        for (int i = 0; i < buffered; i++) {
+            allMeans[centroids + i] = buffer[i];
+            allWeights[centroids + i] = 1;
+        }
+        sortByMean(allMeans, allWeights, centroids);
+        double total = totalWeight + buffered;
+        buffered = 0;
+        compress(allMeans, allWeights, count, total);
+    }
+
+    /**
+     * Folds centroids sorted by mean into as few as the scale allows
+     */
+    private void compress(double[] allMeans, double[] allWeights, int count, double total) {
+        int kept = 0;
+        double mean = allMeans[0];
+        double weight = allWeights[0];
+        double before = 0;
+        for (int i = 1; i < count; i++) {
+            double proposed = weight + allWeights[i];
+            // A centroid may span at most one unit of the scale, which is finer near the edges
+            if (scale((before + proposed) / total) - scale(before / total) <= 1) {
+                mean += (allMeans[i] - mean) * allWeights[i] / proposed;
+                weight = proposed;
+            } else {
+                means[kept] = mean;
+                weights[kept++] = weight;
+                before += weight;
+                mean = allMeans[i];
+                weight = allWeights[i];
+            }
+            if (kept == means.length - 1) {
+                // Never expected with the size limit above, but the arrays must not overflow
+                for (int j = i + 1; j < count; j++) {
+                    mean += (allMeans[j] - mean) * allWeights[j] / (weight + allWeights[j]);
+                    weight += allWeights[j];
+                }
+                break;
+            }
+        }
+        means[kept] = mean;
+        weights[kept++] = weight;
+        centroids = kept;
+        totalWeight = total;
+    }
+
+    /**
+     * Maps a quantile onto a scale that runs from -compression/4 to compression/4
+     * and changes fastest near 0 and 1
+     */
+    private double scale(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * Math.min(1, q) - 1);
+    }
+
+    /**
+     * Merges the sorted old centroids with the sorted new values in place
+     */
+    private static void sortByMean(double[] allMeans, double[] allWeights, int split) {
+        double[] mergedMeans = new double[allMeans.length];
+        double[] mergedWeights = new double[allWeights.length];
+        int left = 0;
+        int right = split;
+        for (int i = 0; i < allMeans.length; i++) {
+            if (right >= allMeans.length || (left < split && allMeans[left] <= allMeans[right])) {
+                mergedMeans[i] = allMeans[left];
+                mergedWeights[i] = allWeights[left++];
+            } else {
+                mergedMeans[i] = allMeans[right];
+                mergedWeights[i] = allWeights[right++];
+            }
+        }
+        System.arraycopy(mergedMeans, 0, allMeans, 0, allMeans.length);
+        System.arraycopy(mergedWeights, 0, allWeights, 0, allWeights.length);
+    }
+}
@@ -0,0 +1,174 @@
+package api;
+
+import load.LatencyHistogram;
+import session.SessionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the HTTP API on loopback: clients open a game each, then keep
+ * sending commands and fetching state over kept-alive connections, one
+ * request at a time, as fast as they are answered.
+ *
+ * Usage: ApiBenchmark [--clients N] [--seconds N] [--threads N]
+ */
+public class ApiBenchmark {
+    private static final Pattern ID = Pattern.compile("\"id\":\"([0-9a-f]+)\"");
+
+    /** Commands sent in turn; none of them ends the game */
+    private static final String[] COMMANDS = {"look", "inventory", "look", "leaderboard"};
+
+    /** Share of the run spent warming up before measuring */
+    private static final double WARMUP_SHARE = 0.2;
+
+    public static void main(String[] args) throws Exception {
+        int clients = 16;
+        int seconds = 10;
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--clients":
+                    clients = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value(args, ++i));
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.err.println("Usage: ApiBenchmark [--clients N] [--seconds N] [--threads N]");
+                    System.exit(2);
+            }
+        }
+        // Idle connections kept per server; the default of 5 would reconnect most clients
+        System.setProperty("http.maxConnections", String.valueOf(clients));
+
+        try (SessionManager sessions = new SessionManager();
+             GameApi api = GameApi.start(sessions, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), threads)) {
+            String base = "http://127.0.0.1:" + api.getPort() + "/sessions";
+            LatencyHistogram commands = new LatencyHistogram();
+            LatencyHistogram states = new LatencyHistogram();
+            AtomicBoolean measuring = new AtomicBoolean();
+            AtomicBoolean stopped = new AtomicBoolean();
+            List<Thread> running = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                Thread client = new Thread(() -> play(base, commands, states, measuring, stopped), "api-client-" + c);
+                client.setDaemon(true);
+                client.start();
+                running.add(client);
+            }
+            long warmup = (long) (TimeUnit.SECONDS.toMillis(seconds) * WARMUP_SHARE);
+            Thread.sleep(warmup);
+            measuring.set(true);
+            long start = System.nanoTime();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds) - warmup);
+            measuring.set(false);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            stopped.set(true);
+            for (Thread client : running) {
+                client.join();
+            }
+
+            System.out.printf("%d clients, %d server threads, %.1f s measured%n", clients, threads, elapsed);
+            System.out.printf("%-8s %10s %9s %9s %9s %9s %9s%n",
+                    "request", "req/s", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+            report("command", commands, elapsed);
+            report("state", states, elapsed);
+            LatencyHistogram all = new LatencyHistogram();
+            all.add(commands);
+            all.add(states);
+            report("all", all, elapsed);
+        }
+    }
+
+    private static void play(String base, LatencyHistogram commands, LatencyHistogram states,
+                             AtomicBoolean measuring, AtomicBoolean stopped) {
+        try {
+            Matcher matcher = ID.matcher(request("POST", base, null));
+            if (!matcher.find()) {
+                throw new IllegalStateException("No session id in reply");
+            }
+            String session = base + "/" + matcher.group(1);
+            request("POST", session + "/commands", "bench");
+            request("POST", session + "/commands", "warrior");
+            for (int turn = 0; !stopped.get(); turn++) {
+                long start = System.nanoTime();
+                boolean command = turn % 2 == 0;
+                if (command) {
+                    request("POST", session + "/commands", COMMANDS[turn / 2 % COMMANDS.length]);
+                } else {
+                    request("GET", session, null);
+                }
+                if (measuring.get()) {
+                    (command ? commands : states).record(System.nanoTime() - start);
+                }
+            }
+            request("DELETE", session, null);
+        } catch (IOException e) {
+            System.err.println("Client failed: " + e);
+        }
+    }
+
+    /**
+     * Sends one request and reads the whole reply, so the connection can be reused
+     */
+    private static String request(String method, String url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(bytes.length);
+            connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(bytes);
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in == null) {
+            return "";
+        }
+        ByteArrayOutputStream reply = new ByteArrayOutputStream(2048);
+        try (InputStream stream = in) {
+            stream.transferTo(reply);
+        }
+        if (status >= 400) {
+            throw new IOException(method + " " + url + " answered " + status + ": " + reply);
+        }
+        return reply.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void report(String name, LatencyHistogram histogram, double seconds) {
+        System.out.printf("%-8s %10.0f %9.2f %9.2f %9.2f %9.2f %9.2f%n", name,
+                histogram.getCount() / seconds,
+                histogram.getMeanMicros() / 1000.0,
+                histogram.getPercentileMicros(50) / 1000.0,
+                histogram.getPercentileMicros(99) / 1000.0,
+                histogram.getPercentileMicros(99.9) / 1000.0,
+                histogram.getPercentileMicros(100) / 1000.0);
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(args[index - 1] + " needs a value");
+        }
+        return args[index];
+    }
+}
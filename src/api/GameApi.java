@@ -0,0 +1,412 @@
+package api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import game.Game;
+import protocol.BinaryProtocol;
+import session.GameSession;
+import session.SessionManager;
+import spectate.Frame;
+import spectate.Spectator;
+import spectate.SpectatorHub;
+import utils.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lets web and mobile clients play over HTTP, answering in JSON.
+ *
+ * POST   /sessions[?seed=N]         opens a game: 201 {"id", "output", "state"}
+ * POST   /sessions/{id}/commands    plays the request body (one line of text): {"output", "over", "state"}
+ * GET    /sessions/{id}             the game's state: {"state"}
+ * GET    /sessions/{id}/watch       streams the game live as binary StateTracker frames,
+ *                                   until it ends; needs a SpectatorHub
+ * DELETE /sessions/{id}             closes the game: 204
+ *
+ * Only games opened through this API can be played, watched or closed
+ * through it; any other session, like a telnet player's, is answered 404
+ * as if it did not exist.
+ *
+ * Errors are answered as {"error": "..."}. Every other response has a known
+ * length, so clients can keep their connection open between requests.
+ * Requests are handled on a fixed pool of worker threads; watching streams
+ * are handed to threads of their own so they never hold a worker.
+ */
+public class GameApi implements AutoCloseable {
+    /** Port used when none is given */
+    public static final int DEFAULT_PORT = 8080;
+
+    private static final String SESSIONS = "/sessions";
+    private static final String COMMANDS = "/commands";
+    private static final String WATCH = "/watch";
+
+    /** Longest command body accepted, in bytes */
+    private static final int MAX_COMMAND_BYTES = 1024;
+
+    /** Pending connections the operating system keeps before they are accepted */
+    private static final int BACKLOG = 1024;
+
+    /** Most games watched over the API at once, each holding a thread */
+    private static final int MAX_WATCHERS = 256;
+
+    /** Frames queued for a watcher before they skip to the next keyframe */
+    private static final int WATCH_CAPACITY = 64;
+
+    /** Set on an exchange whose stream outlives its request, so handle leaves it open */
+    private static final String STREAMING = "api.streaming";
+
+    static {
+        // The JDK server writes headers and body separately; without this, Nagle's algorithm and
+        // delayed acknowledgements hold every kept-alive reply back by about 40 ms
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final SessionManager sessions;
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final ExecutorService watchers;
+    private final AtomicInteger watching = new AtomicInteger();
+    private final SecureRandom ids = new SecureRandom();
+    /** Sessions this API opened and has not seen closed */
+    private final Set<String> opened = ConcurrentHashMap.newKeySet();
+    private volatile SpectatorHub spectatorHub;
+
+    private GameApi(SessionManager sessions, HttpServer server, int workerThreads) {
+        this.sessions = sessions;
+        this.server = server;
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, task -> {
+            Thread thread = new Thread(task, "api-worker-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger watcherCount = new AtomicInteger();
+        this.watchers = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "api-watch-" + watcherCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(workers);
+        server.createContext(SESSIONS, this::handle);
+    }
+
+    /**
+     * Starts serving
+     * @param sessions Where the games are played
+     * @param address Where to listen; port 0 picks a free one. Anyone who can
+     *                reach it can play, so use a loopback address unless the
+     *                API is meant to be public
+     * @param workerThreads Threads handling requests
+     * @return The running API
+     * @throws IOException if the address cannot be bound
+     */
+    public static GameApi start(SessionManager sessions, InetSocketAddress address, int workerThreads)
+            throws IOException {
+        GameApi api = new GameApi(sessions, HttpServer.create(address, BACKLOG), workerThreads);
+        api.server.start();
+        return api;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Lets games be watched at /sessions/{id}/watch
+     * @param spectatorHub Where the watchers come from, or null to answer 404
+     */
+    public void setSpectatorHub(SpectatorHub spectatorHub) {
+        this.spectatorHub = spectatorHub;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            route(exchange);
+        } catch (IllegalArgumentException e) {
+            // Unknown sessions and bad parameters
+            error(exchange, 404, e.getMessage());
+        } catch (RuntimeException e) {
+            error(exchange, 500, "Internal error");
+            System.err.println("API request failed: " + e);
+        } finally {
+            if (exchange.getAttribute(STREAMING) == null) {
+                exchange.close();
+            }
+            Metrics.increment("api.requests", 1);
+            Metrics.set("api.lastRequestMillis", (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals(SESSIONS) || path.equals(SESSIONS + "/")) {
+            if (method.equals("POST")) {
+                create(exchange);
+            } else {
+                methodNotAllowed(exchange, "POST");
+            }
+            return;
+        }
+        if (!path.startsWith(SESSIONS + "/")) {
+            error(exchange, 404, "No such resource");
+            return;
+        }
+        String rest = path.substring(SESSIONS.length() + 1);
+        if (rest.endsWith(COMMANDS)) {
+            String id = rest.substring(0, rest.length() - COMMANDS.length());
+            if (id.isEmpty() || id.indexOf('/') >= 0) {
+                error(exchange, 404, "No such resource");
+            } else if (method.equals("POST")) {
+                command(exchange, id);
+            } else {
+                methodNotAllowed(exchange, "POST");
+            }
+        } else if (rest.endsWith(WATCH)) {
+            String id = rest.substring(0, rest.length() - WATCH.length());
+            if (id.isEmpty() || id.indexOf('/') >= 0) {
+                error(exchange, 404, "No such resource");
+            } else if (method.equals("GET")) {
+                watch(exchange, id);
+            } else {
+                methodNotAllowed(exchange, "GET");
+            }
+        } else if (rest.isEmpty() || rest.indexOf('/') >= 0) {
+            error(exchange, 404, "No such resource");
+        } else if (method.equals("GET")) {
+            state(exchange, rest);
+        } else if (method.equals("DELETE")) {
+            requireOpened(rest);
+            opened.remove(rest);
+            sessions.close(rest);
+            exchange.sendResponseHeaders(204, -1);
+        } else {
+            methodNotAllowed(exchange, "GET, DELETE");
+        }
+    }
+
+    private void create(HttpExchange exchange) throws IOException {
+        String id = Long.toHexString(ids.nextLong() & Long.MAX_VALUE);
+        String seed = queryParameter(exchange.getRequestURI(), "seed");
+        String intro;
+        opened.add(id);
+        try {
+            intro = seed == null ? sessions.open(id) : sessions.open(id, Long.parseLong(seed));
+        } catch (NumberFormatException e) {
+            opened.remove(id);
+            error(exchange, 400, "The seed must be a number");
+            return;
+        } catch (RuntimeException e) {
+            opened.remove(id);
+            throw e;
+        }
+        StringBuilder out = new StringBuilder(1024);
+        JsonWriter json = new JsonWriter(out).beginObject();
+        json.name("id").value(id);
+        json.name("output").value(intro);
+        json.name("state");
+        sessions.inspect(id, game -> write(game, json));
+        json.endObject();
+        send(exchange, 201, out);
+    }
+
+    private void command(HttpExchange exchange, String id) throws IOException {
+        String line = readLine(exchange);
+        if (line == null) {
+            error(exchange, 413, "A command may be at most " + MAX_COMMAND_BYTES + " bytes");
+            return;
+        }
+        // Kept so the final state can still be shown when the command ends the game and closes the session
+        GameSession session = requireOpened(id);
+        String reply = sessions.handleLine(id, line);
+        boolean over = sessions.getSession(id) == null;
+        if (over) {
+            opened.remove(id);
+        }
+        StringBuilder out = new StringBuilder(1024);
+        JsonWriter json = new JsonWriter(out).beginObject();
+        json.name("output").value(reply);
+        json.name("over").value(over);
+        json.name("state");
+        session.inspect(game -> write(game, json));
+        json.endObject();
+        send(exchange, 200, out);
+    }
+
+    private void state(HttpExchange exchange, String id) throws IOException {
+        GameSession session = requireOpened(id);
+        StringBuilder out = new StringBuilder(1024);
+        JsonWriter json = new JsonWriter(out).beginObject().name("state");
+        session.inspect(game -> write(game, json));
+        json.endObject();
+        send(exchange, 200, out);
+    }
+
+    private void watch(HttpExchange exchange, String id) throws IOException {
+        requireOpened(id);
+        SpectatorHub hub = spectatorHub;
+        if (hub == null) {
+            error(exchange, 404, "Games cannot be watched on this server");
+            return;
+        }
+        if (watching.incrementAndGet() > MAX_WATCHERS) {
+            watching.decrementAndGet();
+            error(exchange, 503, "Too many people are watching; try again later");
+            return;
+        }
+        Spectator spectator;
+        try {
+            spectator = hub.watch(id, WATCH_CAPACITY, Spectator.Policy.SKIP_TO_KEYFRAME);
+        } catch (RuntimeException e) {
+            watching.decrementAndGet();
+            throw e;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        try {
+            // Length 0 sends the body chunked, as long as it takes
+            exchange.sendResponseHeaders(200, 0);
+            exchange.setAttribute(STREAMING, Boolean.TRUE);
+            watchers.execute(() -> stream(exchange, spectator));
+        } catch (IOException | RuntimeException e) {
+            exchange.setAttribute(STREAMING, null);
+            spectator.close();
+            watching.decrementAndGet();
+            throw e;
+        }
+        Metrics.increment("api.watchers", 1);
+    }
+
+    /**
+     * Sends a spectator's frames as they come, until the game ends or the watcher leaves
+     */
+    private void stream(HttpExchange exchange, Spectator spectator) {
+        byte[] chunk = new byte[BinaryProtocol.MAX_FRAME_BYTES];
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (true) {
+                Frame frame = spectator.take(1, TimeUnit.SECONDS);
+                if (frame == null) {
+                    if (spectator.isClosed()) {
+                        break;
+                    }
+                    continue;
+                }
+                ByteBuffer bytes = frame.getBytes();
+                int size = bytes.remaining();
+                bytes.get(chunk, 0, size);
+                out.write(chunk, 0, size);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The watcher went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            spectator.close();
+            exchange.close();
+            watching.decrementAndGet();
+        }
+    }
+
+    /**
+     * Finds a session this API opened, forgetting it if it has since closed
+     * @throws IllegalArgumentException if there is no such session, or it was opened some other way
+     */
+    private GameSession requireOpened(String id) {
+        GameSession session = opened.contains(id) ? sessions.getSession(id) : null;
+        if (session == null) {
+            opened.remove(id);
+            throw new IllegalArgumentException("No session called " + id);
+        }
+        return session;
+    }
+
+    private static Void write(Game game, JsonWriter json) {
+        GameStateJson.write(game, json);
+        return null;
+    }
+
+    /**
+     * Reads the request body as one line of input
+     * @return The line without its line break, or null if the body is too long
+     */
+    private static String readLine(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        byte[] chunk = new byte[256];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                if (body.size() + read > MAX_COMMAND_BYTES) {
+                    return null;
+                }
+                body.write(chunk, 0, read);
+            }
+        }
+        String line = new String(body.toByteArray(), StandardCharsets.UTF_8);
+        int end = line.length();
+        while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+
+    private static String queryParameter(URI uri, String name) {
+        String query = uri.getQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=")) {
+                return pair.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static void methodNotAllowed(HttpExchange exchange, String allowed) throws IOException {
+        exchange.getResponseHeaders().set("Allow", allowed);
+        error(exchange, 405, "Use " + allowed);
+    }
+
+    private static void error(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder out = new StringBuilder(64);
+        new JsonWriter(out).beginObject().name("error").value(message).endObject();
+        send(exchange, status, out);
+    }
+
+    private static void send(HttpExchange exchange, int status, StringBuilder json) throws IOException {
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Stops accepting requests, waiting up to a second for the ones being handled
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        workers.shutdownNow();
+        watchers.shutdownNow();
+    }
+}
@@ -0,0 +1,138 @@
+package api;
+
+import character.ability.Ability;
+import character.enemy.Enemy;
+import character.player.Player;
+import game.Game;
+import items.Inventory;
+import items.Item;
+import world.Direction;
+import world.DungeonProgress;
+import world.Room;
+
+import java.util.List;
+
+/**
+ * Writes what a client needs to draw a game: the player, the room they
+ * stand in and how deep into the dungeon they are. Enemies and items are
+ * listed in the order the text commands see them, so their index can be
+ * used to refer to them.
+ */
+final class GameStateJson {
+    private GameStateJson() {
+    }
+
+    /**
+     * Writes a game's state as one JSON object
+     * @param game The game, read under its session's lock
+     * @param json Where to write
+     */
+    static void write(Game game, JsonWriter json) {
+        json.beginObject();
+        json.name("phase").value(game.getPhase().name());
+        json.name("over").value(game.isOver());
+        json.name("turns").value(game.getTurns());
+
+        json.name("player");
+        Player player = game.getPlayer();
+        if (player == null) {
+            json.nullValue();
+        } else {
+            writePlayer(player, json);
+        }
+
+        json.name("room");
+        Room room = game.getCurrentRoom();
+        if (room == null) {
+            json.nullValue();
+        } else {
+            writeRoom(room, json);
+        }
+
+        DungeonProgress progress = game.getDungeonProgress();
+        json.name("progress").beginObject()
+                .name("depth").value(progress.getCurrentDepth())
+                .name("section").value(progress.getCurrentSection())
+                .name("roomsSinceLastBoss").value(progress.getRoomsSinceLastBoss())
+                .name("firstBossDefeated").value(progress.isFirstBossDefeated())
+                .name("secondBossDefeated").value(progress.isSecondBossDefeated())
+                .name("finalBossDefeated").value(progress.isFinalBossDefeated())
+                .endObject();
+        json.endObject();
+    }
+
+    private static void writePlayer(Player player, JsonWriter json) {
+        json.beginObject()
+                .name("name").value(player.getCharacterName())
+                .name("heroClass").value(player.getHeroClass().name())
+                .name("hp").value(player.getCurrentHealthPoints())
+                .name("maxHp").value(player.getMaxHealthPoints())
+                .name("attack").value(player.getAttackDamage());
+
+        Ability ability = player.getSpecialAbility();
+        json.name("ability");
+        if (ability == null) {
+            json.nullValue();
+        } else {
+            json.beginObject()
+                    .name("name").value(ability.getName())
+                    .name("cooldown").value(ability.getCooldown())
+                    .name("turnsUntilReady").value(ability.getCurrentCooldown())
+                    .endObject();
+        }
+
+        Inventory inventory = player.getInventory();
+        json.name("inventory").beginObject()
+                .name("capacity").value(Inventory.MAX_CAPACITY)
+                .name("items");
+        writeItems(inventory.getItems(), json);
+        json.endObject();
+        json.endObject();
+    }
+
+    private static void writeRoom(Room room, JsonWriter json) {
+        json.beginObject()
+                .name("type").value(room.getType().name())
+                .name("name").value(room.getType().getName())
+                .name("cleared").value(room.isCleared());
+
+        json.name("enemies").beginArray();
+        List<Enemy> enemies = room.getEnemies();
+        for (int i = 0; i < enemies.size(); i++) {
+            Enemy enemy = enemies.get(i);
+            json.beginObject()
+                    .name("index").value(i)
+                    .name("name").value(enemy.getCharacterName())
+                    .name("type").value(enemy.getType().name())
+                    .name("boss").value(enemy.isBoss())
+                    .name("hp").value(enemy.getCurrentHealthPoints())
+                    .name("maxHp").value(enemy.getMaxHealthPoints())
+                    .endObject();
+        }
+        json.endArray();
+
+        json.name("items");
+        writeItems(room.getItems(), json);
+
+        json.name("exits").beginArray();
+        for (Direction direction : room.getExits().keySet()) {
+            json.value(direction.getName());
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    private static void writeItems(List<Item> items, JsonWriter json) {
+        json.beginArray();
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            json.beginObject()
+                    .name("index").value(i)
+                    .name("name").value(item.getName())
+                    .name("type").value(item.getType().name())
+                    .name("value").value(item.getValue())
+                    .endObject();
+        }
+        json.endArray();
+    }
+}
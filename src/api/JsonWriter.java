@@ -0,0 +1,166 @@
+package api;
+
+/**
+ * Writes JSON straight into a StringBuilder as it goes, without building a
+ * tree of objects first and without reflection. Commas are placed
+ * automatically; the caller only opens and closes objects and arrays and
+ * names the fields of objects.
+ */
+public class JsonWriter {
+    /** Deepest nesting of objects and arrays */
+    private static final int MAX_DEPTH = 32;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final StringBuilder out;
+    /** Per open object or array, whether it already holds a value */
+    private final boolean[] hasValue = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    /**
+     * Creates a writer
+     * @param out Where the JSON text goes
+     */
+    public JsonWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() {
+        open('{');
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        close('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        open('[');
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        close(']');
+        return this;
+    }
+
+    /**
+     * Names the next value of the open object
+     * @param name The field name
+     * @return This writer
+     */
+    public JsonWriter name(String name) {
+        separate();
+        string(name);
+        out.append(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        string(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separate();
+        out.append(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        separate();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * Writes a number; NaN and infinity, which JSON has no words for, are written as null
+     */
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        separate();
+        out.append(value);
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        separate();
+        out.append("null");
+        return this;
+    }
+
+    private void open(char bracket) {
+        separate();
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested deeper than " + MAX_DEPTH);
+        }
+        out.append(bracket);
+        hasValue[depth++] = false;
+    }
+
+    private void close(char bracket) {
+        if (depth == 0) {
+            throw new IllegalStateException("Nothing to close");
+        }
+        depth--;
+        out.append(bracket);
+    }
+
+    /**
+     * Puts a comma before every value but the first of an object or array
+     */
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasValue[depth - 1]) {
+                out.append(',');
+            }
+            hasValue[depth - 1] = true;
+        }
+    }
+
+    private void string(String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    // Control characters, and the line separators some JavaScript parsers reject
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        out.append("\\u").append(HEX[c >> 12 & 0xF]).append(HEX[c >> 8 & 0xF])
+                                .append(HEX[c >> 4 & 0xF]).append(HEX[c & 0xF]);
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
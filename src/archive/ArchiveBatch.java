@@ -0,0 +1,166 @@
+package archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads one batch of an archive, opening only the column files that are asked for.
+ * From a text column only the dictionary and the bitmaps of the wanted values are read.
+ */
+final class ArchiveBatch {
+    private final Path directory;
+    private final Map<String, List<String>> dictionaries;
+    private int rows;
+
+    ArchiveBatch(Path directory) {
+        this.directory = directory;
+        this.dictionaries = new HashMap<>();
+        this.rows = -1;
+    }
+
+    /**
+     * Counts the runs in the batch
+     * @return The number of rows
+     */
+    int getRows() throws IOException {
+        if (rows < 0) {
+            try (FileChannel channel = open(RunArchive.TURNS + RunArchive.NUMBER_SUFFIX)) {
+                rows = read(channel, 0, RunArchive.COLUMN_HEADER).getInt(4);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Gets the distinct values of a text column
+     * @param column The column's name
+     * @return The values, in the order of their bitmaps
+     */
+    List<String> values(String column) throws IOException {
+        List<String> values = dictionaries.get(column);
+        if (values == null) {
+            try (FileChannel channel = open(column + RunArchive.DICTIONARY_SUFFIX)) {
+                values = readDictionary(channel);
+            }
+            dictionaries.put(column, values);
+        }
+        return values;
+    }
+
+    /**
+     * Finds the rows whose text column has one of some values
+     * @param column The column's name
+     * @param wanted The values, in capitals
+     * @return The matching rows
+     */
+    BitSet rowsWith(String column, List<String> wanted) throws IOException {
+        BitSet matches = new BitSet(getRows());
+        try (FileChannel channel = open(column + RunArchive.DICTIONARY_SUFFIX)) {
+            List<String> values = dictionaries.get(column);
+            if (values == null) {
+                values = readDictionary(channel);
+                dictionaries.put(column, values);
+            }
+            ByteBuffer header = read(channel, 0, RunArchive.DICTIONARY_HEADER);
+            int rowCount = header.getInt(4);
+            long bitmapsOffset = header.getInt(12);
+            int bitmapBytes = RunArchive.wordsFor(rowCount) * Long.BYTES;
+            for (int i = 0; i < values.size(); i++) {
+                if (wanted.contains(values.get(i))) {
+                    ByteBuffer bitmap = read(channel, bitmapsOffset + (long) i * bitmapBytes, bitmapBytes);
+                    matches.or(BitSet.valueOf(bitmap.asLongBuffer()));
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Reads a whole number column
+     * @param column The column's name
+     * @return One value per row
+     */
+    long[] numbers(String column) throws IOException {
+        try (FileChannel channel = open(column + RunArchive.NUMBER_SUFFIX)) {
+            ByteBuffer header = read(channel, 0, RunArchive.COLUMN_HEADER);
+            int count = header.getInt(4);
+            int width = header.getInt(8);
+            ByteBuffer data = read(channel, RunArchive.COLUMN_HEADER, count * width);
+            long[] values = new long[count];
+            if (width == Long.BYTES) {
+                data.asLongBuffer().get(values);
+            } else {
+                for (int row = 0; row < count; row++) {
+                    values[row] = data.getInt(row * Integer.BYTES);
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Adds up the per-round damage of some rows
+     * @param selected The rows to add up
+     * @return The total damage and the number of rounds
+     */
+    long[] damageTotals(BitSet selected) throws IOException {
+        try (FileChannel channel = open(RunArchive.DAMAGE + RunArchive.LIST_SUFFIX)) {
+            int count = read(channel, 0, RunArchive.COLUMN_HEADER).getInt(4);
+            int[] offsets = new int[count + 1];
+            read(channel, RunArchive.COLUMN_HEADER, (count + 1) * Integer.BYTES).asIntBuffer().get(offsets);
+            short[] damage = new short[offsets[count]];
+            long valuesStart = RunArchive.COLUMN_HEADER + (long) (count + 1) * Integer.BYTES;
+            read(channel, valuesStart, damage.length * Short.BYTES).asShortBuffer().get(damage);
+
+            long total = 0;
+            long rounds = 0;
+            for (int row = selected.nextSetBit(0); row >= 0; row = selected.nextSetBit(row + 1)) {
+                for (int i = offsets[row]; i < offsets[row + 1]; i++) {
+                    total += damage[i];
+                }
+                rounds += offsets[row + 1] - offsets[row];
+            }
+            return new long[] {total, rounds};
+        }
+    }
+
+    private List<String> readDictionary(FileChannel channel) throws IOException {
+        ByteBuffer header = read(channel, 0, RunArchive.DICTIONARY_HEADER);
+        if (header.getInt(0) != RunArchive.DICTIONARY_MAGIC) {
+            throw new IOException("Not a text column in " + directory);
+        }
+        int count = header.getInt(8);
+        int bitmapsOffset = header.getInt(12);
+        ByteBuffer text = read(channel, RunArchive.DICTIONARY_HEADER, bitmapsOffset - RunArchive.DICTIONARY_HEADER);
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[text.getShort()];
+            text.get(bytes);
+            values.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    private FileChannel open(String file) throws IOException {
+        return FileChannel.open(directory.resolve(file), StandardOpenOption.READ);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Column file ends early");
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,254 @@
+package archive;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Answers questions about archived runs from the command line, for example
+ * "how many Wizards died to the Frost Sentinel without using a health potion":
+ *
+ *   java archive.ArchiveQuery runs hero=wizard killer=frost_sentinel items!=health_potion
+ *
+ * Terms:
+ *   column=a,b     text column is one of the values (hero, outcome, death_room, killer, items)
+ *   column!=a,b    text column is none of the values
+ *   column<n       number column compared to a number (depth, turns, seed), also <=, >, >=, =
+ *   group=column   count the matching runs per value of a text column
+ *   avg=column     average depth, turns or damage per round of the matching runs
+ *
+ * Text filters only read the bitmaps of the values they name, and a query
+ * never opens the files of columns it does not mention.
+ *
+ * Usage: java archive.ArchiveQuery [archive directory] [terms...]
+ */
+public final class ArchiveQuery {
+    private static final List<String> TEXT_COLUMNS = Arrays.asList(
+            RunArchive.HERO, RunArchive.OUTCOME, RunArchive.DEATH_ROOM, RunArchive.KILLER, RunArchive.ITEMS);
+    private static final List<String> NUMBER_COLUMNS = Arrays.asList(
+            RunArchive.DEPTH, RunArchive.TURNS, RunArchive.SEED);
+    private static final String[] COMPARISONS = {"<=", ">=", "!=", "<", ">", "="};
+
+    private final List<TextFilter> textFilters;
+    private final List<NumberFilter> numberFilters;
+    private String groupBy;
+    private String average;
+
+    private ArchiveQuery() {
+        this.textFilters = new ArrayList<>();
+        this.numberFilters = new ArrayList<>();
+    }
+
+    /**
+     * Reads a query from its terms
+     * @param terms The terms, like "hero=wizard"
+     * @return The query
+     * @throws IllegalArgumentException if a term makes no sense
+     */
+    public static ArchiveQuery parse(List<String> terms) {
+        ArchiveQuery query = new ArchiveQuery();
+        for (String term : terms) {
+            query.addTerm(term.trim());
+        }
+        return query;
+    }
+
+    private void addTerm(String term) {
+        for (String comparison : COMPARISONS) {
+            int at = term.indexOf(comparison);
+            if (at <= 0) {
+                continue;
+            }
+            String column = term.substring(0, at).trim().toLowerCase(Locale.ROOT);
+            String value = term.substring(at + comparison.length()).trim();
+            if (comparison.equals("=") && column.equals("group")) {
+                groupBy = requireColumn(value.toLowerCase(Locale.ROOT), TEXT_COLUMNS);
+            } else if (comparison.equals("=") && column.equals("avg")) {
+                average = value.toLowerCase(Locale.ROOT);
+                if (!average.equals(RunArchive.DAMAGE)) {
+                    requireColumn(average, NUMBER_COLUMNS);
+                }
+            } else if (TEXT_COLUMNS.contains(column) && (comparison.equals("=") || comparison.equals("!="))) {
+                List<String> values = new ArrayList<>();
+                for (String part : value.split(",")) {
+                    values.add(part.trim().toUpperCase(Locale.ROOT).replace(' ', '_'));
+                }
+                textFilters.add(new TextFilter(column, values, comparison.equals("!=")));
+            } else if (NUMBER_COLUMNS.contains(column)) {
+                numberFilters.add(new NumberFilter(column, comparison, Long.parseLong(value)));
+            } else {
+                throw new IllegalArgumentException("Cannot use " + term);
+            }
+            return;
+        }
+        throw new IllegalArgumentException("Not a query term: " + term);
+    }
+
+    private static String requireColumn(String column, List<String> columns) {
+        if (!columns.contains(column)) {
+            throw new IllegalArgumentException("Unknown column " + column + ", try one of " + columns);
+        }
+        return column;
+    }
+
+    /**
+     * Runs the query over every batch of an archive
+     * @param directory The archive's directory
+     * @return What was found
+     */
+    public Result run(Path directory) throws IOException {
+        long start = System.nanoTime();
+        Result result = new Result();
+        for (Path batchDirectory : RunArchive.listBatches(directory)) {
+            ArchiveBatch batch = new ArchiveBatch(batchDirectory);
+            BitSet rows = select(batch);
+            result.total += batch.getRows();
+            result.matches += rows.cardinality();
+
+            if (groupBy != null) {
+                for (String value : batch.values(groupBy)) {
+                    BitSet withValue = batch.rowsWith(groupBy, List.of(value));
+                    withValue.and(rows);
+                    result.groups.merge(value, (long) withValue.cardinality(), Long::sum);
+                }
+            }
+            if (average != null && average.equals(RunArchive.DAMAGE)) {
+                long[] totals = batch.damageTotals(rows);
+                result.sum += totals[0];
+                result.counted += totals[1];
+            } else if (average != null) {
+                long[] values = batch.numbers(average);
+                for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                    result.sum += values[row];
+                }
+                result.counted += rows.cardinality();
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Finds the rows of one batch that pass every filter
+     */
+    private BitSet select(ArchiveBatch batch) throws IOException {
+        BitSet rows = new BitSet(batch.getRows());
+        rows.set(0, batch.getRows());
+        for (TextFilter filter : textFilters) {
+            BitSet matching = batch.rowsWith(filter.column, filter.values);
+            if (filter.negated) {
+                rows.andNot(matching);
+            } else {
+                rows.and(matching);
+            }
+        }
+        Map<String, long[]> columns = new HashMap<>();
+        for (NumberFilter filter : numberFilters) {
+            long[] values = columns.get(filter.column);
+            if (values == null) {
+                values = batch.numbers(filter.column);
+                columns.put(filter.column, values);
+            }
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                if (!filter.accepts(values[row])) {
+                    rows.clear(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : "runs");
+        ArchiveQuery query;
+        try {
+            query = parse(Arrays.asList(args).subList(Math.min(1, args.length), args.length));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        Result result = query.run(directory);
+
+        System.out.printf("%d of %d runs match (%.1f%%), %.0f ms%n", result.matches, result.total,
+                result.total == 0 ? 0 : result.matches * 100.0 / result.total, result.elapsedNanos / 1e6);
+        for (Map.Entry<String, Long> group : result.groups.entrySet()) {
+            if (group.getValue() > 0) {
+                System.out.printf("  %-20s %d%n", group.getKey(), group.getValue());
+            }
+        }
+        if (query.average != null) {
+            System.out.printf("average %s: %.2f%n", query.average, result.getAverage());
+        }
+    }
+
+    /**
+     * What a query found
+     */
+    public static final class Result {
+        private long matches;
+        private long total;
+        private final Map<String, Long> groups = new TreeMap<>();
+        private long sum;
+        private long counted;
+        private long elapsedNanos;
+
+        /** The average asked for, over every matching run (or round, for damage) */
+        public double getAverage() {
+            return counted == 0 ? 0 : (double) sum / counted;
+        }
+
+        public long getMatches() { return matches; }
+        public long getTotal() { return total; }
+        public Map<String, Long> getGroups() { return groups; }
+        public long getElapsedNanos() { return elapsedNanos; }
+    }
+
+    /**
+     * Keeps rows whose text column has, or does not have, one of some values
+     */
+    private static final class TextFilter {
+        final String column;
+        final List<String> values;
+        final boolean negated;
+
+        TextFilter(String column, List<String> values, boolean negated) {
+            this.column = column;
+            this.values = values;
+            this.negated = negated;
+        }
+    }
+
+    /**
+     * Keeps rows whose number column compares well to a number
+     */
+    private static final class NumberFilter {
+        final String column;
+        final String comparison;
+        final long bound;
+
+        NumberFilter(String column, String comparison, long bound) {
+            this.column = column;
+            this.comparison = comparison;
+            this.bound = bound;
+        }
+
+        boolean accepts(long value) {
+            switch (comparison) {
+                case "<": return value < bound;
+                case "<=": return value <= bound;
+                case ">": return value > bound;
+                case ">=": return value >= bound;
+                case "!=": return value != bound;
+                default: return value == bound;
+            }
+        }
+    }
+}
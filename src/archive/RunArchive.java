@@ -0,0 +1,343 @@
+package archive;
+
+import items.ItemsType;
+import utils.Metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Records finished runs on disk, column by column.
+ * Runs are collected in memory and written in batches, when enough have
+ * come in or, once startFlushing is called, when the oldest has waited
+ * long enough. Each batch is a
+ * directory with one file per column, so a query only reads the columns it
+ * asks about. Text columns are stored as a small dictionary plus one bitmap
+ * per value, which doubles as the index: finding every Wizard run is reading
+ * one bitmap.
+ */
+public class RunArchive implements AutoCloseable {
+    /** Runs collected before a batch is written */
+    public static final int DEFAULT_BATCH_ROWS = 65_536;
+
+    static final String BATCH_PREFIX = "batch-";
+
+    // Column files
+    static final String HERO = "hero";
+    static final String OUTCOME = "outcome";
+    static final String DEATH_ROOM = "death_room";
+    static final String KILLER = "killer";
+    static final String ITEMS = "items";
+    static final String SEED = "seed";
+    static final String DEPTH = "depth";
+    static final String TURNS = "turns";
+    static final String DAMAGE = "damage";
+
+    static final String DICTIONARY_SUFFIX = ".dict";
+    static final String NUMBER_SUFFIX = ".num";
+    static final String LIST_SUFFIX = ".list";
+
+    /** Value of a text column when a run has none, like the killer of a run that was won */
+    static final String NONE = "-";
+
+    static final int DICTIONARY_MAGIC = 0x4C564344;
+    static final int NUMBER_MAGIC = 0x4C56434E;
+    static final int LIST_MAGIC = 0x4C56434C;
+
+    /** Bytes before the values of a text column: magic, rows, value count, where the bitmaps start */
+    static final int DICTIONARY_HEADER = 16;
+    /** Bytes before the values of a number or list column: magic, rows, bytes per value */
+    static final int COLUMN_HEADER = 12;
+
+    private final Path directory;
+    private final int batchRows;
+    private final ScheduledExecutorService writer;
+    private List<RunRecord> pending;
+    private int nextBatch;
+    private Future<?> lastWrite;
+
+    private RunArchive(Path directory, int batchRows, int nextBatch) {
+        this.directory = directory;
+        this.batchRows = batchRows;
+        this.nextBatch = nextBatch;
+        this.pending = new ArrayList<>();
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "run-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens an archive, creating its directory if needed
+     * @param directory Where the batches are written
+     * @return The archive
+     */
+    public static RunArchive open(Path directory) throws IOException {
+        return open(directory, DEFAULT_BATCH_ROWS);
+    }
+
+    /**
+     * Opens an archive with a specific batch size
+     * @param directory Where the batches are written
+     * @param batchRows Runs collected before a batch is written
+     * @return The archive
+     */
+    public static RunArchive open(Path directory, int batchRows) throws IOException {
+        Files.createDirectories(directory);
+        int next = 0;
+        for (Path batch : listBatches(directory)) {
+            String name = batch.getFileName().toString();
+            next = Math.max(next, Integer.parseInt(name.substring(BATCH_PREFIX.length())) + 1);
+        }
+        return new RunArchive(directory, batchRows, next);
+    }
+
+    /**
+     * Adds a finished run. It reaches the disk with the next full batch, or on flush.
+     * @param run The run
+     */
+    public synchronized void append(RunRecord run) {
+        pending.add(run);
+        if (pending.size() >= batchRows) {
+            submitPending();
+        }
+    }
+
+    /**
+     * Writes every collected run now and waits until it is on disk
+     */
+    public void flush() {
+        Future<?> write;
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                submitPending();
+            }
+            write = lastWrite;
+        }
+        if (write == null) {
+            return;
+        }
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not write run archive", e.getCause());
+        }
+    }
+
+    /**
+     * Writes the collected runs as a batch every so often, even when there
+     * are too few for a full one, so a stopped process loses at most that
+     * much; the batches are smaller, which queries barely notice
+     * @param periodMillis Time between two checks for collected runs
+     */
+    public void startFlushing(long periodMillis) {
+        writer.scheduleWithFixedDelay(() -> {
+            synchronized (this) {
+                if (!pending.isEmpty()) {
+                    submitPending();
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void submitPending() {
+        List<RunRecord> batch = pending;
+        pending = new ArrayList<>();
+        Path target = directory.resolve(String.format("%s%06d", BATCH_PREFIX, nextBatch++));
+        lastWrite = writer.submit(() -> {
+            try {
+                writeBatch(target, batch);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write " + target, e);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        flush();
+        writer.shutdown();
+    }
+
+    /**
+     * Writes one batch into a directory next to the target and renames it,
+     * so readers never see half a batch
+     */
+    static void writeBatch(Path target, List<RunRecord> runs) throws IOException {
+        long start = System.nanoTime();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.createDirectories(temp);
+        int rows = runs.size();
+
+        writeDictionary(temp.resolve(HERO + DICTIONARY_SUFFIX), runs, run -> run.getHeroClass().name());
+        writeDictionary(temp.resolve(OUTCOME + DICTIONARY_SUFFIX), runs, run -> run.getOutcome().name());
+        writeDictionary(temp.resolve(DEATH_ROOM + DICTIONARY_SUFFIX), runs,
+                run -> run.getDeathRoom() != null ? run.getDeathRoom().name() : NONE);
+        writeDictionary(temp.resolve(KILLER + DICTIONARY_SUFFIX), runs,
+                run -> run.getKiller() != null ? run.getKiller().name() : NONE);
+        writeItems(temp.resolve(ITEMS + DICTIONARY_SUFFIX), runs);
+
+        long[] seeds = new long[rows];
+        long[] depths = new long[rows];
+        long[] turns = new long[rows];
+        for (int row = 0; row < rows; row++) {
+            RunRecord run = runs.get(row);
+            seeds[row] = run.getSeed();
+            depths[row] = run.getDepth();
+            turns[row] = run.getTurns();
+        }
+        writeNumbers(temp.resolve(SEED + NUMBER_SUFFIX), seeds, Long.BYTES);
+        writeNumbers(temp.resolve(DEPTH + NUMBER_SUFFIX), depths, Integer.BYTES);
+        writeNumbers(temp.resolve(TURNS + NUMBER_SUFFIX), turns, Integer.BYTES);
+        writeDamage(temp.resolve(DAMAGE + LIST_SUFFIX), runs);
+
+        Files.move(temp, target);
+        Metrics.increment("archive.batches", 1);
+        Metrics.increment("archive.rows", rows);
+        Metrics.set("archive.lastBatchMillis", (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Writes a text column: the distinct values, then one bitmap of rows per value
+     */
+    private static void writeDictionary(Path file, List<RunRecord> runs, Function<RunRecord, String> column)
+            throws IOException {
+        Map<String, BitSet> rowsByValue = new LinkedHashMap<>();
+        for (int row = 0; row < runs.size(); row++) {
+            rowsByValue.computeIfAbsent(column.apply(runs.get(row)), value -> new BitSet()).set(row);
+        }
+        writeBitmaps(file, runs.size(), rowsByValue);
+    }
+
+    /**
+     * Writes the items column. A run can use several kinds of items,
+     * so a row can be in more than one bitmap.
+     */
+    private static void writeItems(Path file, List<RunRecord> runs) throws IOException {
+        Map<String, BitSet> rowsByItem = new LinkedHashMap<>();
+        for (ItemsType type : ItemsType.values()) {
+            BitSet rows = new BitSet();
+            int bit = 1 << type.ordinal();
+            for (int row = 0; row < runs.size(); row++) {
+                if ((runs.get(row).getItemsUsed() & bit) != 0) {
+                    rows.set(row);
+                }
+            }
+            rowsByItem.put(type.name(), rows);
+        }
+        writeBitmaps(file, runs.size(), rowsByItem);
+    }
+
+    private static void writeBitmaps(Path file, int rows, Map<String, BitSet> rowsByValue) throws IOException {
+        int words = wordsFor(rows);
+        List<byte[]> values = new ArrayList<>(rowsByValue.size());
+        int bitmapsOffset = DICTIONARY_HEADER;
+        for (String value : rowsByValue.keySet()) {
+            byte[] text = value.getBytes(StandardCharsets.UTF_8);
+            values.add(text);
+            bitmapsOffset += 2 + text.length;
+        }
+        try (DataOutputStream out = newColumnFile(file)) {
+            out.writeInt(DICTIONARY_MAGIC);
+            out.writeInt(rows);
+            out.writeInt(values.size());
+            out.writeInt(bitmapsOffset);
+            for (byte[] text : values) {
+                out.writeShort(text.length);
+                out.write(text);
+            }
+            // Every bitmap has the same length, so a reader can jump straight to one
+            for (BitSet bitmap : rowsByValue.values()) {
+                long[] bits = Arrays.copyOf(bitmap.toLongArray(), words);
+                for (long word : bits) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a number column with a fixed number of bytes per value
+     */
+    private static void writeNumbers(Path file, long[] values, int width) throws IOException {
+        try (DataOutputStream out = newColumnFile(file)) {
+            out.writeInt(NUMBER_MAGIC);
+            out.writeInt(values.length);
+            out.writeInt(width);
+            for (long value : values) {
+                if (width == Long.BYTES) {
+                    out.writeLong(value);
+                } else {
+                    out.writeInt((int) value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the per-round damage: where each run's rounds start, then every round
+     */
+    private static void writeDamage(Path file, List<RunRecord> runs) throws IOException {
+        try (DataOutputStream out = newColumnFile(file)) {
+            out.writeInt(LIST_MAGIC);
+            out.writeInt(runs.size());
+            out.writeInt(Short.BYTES);
+            int offset = 0;
+            out.writeInt(offset);
+            for (RunRecord run : runs) {
+                offset += run.getRoundDamage().length;
+                out.writeInt(offset);
+            }
+            for (RunRecord run : runs) {
+                for (int damage : run.getRoundDamage()) {
+                    out.writeShort(Math.min(damage, Short.MAX_VALUE));
+                }
+            }
+        }
+    }
+
+    private static DataOutputStream newColumnFile(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+    }
+
+    static int wordsFor(int rows) {
+        return (rows + 63) >>> 6;
+    }
+
+    /**
+     * Lists the finished batches of an archive, oldest first
+     * @param directory The archive's directory
+     * @return The batch directories
+     */
+    static List<Path> listBatches(Path directory) throws IOException {
+        List<Path> batches = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(BATCH_PREFIX) && !name.endsWith(".tmp") && Files.isDirectory(path);
+            }).sorted().forEach(batches::add);
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,68 @@
+package archive;
+
+import character.enemy.EnemyType;
+import character.player.HeroClass;
+import world.RoomType;
+
+/**
+ * Everything the archive keeps about one finished run.
+ */
+public final class RunRecord {
+    /**
+     * How a run ended
+     */
+    public enum Outcome {
+        /** The final boss fell */
+        WON,
+        /** The player died */
+        DIED,
+        /** The player quit */
+        QUIT
+    }
+
+    private final HeroClass heroClass;
+    private final long seed;
+    private final Outcome outcome;
+    private final int depth;
+    private final int turns;
+    private final RoomType deathRoom;
+    private final EnemyType killer;
+    private final int itemsUsed;
+    private final int[] roundDamage;
+
+    /**
+     * Creates a record
+     * @param heroClass The class the player picked
+     * @param seed The seed the dungeon was made from
+     * @param outcome How the run ended
+     * @param depth How deep the player got
+     * @param turns How many commands the run took
+     * @param deathRoom The kind of room the player died in, or null
+     * @param killer The enemy that killed the player, or null
+     * @param itemsUsed The kinds of items used, one bit per ItemsType ordinal
+     * @param roundDamage Damage the player took in each round of enemy attacks
+     */
+    public RunRecord(HeroClass heroClass, long seed, Outcome outcome, int depth, int turns,
+                     RoomType deathRoom, EnemyType killer, int itemsUsed, int[] roundDamage) {
+        this.heroClass = heroClass;
+        this.seed = seed;
+        this.outcome = outcome;
+        this.depth = depth;
+        this.turns = turns;
+        this.deathRoom = deathRoom;
+        this.killer = killer;
+        this.itemsUsed = itemsUsed;
+        this.roundDamage = roundDamage;
+    }
+
+    // Getters
+    public HeroClass getHeroClass() { return heroClass; }
+    public long getSeed() { return seed; }
+    public Outcome getOutcome() { return outcome; }
+    public int getDepth() { return depth; }
+    public int getTurns() { return turns; }
+    public RoomType getDeathRoom() { return deathRoom; }
+    public EnemyType getKiller() { return killer; }
+    public int getItemsUsed() { return itemsUsed; }
+    public int[] getRoundDamage() { return roundDamage; }
+}
@@ -0,0 +1,197 @@
+package balance;
+
+import character.enemy.EnemyType;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Numbers that decide how hard the game is: enemy health and damage,
+ * and the chances used when rooms are generated.
+ * The defaults are the values written in EnemyType and DungeonGeneration.
+ * A tuned set (made by DifficultyCalibrator) can be loaded from a properties file
+ * at startup. Configs never change, a tweak always makes a new config.
+ */
+public class BalanceConfig {
+    /** File the game looks for in its working directory */
+    public static final String DEFAULT_FILE = "balance.properties";
+
+    private static final EnemyType[] ENEMY_TYPES = EnemyType.values();
+
+    private static volatile BalanceConfig current = defaults();
+
+    private final int[] enemyHealth;
+    private final int[] enemyDamage;
+    private final double treasureRoomChance;
+    private final double itemSpawnChance;
+    private final double goblinChance;
+    private final double skeletonChance;
+
+    private BalanceConfig(int[] enemyHealth, int[] enemyDamage, double treasureRoomChance,
+                          double itemSpawnChance, double goblinChance, double skeletonChance) {
+        this.enemyHealth = enemyHealth;
+        this.enemyDamage = enemyDamage;
+        this.treasureRoomChance = treasureRoomChance;
+        this.itemSpawnChance = itemSpawnChance;
+        this.goblinChance = goblinChance;
+        this.skeletonChance = skeletonChance;
+    }
+
+    /**
+     * Gets the values written in the game's code
+     * @return The default config
+     */
+    public static BalanceConfig defaults() {
+        int[] health = new int[ENEMY_TYPES.length];
+        int[] damage = new int[ENEMY_TYPES.length];
+        for (EnemyType type : ENEMY_TYPES) {
+            health[type.ordinal()] = type.getDefaultHealth();
+            damage[type.ordinal()] = type.getDefaultDamage();
+        }
+        return new BalanceConfig(health, damage, 0.40, 0.65, 0.4, 0.3);
+    }
+
+    /**
+     * Gets the config the game is currently using
+     * @return The active config
+     */
+    public static BalanceConfig current() {
+        return current;
+    }
+
+    /**
+     * Makes a config the one the game uses from now on
+     * @param config The config to use
+     */
+    public static void setCurrent(BalanceConfig config) {
+        current = config;
+    }
+
+    /**
+     * Loads DEFAULT_FILE if it exists and makes it the active config.
+     * Keeps the defaults if the file is missing or broken.
+     */
+    public static void loadDefault() {
+        Path file = Paths.get(DEFAULT_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            setCurrent(load(file));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not load " + DEFAULT_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a config file, missing values keep their defaults
+     * @param file The properties file
+     * @return The loaded config
+     * @throws IOException if the file can't be read
+     */
+    public static BalanceConfig load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+
+        BalanceConfig defaults = defaults();
+        int[] health = defaults.enemyHealth.clone();
+        int[] damage = defaults.enemyDamage.clone();
+        for (EnemyType type : ENEMY_TYPES) {
+            health[type.ordinal()] = readInt(properties, "enemy." + type.name() + ".health", health[type.ordinal()]);
+            damage[type.ordinal()] = readInt(properties, "enemy." + type.name() + ".damage", damage[type.ordinal()]);
+        }
+        return new BalanceConfig(health, damage,
+                readChance(properties, "dungeon.treasureRoomChance", defaults.treasureRoomChance),
+                readChance(properties, "dungeon.itemSpawnChance", defaults.itemSpawnChance),
+                readChance(properties, "dungeon.goblinChance", defaults.goblinChance),
+                readChance(properties, "dungeon.skeletonChance", defaults.skeletonChance));
+    }
+
+    /**
+     * Writes this config in the format read by load
+     * @param file Where to write
+     * @param comment Header comment for the file
+     * @throws IOException if writing fails
+     */
+    public void save(Path file, String comment) throws IOException {
+        Properties properties = new Properties();
+        for (EnemyType type : ENEMY_TYPES) {
+            properties.setProperty("enemy." + type.name() + ".health", String.valueOf(getEnemyHealth(type)));
+            properties.setProperty("enemy." + type.name() + ".damage", String.valueOf(getEnemyDamage(type)));
+        }
+        properties.setProperty("dungeon.treasureRoomChance", String.valueOf(treasureRoomChance));
+        properties.setProperty("dungeon.itemSpawnChance", String.valueOf(itemSpawnChance));
+        properties.setProperty("dungeon.goblinChance", String.valueOf(goblinChance));
+        properties.setProperty("dungeon.skeletonChance", String.valueOf(skeletonChance));
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            properties.store(writer, comment);
+        }
+    }
+
+    // Tweaks, each returns a new config
+    public BalanceConfig withEnemyHealth(EnemyType type, int health) {
+        int[] changed = enemyHealth.clone();
+        changed[type.ordinal()] = Math.max(1, health);
+        return new BalanceConfig(changed, enemyDamage, treasureRoomChance, itemSpawnChance, goblinChance, skeletonChance);
+    }
+
+    public BalanceConfig withEnemyDamage(EnemyType type, int damage) {
+        int[] changed = enemyDamage.clone();
+        changed[type.ordinal()] = Math.max(1, damage);
+        return new BalanceConfig(enemyHealth, changed, treasureRoomChance, itemSpawnChance, goblinChance, skeletonChance);
+    }
+
+    public BalanceConfig withTreasureRoomChance(double chance) {
+        return new BalanceConfig(enemyHealth, enemyDamage, clampChance(chance), itemSpawnChance, goblinChance, skeletonChance);
+    }
+
+    public BalanceConfig withItemSpawnChance(double chance) {
+        return new BalanceConfig(enemyHealth, enemyDamage, treasureRoomChance, clampChance(chance), goblinChance, skeletonChance);
+    }
+
+    // Getters
+    public int getEnemyHealth(EnemyType type) {
+        return enemyHealth[type.ordinal()];
+    }
+
+    public int getEnemyDamage(EnemyType type) {
+        return enemyDamage[type.ordinal()];
+    }
+
+    public double getTreasureRoomChance() {
+        return treasureRoomChance;
+    }
+
+    public double getItemSpawnChance() {
+        return itemSpawnChance;
+    }
+
+    public double getGoblinChance() {
+        return goblinChance;
+    }
+
+    public double getSkeletonChance() {
+        return skeletonChance;
+    }
+
+    private static int readInt(Properties properties, String key, int fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : Integer.parseInt(value.trim());
+    }
+
+    private static double readChance(Properties properties, String key, double fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : clampChance(Double.parseDouble(value.trim()));
+    }
+
+    private static double clampChance(double chance) {
+        return Math.max(0.0, Math.min(1.0, chance));
+    }
+}
@@ -0,0 +1,169 @@
+package balance;
+
+import character.enemy.EnemyType;
+import character.player.HeroClass;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Offline tool that tunes enemy stats and spawn chances so each hero class
+ * beats each boss about as often as we want.
+ * Every candidate set of numbers is scored by simulating thousands of runs
+ * spread over all cores. The search keeps a tweak when it gets the win rates
+ * closer to the targets. The best numbers found are written to balance.properties,
+ * which the game loads at startup.
+ *
+ * Usage: java balance.DifficultyCalibrator [runs per hero] [iterations] [output file]
+ */
+public class DifficultyCalibrator {
+    /** Wanted chance to beat each boss, given the hero made it there */
+    private static final double[] TARGET_WIN_RATES = {0.85, 0.65, 0.45};
+
+    private static final int DEFAULT_RUNS_PER_HERO = 500;
+    private static final int DEFAULT_ITERATIONS = 30;
+
+    /** Relative change tried for health and damage */
+    private static final double STAT_STEP = 0.10;
+
+    /** Absolute change tried for spawn chances */
+    private static final double CHANCE_STEP = 0.05;
+
+    private static final HeroClass[] HEROES = HeroClass.values();
+    private static final EnemyType[] ENEMIES = EnemyType.values();
+
+    private final int runsPerHero;
+    private final long seed;
+
+    /**
+     * Makes a calibrator
+     * @param runsPerHero Simulated runs per hero class for each candidate
+     * @param seed Seed for the search and the simulated runs
+     */
+    public DifficultyCalibrator(int runsPerHero, long seed) {
+        this.runsPerHero = runsPerHero;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RUNS_PER_HERO;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+        Path output = Paths.get(args.length > 2 ? args[2] : BalanceConfig.DEFAULT_FILE);
+
+        DifficultyCalibrator calibrator = new DifficultyCalibrator(runs, 42L);
+        BalanceConfig best = calibrator.calibrate(BalanceConfig.defaults(), iterations);
+        best.save(output, "Tuned by DifficultyCalibrator, rebuild combat/win-odds.bin with WinProbabilityBuilder after changing this file");
+        System.out.println("Wrote " + output);
+    }
+
+    /**
+     * Searches for better numbers, starting from a config
+     * @param start The config to start from
+     * @param iterations How many tweaks to try
+     * @return The best config found
+     */
+    public BalanceConfig calibrate(BalanceConfig start, int iterations) {
+        Random search = new Random(seed);
+        BalanceConfig best = start;
+        double[][] bestRates = evaluate(best);
+        double bestError = error(bestRates);
+        report("start", bestRates, bestError);
+
+        for (int i = 1; i <= iterations; i++) {
+            BalanceConfig candidate = tweak(best, search);
+            double[][] rates = evaluate(candidate);
+            double candidateError = error(rates);
+            if (candidateError < bestError) {
+                best = candidate;
+                bestRates = rates;
+                bestError = candidateError;
+                report("iteration " + i, bestRates, bestError);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Simulates runsPerHero runs for every hero class with a config.
+     * The same seeds are used for every candidate, so differences come
+     * from the numbers and not from luck.
+     * @param config The numbers to test
+     * @return Win rate per hero (row) and boss (column)
+     */
+    public double[][] evaluate(BalanceConfig config) {
+        RunSimulator simulator = new RunSimulator(config);
+        AtomicIntegerArray reached = new AtomicIntegerArray(HEROES.length * RunSimulator.BOSS_COUNT);
+        AtomicIntegerArray defeated = new AtomicIntegerArray(HEROES.length * RunSimulator.BOSS_COUNT);
+
+        IntStream.range(0, HEROES.length * runsPerHero).parallel().forEach(run -> {
+            int hero = run / runsPerHero;
+            RunSimulator.RunResult result = simulator.simulate(HEROES[hero], seed + run);
+            for (int boss = 0; boss < result.getBossesReached(); boss++) {
+                reached.incrementAndGet(hero * RunSimulator.BOSS_COUNT + boss);
+            }
+            for (int boss = 0; boss < result.getBossesDefeated(); boss++) {
+                defeated.incrementAndGet(hero * RunSimulator.BOSS_COUNT + boss);
+            }
+        });
+
+        double[][] rates = new double[HEROES.length][RunSimulator.BOSS_COUNT];
+        for (int hero = 0; hero < HEROES.length; hero++) {
+            for (int boss = 0; boss < RunSimulator.BOSS_COUNT; boss++) {
+                int index = hero * RunSimulator.BOSS_COUNT + boss;
+                rates[hero][boss] = reached.get(index) == 0 ? 0 : defeated.get(index) / (double) reached.get(index);
+            }
+        }
+        return rates;
+    }
+
+    /**
+     * Sum of squared distances between win rates and targets
+     */
+    private double error(double[][] rates) {
+        double total = 0;
+        for (double[] heroRates : rates) {
+            for (int boss = 0; boss < heroRates.length; boss++) {
+                double diff = heroRates[boss] - TARGET_WIN_RATES[boss];
+                total += diff * diff;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Changes one number a little, up or down
+     */
+    private BalanceConfig tweak(BalanceConfig config, Random search) {
+        double direction = search.nextBoolean() ? 1 : -1;
+        int choice = search.nextInt(ENEMIES.length * 2 + 2);
+        if (choice < ENEMIES.length) {
+            EnemyType type = ENEMIES[choice];
+            int health = config.getEnemyHealth(type);
+            return config.withEnemyHealth(type, health + (int) Math.round(direction * Math.max(1, health * STAT_STEP)));
+        }
+        if (choice < ENEMIES.length * 2) {
+            EnemyType type = ENEMIES[choice - ENEMIES.length];
+            int damage = config.getEnemyDamage(type);
+            return config.withEnemyDamage(type, damage + (int) Math.round(direction * Math.max(1, damage * STAT_STEP)));
+        }
+        if (choice == ENEMIES.length * 2) {
+            return config.withTreasureRoomChance(config.getTreasureRoomChance() + direction * CHANCE_STEP);
+        }
+        return config.withItemSpawnChance(config.getItemSpawnChance() + direction * CHANCE_STEP);
+    }
+
+    private void report(String label, double[][] rates, double error) {
+        System.out.printf("%s: error %.4f%n", label, error);
+        for (int hero = 0; hero < HEROES.length; hero++) {
+            System.out.printf("  %-12s", HEROES[hero].getName());
+            for (int boss = 0; boss < RunSimulator.BOSS_COUNT; boss++) {
+                System.out.printf(" boss %d: %5.1f%%", boss + 1, rates[hero][boss] * 100);
+            }
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package balance;
+
+import character.enemy.Enemy;
+import character.player.HeroClass;
+import character.player.Player;
+import combat.CombatSystem;
+import combat.WinProbabilityOracle;
+import items.Item;
+import items.ItemsType;
+import utils.GameOutput;
+import world.Direction;
+import world.DungeonProgress;
+import world.Room;
+import world.RoomType;
+import world.generator.DungeonGeneration;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Plays a whole run without a player, using the real dungeon generator
+ * and combat rules. A simple bot makes the choices: drink a health potion
+ * when low, use the ability when it is ready, otherwise hit the weakest enemy.
+ * Everything the game prints is thrown away.
+ */
+public class RunSimulator {
+    /** Bosses in a run: Flame Warden, Frost Sentinel, Shadow Lord */
+    public static final int BOSS_COUNT = 3;
+
+    /** A fight taking longer than this counts as lost */
+    private static final int MAX_ROUNDS_PER_ROOM = 200;
+
+    /** Bot drinks a health potion below this share of max HP */
+    private static final double POTION_THRESHOLD = 0.4;
+
+    private final BalanceConfig balance;
+
+    /**
+     * Makes a simulator for one set of game numbers
+     * @param balance The numbers to play with; the active config is left alone
+     */
+    public RunSimulator(BalanceConfig balance) {
+        this.balance = balance;
+    }
+
+    /**
+     * How far a run got
+     */
+    public static class RunResult {
+        private final int bossesReached;
+        private final int bossesDefeated;
+
+        public RunResult(int bossesReached, int bossesDefeated) {
+            this.bossesReached = bossesReached;
+            this.bossesDefeated = bossesDefeated;
+        }
+
+        public int getBossesReached() { return bossesReached; }
+        public int getBossesDefeated() { return bossesDefeated; }
+    }
+
+    /**
+     * Plays one run
+     * @param hero The class the bot plays
+     * @param seed Seed for the dungeon and enemies
+     * @return How many bosses the bot reached and defeated
+     */
+    public RunResult simulate(HeroClass hero, long seed) {
+        GameOutput.bind(GameOutput.discard());
+        try {
+            return play(hero, seed);
+        } finally {
+            GameOutput.bind(null);
+        }
+    }
+
+    private RunResult play(HeroClass hero, long seed) {
+        DungeonProgress progress = new DungeonProgress();
+        DungeonGeneration generator = new DungeonGeneration(progress, new Random(seed), balance);
+        CombatSystem combat = new CombatSystem(progress, new WinProbabilityOracle(List.of()));
+        Player player = new Player("Bot", hero);
+
+        Room room = generator.createStartingArea();
+        int reached = 0;
+        while (player.isAlive() && !progress.isFinalBossDefeated()) {
+            Room next = room.getExit(Direction.NORTH);
+            if (next == null) {
+                if (!progress.canGenerateNextRoom()) {
+                    break;
+                }
+                next = generator.generateRoomAfter(room);
+            }
+            room = next;
+            if (room.getType() == RoomType.BOSS) {
+                reached++;
+            }
+            lootRoom(player, room);
+            if (!fight(player, room, combat)) {
+                break;
+            }
+        }
+        return new RunResult(reached, defeatedBosses(progress));
+    }
+
+    private void lootRoom(Player player, Room room) {
+        for (Item item : room.getItems()) {
+            if (player.getInventory().isFull()) {
+                return;
+            }
+            player.addToInventory(room.removeItem(item.getName()));
+        }
+    }
+
+    /**
+     * Fights until the room is clear or the bot falls
+     * @return true if the room was cleared
+     */
+    private boolean fight(Player player, Room room, CombatSystem combat) {
+        for (int round = 0; round < MAX_ROUNDS_PER_ROOM && room.hasEnemies(); round++) {
+            if (!player.isAlive()) {
+                return false;
+            }
+            if (shouldDrinkPotion(player)) {
+                player.useItem(findItem(player, ItemsType.HEALTH_POTION).getName());
+                combat.handlePostAction(player, room);
+            } else if (player.getSpecialAbility().getCurrentCooldown() == 0) {
+                combat.handleAbility(player, room);
+            } else {
+                combat.handleAttack(player, room, weakestEnemy(room).getCharacterName());
+            }
+        }
+        return player.isAlive() && !room.hasEnemies();
+    }
+
+    private boolean shouldDrinkPotion(Player player) {
+        return player.getCurrentHealthPoints() < player.getMaxHealthPoints() * POTION_THRESHOLD
+                && findItem(player, ItemsType.HEALTH_POTION) != null;
+    }
+
+    private Item findItem(Player player, ItemsType type) {
+        for (Item item : player.getInventory().getItems()) {
+            if (item.getType() == type) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private Enemy weakestEnemy(Room room) {
+        Enemy weakest = null;
+        for (Enemy enemy : room.getEnemies()) {
+            if (weakest == null || enemy.getCurrentHealthPoints() < weakest.getCurrentHealthPoints()) {
+                weakest = enemy;
+            }
+        }
+        return weakest;
+    }
+
+    private int defeatedBosses(DungeonProgress progress) {
+        if (progress.isFinalBossDefeated()) return 3;
+        if (progress.isSecondBossDefeated()) return 2;
+        if (progress.isFirstBossDefeated()) return 1;
+        return 0;
+    }
+}
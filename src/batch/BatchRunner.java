@@ -0,0 +1,261 @@
+package batch;
+
+import game.Game;
+import utils.GameOutput;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Plays scripted games without anyone at the keyboard.
+ * A script is a plain text file with one line of input per line, starting
+ * with the name and class, exactly as a player would type them. Each game
+ * reads its script through one buffered reader and writes its transcript to
+ * a file, only when the buffer fills up or the game ends. Scripts run in
+ * parallel, one game per worker thread at a time, so thousands of them can be
+ * replayed for regression runs or to replay load.
+ * Batch games are not attached to the profile store, leaderboard or run
+ * archive, so replays leave no trace in them.
+ *
+ * Usage: BatchRunner [--out DIR] [--seed N] [--threads N] [--admin] SCRIPT...
+ * A SCRIPT may be a file, a directory (every file in it except transcripts)
+ * or "-" for standard input. Transcripts are named after the script with
+ * TRANSCRIPT_SUFFIX added and go next to it, or into --out when given;
+ * the transcript of standard input goes to standard output unless --out is given.
+ */
+public class BatchRunner {
+    /** Added to a script's file name to name its transcript */
+    public static final String TRANSCRIPT_SUFFIX = ".out";
+
+    /** Stands for standard input in the list of scripts */
+    private static final String STDIN = "-";
+
+    /** Seed used when none is given, so replays are repeatable by default */
+    private static final long DEFAULT_SEED = 1;
+
+    private final Path outputDirectory;
+    private final long seed;
+    private final int threads;
+    private final boolean admin;
+
+    /**
+     * Creates a runner
+     * @param outputDirectory Where transcripts go, or null to put each next to its script
+     * @param seed The seed every game starts from, so a script always plays the same dungeon
+     * @param threads How many games run at the same time
+     * @param admin true to allow admin commands in scripts
+     */
+    public BatchRunner(Path outputDirectory, long seed, int threads, boolean admin) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Need at least one thread");
+        }
+        this.outputDirectory = outputDirectory;
+        this.seed = seed;
+        this.threads = threads;
+        this.admin = admin;
+    }
+
+    /**
+     * What a batch did
+     */
+    public static final class Summary {
+        private final int scripts;
+        private final int failed;
+        private final long commands;
+        private final long elapsedNanos;
+
+        Summary(int scripts, int failed, long commands, long elapsedNanos) {
+            this.scripts = scripts;
+            this.failed = failed;
+            this.commands = commands;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getScripts() { return scripts; }
+        public int getFailed() { return failed; }
+        public long getCommands() { return commands; }
+        public long getElapsedNanos() { return elapsedNanos; }
+    }
+
+    /**
+     * Plays every script and waits until all transcripts are written.
+     * A script that cannot be read or written is reported on standard error
+     * and counted as failed; the others still run.
+     * @param scripts The script files
+     * @return Totals for the whole batch
+     */
+    public Summary run(List<Path> scripts) {
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, workerThreads());
+        try {
+            List<Future<Integer>> games = new ArrayList<>(scripts.size());
+            for (Path script : scripts) {
+                games.add(workers.submit(() -> playScript(script)));
+            }
+            int failed = 0;
+            long commands = 0;
+            for (int i = 0; i < games.size(); i++) {
+                try {
+                    commands += games.get(i).get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println(scripts.get(i) + ": " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for scripts", e);
+                }
+            }
+            return new Summary(scripts.size(), failed, commands, System.nanoTime() - start);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Plays one script file into its transcript
+     * @return How many commands the game played
+     */
+    private int playScript(Path script) throws IOException {
+        try (BufferedReader input = Files.newBufferedReader(script, StandardCharsets.UTF_8);
+             Writer transcript = Files.newBufferedWriter(transcriptFor(script), StandardCharsets.UTF_8)) {
+            return play(input, transcript);
+        }
+    }
+
+    /**
+     * Plays standard input into a transcript file, or standard output without --out
+     * @return How many commands the game played
+     */
+    public int playStandardInput() throws IOException {
+        BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        if (outputDirectory == null) {
+            return play(input, new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        }
+        try (Writer transcript = Files.newBufferedWriter(outputDirectory.resolve("stdin" + TRANSCRIPT_SUFFIX),
+                StandardCharsets.UTF_8)) {
+            return play(input, transcript);
+        }
+    }
+
+    private int play(BufferedReader input, Writer transcript) {
+        Game game = new Game(seed);
+        game.setAdmin(admin);
+        game.play(input, new GameOutput(transcript, GameOutput.FlushPolicy.WHEN_FULL));
+        return game.getTurns();
+    }
+
+    private Path transcriptFor(Path script) {
+        String name = script.getFileName() + TRANSCRIPT_SUFFIX;
+        return outputDirectory != null ? outputDirectory.resolve(name) : script.resolveSibling(name);
+    }
+
+    private static ThreadFactory workerThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "batch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Turns the script arguments into script files
+     * @param arguments Files and directories as given on the command line
+     * @return Every script, directories expanded in name order
+     */
+    static List<Path> expand(List<String> arguments) throws IOException {
+        List<Path> scripts = new ArrayList<>();
+        for (String argument : arguments) {
+            Path path = Paths.get(argument);
+            if (!Files.isDirectory(path)) {
+                scripts.add(path);
+                continue;
+            }
+            try (Stream<Path> files = Files.list(path)) {
+                scripts.addAll(files
+                        .filter(Files::isRegularFile)
+                        .filter(file -> !file.getFileName().toString().endsWith(TRANSCRIPT_SUFFIX))
+                        .sorted()
+                        .collect(Collectors.toList()));
+            }
+        }
+        return scripts;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path outputDirectory = null;
+        long seed = DEFAULT_SEED;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean admin = false;
+        List<String> arguments = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--out":
+                        outputDirectory = Paths.get(value(args, ++i));
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value(args, ++i));
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "--admin":
+                        admin = true;
+                        break;
+                    default:
+                        arguments.add(args[i]);
+                        break;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        if (arguments.isEmpty()) {
+            System.err.println("Usage: BatchRunner [--out DIR] [--seed N] [--threads N] [--admin] SCRIPT...");
+            return;
+        }
+        if (outputDirectory != null) {
+            Files.createDirectories(outputDirectory);
+        }
+
+        if (arguments.remove(STDIN)) {
+            new BatchRunner(outputDirectory, seed, 1, admin).playStandardInput();
+        }
+        if (arguments.isEmpty()) {
+            return;
+        }
+        List<Path> scripts = expand(arguments);
+        Summary summary = new BatchRunner(outputDirectory, seed, threads, admin).run(scripts);
+        double seconds = summary.getElapsedNanos() / 1e9;
+        System.err.printf("%d scripts (%d failed), %d commands in %.2f s, %.0f scripts/s, %.0f commands/s%n",
+                summary.getScripts(), summary.getFailed(), summary.getCommands(), seconds,
+                summary.getScripts() / seconds, summary.getCommands() / seconds);
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(args[index - 1] + " needs a value");
+        }
+        return args[index];
+    }
+}
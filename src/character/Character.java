@@ -1,6 +1,9 @@
 package character;
 
 import character.ability.Ability;
+import character.effect.StatusEffect;
+import character.effect.StatusEffects;
+import utils.GameOutput;
 
 /**
  * Base class for all characters in the game (heroes and enemies).
@@ -12,6 +15,8 @@ public abstract class Character {
     private int maxHealthPoints;
     private int attackDamage;
     private Ability specialAbility;
+    private final StatusEffects statusEffects;
+    private boolean dirty;
 
     /**
      * Creates a new character
@@ -24,6 +29,8 @@ public abstract class Character {
         this.maxHealthPoints = maxHealth;
         this.currentHealth = maxHealth;
         this.attackDamage = baseDamage;
+        this.statusEffects = new StatusEffects();
+        this.dirty = true;
     }
 
     /**
@@ -32,23 +39,48 @@ public abstract class Character {
      */
     public void performAttack(Character target) {
         if (target != null && isAlive()) {
-            target.receiveAttackDamage(attackDamage);
-            System.out.printf("%s attacks %s for %d damage!%n",
-                    name, target.getCharacterName(), attackDamage);
+            int damage = useAttackDamage();
+            target.receiveAttackDamage(damage);
+            GameOutput.printf("%s attacks %s for %d damage!%n",
+                    name, target.getCharacterName(), damage);
         }
     }
 
     /**
-     * Receives and processes incoming attack damage
+     * Works out the damage of the next hit.
+     * Uses up one stack of an active damage boost.
+     * @return The damage this hit deals
+     */
+    public int useAttackDamage() {
+        int damage = getAttackDamage();
+        if (statusEffects.has(StatusEffect.DAMAGE_BOOST)) {
+            double multiplier = 1.0 + (statusEffects.getMagnitude(StatusEffect.DAMAGE_BOOST) / 100.0);
+            damage = (int)(damage * multiplier);
+            statusEffects.consume(StatusEffect.DAMAGE_BOOST);
+        }
+        return damage;
+    }
+
+    /**
+     * Receives and processes incoming attack damage.
+     * A dodge stack avoids the attack completely.
      * @param incomingDamage Amount of damage to take
      */
     public void receiveAttackDamage(int incomingDamage) {
         if (incomingDamage > 0) {
-            currentHealth = Math.max(0, currentHealth - incomingDamage);
-            // Remove redundant damage message here
-            if (!isAlive()) {
-                System.out.printf("%s has been defeated!%n", name);
+            if (statusEffects.consume(StatusEffect.DODGE)) {
+                GameOutput.printf("%s dodges the attack!%n", name);
+                return;
             }
+            loseHealth(incomingDamage);
+        }
+    }
+
+    private void loseHealth(int damage) {
+        currentHealth = Math.max(0, currentHealth - damage);
+        dirty = true;
+        if (!isAlive()) {
+            GameOutput.printf("%s has been defeated!%n", name);
         }
     }
 
@@ -70,10 +102,11 @@ public abstract class Character {
         if (healAmount > 0) {
             int previousHealth = currentHealth;
             currentHealth = Math.min(maxHealthPoints, currentHealth + healAmount);
+            dirty = true;
             int actualHealAmount = currentHealth - previousHealth;
 
             if (actualHealAmount > 0) {
-                System.out.printf("%s recovers %d health! (%d/%d HP)%n",
+                GameOutput.printf("%s recovers %d health! (%d/%d HP)%n",
                         name, actualHealAmount, currentHealth, maxHealthPoints);
             }
         }
@@ -116,6 +149,45 @@ public abstract class Character {
         return specialAbility;
     }
 
+    public StatusEffects getStatusEffects() {
+        return statusEffects;
+    }
+
+    /**
+     * Sets health directly, used when going back to a saved state
+     * @param health The health to restore, kept between 0 and max health
+     */
+    public void setCurrentHealthPoints(int health) {
+        this.currentHealth = Math.max(0, Math.min(health, maxHealthPoints));
+        this.dirty = true;
+    }
+
+    /**
+     * Checks if the character changed since the last checkpoint
+     * @return true if health, effects or the ability's cooldown changed
+     */
+    public boolean isDirty() {
+        return dirty || statusEffects.isDirty() || (specialAbility != null && specialAbility.isDirty());
+    }
+
+    /**
+     * Marks the character as saved
+     */
+    public void clearDirty() {
+        dirty = false;
+        statusEffects.clearDirty();
+        if (specialAbility != null) {
+            specialAbility.clearDirty();
+        }
+    }
+
+    /**
+     * Marks the character as changed in a way the fields don't show, like used dice
+     */
+    protected void markDirty() {
+        dirty = true;
+    }
+
     // Protected setters for subclasses with clear names
     protected void updateMaxHealthPoints(int newMaxHealth) {
         this.maxHealthPoints = newMaxHealth;
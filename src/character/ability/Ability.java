@@ -1,6 +1,7 @@
 package character.ability;
 
 import character.Character;
+import utils.GameOutput;
 
 public class Ability {
     private final String name;
@@ -8,6 +9,7 @@ public class Ability {
     private final AbilityType type;
     private final int cooldown;
     private int currentCooldown;
+    private boolean dirty;
 
 
     public Ability(String name, String description, AbilityType type, int cooldown) {
@@ -16,27 +18,63 @@ public class Ability {
         this.type = type;
         this.cooldown = cooldown;
         this.currentCooldown = 0;
+        this.dirty = true;
     }
 
     public void execute(Character user, Character target) {
         if (currentCooldown > 0) {
-            System.out.println("Ability on cooldown: " + currentCooldown + " turns remaining");
+            GameOutput.println("Ability on cooldown: " + currentCooldown + " turns remaining");
             return;
         }
 
         type.execute(user, target);
     }
 
+    /**
+     * Makes a fresh copy of this ability with its own cooldown,
+     * so characters never share cooldown state
+     * @return A new ability that is ready to use
+     */
+    public Ability copy() {
+        return new Ability(name, description, type, cooldown);
+    }
+
     public void startCooldown() {
         currentCooldown = cooldown;
+        dirty = true;
     }
 
     public void reduceCooldown() {
         if (currentCooldown > 0) {
             currentCooldown--;
+            dirty = true;
         }
     }
 
+    /**
+     * Sets the cooldown directly, used when going back to a saved state
+     * @param turns Turns until the ability is ready again
+     */
+    public void setCurrentCooldown(int turns) {
+        currentCooldown = Math.max(0, Math.min(turns, cooldown));
+        dirty = true;
+    }
+
+    /**
+     * Checks if the cooldown changed since the last checkpoint
+     * @return true if the cooldown changed
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Marks the cooldown as saved
+     */
+    public void clearDirty() {
+        dirty = false;
+    }
+
     public AbilityType getType() {
         return type;
     }
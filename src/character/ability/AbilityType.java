@@ -1,7 +1,9 @@
 package character.ability;
 
 import character.Character;
-import character.player.Player;
+import character.effect.StatusEffect;
+import character.effect.StatusEffects;
+import utils.GameOutput;
 
 /**
  * Defines all possible special abilities in the game.
@@ -11,10 +13,9 @@ public enum AbilityType {
     INVISIBILITY {
         @Override
         public void execute(Character user, Character target) {
-            if (user instanceof Player) {
-                ((Player)user).setDodgeNextAttack(true);
-                System.out.printf("%s turns invisible, avoiding the next attack!%n", user.getCharacterName());
-            }
+            // Used up once the enemies have had their next turns, whenever that is
+            user.getStatusEffects().apply(StatusEffect.INVISIBLE, 1, StatusEffects.UNTIL_USED, 0);
+            GameOutput.printf("%s turns invisible, avoiding the next attack!%n", user.getCharacterName());
         }
     },
 
@@ -22,9 +23,9 @@ public enum AbilityType {
         @Override
         public void execute(Character user, Character target) {
             if (target != null) {
-                int damage = user.getAttackDamage() * 2;
+                int damage = user.useAttackDamage() * 2;
                 target.receiveAttackDamage(damage);
-                System.out.printf("%s casts a powerful fireball for %d damage!%n",
+                GameOutput.printf("%s casts a powerful fireball for %d damage!%n",
                         user.getCharacterName(), damage);
             }
         }
@@ -35,7 +36,7 @@ public enum AbilityType {
         public void execute(Character user, Character target) {
             int healAmount = user.getMaxHealthPoints() / 3; // Heals 1/3 of max health
             user.restoreHealth(healAmount);
-            System.out.printf("%s glows with healing light, recovering %d health!%n",
+            GameOutput.printf("%s glows with healing light, recovering %d health!%n",
                     user.getCharacterName(), healAmount);
         }
     },
@@ -44,10 +45,12 @@ public enum AbilityType {
         @Override
         public void execute(Character user, Character target) {
             if (target != null) {
-                int damage = user.getAttackDamage() + 5;
+                int damage = user.useAttackDamage() + 5;
                 target.receiveAttackDamage(damage);
-                System.out.printf("%s bashes with their shield for %d damage!%n",
-                        user.getCharacterName(), damage);
+                // Runs out when the round's effects tick, after the target's turn in this round
+                target.getStatusEffects().apply(StatusEffect.STUNNED, 1, 1, 0);
+                GameOutput.printf("%s bashes with their shield for %d damage, stunning %s!%n",
+                        user.getCharacterName(), damage, target.getCharacterName());
             }
         }
     },
@@ -56,9 +59,9 @@ public enum AbilityType {
         @Override
         public void execute(Character user, Character target) {
             if (target != null) {
-                int damage = user.getAttackDamage() * 3;
+                int damage = user.useAttackDamage() * 3;
                 target.receiveAttackDamage(damage);
-                System.out.printf("%s goes berserk, dealing %d massive damage!%n",
+                GameOutput.printf("%s goes berserk, dealing %d massive damage!%n",
                         user.getCharacterName(), damage);
             }
         }
@@ -67,11 +70,9 @@ public enum AbilityType {
     CLONE {
         @Override
         public void execute(Character user, Character target) {
-            if (user instanceof Player) {
-                ((Player)user).setDodgeNextAttack(true);
-                System.out.printf("%s creates a confusing clone, avoiding the next attack!%n",
-                        user.getCharacterName());
-            }
+            user.getStatusEffects().apply(StatusEffect.DODGE, 1, StatusEffects.UNTIL_USED, 0);
+            GameOutput.printf("%s creates a confusing clone, avoiding the next attack!%n",
+                    user.getCharacterName());
         }
     },
 
@@ -79,10 +80,10 @@ public enum AbilityType {
         @Override
         public void execute(Character user, Character target) {
             if (target != null) {
-                int damage = user.getAttackDamage();
+                int damage = user.useAttackDamage();
                 target.receiveAttackDamage(damage);
                 user.restoreHealth(damage / 2);
-                System.out.printf("%s steals %d life from their target!%n",
+                GameOutput.printf("%s steals %d life from their target!%n",
                         user.getCharacterName(), damage);
             }
         }
@@ -0,0 +1,41 @@
+package character.effect;
+
+/**
+ * All buffs, debuffs and timed effects a character can carry.
+ * Each effect owns one bit in the StatusEffects mask, so there can be at most 32.
+ */
+public enum StatusEffect {
+    /** Avoids the next attack, one stack is used up per dodged attack */
+    DODGE("Dodge"),
+
+    /** Enemies can't see the character and skip their turns until the next enemy turns are over */
+    INVISIBLE("Invisible"),
+
+    /** Next attacks deal extra damage, one stack is used up per hit, magnitude is the bonus in percent */
+    DAMAGE_BOOST("Damage Boost"),
+
+    /** Loses its turns until the effect runs out; a bash stuns for the rest of the round */
+    STUNNED("Stunned");
+
+    private final String displayName;
+
+    /**
+     * Makes a new status effect
+     * @param displayName Name shown to the player
+     */
+    StatusEffect(String displayName) {
+        this.displayName = displayName;
+    }
+
+    /**
+     * Gets this effect's bit in the active effects mask
+     * @return A mask with only this effect's bit set
+     */
+    public int bit() {
+        return 1 << ordinal();
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
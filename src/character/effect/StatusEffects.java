@@ -0,0 +1,228 @@
+package character.effect;
+
+/**
+ * The effects currently active on one character.
+ * Which effects are active is kept in a bitmask, and the stacks, remaining
+ * turns and strength of each effect live in plain int arrays indexed by the
+ * effect's ordinal. Ticking only visits active effects and never allocates.
+ */
+public class StatusEffects {
+    /** Duration for effects that last until they are used up */
+    public static final int UNTIL_USED = 0;
+
+    private static final StatusEffect[] EFFECTS = StatusEffect.values();
+
+    private int activeMask;
+    private final int[] stacks;
+    private final int[] remainingTurns;
+    private final int[] magnitudes;
+    private boolean dirty;
+
+    /**
+     * Makes an empty set of effects
+     */
+    public StatusEffects() {
+        this.activeMask = 0;
+        this.stacks = new int[EFFECTS.length];
+        this.remainingTurns = new int[EFFECTS.length];
+        this.magnitudes = new int[EFFECTS.length];
+        this.dirty = true;
+    }
+
+    /**
+     * Makes an independent copy of these effects
+     * @return A new set with the same active effects
+     */
+    public StatusEffects copy() {
+        StatusEffects copy = new StatusEffects();
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /**
+     * Replaces these effects with the ones in another set
+     * @param other The effects to copy
+     */
+    public void copyFrom(StatusEffects other) {
+        activeMask = other.activeMask;
+        System.arraycopy(other.stacks, 0, stacks, 0, stacks.length);
+        System.arraycopy(other.remainingTurns, 0, remainingTurns, 0, remainingTurns.length);
+        System.arraycopy(other.magnitudes, 0, magnitudes, 0, magnitudes.length);
+        dirty = true;
+    }
+
+    /**
+     * Adds an effect, or stacks it on top of the same effect.
+     * Stacks add up, the longer duration and the stronger magnitude win.
+     * @param effect The effect to add
+     * @param stackCount How many stacks to add
+     * @param turns How many turns it lasts, or UNTIL_USED
+     * @param magnitude Strength of the effect (meaning depends on the effect)
+     */
+    public void apply(StatusEffect effect, int stackCount, int turns, int magnitude) {
+        if (stackCount <= 0) {
+            return;
+        }
+        int i = effect.ordinal();
+        dirty = true;
+        if ((activeMask & effect.bit()) == 0) {
+            stacks[i] = stackCount;
+            remainingTurns[i] = turns;
+            magnitudes[i] = magnitude;
+            activeMask |= effect.bit();
+        } else {
+            stacks[i] += stackCount;
+            remainingTurns[i] = remainingTurns[i] == UNTIL_USED || turns == UNTIL_USED ?
+                    UNTIL_USED : Math.max(remainingTurns[i], turns);
+            magnitudes[i] = Math.max(magnitudes[i], magnitude);
+        }
+    }
+
+    /**
+     * Uses up one stack of an effect
+     * @param effect The effect to use
+     * @return true if the effect was active
+     */
+    public boolean consume(StatusEffect effect) {
+        if ((activeMask & effect.bit()) == 0) {
+            return false;
+        }
+        int i = effect.ordinal();
+        dirty = true;
+        stacks[i]--;
+        if (stacks[i] <= 0) {
+            remove(effect);
+        }
+        return true;
+    }
+
+    /**
+     * Removes an effect completely
+     * @param effect The effect to remove
+     */
+    public void remove(StatusEffect effect) {
+        int i = effect.ordinal();
+        dirty |= (activeMask & effect.bit()) != 0;
+        activeMask &= ~effect.bit();
+        stacks[i] = 0;
+        remainingTurns[i] = 0;
+        magnitudes[i] = 0;
+    }
+
+    /**
+     * Removes every effect
+     */
+    public void clear() {
+        int mask = activeMask;
+        while (mask != 0) {
+            int i = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            remove(EFFECTS[i]);
+        }
+    }
+
+    /**
+     * Runs one turn for every active effect.
+     * Effects with a duration count down and expire when they reach zero.
+     */
+    public void tick() {
+        int mask = activeMask;
+        dirty |= mask != 0;
+        while (mask != 0) {
+            int i = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            if (remainingTurns[i] != UNTIL_USED && --remainingTurns[i] == 0) {
+                remove(EFFECTS[i]);
+            }
+        }
+    }
+
+    /**
+     * Checks if an effect is active
+     * @param effect The effect to check
+     * @return true if the effect is active
+     */
+    public boolean has(StatusEffect effect) {
+        return (activeMask & effect.bit()) != 0;
+    }
+
+    /**
+     * Checks if another set has exactly the same effects
+     * @param other The effects to compare with
+     * @return true if both sets hold the same effects, stacks and durations
+     */
+    public boolean sameAs(StatusEffects other) {
+        if (activeMask != other.activeMask) {
+            return false;
+        }
+        int mask = activeMask;
+        while (mask != 0) {
+            int i = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            if (stacks[i] != other.stacks[i] || remainingTurns[i] != other.remainingTurns[i]
+                    || magnitudes[i] != other.magnitudes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Short text listing the active effects, like " [Dodge x2, Damage Boost]"
+     * @return The list, or an empty string when nothing is active
+     */
+    public String describe() {
+        if (activeMask == 0) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder(" [");
+        int mask = activeMask;
+        while (mask != 0) {
+            int i = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            text.append(EFFECTS[i].getDisplayName());
+            if (stacks[i] > 1) {
+                text.append(" x").append(stacks[i]);
+            }
+            if (remainingTurns[i] != UNTIL_USED) {
+                text.append(' ').append(remainingTurns[i]).append('t');
+            }
+            if (mask != 0) {
+                text.append(", ");
+            }
+        }
+        return text.append(']').toString();
+    }
+
+    /**
+     * Checks if the effects changed since the last checkpoint
+     * @return true if anything was added, used up or ran out
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Marks the effects as saved
+     */
+    public void clearDirty() {
+        dirty = false;
+    }
+
+    // Simple getters
+    public int getActiveMask() {
+        return activeMask;
+    }
+
+    public int getStacks(StatusEffect effect) {
+        return stacks[effect.ordinal()];
+    }
+
+    public int getRemainingTurns(StatusEffect effect) {
+        return remainingTurns[effect.ordinal()];
+    }
+
+    public int getMagnitude(StatusEffect effect) {
+        return magnitudes[effect.ordinal()];
+    }
+}
@@ -1,9 +1,13 @@
 package character.enemy;
 
 import java.util.Random;
+import balance.BalanceConfig;
 import character.Character;
 import character.player.Player;
 import character.ability.Ability;
+import character.effect.StatusEffect;
+import utils.GameOutput;
+import utils.GameRandom;
 import world.Room;
 
 /**
@@ -11,7 +15,7 @@ import world.Room;
  * Enemies can be regular monsters or bosses with special abilities.
  */
 public class Enemy extends Character {
-    private static final double ABILITY_USE_CHANCE = 0.3;  // 30% chance to use ability
+    public static final double ABILITY_USE_CHANCE = 0.3;  // 30% chance to use ability
     private final Random random;
     private final EnemyType type;
     private final boolean isBoss;
@@ -26,9 +30,34 @@ public class Enemy extends Character {
      * @param isBoss Whether this is a boss enemy
      */
     public Enemy(String name, EnemyType type, boolean isBoss) {
-        super(name, type.getBaseHealth(), type.getBaseDamage());
+        this(name, type, isBoss, new GameRandom());
+    }
+
+    /**
+     * Creates a new enemy with its own source of randomness,
+     * so fights can be replayed exactly from a seed
+     * @param name Enemy's name
+     * @param type Type of enemy
+     * @param isBoss Whether this is a boss enemy
+     * @param random Decides when the enemy uses its ability
+     */
+    public Enemy(String name, EnemyType type, boolean isBoss, Random random) {
+        this(name, type, isBoss, random, BalanceConfig.current());
+    }
+
+    /**
+     * Creates a new enemy whose stats come from a given set of game numbers
+     * instead of the active ones, for simulated runs
+     * @param name Enemy's name
+     * @param type Type of enemy
+     * @param isBoss Whether this is a boss enemy
+     * @param random Decides when the enemy uses its ability
+     * @param balance Where the enemy's health and damage come from
+     */
+    public Enemy(String name, EnemyType type, boolean isBoss, Random random, BalanceConfig balance) {
+        super(name, balance.getEnemyHealth(type), balance.getEnemyDamage(type));
         this.type = type;
-        this.random = new Random();
+        this.random = random;
         this.isBoss = isBoss;
         this.ability = type.getAbility();
         this.currentRoom = null;  // Initialize room as null
@@ -61,8 +90,13 @@ public class Enemy extends Character {
         if (!isAlive() || player.isInvisible()) {
             return;
         }
+        if (getStatusEffects().has(StatusEffect.STUNNED)) {
+            GameOutput.printf("%s is stunned and loses its turn!%n", getCharacterName());
+            return;
+        }
 
         // Only one action per turn - either ability or normal attack
+        markDirty();
         if (ability != null && random.nextDouble() < ABILITY_USE_CHANCE) {
             ability.execute(this, player);
         } else {
@@ -85,4 +119,5 @@ public class Enemy extends Character {
     public EnemyType getType() { return type; }
     public boolean isBoss() { return isBoss; }
     public Ability getSpecialAbility() { return ability; }
+    public Random getRandom() { return random; }
 }
\ No newline at end of file
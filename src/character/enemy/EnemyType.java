@@ -1,7 +1,9 @@
 package character.enemy;
 
+import balance.BalanceConfig;
 import character.ability.Ability;
 import character.ability.AbilityType;
+import utils.GameOutput;
 
 /**
  * Different types of enemies in the game
@@ -79,8 +81,8 @@ public enum EnemyType {
      * Shows information about this enemy
      */
     public void displayInfo() {
-        System.out.println(name + " - " + description);
-        System.out.println("Special: " + ability.getDescription());
+        GameOutput.println(name + " - " + description);
+        GameOutput.println("Special: " + ability.getDescription());
     }
 
     // Simple getters
@@ -96,11 +98,26 @@ public enum EnemyType {
         return ability;
     }
 
+    /**
+     * Gets the starting health, as set by the active BalanceConfig
+     */
     public int getBaseHealth() {
-        return baseHealth;
+        return BalanceConfig.current().getEnemyHealth(this);
     }
 
+    /**
+     * Gets the attack damage, as set by the active BalanceConfig
+     */
     public int getBaseDamage() {
+        return BalanceConfig.current().getEnemyDamage(this);
+    }
+
+    // Values written above, used as the BalanceConfig defaults
+    public int getDefaultHealth() {
+        return baseHealth;
+    }
+
+    public int getDefaultDamage() {
         return baseDamage;
     }
 }
\ No newline at end of file
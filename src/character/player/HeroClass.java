@@ -2,6 +2,7 @@ package character.player;
 
 import character.ability.Ability;
 import character.ability.AbilityType;
+import utils.GameOutput;
 
 /**
  * The different heroes players can choose to be
@@ -71,8 +72,8 @@ public enum HeroClass {
      * Shows information about this class
      */
     public void displayInfo() {
-        System.out.println(name + " - " + description);
-        System.out.println("Special: " + ability.getDescription());
+        GameOutput.println(name + " - " + description);
+        GameOutput.println("Special: " + ability.getDescription());
     }
 
     // Simple getters
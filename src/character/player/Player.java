@@ -1,6 +1,7 @@
 package character.player;
 
 import character.Character;
+import character.effect.StatusEffect;
 import items.Inventory;
 import items.Item;
 
@@ -11,8 +12,6 @@ import items.Item;
 public class Player extends Character {
     private final Inventory inventory;
     private final HeroClass heroClass;
-    private boolean canDodgeNextAttack;
-    private double extraDamage;
 
     /**
      * Makes a new player
@@ -23,43 +22,15 @@ public class Player extends Character {
         super(name, heroClass.getBaseHealth(), heroClass.getBaseDamage());
         this.heroClass = heroClass;
         this.inventory = new Inventory();
-        this.canDodgeNextAttack = false;
-        this.extraDamage = 1.0;
-        setSpecialAbility(heroClass.getAbility());
+        setSpecialAbility(heroClass.getAbility().copy());
     }
 
     /**
-     * Takes damage from an attack, might dodge it
-     * @param damage How much damage is coming
-     */
-    @Override
-    public void receiveAttackDamage(int damage) {
-        if (canDodgeNextAttack) {
-            System.out.println("You dodge the attack!");
-            canDodgeNextAttack = false;
-            return;
-        }
-        super.receiveAttackDamage(damage);
-    }
-
-    /**
-     * Figures out how much damage to deal
-     * @return The final damage number
-     */
-    @Override
-    public int getAttackDamage() {
-        int baseDamage = super.getAttackDamage();
-        int finalDamage = (int)(baseDamage * extraDamage);
-        extraDamage = 1.0;  // Reset after use
-        return finalDamage;
-    }
-
-    /**
-     * Checks if player is currently invisible/dodging
-     * @return true if player will dodge next attack
+     * Checks if player is currently invisible
+     * @return true if enemies can't see the player this turn
      */
     public boolean isInvisible() {
-        return canDodgeNextAttack;
+        return getStatusEffects().has(StatusEffect.INVISIBLE);
     }
 
     /**
@@ -88,6 +59,28 @@ public class Player extends Character {
         return inventory.removeItem(itemName);
     }
 
+    /**
+     * Takes one item out of the bag, even if another item has the same name
+     * @param item The item to remove
+     * @return true if it was in the bag
+     */
+    public boolean removeFromInventory(Item item) {
+        return inventory.removeItem(item);
+    }
+
+    /**
+     * Uses one item from the bag, even if another item has the same name
+     * @param item The item to use
+     * @return true if used, false if it is not in the bag
+     */
+    public boolean useItem(Item item) {
+        if (!inventory.removeItem(item)) {
+            return false;
+        }
+        item.use(this);
+        return true;
+    }
+
     /**
      * Tries to use an item from the bag
      * @param itemName Name of item to use
@@ -106,20 +99,27 @@ public class Player extends Character {
         return false;
     }
 
+    /**
+     * Checks if the player or their inventory changed since the last checkpoint
+     * @return true if there are unsaved changes
+     */
+    @Override
+    public boolean isDirty() {
+        return super.isDirty() || inventory.isDirty();
+    }
+
+    @Override
+    public void clearDirty() {
+        super.clearDirty();
+        inventory.clearDirty();
+    }
+
     // Simple getters and setters
     public Inventory getInventory() {
         return inventory;
     }
 
-    public void setDodgeNextAttack(boolean canDodge) {
-        this.canDodgeNextAttack = canDodge;
-    }
-
     public HeroClass getHeroClass() {
         return heroClass;
     }
-
-    public void setDamageMultiplier(double multiplier) {
-        this.extraDamage = multiplier;
-    }
 }
\ No newline at end of file
@@ -1,20 +1,66 @@
 package combat;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import utils.GameOutput;
 
 public class CombatLog {
     private final List<String> entries;
+    private final BitSet status;
 
     public CombatLog() {
         this.entries = new ArrayList<>();
+        this.status = new BitSet();
     }
 
     public void addEntry(String entry) {
         entries.add(entry);
     }
 
+    /**
+     * Adds a line of the health summary, which a newer summary makes out of date
+     * @param entry The line
+     */
+    public void addStatus(String entry) {
+        status.set(entries.size());
+        entries.add(entry);
+    }
+
     public void display() {
-        entries.forEach(System.out::println);
+        if (GameOutput.isReduced(GameOutput.Detail.SHORT_COMBAT)) {
+            displaySummary();
+            return;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            if (status.get(i) && (i == 0 || !status.get(i - 1))) {
+                GameOutput.beginSection(GameOutput.Section.COMBAT_STATUS);
+            }
+            GameOutput.println(entries.get(i));
+            if (status.get(i) && !status.get(i + 1)) {
+                GameOutput.endSection();
+            }
+        }
+    }
+
+    /**
+     * Shows only the last health summary, on one line
+     */
+    private void displaySummary() {
+        int end = status.previousSetBit(entries.size() - 1);
+        if (end < 0) {
+            return;
+        }
+        int start = status.previousClearBit(end) + 1;
+        StringBuilder line = new StringBuilder("Round over: ");
+        for (int i = start; i <= end; i++) {
+            if (i > start) {
+                line.append(", ");
+            }
+            line.append(entries.get(i));
+        }
+        GameOutput.beginSection(GameOutput.Section.COMBAT_STATUS);
+        GameOutput.println(line.toString());
+        GameOutput.endSection();
     }
 }
\ No newline at end of file
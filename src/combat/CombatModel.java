@@ -0,0 +1,379 @@
+package combat;
+
+import character.ability.AbilityType;
+import character.enemy.Enemy;
+import character.enemy.EnemyType;
+import character.player.HeroClass;
+
+import java.util.Arrays;
+
+/**
+ * The combat rules of CombatSystem, AbilityType and Enemy boiled down to numbers,
+ * for one hero class fighting one group of at most two enemies.
+ * A fight state is packed into a single int: player HP, each enemy's HP,
+ * the ability cooldown, whether the player has a dodge ready and which enemies
+ * joined the fight. Like in CombatSystem, an attack only pulls its target into
+ * the fight and the ability pulls in everyone, and only enemies in the fight
+ * strike back. A shield bash stuns its target for the rest of the round, so the
+ * stun never has to be stored. Only enemy ability rolls are random, so every
+ * action has at most four outcomes.
+ */
+public class CombatModel {
+    /** Bump whenever the rules below change, so tables solved for older rules are not used */
+    public static final int RULES_VERSION = 3;
+
+    /** Actions the player can take */
+    public static final int ATTACK_FIRST = 0;
+    public static final int ATTACK_SECOND = 1;
+    public static final int USE_ABILITY = 2;
+    /** A non-combat command (like inventory) that counts the cooldown down */
+    public static final int REST = 3;
+    public static final int ACTION_COUNT = 4;
+
+    /** Most outcomes a single action can have (two enemies, two rolls each) */
+    public static final int MAX_OUTCOMES = 4;
+
+    public static final int MAX_ENEMIES = 2;
+
+    private final HeroClass hero;
+    private final EnemyType[] enemies;
+    private final int[] turnOrder;
+    private final int playerMaxHp;
+    private final int cooldown;
+    private final int firstMaxHp;
+    private final int secondMaxHp;
+    private final int engagedSets;
+    private final int stateCount;
+
+    // Scratch values for the fight being worked out, so nothing is allocated
+    private int hp;
+    private final int[] enemyHp;
+    private int dodge;
+    private int engaged;
+    private boolean invisible;
+    private int stunned;
+
+    /**
+     * Makes the model for one fight setup
+     * @param hero The player's class
+     * @param enemies The enemies in the room, in room order (one or two)
+     */
+    public CombatModel(HeroClass hero, EnemyType... enemies) {
+        if (enemies.length == 0 || enemies.length > MAX_ENEMIES) {
+            throw new IllegalArgumentException("Model supports 1 or 2 enemies, got " + enemies.length);
+        }
+        this.hero = hero;
+        this.enemies = enemies.clone();
+        this.turnOrder = initiativeOrder(this.enemies);
+        this.playerMaxHp = hero.getBaseHealth();
+        this.cooldown = hero.getAbility().getCooldown();
+        this.firstMaxHp = enemies[0].getBaseHealth();
+        this.secondMaxHp = enemies.length > 1 ? enemies[1].getBaseHealth() : 0;
+        this.engagedSets = 1 << enemies.length;
+        this.stateCount = (playerMaxHp + 1) * (firstMaxHp + 1) * (secondMaxHp + 1) * (cooldown + 1) * 2 * engagedSets;
+        this.enemyHp = new int[MAX_ENEMIES];
+    }
+
+    /**
+     * Packs a fight state into a single number
+     * @param playerHp The player's HP
+     * @param firstHp The first enemy's HP
+     * @param secondHp The second enemy's HP (0 if there is none)
+     * @param cooldownLeft Turns until the ability can be used again
+     * @param hasDodge 1 if the player will dodge the next attack, otherwise 0
+     * @param engagedMask Bit 0 set if the first enemy joined the fight, bit 1 for the second
+     * @return The packed state
+     */
+    public int encode(int playerHp, int firstHp, int secondHp, int cooldownLeft, int hasDodge, int engagedMask) {
+        return ((((playerHp * (firstMaxHp + 1) + firstHp) * (secondMaxHp + 1) + secondHp)
+                * (cooldown + 1) + cooldownLeft) * 2 + hasDodge) * engagedSets + engagedMask;
+    }
+
+    // Unpacking a state
+    public int playerHp(int state) {
+        return state / (engagedSets * 2 * (cooldown + 1) * (secondMaxHp + 1) * (firstMaxHp + 1));
+    }
+
+    public int firstHp(int state) {
+        return state / (engagedSets * 2 * (cooldown + 1) * (secondMaxHp + 1)) % (firstMaxHp + 1);
+    }
+
+    public int secondHp(int state) {
+        return state / (engagedSets * 2 * (cooldown + 1)) % (secondMaxHp + 1);
+    }
+
+    public int cooldownLeft(int state) {
+        return state / (engagedSets * 2) % (cooldown + 1);
+    }
+
+    public int dodge(int state) {
+        return state / engagedSets % 2;
+    }
+
+    public int engaged(int state) {
+        return state % engagedSets;
+    }
+
+    /**
+     * Checks if the fight is over in this state
+     * @param state The packed state
+     * @return true if the player or all enemies are defeated
+     */
+    public boolean isTerminal(int state) {
+        return playerHp(state) == 0 || (firstHp(state) == 0 && secondHp(state) == 0);
+    }
+
+    /**
+     * Checks if the player won the fight in this state
+     * @param state The packed state
+     * @return true if all enemies are defeated and the player is alive
+     */
+    public boolean isWin(int state) {
+        return playerHp(state) > 0 && firstHp(state) == 0 && secondHp(state) == 0;
+    }
+
+    /**
+     * Checks if an action makes sense in a state
+     * @param state The packed state
+     * @param action The action to check
+     * @return true if the player can take that action
+     */
+    public boolean isLegal(int state, int action) {
+        switch (action) {
+            case ATTACK_FIRST:
+                return firstHp(state) > 0;
+            case ATTACK_SECOND:
+                return secondHp(state) > 0;
+            case USE_ABILITY:
+                return cooldownLeft(state) == 0;
+            case REST:
+                return cooldownLeft(state) > 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Works out every possible result of an action
+     * @param state The packed state before the action
+     * @param action The action the player takes (must be legal)
+     * @param nextStates Filled with the packed states after the action
+     * @param chances Filled with the chance of each of those states
+     * @return How many outcomes were written
+     */
+    public int outcomes(int state, int action, int[] nextStates, double[] chances) {
+        load(state);
+        int cooldownLeft = cooldownLeft(state);
+        boolean enemiesAct;
+
+        switch (action) {
+            case ATTACK_FIRST:
+            case ATTACK_SECOND:
+                int target = action == ATTACK_FIRST ? 0 : 1;
+                engaged |= 1 << target;
+                hitEnemy(target, hero.getBaseDamage());
+                // CombatSystem skips the enemy turns when the target falls
+                enemiesAct = enemyHp[target] > 0;
+                break;
+            case USE_ABILITY:
+                useAbility();
+                engaged = engagedSets - 1;
+                cooldownLeft = cooldown;
+                enemiesAct = true;
+                break;
+            case REST:
+                cooldownLeft--;
+                // Enemies in the fight only respond once the cooldown is back to zero
+                enemiesAct = cooldownLeft == 0 && engagedAlive() != 0;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown action: " + action);
+        }
+
+        if (!enemiesAct || hp == 0 || (enemyHp[0] == 0 && enemyHp[1] == 0)) {
+            nextStates[0] = encode(hp, enemyHp[0], enemyHp[1], cooldownLeft, dodge, engagedAlive());
+            chances[0] = 1.0;
+            return 1;
+        }
+        return enemyTurns(0, 1.0, cooldownLeft, nextStates, chances, 0);
+    }
+
+    /**
+     * Goes through the enemy turns in initiative order, splitting on each ability roll
+     */
+    private int enemyTurns(int turn, double chance, int cooldownLeft,
+                           int[] nextStates, double[] chances, int count) {
+        while (turn < enemies.length && (enemyHp[turnOrder[turn]] == 0
+                || (engaged & (1 << turnOrder[turn])) == 0 || (stunned & (1 << turnOrder[turn])) != 0
+                || invisible)) {
+            turn++;
+        }
+        if (turn == enemies.length || hp == 0) {
+            nextStates[count] = encode(hp, enemyHp[0], enemyHp[1], cooldownLeft, dodge, engagedAlive());
+            chances[count] = chance;
+            return count + 1;
+        }
+
+        int enemy = turnOrder[turn];
+        int savedHp = hp;
+        int savedEnemyHp = enemyHp[enemy];
+        int savedDodge = dodge;
+
+        enemyAbility(enemy);
+        count = enemyTurns(turn + 1, chance * Enemy.ABILITY_USE_CHANCE, cooldownLeft, nextStates, chances, count);
+
+        hp = savedHp;
+        enemyHp[enemy] = savedEnemyHp;
+        dodge = savedDodge;
+
+        hitPlayer(enemies[enemy].getBaseDamage());
+        count = enemyTurns(turn + 1, chance * (1 - Enemy.ABILITY_USE_CHANCE), cooldownLeft, nextStates, chances, count);
+
+        hp = savedHp;
+        enemyHp[enemy] = savedEnemyHp;
+        dodge = savedDodge;
+        return count;
+    }
+
+    private void load(int state) {
+        hp = playerHp(state);
+        enemyHp[0] = firstHp(state);
+        enemyHp[1] = secondHp(state);
+        dodge = dodge(state);
+        engaged = engaged(state);
+        invisible = false;
+        stunned = 0;
+    }
+
+    /**
+     * Enemies in the fight that are still standing; defeated ones leave it like in Encounter
+     */
+    private int engagedAlive() {
+        int alive = (enemyHp[0] > 0 ? 1 : 0) | (enemyHp[1] > 0 ? 2 : 0);
+        return engaged & alive & (engagedSets - 1);
+    }
+
+    /**
+     * Same effects as AbilityType.execute for the player's ability
+     */
+    private void useAbility() {
+        int damage = hero.getBaseDamage();
+        int target = enemyHp[0] > 0 ? 0 : 1;
+        switch (hero.getAbility().getType()) {
+            case FIREBALL:
+                hitEnemy(target, damage * 2);
+                break;
+            case SHIELD_BASH:
+                hitEnemy(target, damage + 5);
+                stunned = 1 << target;
+                break;
+            case BERSERK:
+                hitEnemy(target, damage * 3);
+                break;
+            case LIFESTEAL:
+                hitEnemy(target, damage);
+                hp = Math.min(playerMaxHp, hp + damage / 2);
+                break;
+            case HEAL:
+                hp = Math.min(playerMaxHp, hp + playerMaxHp / 3);
+                break;
+            case INVISIBILITY:
+                invisible = true;
+                hitEnemy(target, damage);
+                break;
+            case CLONE:
+                dodge = 1;
+                hitEnemy(target, damage);
+                break;
+            default:
+                throw new IllegalStateException("Unknown ability: " + hero.getAbility().getType());
+        }
+    }
+
+    /**
+     * Same effects as AbilityType.execute for an enemy's ability
+     */
+    private void enemyAbility(int enemy) {
+        int damage = enemies[enemy].getBaseDamage();
+        AbilityType type = enemies[enemy].getAbility().getType();
+        switch (type) {
+            case FIREBALL:
+                hitPlayer(damage * 2);
+                break;
+            case SHIELD_BASH:
+                hitPlayer(damage + 5);
+                break;
+            case BERSERK:
+                hitPlayer(damage * 3);
+                break;
+            case LIFESTEAL:
+                hitPlayer(damage);
+                enemyHp[enemy] = Math.min(enemies[enemy].getBaseHealth(), enemyHp[enemy] + damage / 2);
+                break;
+            default:
+                hitPlayer(damage);
+        }
+    }
+
+    private void hitEnemy(int enemy, int damage) {
+        enemyHp[enemy] = Math.max(0, enemyHp[enemy] - damage);
+    }
+
+    private void hitPlayer(int damage) {
+        if (dodge > 0) {
+            dodge = 0;
+            return;
+        }
+        hp = Math.max(0, hp - damage);
+    }
+
+    /**
+     * Turn order used by Encounter: highest base damage first, ties by room order
+     */
+    private static int[] initiativeOrder(EnemyType[] enemies) {
+        Integer[] order = new Integer[enemies.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(
+                enemies[b].getBaseDamage(), enemies[a].getBaseDamage()));
+        int[] result = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    // Simple getters
+    public HeroClass getHero() {
+        return hero;
+    }
+
+    public EnemyType[] getEnemies() {
+        return enemies.clone();
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public int getPlayerMaxHp() {
+        return playerMaxHp;
+    }
+
+    public int getCooldown() {
+        return cooldown;
+    }
+
+    public int getFirstMaxHp() {
+        return firstMaxHp;
+    }
+
+    public int getSecondMaxHp() {
+        return secondMaxHp;
+    }
+
+    public int getEngagedSets() {
+        return engagedSets;
+    }
+}
@@ -0,0 +1,551 @@
+package combat;
+
+import character.ability.AbilityType;
+import character.effect.StatusEffect;
+import character.enemy.Enemy;
+import character.player.HeroClass;
+import character.player.Player;
+import items.Item;
+import items.ItemsType;
+import world.Room;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A copy of a fight that never changes once made, for trying moves ahead.
+ * Applying an action gives a new state and leaves this one as it was, so a
+ * search can keep any state around and branch from it as often as it likes.
+ * A new state shares every array that the action did not touch with the state
+ * it came from: an attack only copies the enemy health, a potion only copies
+ * the potion list, and forking a state costs nothing at all.
+ * The rules are the ones of CombatSystem, AbilityType, Enemy and Item.
+ */
+public final class CombatState {
+    /** Most enemies a state can hold (rooms hold far fewer) */
+    public static final int MAX_ENEMIES = 8;
+
+    /** Action: use the special ability on the first enemy */
+    public static final int ABILITY = 0;
+    /** Action: a non-combat command (like inventory) that counts the cooldown down */
+    public static final int REST = 1;
+    private static final int FIRST_ATTACK = 2;
+    private static final int FIRST_ITEM = FIRST_ATTACK + MAX_ENEMIES;
+
+    /** Most actions a state can offer, to size arrays for legalActions */
+    public static final int MAX_ACTIONS = FIRST_ITEM + 16;
+
+    /** Boss initiative bonus, same as Encounter */
+    private static final int BOSS_INITIATIVE = 100;
+
+    // Parts that never change during a fight, shared by every state
+    private final HeroClass hero;
+    private final int playerMaxHp;
+    private final int playerDamage;
+    private final int abilityCooldown;
+    private final Enemy[] enemies;
+    private final int[] enemyMaxHp;
+    private final int[] enemyDamage;
+    private final int[] turnOrder;
+
+    // Parts that change, never written after the state is handed out
+    private int playerHp;
+    private int cooldownLeft;
+    private int dodgeStacks;
+    private int boostStacks;
+    private int boostPercent;
+    private boolean invisible;
+    /** Enemies a bash stunned this round, always 0 between actions like in CombatSystem */
+    private int stunnedMask;
+    private int engagedMask;
+    private int[] enemyHp;
+    private Item[] items;
+
+    // Set while an action is worked out, so shared arrays are copied at most once
+    private boolean ownsEnemyHp;
+
+    private CombatState(HeroClass hero, int playerMaxHp, int playerDamage, int abilityCooldown,
+                        Enemy[] enemies, int[] enemyMaxHp, int[] enemyDamage, int[] turnOrder) {
+        this.hero = hero;
+        this.playerMaxHp = playerMaxHp;
+        this.playerDamage = playerDamage;
+        this.abilityCooldown = abilityCooldown;
+        this.enemies = enemies;
+        this.enemyMaxHp = enemyMaxHp;
+        this.enemyDamage = enemyDamage;
+        this.turnOrder = turnOrder;
+    }
+
+    /**
+     * Makes the next state, sharing everything with this one
+     */
+    private CombatState next() {
+        CombatState next = new CombatState(hero, playerMaxHp, playerDamage, abilityCooldown,
+                enemies, enemyMaxHp, enemyDamage, turnOrder);
+        next.playerHp = playerHp;
+        next.cooldownLeft = cooldownLeft;
+        next.dodgeStacks = dodgeStacks;
+        next.boostStacks = boostStacks;
+        next.boostPercent = boostPercent;
+        next.invisible = invisible;
+        next.engagedMask = engagedMask;
+        next.enemyHp = enemyHp;
+        next.items = items;
+        return next;
+    }
+
+    /**
+     * Takes a copy of the fight in a room
+     * @param player The player in the fight
+     * @param room The room with the enemies
+     * @param engaged Enemies already fighting back, or null if none are
+     * @return The state of the fight
+     */
+    public static CombatState capture(Player player, Room room, List<Enemy> engaged) {
+        List<Enemy> inRoom = room.getEnemies();
+        int count = Math.min(inRoom.size(), MAX_ENEMIES);
+        Enemy[] enemies = new Enemy[count];
+        int[] maxHp = new int[count];
+        int[] damage = new int[count];
+        int[] hp = new int[count];
+        int engagedMask = 0;
+        for (int i = 0; i < count; i++) {
+            Enemy enemy = inRoom.get(i);
+            enemies[i] = enemy;
+            maxHp[i] = enemy.getMaxHealthPoints();
+            damage[i] = enemy.getAttackDamage();
+            hp[i] = enemy.getCurrentHealthPoints();
+            if (engaged != null && engaged.contains(enemy)) {
+                engagedMask |= 1 << i;
+            }
+        }
+
+        int cooldown = player.getSpecialAbility() != null ? player.getSpecialAbility().getCooldown() : 0;
+        CombatState state = new CombatState(player.getHeroClass(), player.getMaxHealthPoints(),
+                player.getAttackDamage(), cooldown, enemies, maxHp, damage, initiativeOrder(enemies));
+        state.playerHp = player.getCurrentHealthPoints();
+        state.cooldownLeft = player.getSpecialAbility() != null ?
+                player.getSpecialAbility().getCurrentCooldown() : Integer.MAX_VALUE;
+        state.dodgeStacks = player.getStatusEffects().getStacks(StatusEffect.DODGE);
+        state.boostStacks = player.getStatusEffects().getStacks(StatusEffect.DAMAGE_BOOST);
+        state.boostPercent = player.getStatusEffects().getMagnitude(StatusEffect.DAMAGE_BOOST);
+        state.invisible = player.isInvisible();
+        state.engagedMask = engagedMask;
+        state.enemyHp = hp;
+        state.items = usableItems(player.getInventory().getItems());
+        return state;
+    }
+
+    /**
+     * Gives a state to branch from. States never change, so this is the state itself.
+     * @return A state equal to this one
+     */
+    public CombatState fork() {
+        return this;
+    }
+
+    // Action numbering
+    public static int attack(int enemy) {
+        return FIRST_ATTACK + enemy;
+    }
+
+    public static int useItem(int slot) {
+        return FIRST_ITEM + slot;
+    }
+
+    public static boolean isAttack(int action) {
+        return action >= FIRST_ATTACK && action < FIRST_ITEM;
+    }
+
+    public static boolean isItemUse(int action) {
+        return action >= FIRST_ITEM && action < MAX_ACTIONS;
+    }
+
+    /**
+     * Lists every action the player may take in this state
+     * @param out Array of at least MAX_ACTIONS entries to fill
+     * @return How many actions were written
+     */
+    public int legalActions(int[] out) {
+        if (isOver()) {
+            return 0;
+        }
+        int count = 0;
+        if (cooldownLeft == 0) {
+            out[count++] = ABILITY;
+        }
+        for (int i = 0; i < enemies.length; i++) {
+            if (enemyHp[i] > 0) {
+                out[count++] = attack(i);
+            }
+        }
+        for (int slot = 0; slot < items.length && FIRST_ITEM + slot < MAX_ACTIONS; slot++) {
+            if (items[slot] != null && firstWithName(items[slot]) == slot) {
+                out[count++] = useItem(slot);
+            }
+        }
+        out[count++] = REST;
+        return count;
+    }
+
+    /**
+     * Checks if an action may be taken in this state
+     * @param action The action to check
+     * @return true if the game would accept it
+     */
+    public boolean isLegal(int action) {
+        if (isOver()) {
+            return false;
+        }
+        if (action == ABILITY) {
+            return cooldownLeft == 0;
+        }
+        if (action == REST) {
+            return true;
+        }
+        if (isAttack(action)) {
+            int enemy = action - FIRST_ATTACK;
+            return enemy < enemies.length && enemyHp[enemy] > 0;
+        }
+        if (isItemUse(action)) {
+            int slot = action - FIRST_ITEM;
+            return slot < items.length && items[slot] != null;
+        }
+        return false;
+    }
+
+    /**
+     * Works out what happens when the player takes an action.
+     * This state is left as it was.
+     * @param action A legal action
+     * @param random Decides the enemies' ability rolls
+     * @return The state after the action and the enemies' replies
+     */
+    public CombatState apply(int action, Random random) {
+        if (!isLegal(action)) {
+            throw new IllegalArgumentException("Action " + action + " is not allowed here");
+        }
+        CombatState next = next();
+        if (action == ABILITY) {
+            next.playAbility(random);
+        } else if (isAttack(action)) {
+            next.playAttack(action - FIRST_ATTACK, random);
+        } else {
+            if (isItemUse(action)) {
+                next.playItem(action - FIRST_ITEM);
+            }
+            next.playPostAction(random);
+        }
+        next.ownsEnemyHp = false;
+        return next;
+    }
+
+    /**
+     * Same as CombatSystem.executeCombatRound
+     */
+    private void playAttack(int target, Random random) {
+        engagedMask |= 1 << target;
+        hitEnemy(target, useAttackDamage());
+        if (enemyHp[target] > 0) {
+            playEnemyTurns(random);
+        }
+    }
+
+    /**
+     * Same as CombatSystem.handleAbility
+     */
+    private void playAbility(Random random) {
+        int target = firstAliveEnemy();
+        switch (hero.getAbility().getType()) {
+            case FIREBALL:
+                hitEnemy(target, useAttackDamage() * 2);
+                break;
+            case SHIELD_BASH:
+                hitEnemy(target, useAttackDamage() + 5);
+                stunnedMask |= 1 << target;
+                break;
+            case BERSERK:
+                hitEnemy(target, useAttackDamage() * 3);
+                break;
+            case LIFESTEAL: {
+                int damage = useAttackDamage();
+                hitEnemy(target, damage);
+                healPlayer(damage / 2);
+                break;
+            }
+            case HEAL:
+                healPlayer(playerMaxHp / 3);
+                break;
+            case INVISIBILITY:
+                invisible = true;
+                hitEnemy(target, useAttackDamage());
+                break;
+            case CLONE:
+                dodgeStacks++;
+                hitEnemy(target, useAttackDamage());
+                break;
+            default:
+                throw new IllegalStateException("Unknown ability: " + hero.getAbility().getType());
+        }
+        for (int i = 0; i < enemies.length; i++) {
+            if (enemyHp[i] > 0) {
+                engagedMask |= 1 << i;
+            }
+        }
+        playEnemyTurns(random);
+        cooldownLeft = abilityCooldown;
+    }
+
+    /**
+     * Same as Item.use
+     */
+    private void playItem(int slot) {
+        Item item = items[slot];
+        Item[] left = new Item[items.length - 1];
+        System.arraycopy(items, 0, left, 0, slot);
+        System.arraycopy(items, slot + 1, left, slot, left.length - slot);
+        items = left;
+
+        if (item.getType() == ItemsType.HEALTH_POTION) {
+            healPlayer(item.getValue());
+        } else if (item.getType() == ItemsType.DAMAGE_POTION) {
+            boostStacks++;
+            boostPercent = Math.max(boostPercent, item.getValue());
+        } else if (item.getType() == ItemsType.DODGE_POTION) {
+            dodgeStacks += item.getValue();
+        }
+    }
+
+    /**
+     * Same as CombatSystem.handlePostAction
+     */
+    private void playPostAction(Random random) {
+        if (cooldownLeft > 0 && cooldownLeft != Integer.MAX_VALUE) {
+            cooldownLeft--;
+        }
+        if (cooldownLeft == 0 && hasEngagedEnemies()) {
+            playEnemyTurns(random);
+        }
+    }
+
+    /**
+     * Same as Encounter turn order and Enemy.takeTurn
+     */
+    private void playEnemyTurns(Random random) {
+        for (int i = 0; i < turnOrder.length && playerHp > 0; i++) {
+            int enemy = turnOrder[i];
+            if ((engagedMask & (1 << enemy)) == 0 || (stunnedMask & (1 << enemy)) != 0
+                    || enemyHp[enemy] <= 0 || invisible) {
+                continue;
+            }
+            if (random.nextDouble() < Enemy.ABILITY_USE_CHANCE) {
+                enemyAbility(enemy);
+            } else {
+                hitPlayer(enemyDamage[enemy]);
+            }
+        }
+        // Invisibility is used up by one set of enemy turns, like in CombatSystem.executeEnemiesTurns,
+        // and stuns run out when the round's effects tick
+        invisible = false;
+        stunnedMask = 0;
+    }
+
+    /**
+     * Same as AbilityType.execute for an enemy's ability
+     */
+    private void enemyAbility(int enemy) {
+        int damage = enemyDamage[enemy];
+        AbilityType type = enemies[enemy].getType().getAbility().getType();
+        switch (type) {
+            case FIREBALL:
+                hitPlayer(damage * 2);
+                break;
+            case SHIELD_BASH:
+                hitPlayer(damage + 5);
+                break;
+            case BERSERK:
+                hitPlayer(damage * 3);
+                break;
+            case LIFESTEAL:
+                hitPlayer(damage);
+                ownEnemyHp();
+                enemyHp[enemy] = Math.min(enemyMaxHp[enemy], enemyHp[enemy] + damage / 2);
+                break;
+            default:
+                hitPlayer(damage);
+        }
+    }
+
+    private int useAttackDamage() {
+        if (boostStacks == 0) {
+            return playerDamage;
+        }
+        // Character.useAttackDamage uses up one stack per hit
+        int damage = (int) (playerDamage * (1 + boostPercent / 100.0));
+        if (--boostStacks == 0) {
+            boostPercent = 0;
+        }
+        return damage;
+    }
+
+    private void hitEnemy(int enemy, int damage) {
+        ownEnemyHp();
+        enemyHp[enemy] = Math.max(0, enemyHp[enemy] - damage);
+        if (enemyHp[enemy] == 0) {
+            engagedMask &= ~(1 << enemy);
+        }
+    }
+
+    private void hitPlayer(int damage) {
+        if (dodgeStacks > 0) {
+            dodgeStacks--;
+            return;
+        }
+        playerHp = Math.max(0, playerHp - damage);
+    }
+
+    private void healPlayer(int amount) {
+        playerHp = Math.min(playerMaxHp, playerHp + amount);
+    }
+
+    /**
+     * Copies the shared enemy health the first time this action changes it
+     */
+    private void ownEnemyHp() {
+        if (!ownsEnemyHp) {
+            enemyHp = enemyHp.clone();
+            ownsEnemyHp = true;
+        }
+    }
+
+    private boolean hasEngagedEnemies() {
+        return engagedMask != 0;
+    }
+
+    private int firstAliveEnemy() {
+        for (int i = 0; i < enemyHp.length; i++) {
+            if (enemyHp[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The game uses the first item with a matching name, so later copies are the same action
+     */
+    private int firstWithName(Item item) {
+        for (int slot = 0; slot < items.length; slot++) {
+            if (items[slot].getName().equalsIgnoreCase(item.getName())) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static Item[] usableItems(List<Item> inventory) {
+        int count = 0;
+        Item[] usable = new Item[inventory.size()];
+        for (Item item : inventory) {
+            ItemsType type = item.getType();
+            if (type == ItemsType.HEALTH_POTION || type == ItemsType.DAMAGE_POTION
+                    || type == ItemsType.DODGE_POTION) {
+                usable[count++] = item;
+            }
+        }
+        Item[] result = new Item[count];
+        System.arraycopy(usable, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Turn order used by Encounter: bosses first, then highest damage, ties by room order
+     */
+    private static int[] initiativeOrder(Enemy[] enemies) {
+        int[] order = new int[enemies.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int i = 1; i < order.length; i++) {
+            int current = order[i];
+            int j = i - 1;
+            while (j >= 0 && initiative(enemies[order[j]]) < initiative(enemies[current])) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = current;
+        }
+        return order;
+    }
+
+    private static int initiative(Enemy enemy) {
+        return (enemy.isBoss() ? BOSS_INITIATIVE : 0) + enemy.getAttackDamage();
+    }
+
+    /**
+     * Checks if the fight is over
+     * @return true if the player or every enemy has fallen
+     */
+    public boolean isOver() {
+        return isLost() || isWon();
+    }
+
+    public boolean isWon() {
+        return playerHp > 0 && firstAliveEnemy() < 0;
+    }
+
+    public boolean isLost() {
+        return playerHp <= 0;
+    }
+
+    /**
+     * Puts an action into the words the player would type
+     * @param action The action
+     * @return The matching command
+     */
+    public String describe(int action) {
+        if (action == ABILITY) {
+            return "ability";
+        }
+        if (action == REST) {
+            return "inventory";
+        }
+        if (isAttack(action)) {
+            return "attack " + enemies[action - FIRST_ATTACK].getCharacterName().toLowerCase();
+        }
+        return "use " + items[action - FIRST_ITEM].getName().toLowerCase();
+    }
+
+    // Simple getters
+    public HeroClass getHero() {
+        return hero;
+    }
+
+    public int getPlayerHp() {
+        return playerHp;
+    }
+
+    public int getPlayerMaxHp() {
+        return playerMaxHp;
+    }
+
+    public int getCooldownLeft() {
+        return cooldownLeft;
+    }
+
+    public int getEnemyCount() {
+        return enemies.length;
+    }
+
+    public int getEnemyHp(int enemy) {
+        return enemyHp[enemy];
+    }
+
+    public int getEnemyMaxHp(int enemy) {
+        return enemyMaxHp[enemy];
+    }
+
+    public int getItemCount() {
+        return items.length;
+    }
+}
@@ -1,23 +1,91 @@
 package combat;
 
 import character.ability.AbilityType;
+import character.effect.StatusEffect;
 import character.player.Player;
 import character.enemy.Enemy;
 import character.ability.Ability;
+import analytics.StreamAnalytics;
+import game.RunLog;
+import utils.GameOutput;
+import world.DungeonProgress;
 import world.Room;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Manages combat between player and enemies.
  * Handles combat rounds, damage calculation, and combat results.
+ * Each fight is tracked by an Encounter for the room it happens in.
  */
 public class CombatSystem {
-    /** Set of enemies currently engaged in combat */
-    private final Set<Enemy> engagedEnemies;
+    /** Reusable encounters, so fights don't pile up state */
+    private final EncounterPool encounterPool;
 
-    public CombatSystem() {
-        this.engagedEnemies = new HashSet<>();
+    /** The fight currently going on, or null if there is none */
+    private Encounter encounter;
+
+    /** Precomputed win chances, used for the danger rating */
+    private final WinProbabilityOracle oracle;
+
+    /** Where boss defeats are recorded */
+    private final DungeonProgress progress;
+
+    /** Searches for the best move when the player asks for a hint */
+    private final HintAdvisor advisor;
+
+    /** Where damage taken and the killing blow are noted, or null */
+    private RunLog runLog;
+
+    /** Where damage per round is counted, or null when nothing is counted */
+    private StreamAnalytics analytics;
+
+    /** Time a hint may take */
+    private long hintBudgetMillis = HintAdvisor.DEFAULT_BUDGET_MILLIS;
+
+    /**
+     * Creates a combat system using the default win chances
+     * @param progress The player's progress, updated when a boss falls
+     */
+    public CombatSystem(DungeonProgress progress) {
+        this(progress, WinProbabilityOracle.getDefault());
+    }
+
+    /**
+     * Creates a combat system with a specific set of win chances
+     * @param progress The player's progress, updated when a boss falls
+     * @param oracle Precomputed win chances for the danger rating
+     */
+    public CombatSystem(DungeonProgress progress, WinProbabilityOracle oracle) {
+        this.encounterPool = new EncounterPool();
+        this.encounter = null;
+        this.oracle = oracle;
+        this.progress = progress;
+        this.advisor = new HintAdvisor();
+    }
+
+    /**
+     * Sets how long a hint may search, for example to keep automated players fast
+     * @param millis The time budget of each hint
+     */
+    public void setHintBudget(long millis) {
+        this.hintBudgetMillis = millis;
+    }
+
+    /**
+     * Notes the damage the player takes in every round and who kills them
+     * @param runLog The log of the current run, or null to note nothing
+     */
+    public void setRunLog(RunLog runLog) {
+        this.runLog = runLog;
+    }
+
+    /**
+     * Counts the damage the player takes in every round in the server's analytics
+     * @param analytics The analytics, or null to count nothing
+     */
+    public void setAnalytics(StreamAnalytics analytics) {
+        this.analytics = analytics;
     }
 
     /**
@@ -28,15 +96,25 @@ public class CombatSystem {
      */
     public void handleAttack(Player player, Room currentRoom, String targetName) {
         if (targetName.isEmpty()) {
-            System.out.println("Attack what? Type 'attack' and the enemy's name!");
-            System.out.println(currentRoom.getAttackableEnemiesInfo());
+            GameOutput.println("Attack what? Type 'attack' and the enemy's name!");
+            GameOutput.println(currentRoom.getAttackableEnemiesInfo(player, oracle, getEngagedEnemies(currentRoom)));
             return;
         }
 
         Enemy enemy = findTargetEnemy(currentRoom, targetName);
         if (enemy == null) return;
 
-        executeCombatRound(player, enemy);
+        executeCombatRound(player, currentRoom, enemy);
+    }
+
+    /**
+     * Attacks a known enemy, for callers that pick targets without typing names
+     * @param player The player attacking
+     * @param currentRoom Current room with the enemy
+     * @param enemy The enemy to attack
+     */
+    public void handleAttack(Player player, Room currentRoom, Enemy enemy) {
+        executeCombatRound(player, currentRoom, enemy);
     }
 
     /**
@@ -55,7 +133,7 @@ public class CombatSystem {
 
         // Start combat round
         log.addEntry("\n=== Combat Round ===");
-        logCombatStatus(player, new HashSet<>(currentRoom.getEnemies()), log);
+        logCombatStatus(player, currentRoom.getEnemies(), log);
 
         // Execute player's ability
         ability.execute(player, target);
@@ -68,25 +146,50 @@ public class CombatSystem {
         }
 
         // Enemy turns
-        engagedEnemies.addAll(currentRoom.getEnemies());
-        for (Enemy enemy : engagedEnemies) {
-            if (enemy.isAlive()) {
-                enemy.takeTurn(player);
-                if (!player.isAlive()) break;
-            }
+        Encounter fight = encounterFor(currentRoom);
+        for (Enemy enemy : currentRoom.getEnemies()) {
+            fight.engage(enemy);
         }
+        executeEnemiesTurns(player, fight);
+        tickStatusEffects(player, fight);
 
         // Apply cooldown
         ability.startCooldown();
 
         // End combat round
         log.addEntry("\nEnd of Round:");
-        logCombatStatus(player, engagedEnemies, log);
+        logCombatStatus(player, fight.getEngagedEnemies(), log);
         log.display();
 
-        if (!target.isAlive()) {
-            handleEnemyDefeat(target);
+        removeDefeatedEnemies(currentRoom);
+    }
+
+    /**
+     * Suggests the best next move in the current room
+     * @param player The player asking
+     * @param currentRoom Current room
+     */
+    public void handleHint(Player player, Room currentRoom) {
+        if (!currentRoom.hasEnemies()) {
+            if (currentRoom.hasItems()) {
+                GameOutput.println("Hint: take " + currentRoom.getItems().get(0).getName().toLowerCase()
+                        + " before moving on.");
+            } else {
+                GameOutput.println("Hint: the room is clear, move north to go deeper (or south to retreat).");
+            }
+            return;
+        }
+
+        List<Enemy> engaged = encounter != null && encounter.getRoom() == currentRoom ?
+                encounter.getEngagedEnemies() : null;
+        CombatState fight = CombatState.capture(player, currentRoom, engaged);
+        HintAdvisor.Hint hint = advisor.suggest(fight, hintBudgetMillis);
+        if (hint == null) {
+            GameOutput.println("No hint right now.");
+            return;
         }
+        GameOutput.printf("Hint: %s (won %.0f%% of %d simulated fights)%n",
+                hint.getCommand(), hint.getWinChance() * 100, hint.getPlayouts());
     }
 
     /**
@@ -101,30 +204,80 @@ public class CombatSystem {
         }
 
         if (shouldExecuteEnemyTurns(currentRoom, playerAbility)) {
-            executeEnemyTurns(player);
+            executeEnemiesTurns(player, encounter);
+            tickStatusEffects(player, encounter);
+            removeDefeatedEnemies(currentRoom);
         }
     }
 
     /**
      * Executes a complete combat round
      * @param player The player in combat
-     * @param enemies Set of enemies in combat
+     * @param target The enemy the player attacks
+     * @param fight The encounter with every enemy taking part
      * @return Results of the combat round
      */
-    public CombatResult executeCombatRound(Player player, Set<Enemy> enemies) {
+    public CombatResult executeCombatRound(Player player, Enemy target, Encounter fight) {
         CombatLog log = new CombatLog();
 
-        showCombatStart(player, enemies, log);
-        Enemy target = enemies.iterator().next();
+        showCombatStart(player, fight, log);
         boolean enemyDefeated = executePlayerTurn(player, target, log);
 
         if (!enemyDefeated) {
-            executeEnemiesTurns(player, enemies, log);
+            executeEnemiesTurns(player, fight);
         }
+        tickStatusEffects(player, fight);
 
-        showCombatEnd(player, enemies, log);
+        showCombatEnd(player, fight, log);
         return new CombatResult(enemyDefeated, log);
     }
+
+    /**
+     * Gets the fight going on in a room.
+     * A fight from a room the player left is reset and a new one is started.
+     * @param room The room the player is in
+     * @return The encounter for that room
+     */
+    public Encounter encounterFor(Room room) {
+        if (encounter != null && encounter.getRoom() != room) {
+            releaseEncounter();
+        }
+        if (encounter == null) {
+            encounter = encounterPool.acquire(room);
+        }
+        return encounter;
+    }
+
+    /**
+     * Gets the enemies fighting back in a room
+     * @param room The room to look at
+     * @return The engaged enemies in the order they joined, empty if there is no fight in that room
+     */
+    public List<Enemy> getEngagedEnemies(Room room) {
+        List<Enemy> engaged = new ArrayList<>();
+        if (encounter != null && encounter.getRoom() == room) {
+            for (int i = 0; i < encounter.size(); i++) {
+                engaged.add(encounter.getEnemy(i));
+            }
+        }
+        return engaged;
+    }
+
+    /**
+     * Picks a fight back up, for example after a saved game was loaded
+     * @param room The room the fight is in
+     * @param engaged The enemies that were fighting back
+     */
+    public void resumeFight(Room room, List<Enemy> engaged) {
+        if (engaged.isEmpty()) {
+            return;
+        }
+        Encounter fight = encounterFor(room);
+        for (Enemy enemy : engaged) {
+            fight.engage(enemy);
+        }
+    }
+
     /**
      * Finds a specific enemy in the current room by name
      * @param currentRoom Room to search in
@@ -134,7 +287,7 @@ public class CombatSystem {
     private Enemy findTargetEnemy(Room currentRoom, String targetName) {
         Enemy enemy = currentRoom.findEnemy(targetName);
         if (enemy == null) {
-            System.out.println("There's no " + targetName + " here to attack!");
+            GameOutput.println("There's no " + targetName + " here to attack!");
             return null;
         }
         return enemy;
@@ -143,16 +296,16 @@ public class CombatSystem {
     /**
      * Executes a single combat round between player and enemy
      * @param player The player in combat
+     * @param currentRoom The room the fight happens in
      * @param enemy The enemy being fought
      */
-    private void executeCombatRound(Player player, Enemy enemy) {
-        engagedEnemies.add(enemy);
-        CombatResult result = executeCombatRound(player, engagedEnemies);
+    private void executeCombatRound(Player player, Room currentRoom, Enemy enemy) {
+        Encounter fight = encounterFor(currentRoom);
+        fight.engage(enemy);
+        CombatResult result = executeCombatRound(player, enemy, fight);
         result.getCombatLog().display();
 
-        if (result.isEnemyDefeated()) {
-            handleEnemyDefeat(enemy);
-        }
+        removeDefeatedEnemies(currentRoom);
     }
 
     /**
@@ -162,7 +315,7 @@ public class CombatSystem {
      */
     private boolean validateCombatRoom(Room room) {
         if (!room.hasEnemies()) {
-            System.out.println("No enemies here to fight!");
+            GameOutput.println("No enemies here to fight!");
             return false;
         }
         return true;
@@ -175,12 +328,12 @@ public class CombatSystem {
      */
     private boolean validateAbilityUse(Ability ability) {
         if (ability == null) {
-            System.out.println("You don't have any special ability!");
+            GameOutput.println("You don't have any special ability!");
             return false;
         }
 
         if (ability.getCurrentCooldown() > 0) {
-            System.out.printf("Ability on cooldown: %d turns remaining%n",
+            GameOutput.printf("Ability on cooldown: %d turns remaining%n",
                     ability.getCurrentCooldown());
             return false;
         }
@@ -190,11 +343,16 @@ public class CombatSystem {
 
     /**
      * Processes an enemy's defeat
-     * Updates room status and removes enemy from combat
+     * Updates room status, removes enemy from combat and records boss kills
      * @param enemy The defeated enemy
      */
     private void handleEnemyDefeat(Enemy enemy) {
-        engagedEnemies.remove(enemy);
+        if (encounter != null) {
+            encounter.disengage(enemy);
+        }
+        if (enemy.isBoss()) {
+            progress.recordBossDefeat(enemy.getType());
+        }
         Room currentRoom = enemy.getCurrentRoom();
         if (currentRoom != null) {
             currentRoom.removeEnemy(enemy);
@@ -202,42 +360,80 @@ public class CombatSystem {
                 currentRoom.setCleared(true);
             }
         }
+        if (encounter != null && !encounter.hasEngagedEnemies()) {
+            releaseEncounter();
+        }
     }
 
     /**
-     * Determines if enemies should take their turns
-     * @param currentRoom Room containing enemies
-     * @param playerAbility Player's current ability status
-     * @return true if enemies should act
+     * Handles the defeat of every enemy in the room that is no longer alive
+     * @param room The room to check
      */
-    private boolean shouldExecuteEnemyTurns(Room currentRoom, Ability playerAbility) {
-        return (playerAbility == null || playerAbility.getCurrentCooldown() == 0) &&
-                !currentRoom.getEnemies().isEmpty() &&
-                !engagedEnemies.isEmpty();
+    private void removeDefeatedEnemies(Room room) {
+        for (Enemy enemy : room.getEnemies()) {
+            if (!enemy.isAlive()) {
+                handleEnemyDefeat(enemy);
+            }
+        }
     }
 
     /**
-     * Executes turns for all engaged enemies
-     * @param player The player being attacked
+     * Counts down status effects on the player and every engaged enemy.
+     * Called once at the end of each combat round.
+     * @param player The player in combat
+     * @param fight The encounter with the enemies in combat
      */
-    private void executeEnemyTurns(Player player) {
-        for (Enemy enemy : engagedEnemies) {
+    private void tickStatusEffects(Player player, Encounter fight) {
+        player.getStatusEffects().tick();
+        for (int i = 0; i < fight.size(); i++) {
+            Enemy enemy = fight.getEnemy(i);
             if (enemy.isAlive()) {
-                enemy.takeTurn(player);
-                if (!player.isAlive()) return;
+                enemy.getStatusEffects().tick();
             }
         }
     }
 
+    /**
+     * Forgets the current fight, for example after the game went back to a saved state.
+     * The next attack starts a fresh encounter.
+     */
+    public void reset() {
+        if (encounter != null) {
+            releaseEncounter();
+        }
+    }
+
+    /**
+     * Ends the current fight and gives its encounter back to the pool
+     */
+    private void releaseEncounter() {
+        encounterPool.release(encounter);
+        encounter = null;
+    }
+
+    /**
+     * Determines if enemies should take their turns
+     * @param currentRoom Room containing enemies
+     * @param playerAbility Player's current ability status
+     * @return true if enemies should act
+     */
+    private boolean shouldExecuteEnemyTurns(Room currentRoom, Ability playerAbility) {
+        return (playerAbility == null || playerAbility.getCurrentCooldown() == 0) &&
+                !currentRoom.getEnemies().isEmpty() &&
+                encounter != null &&
+                encounter.getRoom() == currentRoom &&
+                encounter.hasEngagedEnemies();
+    }
+
     /**
      * Shows the start of combat status
      * @param player The player in combat
-     * @param enemies Set of enemies in combat
+     * @param fight The encounter with the enemies in combat
      * @param log Combat log to update
      */
-    private void showCombatStart(Player player, Set<Enemy> enemies, CombatLog log) {
+    private void showCombatStart(Player player, Encounter fight, CombatLog log) {
         log.addEntry("\n=== Combat Round ===");
-        logCombatStatus(player, enemies, log);
+        logCombatStatus(player, fight.getEngagedEnemies(), log);
     }
 
     /**
@@ -253,48 +449,69 @@ public class CombatSystem {
     }
 
     /**
-     * Executes turns for a set of enemies
+     * Executes one turn for every engaged enemy, in initiative order.
+     * An invisible player is skipped by all of them and then shows up again.
      * @param player The player being attacked
-     * @param enemies Set of enemies taking turns
-     * @param log Combat log to update
+     * @param fight The encounter with the enemies taking turns
      */
-    private void executeEnemiesTurns(Player player, Set<Enemy> enemies, CombatLog log) {
-        for (Enemy enemy : enemies) {
-            if (enemy.isAlive()) {
-                enemy.takeTurn(player);
+    private void executeEnemiesTurns(Player player, Encounter fight) {
+        int healthBefore = player.getCurrentHealthPoints();
+        fight.startRound();
+        Enemy enemy;
+        while ((enemy = fight.nextTurn()) != null) {
+            enemy.takeTurn(player);
+            if (!player.isAlive()) {
+                if (runLog != null) {
+                    runLog.recordKiller(enemy.getType());
+                }
+                break;
             }
         }
+        player.getStatusEffects().consume(StatusEffect.INVISIBLE);
+        int damage = healthBefore - player.getCurrentHealthPoints();
+        if (analytics != null) {
+            analytics.recordRoundDamage(Math.max(0, damage));
+        }
+        if (runLog != null) {
+            runLog.recordRound(damage);
+        }
     }
 
     /**
      * Shows the end of combat status
      * @param player The player in combat
-     * @param enemies Set of enemies in combat
+     * @param fight The encounter with the enemies in combat
      * @param log Combat log to update
      */
-    private void showCombatEnd(Player player, Set<Enemy> enemies, CombatLog log) {
+    private void showCombatEnd(Player player, Encounter fight, CombatLog log) {
         log.addEntry("\nEnd of Round:");
-        logCombatStatus(player, enemies, log);
+        logCombatStatus(player, fight.getEngagedEnemies(), log);
     }
 
     /**
      * Logs the current combat status
      * @param player The player to log
-     * @param enemies Set of enemies to log
+     * @param enemies Enemies to log, in turn order
      * @param log Combat log to update
      */
-    private void logCombatStatus(Player player, Set<Enemy> enemies, CombatLog log) {
-        log.addEntry(String.format("%s HP: %d/%d",
+    private void logCombatStatus(Player player, List<Enemy> enemies, CombatLog log) {
+        if (GameOutput.current().isMuted()) {
+            // Nobody reads the log, so skip formatting it
+            return;
+        }
+        log.addStatus(String.format("%s HP: %d/%d%s",
                 player.getCharacterName(),
                 player.getCurrentHealthPoints(),
-                player.getMaxHealthPoints()));
+                player.getMaxHealthPoints(),
+                player.getStatusEffects().describe()));
 
         for (Enemy enemy : enemies) {
             if (enemy.isAlive()) {
-                log.addEntry(String.format("%s HP: %d/%d",
+                log.addStatus(String.format("%s HP: %d/%d%s",
                         enemy.getCharacterName(),
                         enemy.getCurrentHealthPoints(),
-                        enemy.getMaxHealthPoints()));
+                        enemy.getMaxHealthPoints(),
+                        enemy.getStatusEffects().describe()));
             }
         }
     }
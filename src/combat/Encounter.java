@@ -0,0 +1,203 @@
+package combat;
+
+import character.enemy.Enemy;
+import world.Room;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * One fight in one room.
+ * Keeps track of which enemies joined the fight and decides in which order
+ * they act. Turn order only depends on initiative and the order enemies joined,
+ * so the same fight always plays out the same way.
+ * Encounters are reused through an EncounterPool instead of being thrown away.
+ */
+public class Encounter {
+    /** Bosses always act before regular enemies */
+    private static final int BOSS_INITIATIVE_BONUS = 100;
+
+    /** Highest initiative first, ties go to whoever joined the fight first */
+    private static final Comparator<Combatant> TURN_ORDER = (a, b) -> {
+        if (a.initiative != b.initiative) {
+            return Integer.compare(b.initiative, a.initiative);
+        }
+        return Integer.compare(a.joinOrder, b.joinOrder);
+    };
+
+    private final List<Combatant> combatants;
+    private final List<Combatant> spareCombatants;
+    private final PriorityQueue<Combatant> turnQueue;
+    private Room room;
+    private int nextJoinOrder;
+
+    /**
+     * Creates an empty encounter, use begin() before engaging enemies
+     */
+    public Encounter() {
+        this.combatants = new ArrayList<>();
+        this.spareCombatants = new ArrayList<>();
+        this.turnQueue = new PriorityQueue<>(TURN_ORDER);
+        this.room = null;
+        this.nextJoinOrder = 0;
+    }
+
+    /**
+     * Starts a new fight in a room
+     * @param room The room the fight happens in
+     */
+    public void begin(Room room) {
+        reset();
+        this.room = room;
+    }
+
+    /**
+     * Adds an enemy to the fight, does nothing if it already joined
+     * @param enemy The enemy joining the fight
+     */
+    public void engage(Enemy enemy) {
+        if (isEngaged(enemy)) {
+            return;
+        }
+        Combatant combatant = spareCombatants.isEmpty() ?
+                new Combatant() : spareCombatants.remove(spareCombatants.size() - 1);
+        combatant.enemy = enemy;
+        combatant.initiative = initiativeOf(enemy);
+        combatant.joinOrder = nextJoinOrder++;
+        combatants.add(combatant);
+    }
+
+    /**
+     * Removes an enemy from the fight (for example when it is defeated)
+     * @param enemy The enemy leaving the fight
+     */
+    public void disengage(Enemy enemy) {
+        for (int i = 0; i < combatants.size(); i++) {
+            Combatant combatant = combatants.get(i);
+            if (combatant.enemy == enemy) {
+                combatants.remove(i);
+                turnQueue.remove(combatant);
+                recycle(combatant);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks if an enemy is part of this fight
+     * @param enemy The enemy to check
+     * @return true if the enemy joined the fight
+     */
+    public boolean isEngaged(Enemy enemy) {
+        for (Combatant combatant : combatants) {
+            if (combatant.enemy == enemy) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any enemy joined this fight
+     * @return true if at least one enemy is engaged
+     */
+    public boolean hasEngagedEnemies() {
+        return !combatants.isEmpty();
+    }
+
+    /**
+     * Gets how many enemies are engaged
+     * @return Number of engaged enemies
+     */
+    public int size() {
+        return combatants.size();
+    }
+
+    /**
+     * Gets an engaged enemy by position, in the order they joined
+     * @param index Position from 0 to size() - 1
+     * @return The engaged enemy at that position
+     */
+    public Enemy getEnemy(int index) {
+        return combatants.get(index).enemy;
+    }
+
+    /**
+     * Queues a turn for every living engaged enemy.
+     * Call nextTurn() until it returns null to run the round.
+     */
+    public void startRound() {
+        turnQueue.clear();
+        for (Combatant combatant : combatants) {
+            if (combatant.enemy.isAlive()) {
+                turnQueue.offer(combatant);
+            }
+        }
+    }
+
+    /**
+     * Gets the enemy whose turn is next in this round
+     * @return The next enemy to act, or null when the round is over
+     */
+    public Enemy nextTurn() {
+        Combatant combatant = turnQueue.poll();
+        return combatant != null ? combatant.enemy : null;
+    }
+
+    /**
+     * Gets the engaged enemies in the order they take their turns
+     * @return A new list with the engaged enemies
+     */
+    public List<Enemy> getEngagedEnemies() {
+        List<Combatant> ordered = new ArrayList<>(combatants);
+        ordered.sort(TURN_ORDER);
+        List<Enemy> enemies = new ArrayList<>(ordered.size());
+        for (Combatant combatant : ordered) {
+            enemies.add(combatant.enemy);
+        }
+        return enemies;
+    }
+
+    /**
+     * Clears the fight so this encounter can be reused
+     */
+    public void reset() {
+        turnQueue.clear();
+        for (Combatant combatant : combatants) {
+            recycle(combatant);
+        }
+        combatants.clear();
+        room = null;
+        nextJoinOrder = 0;
+    }
+
+    public Room getRoom() {
+        return room;
+    }
+
+    /**
+     * Works out how early an enemy acts in a round
+     * @param enemy The enemy to check
+     * @return Higher numbers act first
+     */
+    private static int initiativeOf(Enemy enemy) {
+        int bonus = enemy.isBoss() ? BOSS_INITIATIVE_BONUS : 0;
+        return bonus + enemy.getAttackDamage();
+    }
+
+    private void recycle(Combatant combatant) {
+        combatant.enemy = null;
+        spareCombatants.add(combatant);
+    }
+
+    /**
+     * An enemy's place in the turn order
+     */
+    private static class Combatant {
+        private Enemy enemy;
+        private int initiative;
+        private int joinOrder;
+    }
+}
@@ -0,0 +1,43 @@
+package combat;
+
+import world.Room;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Keeps finished encounters around so new fights can reuse them.
+ */
+public class EncounterPool {
+    private static final int MAX_POOLED = 4;
+    private final Deque<Encounter> freeEncounters;
+
+    public EncounterPool() {
+        this.freeEncounters = new ArrayDeque<>();
+    }
+
+    /**
+     * Gets an encounter for a new fight
+     * @param room The room the fight happens in
+     * @return A clean encounter for that room
+     */
+    public Encounter acquire(Room room) {
+        Encounter encounter = freeEncounters.poll();
+        if (encounter == null) {
+            encounter = new Encounter();
+        }
+        encounter.begin(room);
+        return encounter;
+    }
+
+    /**
+     * Gives a finished encounter back to the pool
+     * @param encounter The encounter that is no longer used
+     */
+    public void release(Encounter encounter) {
+        encounter.reset();
+        if (freeEncounters.size() < MAX_POOLED) {
+            freeEncounters.push(encounter);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package combat;
+
+import utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the best next move in a fight by playing it out many times.
+ * Every worker of a fork-join pool grows its own Monte Carlo search tree from
+ * the same fight until the time budget runs out; the trees are then merged and
+ * the move that was tried the most wins. Enemy ability rolls are random, so the
+ * tree is keyed by the player's moves only and each pass rolls the dice again.
+ */
+public class HintAdvisor {
+    /** Time a hint may take when nobody asks for less */
+    public static final long DEFAULT_BUDGET_MILLIS = 50;
+
+    /** Moves looked at past the tree before a playout gives up and scores the fight */
+    private static final int MAX_PLAYOUT_MOVES = 40;
+
+    /** Balance between trying the best move and trying other moves */
+    private static final double EXPLORATION = 1.4;
+
+    /** Shared by every advisor, one worker per core */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private final ForkJoinPool pool;
+
+    public HintAdvisor() {
+        this(POOL);
+    }
+
+    /**
+     * Creates an advisor that searches on a given pool
+     * @param pool The pool whose workers run the search
+     */
+    public HintAdvisor(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * What the search found
+     */
+    public static final class Hint {
+        private final String command;
+        private final double winChance;
+        private final long playouts;
+        private final long elapsedNanos;
+
+        Hint(String command, double winChance, long playouts, long elapsedNanos) {
+            this.command = command;
+            this.winChance = winChance;
+            this.playouts = playouts;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** The command the player should type */
+        public String getCommand() {
+            return command;
+        }
+
+        /** Share of the played-out fights after this move that the player won */
+        public double getWinChance() {
+            return winChance;
+        }
+
+        public long getPlayouts() {
+            return playouts;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
+    /**
+     * Searches for the best move within a time budget
+     * @param fight The fight as it is now
+     * @param budgetMillis How long the search may take
+     * @return The best move, or null if the fight is already over
+     */
+    public Hint suggest(CombatState fight, long budgetMillis) {
+        if (fight.isOver()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+
+        List<ForkJoinTask<Node>> searches = new ArrayList<>();
+        for (int i = 0; i < pool.getParallelism(); i++) {
+            searches.add(pool.submit(() -> search(fight, deadline)));
+        }
+
+        Node merged = new Node();
+        for (ForkJoinTask<Node> search : searches) {
+            try {
+                merged.mergeChildren(search.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Hint search failed", e.getCause());
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int best = -1;
+        for (int action = 0; action < CombatState.MAX_ACTIONS; action++) {
+            Node child = merged.children[action];
+            if (child != null && (best < 0 || child.visits > merged.children[best].visits)) {
+                best = action;
+            }
+        }
+
+        long playouts = merged.visits;
+        Metrics.increment("hint.requests", 1);
+        Metrics.increment("hint.playouts", playouts);
+        Metrics.set("hint.playoutsPerSecond", playouts * 1e9 / Math.max(1, elapsed));
+        Metrics.set("hint.lastSearchMillis", elapsed / 1e6);
+
+        if (best < 0) {
+            return null;
+        }
+        Node chosen = merged.children[best];
+        return new Hint(fight.describe(best), (double) chosen.wins / chosen.visits, playouts, elapsed);
+    }
+
+    /**
+     * Grows one search tree until the deadline
+     */
+    private static Node search(CombatState fight, long deadline) {
+        Random random = ThreadLocalRandom.current();
+        Node root = new Node();
+        int[] actions = new int[CombatState.MAX_ACTIONS];
+        Node[] path = new Node[MAX_PLAYOUT_MOVES + 1];
+
+        do {
+            CombatState state = fight;
+            Node node = root;
+            int depth = 0;
+            path[depth++] = node;
+
+            // Walk down the tree, adding one new move at the edge
+            boolean expanded = false;
+            while (!state.isOver() && !expanded && depth < path.length) {
+                int count = state.legalActions(actions);
+                int action = node.select(actions, count, random);
+                expanded = node.children[action] == null;
+                if (expanded) {
+                    node.children[action] = new Node();
+                }
+                node = node.children[action];
+                state = state.apply(action, random);
+                path[depth++] = node;
+            }
+
+            // Play the rest of the fight with a simple policy
+            int moves = depth;
+            while (!state.isOver() && moves < MAX_PLAYOUT_MOVES) {
+                int count = state.legalActions(actions);
+                state = state.apply(playoutAction(state, actions, count, random), random);
+                moves++;
+            }
+
+            double reward = score(state);
+            boolean won = state.isWon();
+            for (int i = 0; i < depth; i++) {
+                path[i].visits++;
+                path[i].reward += reward;
+                if (won) {
+                    path[i].wins++;
+                }
+            }
+        } while (System.nanoTime() < deadline);
+        return root;
+    }
+
+    /**
+     * Mostly attacks the weakest enemy, sometimes does something else,
+     * and uses the ability whenever it is ready
+     */
+    private static int playoutAction(CombatState state, int[] actions, int count, Random random) {
+        if (random.nextInt(4) == 0) {
+            return actions[random.nextInt(count)];
+        }
+        int best = actions[0];
+        int weakest = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            int action = actions[i];
+            if (action == CombatState.ABILITY) {
+                return action;
+            }
+            if (CombatState.isAttack(action)) {
+                int hp = state.getEnemyHp(action - CombatState.attack(0));
+                if (hp < weakest) {
+                    weakest = hp;
+                    best = action;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Scores a finished or cut-off fight between 0 and 1.
+     * Winning with more health left scores higher; a fight still going
+     * scores by how much health each side has left.
+     */
+    private static double score(CombatState state) {
+        if (state.isLost()) {
+            return 0;
+        }
+        double health = (double) state.getPlayerHp() / state.getPlayerMaxHp();
+        if (state.isWon()) {
+            return 0.6 + 0.4 * health;
+        }
+        int enemyHp = 0;
+        int enemyMaxHp = 0;
+        for (int i = 0; i < state.getEnemyCount(); i++) {
+            enemyHp += state.getEnemyHp(i);
+            enemyMaxHp += state.getEnemyMaxHp(i);
+        }
+        return 0.3 * health * (1 - (double) enemyHp / Math.max(1, enemyMaxHp)) + 0.1 * health;
+    }
+
+    /**
+     * One player move in a search tree, with the results of the fights that went through it
+     */
+    private static final class Node {
+        final Node[] children = new Node[CombatState.MAX_ACTIONS];
+        long visits;
+        long wins;
+        double reward;
+
+        /**
+         * Picks the move to follow: untried moves first, then the best by UCB1
+         */
+        int select(int[] actions, int count, Random random) {
+            int start = random.nextInt(count);
+            for (int i = 0; i < count; i++) {
+                int action = actions[(start + i) % count];
+                if (children[action] == null) {
+                    return action;
+                }
+            }
+            double logVisits = Math.log(Math.max(1, visits));
+            int best = actions[0];
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                Node child = children[actions[i]];
+                double value = child.reward / child.visits
+                        + EXPLORATION * Math.sqrt(logVisits / child.visits);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = actions[i];
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Adds the first-move results of another worker's tree to this one
+         */
+        void mergeChildren(Node other) {
+            visits += other.visits;
+            wins += other.wins;
+            reward += other.reward;
+            for (int action = 0; action < children.length; action++) {
+                Node child = other.children[action];
+                if (child == null) {
+                    continue;
+                }
+                if (children[action] == null) {
+                    children[action] = new Node();
+                }
+                children[action].visits += child.visits;
+                children[action].wins += child.wins;
+                children[action].reward += child.reward;
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package combat;
+
+import balance.BalanceConfig;
+import character.enemy.EnemyType;
+import character.player.HeroClass;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Offline tool that works out the win chance tables used by WinProbabilityOracle.
+ * Every hero class and enemy group is solved with value iteration over the
+ * CombatModel states, assuming the player always picks the best action.
+ * Setups are solved in parallel on all cores.
+ * Enemy stats come from balance.properties when it exists. The file is
+ * stamped with a fingerprint of those stats and of the hero classes, so the
+ * game notices stale tables and leaves the danger rating out. Rebuild the
+ * shipped ones after changing the combat numbers; for a tuned
+ * balance.properties, write them to the name WinProbabilityOracle.localFile
+ * gives, which the game prints when it looks for them.
+ *
+ * Usage: java combat.WinProbabilityBuilder [output file, by default src/combat/win-odds.bin]
+ */
+public class WinProbabilityBuilder {
+    /** Enemies that show up in normal rooms (see DungeonGeneration) */
+    private static final EnemyType[] REGULAR_ENEMIES = {
+            EnemyType.GOBLIN, EnemyType.SKELETON, EnemyType.WITCH
+    };
+
+    /** Enemy HP step stored for two-enemy groups, to keep those tables small */
+    private static final int GROUP_HP_STEP = 5;
+
+    /** Stop once no value moves more than this (tables store steps of 1/255) */
+    private static final double CONVERGENCE = 1e-4;
+    private static final int MAX_SWEEPS = 1000;
+
+    public static void main(String[] args) throws IOException {
+        Path output = args.length > 0 ? Paths.get(args[0]) : Paths.get("src", "combat", WinProbabilityOracle.RESOURCE);
+        BalanceConfig.loadDefault();
+        long start = System.nanoTime();
+
+        List<WinProbabilityTable> tables = fightSetups().parallelStream()
+                .map(WinProbabilityBuilder::solve)
+                .collect(Collectors.toList());
+        write(tables, output);
+
+        long bytes = tables.stream().mapToLong(WinProbabilityTable::getSizeInBytes).sum();
+        System.out.printf("Solved %d fights in %d ms, %d KB of tables written to %s%n",
+                tables.size(), (System.nanoTime() - start) / 1_000_000, bytes / 1024, output);
+    }
+
+    /**
+     * Lists every hero against every enemy group the dungeon can create:
+     * each enemy alone, and every pair of regular enemies
+     * @return The models to solve
+     */
+    static List<CombatModel> fightSetups() {
+        List<CombatModel> setups = new ArrayList<>();
+        for (HeroClass hero : HeroClass.values()) {
+            for (EnemyType enemy : EnemyType.values()) {
+                setups.add(new CombatModel(hero, enemy));
+            }
+            for (int i = 0; i < REGULAR_ENEMIES.length; i++) {
+                for (int j = i; j < REGULAR_ENEMIES.length; j++) {
+                    setups.add(new CombatModel(hero, REGULAR_ENEMIES[i], REGULAR_ENEMIES[j]));
+                }
+            }
+        }
+        return setups;
+    }
+
+    /**
+     * Solves one fight setup with value iteration
+     * @param model The fight setup
+     * @return The compact table of win chances
+     */
+    static WinProbabilityTable solve(CombatModel model) {
+        float[] values = new float[model.getStateCount()];
+        boolean[] terminal = new boolean[values.length];
+        for (int state = 0; state < values.length; state++) {
+            if (model.isTerminal(state)) {
+                terminal[state] = true;
+                values[state] = model.isWin(state) ? 1f : 0f;
+            }
+        }
+
+        int[] nextStates = new int[CombatModel.MAX_OUTCOMES];
+        double[] chances = new double[CombatModel.MAX_OUTCOMES];
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            double largestChange = 0;
+            // Alternate direction: damage moves values down, healing moves them up
+            boolean forward = sweep % 2 == 0;
+            for (int step = 0; step < values.length; step++) {
+                int state = forward ? step : values.length - 1 - step;
+                if (terminal[state]) {
+                    continue;
+                }
+                double best = 0;
+                for (int action = 0; action < CombatModel.ACTION_COUNT; action++) {
+                    if (!model.isLegal(state, action)) {
+                        continue;
+                    }
+                    int count = model.outcomes(state, action, nextStates, chances);
+                    double expected = 0;
+                    for (int i = 0; i < count; i++) {
+                        expected += chances[i] * values[nextStates[i]];
+                    }
+                    best = Math.max(best, expected);
+                }
+                largestChange = Math.max(largestChange, Math.abs(best - values[state]));
+                values[state] = (float) best;
+            }
+            if (largestChange < CONVERGENCE) {
+                break;
+            }
+        }
+
+        int step = model.getSecondMaxHp() > 0 ? GROUP_HP_STEP : 1;
+        return WinProbabilityTable.fromValues(model, values, step);
+    }
+
+    private static void write(List<WinProbabilityTable> tables, Path output) throws IOException {
+        try (OutputStream raw = Files.newOutputStream(output);
+             DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(raw)))) {
+            out.writeInt(WinProbabilityOracle.FILE_MAGIC);
+            out.writeInt(WinProbabilityOracle.FILE_VERSION);
+            out.writeInt(WinProbabilityOracle.fingerprint());
+            out.writeInt(tables.size());
+            for (WinProbabilityTable table : tables) {
+                table.writeTo(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package combat;
+
+import character.enemy.Enemy;
+import character.enemy.EnemyType;
+import character.player.HeroClass;
+import character.player.Player;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Answers "how likely is this hero to win this fight?" from precomputed tables.
+ * The tables are made offline by WinProbabilityBuilder and shipped next to
+ * this class, so a lookup is just an array read and never simulates anything.
+ * Every table file is stamped with a fingerprint of the numbers the fights
+ * were solved for. When those no longer match the game, for example after
+ * loading a tuned balance.properties, the default oracle looks for tables
+ * built for the new numbers in the working directory (see localFile) and
+ * otherwise answers nothing; solving takes far too long to do on start.
+ */
+public class WinProbabilityOracle {
+    /** Resource the game loads, next to this class on the classpath */
+    public static final String RESOURCE = "win-odds.bin";
+
+    static final int FILE_MAGIC = 0x574F4453;
+    static final int FILE_VERSION = 2;
+
+    private static WinProbabilityOracle defaultOracle;
+
+    private final Map<String, WinProbabilityTable> tables;
+
+    /**
+     * Makes an oracle from a set of tables
+     * @param tables The tables it can answer from
+     */
+    public WinProbabilityOracle(List<WinProbabilityTable> tables) {
+        this.tables = index(tables);
+    }
+
+    /**
+     * Gets the oracle loaded from RESOURCE, or from localFile when RESOURCE
+     * was solved for other numbers than the game uses now.
+     * If neither fits, the oracle knows nothing and fights show no danger rating.
+     * @return The shared oracle
+     */
+    public static synchronized WinProbabilityOracle getDefault() {
+        if (defaultOracle == null) {
+            defaultOracle = new WinProbabilityOracle(List.of());
+            int fingerprint = fingerprint();
+            Path local = localFile(fingerprint);
+            try (InputStream raw = WinProbabilityOracle.class.getResourceAsStream(RESOURCE)) {
+                if (raw != null && fingerprint == readFingerprint(raw)) {
+                    defaultOracle = load(WinProbabilityOracle.class.getResourceAsStream(RESOURCE));
+                } else if (Files.exists(local)) {
+                    defaultOracle = load(local);
+                } else {
+                    System.err.println(RESOURCE + " is missing or was solved for other combat numbers, so fights"
+                            + " have no danger rating; run java combat.WinProbabilityBuilder " + local
+                            + " to solve them for these numbers");
+                }
+            } catch (IOException e) {
+                System.err.println("Could not load the win chance tables: " + e.getMessage());
+            }
+        }
+        return defaultOracle;
+    }
+
+    /**
+     * Gets where tables solved for other combat numbers than the shipped
+     * ones are looked for: the working directory, where balance.properties
+     * is read from too, under a name that holds the fingerprint
+     * @param fingerprint The fingerprint of the numbers, see fingerprint()
+     * @return The file, which may not exist
+     */
+    public static Path localFile(int fingerprint) {
+        return Paths.get(String.format("win-odds-%08x.bin", fingerprint));
+    }
+
+    /**
+     * Loads tables written by WinProbabilityBuilder
+     * @param file The table file
+     * @return An oracle answering from those tables
+     * @throws IOException if the file can't be read or was solved for other numbers
+     */
+    public static WinProbabilityOracle load(Path file) throws IOException {
+        return load(Files.newInputStream(file));
+    }
+
+    private static WinProbabilityOracle load(InputStream raw) throws IOException {
+        try (raw; DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(raw)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("Not a win probability file");
+            }
+            if (in.readInt() != fingerprint()) {
+                throw new IOException("Win probability tables were solved for other combat numbers");
+            }
+            int count = in.readInt();
+            WinProbabilityTable[] loaded = new WinProbabilityTable[count];
+            for (int i = 0; i < count; i++) {
+                loaded[i] = WinProbabilityTable.readFrom(in);
+            }
+            return new WinProbabilityOracle(List.of(loaded));
+        }
+    }
+
+    private static int readFingerprint(InputStream raw) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(raw)));
+        if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+            return 0;
+        }
+        return in.readInt();
+    }
+
+    /**
+     * Works out a hash of everything a solved table depends on: the model's
+     * rules version and the stats of every hero class and enemy type, which
+     * come from the current BalanceConfig
+     * @return The fingerprint stored in table files
+     */
+    static int fingerprint() {
+        StringBuilder numbers = new StringBuilder("rules ").append(CombatModel.RULES_VERSION);
+        for (HeroClass hero : HeroClass.values()) {
+            numbers.append(';').append(hero.name()).append(',').append(hero.getBaseHealth())
+                    .append(',').append(hero.getBaseDamage()).append(',').append(hero.getAbility().getType())
+                    .append(',').append(hero.getAbility().getCooldown());
+        }
+        for (EnemyType enemy : EnemyType.values()) {
+            numbers.append(';').append(enemy.name()).append(',').append(enemy.getBaseHealth())
+                    .append(',').append(enemy.getBaseDamage()).append(',').append(enemy.getAbility().getType());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(numbers.toString().getBytes(StandardCharsets.US_ASCII));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Gets the chance that a player beats the enemies they are facing
+     * @param player The player
+     * @param enemies The living enemies in the room
+     * @param engaged The enemies already fighting the player
+     * @return Chance to win from 0.0 to 1.0, or -1 if there is no table for this fight
+     */
+    public double winProbability(Player player, List<Enemy> enemies, List<Enemy> engaged) {
+        if (enemies.isEmpty() || enemies.size() > CombatModel.MAX_ENEMIES) {
+            return -1;
+        }
+        EnemyType[] types = new EnemyType[enemies.size()];
+        int[] hps = new int[enemies.size()];
+        int engagedMask = 0;
+        for (int i = 0; i < types.length; i++) {
+            types[i] = enemies.get(i).getType();
+            hps[i] = enemies.get(i).getCurrentHealthPoints();
+            if (engaged.contains(enemies.get(i))) {
+                engagedMask |= 1 << i;
+            }
+        }
+        int cooldownLeft = player.getSpecialAbility() != null ?
+                player.getSpecialAbility().getCurrentCooldown() : 0;
+        return winProbability(player.getHeroClass(), player.getCurrentHealthPoints(), cooldownLeft,
+                types, hps, engagedMask);
+    }
+
+    /**
+     * Gets the chance that a hero beats a group of enemies
+     * @param hero The hero's class
+     * @param playerHp The hero's current HP
+     * @param cooldownLeft Turns until the hero's ability is ready
+     * @param types The enemy types (one or two)
+     * @param hps Current HP of each enemy
+     * @param engagedMask Bit i set if types[i] already joined the fight
+     * @return Chance to win from 0.0 to 1.0, or -1 if there is no table for this fight
+     */
+    public double winProbability(HeroClass hero, int playerHp, int cooldownLeft, EnemyType[] types, int[] hps,
+                                 int engagedMask) {
+        // Tables store groups in enum order
+        boolean swap = types.length == 2 && types[0].ordinal() > types[1].ordinal();
+        EnemyType[] ordered = swap ? new EnemyType[] {types[1], types[0]} : types;
+        WinProbabilityTable table = tables.get(keyOf(hero, ordered));
+        if (table == null) {
+            return -1;
+        }
+        int first = swap ? hps[1] : hps[0];
+        int second = types.length == 2 ? (swap ? hps[0] : hps[1]) : 0;
+        int engaged = swap ? (engagedMask & 1) << 1 | (engagedMask & 2) >> 1 : engagedMask;
+        return table.lookup(playerHp, first, second, cooldownLeft, engaged);
+    }
+
+    /**
+     * Describes how dangerous a fight is, for showing next to the enemy list
+     * @param player The player
+     * @param enemies The living enemies in the room
+     * @param engaged The enemies already fighting the player
+     * @return Text like "Danger: High (about 40% chance to win)", or null if unknown
+     */
+    public String describeDanger(Player player, List<Enemy> enemies, List<Enemy> engaged) {
+        double chance = winProbability(player, enemies, engaged);
+        if (chance < 0) {
+            return null;
+        }
+        String level;
+        if (chance >= 0.9) {
+            level = "Low";
+        } else if (chance >= 0.6) {
+            level = "Moderate";
+        } else if (chance >= 0.3) {
+            level = "High";
+        } else {
+            level = "Deadly";
+        }
+        return String.format("Danger: %s (about %d%% chance to win)", level, Math.round(chance * 100));
+    }
+
+    /**
+     * Checks if the oracle has any tables
+     * @return true if no tables were loaded
+     */
+    public boolean isEmpty() {
+        return tables.isEmpty();
+    }
+
+    private static Map<String, WinProbabilityTable> index(List<WinProbabilityTable> tables) {
+        Map<String, WinProbabilityTable> byKey = new HashMap<>();
+        for (WinProbabilityTable table : tables) {
+            byKey.put(keyOf(table.getHero(), table.getEnemies()), table);
+        }
+        return byKey;
+    }
+
+    static String keyOf(HeroClass hero, EnemyType[] enemies) {
+        StringBuilder key = new StringBuilder(hero.name());
+        for (EnemyType enemy : enemies) {
+            key.append(':').append(enemy.name());
+        }
+        return key.toString();
+    }
+}
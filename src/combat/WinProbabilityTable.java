@@ -0,0 +1,170 @@
+package combat;
+
+import character.enemy.EnemyType;
+import character.player.HeroClass;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Chance to win one fight setup (hero class against an enemy group),
+ * for every player HP, enemy HP, cooldown and set of enemies already in the fight.
+ * Chances are stored as one byte each (0 = lost, 255 = certain win).
+ * Enemy HP can be stored in steps to keep tables for big groups small;
+ * lookups round enemy HP up, so the stored chance never looks too good.
+ */
+public class WinProbabilityTable {
+    private static final int MAX_ODDS = 255;
+
+    private final HeroClass hero;
+    private final EnemyType[] enemies;
+    private final int enemyHpStep;
+    private final int playerMaxHp;
+    private final int firstMaxHp;
+    private final int secondMaxHp;
+    private final int cooldown;
+    private final int firstSlots;
+    private final int secondSlots;
+    private final int engagedSets;
+    private final byte[] odds;
+
+    private WinProbabilityTable(HeroClass hero, EnemyType[] enemies, int enemyHpStep,
+                                int playerMaxHp, int firstMaxHp, int secondMaxHp, int cooldown, byte[] odds) {
+        this.hero = hero;
+        this.enemies = enemies;
+        this.enemyHpStep = enemyHpStep;
+        this.playerMaxHp = playerMaxHp;
+        this.firstMaxHp = firstMaxHp;
+        this.secondMaxHp = secondMaxHp;
+        this.cooldown = cooldown;
+        this.firstSlots = slotsFor(firstMaxHp, enemyHpStep);
+        this.secondSlots = slotsFor(secondMaxHp, enemyHpStep);
+        this.engagedSets = 1 << enemies.length;
+        this.odds = odds != null ? odds :
+                new byte[(playerMaxHp + 1) * firstSlots * secondSlots * (cooldown + 1) * engagedSets];
+    }
+
+    /**
+     * Builds a table from solved win chances (dodge not ready)
+     * @param model The model the chances were solved for
+     * @param values Win chance for every state of the model
+     * @param enemyHpStep Keep one entry every this many enemy HP
+     * @return The compact table
+     */
+    public static WinProbabilityTable fromValues(CombatModel model, float[] values, int enemyHpStep) {
+        WinProbabilityTable table = new WinProbabilityTable(model.getHero(), model.getEnemies(), enemyHpStep,
+                model.getPlayerMaxHp(), model.getFirstMaxHp(), model.getSecondMaxHp(), model.getCooldown(), null);
+        for (int hp = 0; hp <= table.playerMaxHp; hp++) {
+            for (int first = 0; first < table.firstSlots; first++) {
+                for (int second = 0; second < table.secondSlots; second++) {
+                    for (int cd = 0; cd <= table.cooldown; cd++) {
+                        for (int engaged = 0; engaged < table.engagedSets; engaged++) {
+                            int state = model.encode(hp,
+                                    Math.min(first * enemyHpStep, table.firstMaxHp),
+                                    Math.min(second * enemyHpStep, table.secondMaxHp), cd, 0, engaged);
+                            int odds = Math.round(values[state] * MAX_ODDS);
+                            table.odds[table.index(hp, first, second, cd, engaged)] = (byte) odds;
+                        }
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Gets the chance to win from a fight state
+     * @param playerHp The player's current HP
+     * @param firstHp The first enemy's current HP
+     * @param secondHp The second enemy's current HP (0 if there is none)
+     * @param cooldownLeft Turns until the player's ability is ready
+     * @param engagedMask Bit 0 set if the first enemy joined the fight, bit 1 for the second
+     * @return Chance to win, from 0.0 to 1.0
+     */
+    public double lookup(int playerHp, int firstHp, int secondHp, int cooldownLeft, int engagedMask) {
+        int hp = clamp(playerHp, playerMaxHp);
+        int first = slotOf(clamp(firstHp, firstMaxHp));
+        int second = slotOf(clamp(secondHp, secondMaxHp));
+        int cd = clamp(cooldownLeft, cooldown);
+        int engaged = engagedMask & (engagedSets - 1);
+        return (odds[index(hp, first, second, cd, engaged)] & 0xFF) / (double) MAX_ODDS;
+    }
+
+    /**
+     * Writes this table in the format read by readFrom
+     * @param out Where to write
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(hero.ordinal());
+        out.writeByte(enemies.length);
+        for (EnemyType enemy : enemies) {
+            out.writeByte(enemy.ordinal());
+        }
+        out.writeShort(enemyHpStep);
+        out.writeShort(playerMaxHp);
+        out.writeShort(firstMaxHp);
+        out.writeShort(secondMaxHp);
+        out.writeByte(cooldown);
+        out.writeInt(odds.length);
+        out.write(odds);
+    }
+
+    /**
+     * Reads a table written by writeTo
+     * @param in Where to read from
+     * @return The table
+     * @throws IOException if reading fails or the data is broken
+     */
+    public static WinProbabilityTable readFrom(DataInputStream in) throws IOException {
+        HeroClass hero = HeroClass.values()[in.readUnsignedByte()];
+        EnemyType[] enemies = new EnemyType[in.readUnsignedByte()];
+        for (int i = 0; i < enemies.length; i++) {
+            enemies[i] = EnemyType.values()[in.readUnsignedByte()];
+        }
+        int enemyHpStep = in.readUnsignedShort();
+        int playerMaxHp = in.readUnsignedShort();
+        int firstMaxHp = in.readUnsignedShort();
+        int secondMaxHp = in.readUnsignedShort();
+        int cooldown = in.readUnsignedByte();
+        byte[] odds = new byte[in.readInt()];
+        in.readFully(odds);
+
+        WinProbabilityTable table = new WinProbabilityTable(hero, enemies, enemyHpStep,
+                playerMaxHp, firstMaxHp, secondMaxHp, cooldown, odds);
+        if (odds.length != (playerMaxHp + 1) * table.firstSlots * table.secondSlots * (cooldown + 1) * table.engagedSets) {
+            throw new IOException("Win probability table has the wrong size for " + hero);
+        }
+        return table;
+    }
+
+    private int index(int hp, int first, int second, int cd, int engaged) {
+        return (((hp * firstSlots + first) * secondSlots + second) * (cooldown + 1) + cd) * engagedSets + engaged;
+    }
+
+    private int slotOf(int enemyHp) {
+        return (enemyHp + enemyHpStep - 1) / enemyHpStep;
+    }
+
+    private static int slotsFor(int maxHp, int step) {
+        return (maxHp + step - 1) / step + 1;
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    // Simple getters
+    public HeroClass getHero() {
+        return hero;
+    }
+
+    public EnemyType[] getEnemies() {
+        return enemies.clone();
+    }
+
+    public int getSizeInBytes() {
+        return odds.length;
+    }
+}
@@ -29,6 +29,18 @@ public enum Command {
     
     /** Drop an item from your inventory */
     DROP("drop", "Drop an item from your inventory", "drop sword"),
+
+    /** Ask for advice on what to do next */
+    HINT("hint", "Ask for advice on your next move", "hint"),
+
+    /** Show the best finished runs */
+    LEADERBOARD("leaderboard", "See the best runs and your place among them", "leaderboard"),
+
+    /** Show how the game is played by everyone, only for admins */
+    STATS("stats", "Show play statistics (admins only)", "stats"),
+
+    /** Go back to how things were before the last action */
+    UNDO("undo", "Take back your last action", "undo"),
     
     /** Exit the game */
     QUIT("quit", "Leave the game", "quit");
@@ -1,13 +1,22 @@
 package command;
 
+import analytics.StreamAnalytics;
 import character.player.Player;
 import combat.CombatSystem;
 import game.Game;
+import game.UndoHistory;
+import items.Inventory;
 import items.Item;
+import leaderboard.Leaderboard;
+import leaderboard.RunScore;
+import utils.GameOutput;
 import utils.UserInput;
 import world.Direction;
 import world.Room;
 
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
 /**
  * Processes and executes player commands in the game.
  * This class handles all user input and converts it into game actions.
@@ -22,19 +31,32 @@ public class CommandProcessor {
     /** Combat system for handling battles */
     private final CombatSystem combatSystem;
 
+    /** Saved states for the undo command */
+    private final UndoHistory undoHistory;
+
+    /** Commands typed since the player entered the current room */
+    private int turnsInRoom;
+
     /** Messages shown to players when certain actions fail */
     private static final String INVALID_DIRECTION_MSG = "Try: north (n) or south (s)";
     private static final String ENEMIES_PRESENT_MSG = "You can't run away while enemies are here!";
     private static final String NO_EXIT_MSG = "You can't go that way!";
     private static final String EMPTY_INVENTORY_MSG = "There are no items in your inventory.";
 
+    /** Number of runs the leaderboard command shows */
+    private static final int LEADERBOARD_SIZE = 10;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
     /**
      * Creates a new command processor
      * @param game The main game instance
      */
     public CommandProcessor(Game game) {
         this.game = game;
-        this.combatSystem = new CombatSystem();
+        this.combatSystem = new CombatSystem(game.getDungeonProgress());
+        this.combatSystem.setRunLog(game.getRunLog());
+        this.undoHistory = new UndoHistory();
     }
 
     /**
@@ -49,21 +71,125 @@ public class CommandProcessor {
             String cleanInput = UserInput.clean(rawInput);
             String[] parts = cleanInput.split(" ", 2);
             Command command = Command.fromString(parts[0]);
-
-            if (command == null) {
-                System.out.println("I don't know that command. Type 'help' to see what you can do!");
-                return true;
-            }
-
             String argument = parts.length > 1 ? parts[1] : "";
-            return executeCommand(command, argument);
+            return playTurn(command, parts[0], () -> executeCommand(command, argument));
 
         } catch (IllegalArgumentException e) {
-            System.out.println("Oops: " + e.getMessage());
+            GameOutput.println("Oops: " + e.getMessage());
             return true;
         }
     }
 
+    /**
+     * Plays one turn, typed or picked by position: counts it, saves the state
+     * for undo when the command can change the game, and notes the turns spent
+     * in a room once the player leaves it
+     * @param command The command, or null if the player typed something unknown
+     * @param word The command word, counted when it is unknown
+     * @param action Performs the command
+     * @return true if the game should continue, false if the player wants to quit
+     */
+    private boolean playTurn(Command command, String word, BooleanSupplier action) {
+        StreamAnalytics analytics = game.getAnalytics();
+        if (analytics != null) {
+            analytics.recordPlayer(game.getPlayer().getCharacterName());
+        }
+        turnsInRoom++;
+
+        if (command == null || (command == Command.STATS && !game.isAdmin())) {
+            if (analytics != null) {
+                analytics.recordUnknownCommand(word);
+            }
+            GameOutput.println("I don't know that command. Type 'help' to see what you can do!");
+            return true;
+        }
+
+        if (changesGameState(command)) {
+            undoHistory.record(game);
+        }
+        Room roomBefore = game.getCurrentRoom();
+        boolean keepPlaying = action.getAsBoolean();
+        if (game.getCurrentRoom() != roomBefore) {
+            if (analytics != null) {
+                analytics.recordTurnsInRoom(turnsInRoom);
+            }
+            turnsInRoom = 0;
+        }
+        return keepPlaying;
+    }
+
+    /**
+     * Checks a command picked by position rather than typed, see processCommand
+     * @param command The command
+     * @param target The position of what the command acts on
+     * @return true if the command may run and what it points at exists
+     */
+    public boolean isValidTarget(Command command, int target) {
+        switch (command) {
+            case MOVE:
+                return target >= 0 && target < DIRECTIONS.length;
+            case ATTACK:
+                return target >= 0 && target < game.getCurrentRoom().getEnemyCount();
+            case TAKE:
+                return target >= 0 && target < game.getCurrentRoom().getItemCount();
+            case USE:
+            case DROP:
+                return target >= 0 && target < game.getPlayer().getInventory().size();
+            case STATS:
+                return game.isAdmin();
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Performs a command picked by position rather than typed, for clients that
+     * show menus: the target is the direction's ordinal for move, the enemy's
+     * index in the room for attack, the item's index in the room for take and
+     * its slot in the inventory for use and drop. Other commands ignore it.
+     * Check the target with isValidTarget first.
+     *
+     * @param command The command
+     * @param target The position of what the command acts on
+     * @return true if the game should continue, false if the player wants to quit
+     */
+    public boolean processCommand(Command command, int target) {
+        return playTurn(command, command.getName(), () -> executeCommand(command, target));
+    }
+
+    /**
+     * Executes a command picked by position; targets are taken by reference,
+     * as names can match more than one enemy or item
+     * @param command Which command to execute
+     * @param target The position of what the command acts on
+     * @return false if game should end, true otherwise
+     */
+    private boolean executeCommand(Command command, int target) {
+        Room currentRoom = game.getCurrentRoom();
+        Inventory inventory = game.getPlayer().getInventory();
+        switch (command) {
+            case MOVE:
+                checkAndMove(currentRoom, DIRECTIONS[target]);
+                return true;
+            case ATTACK:
+                combatSystem.handleAttack(game.getPlayer(), currentRoom, currentRoom.getEnemy(target));
+                return true;
+            case TAKE:
+                takeItem(currentRoom.getItem(target));
+                break;
+            case USE:
+                useItem(inventory.getItem(target));
+                break;
+            case DROP:
+                dropItem(inventory.getItem(target));
+                break;
+            default:
+                return executeCommand(command, "");
+        }
+        combatSystem.handlePostAction(game.getPlayer(), currentRoom);
+        return true;
+    }
+
     /**
      * Executes the given command with its argument
      * @param command Which command to execute
@@ -100,34 +226,116 @@ public class CommandProcessor {
                 handleDrop(argument);
                 combatSystem.handlePostAction(game.getPlayer(), game.getCurrentRoom());
                 break;
+            case HINT:
+                combatSystem.handleHint(game.getPlayer(), game.getCurrentRoom());
+                break;
+            case LEADERBOARD:
+                handleLeaderboard();
+                break;
+            case STATS:
+                handleStats();
+                break;
+            case UNDO:
+                handleUndo();
+                break;
             case QUIT:
                 return handleQuit();
             default:
-                System.out.println("Command not implemented yet!");
+                GameOutput.println("Command not implemented yet!");
         }
         return true;
     }
 
+    /**
+     * Checks if a command can change the game, so it needs a saved state to undo
+     * @param command The command about to run
+     * @return true if the state should be saved first
+     */
+    private boolean changesGameState(Command command) {
+        return command != Command.LOOK && command != Command.HINT && command != Command.LEADERBOARD
+                && command != Command.STATS && command != Command.UNDO && command != Command.QUIT;
+    }
+
+    public CombatSystem getCombatSystem() {
+        return combatSystem;
+    }
+
+    /**
+     * Checks if there is an action the player can take back
+     * @return true if undo would do something
+     */
+    public boolean canUndo() {
+        return undoHistory.canUndo();
+    }
+
+    /**
+     * Shows the admin what the server's analytics counted so far
+     */
+    private void handleStats() {
+        StreamAnalytics analytics = game.getAnalytics();
+        if (analytics == null) {
+            GameOutput.println("Nothing is counted in this game.");
+            return;
+        }
+        GameOutput.print(analytics.report());
+    }
+
+    /**
+     * Shows the best runs and where the player's own best run stands
+     */
+    private void handleLeaderboard() {
+        Leaderboard leaderboard = game.getLeaderboard();
+        if (leaderboard == null || leaderboard.size() == 0) {
+            GameOutput.println("No runs have been finished yet.");
+            return;
+        }
+        GameOutput.println("\n=== Leaderboard ===");
+        for (RunScore run : leaderboard.top(LEADERBOARD_SIZE)) {
+            GameOutput.printf("#%-4d %-16s %-12s depth %d, bosses %d, %d turns%n",
+                    leaderboard.rankOf(run), run.getPlayerName(), run.getHeroClass().getName(),
+                    run.getDepth(), run.getBossesDefeated(), run.getTurns());
+        }
+        String name = game.getPlayer().getCharacterName();
+        long rank = leaderboard.rankOf(name);
+        if (rank > 0) {
+            GameOutput.printf("Your best run is #%d of %d.%n", rank, leaderboard.size());
+        } else {
+            GameOutput.printf("You have no finished run yet. %d players are on the board.%n", leaderboard.size());
+        }
+    }
+
+    /**
+     * Puts the game back to how it was before the last action
+     */
+    private void handleUndo() {
+        if (!undoHistory.undo(game)) {
+            GameOutput.println("There is nothing to undo.");
+            return;
+        }
+        GameOutput.println("You take back your last action.");
+        handleLook();
+    }
+
     /**
      * Handles player movement in a direction
      * @param direction The direction to move in
      */
     private void handleMove(String direction) {
         if (direction.isEmpty()) {
-            System.out.println("Which way? " + INVALID_DIRECTION_MSG);
+            GameOutput.println("Which way? " + INVALID_DIRECTION_MSG);
             return;
         }
 
         try {
             Direction dir = Direction.fromString(UserInput.clean(direction));
             if (dir == null) {
-                System.out.println("That's not a valid direction!\n" + INVALID_DIRECTION_MSG);
+                GameOutput.println("That's not a valid direction!\n" + INVALID_DIRECTION_MSG);
                 return;
             }
 
             checkAndMove(game.getCurrentRoom(), dir);
         } catch (IllegalArgumentException e) {
-            System.out.println("Invalid direction: " + e.getMessage());
+            GameOutput.println("Invalid direction: " + e.getMessage());
         }
     }
 
@@ -137,13 +345,18 @@ public class CommandProcessor {
      * @param dir Direction to move in
      */
     private void checkAndMove(Room currentRoom, Direction dir) {
+        // A cleared room at the edge of the map opens up the next part of the dungeon
+        if (dir == Direction.NORTH && !currentRoom.hasExit(dir) && !currentRoom.hasEnemies()) {
+            game.extendDungeon(currentRoom);
+        }
+
         if (!currentRoom.hasExit(dir)) {
-            System.out.println(NO_EXIT_MSG);
+            GameOutput.println(NO_EXIT_MSG);
             return;
         }
 
         if (!currentRoom.getEnemies().isEmpty()) {
-            System.out.println(ENEMIES_PRESENT_MSG);
+            GameOutput.println(ENEMIES_PRESENT_MSG);
             return;
         }
 
@@ -165,25 +378,47 @@ public class CommandProcessor {
      */
     private void handleTake(String itemName) {
         if (itemName.isEmpty()) {
-            System.out.println("Take what? Type 'take' and the item's name!");
+            GameOutput.println("Take what? Type 'take' and the item's name!");
             showTakeableItems();
             return;
         }
 
-        Room currentRoom = game.getCurrentRoom();
+        Item item = findItem(game.getCurrentRoom().getItems(), itemName);
+        if (item != null) {
+            takeItem(item);
+        } else {
+            GameOutput.println("There's no " + itemName + " here to take!");
+        }
+    }
+
+    /**
+     * Moves one item from the current room to the inventory
+     * @param item The item, which is in the current room
+     */
+    private void takeItem(Item item) {
         Player player = game.getPlayer();
-        Item item = currentRoom.removeItem(itemName);
+        if (player.getInventory().isFull()) {
+            GameOutput.println("Your inventory is full!");
+            return;
+        }
+        game.getCurrentRoom().removeItem(item);
+        player.addToInventory(item);
+        GameOutput.println("You picked up the " + item.getName());
+    }
 
-        if (item != null) {
-            if (player.addToInventory(item)) {
-                System.out.println("You picked up the " + itemName);
-            } else {
-                currentRoom.addItem(item);
-                System.out.println("Your inventory is full!");
+    /**
+     * Finds the first item with a name
+     * @param items Where to look
+     * @param itemName The name, in any case
+     * @return The item, or null if none has that name
+     */
+    private static Item findItem(List<Item> items, String itemName) {
+        for (Item item : items) {
+            if (item.getName().equalsIgnoreCase(itemName)) {
+                return item;
             }
-        } else {
-            System.out.println("There's no " + itemName + " here to take!");
         }
+        return null;
     }
 
     /**
@@ -192,13 +427,13 @@ public class CommandProcessor {
     private void showTakeableItems() {
         Room currentRoom = game.getCurrentRoom();
         if (currentRoom.getItems().isEmpty()) {
-            System.out.println("There are no items here to take.");
+            GameOutput.println("There are no items here to take.");
             return;
         }
 
-        System.out.println("\nItems you can take:");
+        GameOutput.println("\nItems you can take:");
         currentRoom.getItems().forEach(item ->
-                System.out.printf("- %s: %s%n", item.getName(), item.getDescription()));
+                GameOutput.printf("- %s: %s%n", item.getName(), item.getDescription()));
     }
 
     /**
@@ -207,21 +442,28 @@ public class CommandProcessor {
      */
     private void handleDrop(String itemName) {
         if (itemName.isEmpty()) {
-            System.out.println("Drop what? Type 'drop' and the item's name!");
+            GameOutput.println("Drop what? Type 'drop' and the item's name!");
             return;
         }
 
-        Player player = game.getPlayer();
-        Item item = player.removeFromInventory(itemName);
-
+        Item item = findItem(game.getPlayer().getInventory().getItems(), itemName);
         if (item != null) {
-            game.getCurrentRoom().addItem(item);
-            System.out.println("You dropped the " + itemName);
+            dropItem(item);
         } else {
-            System.out.println("You don't have a " + itemName + " to drop!");
+            GameOutput.println("You don't have a " + itemName + " to drop!");
         }
     }
 
+    /**
+     * Moves one item from the inventory to the current room
+     * @param item The item, which is in the inventory
+     */
+    private void dropItem(Item item) {
+        game.getPlayer().removeFromInventory(item);
+        game.getCurrentRoom().addItem(item);
+        GameOutput.println("You dropped the " + item.getName());
+    }
+
     /**
      * Handles using items from inventory
      * @param itemName Name of item to use
@@ -232,11 +474,24 @@ public class CommandProcessor {
             return;
         }
 
-        if (!game.getPlayer().useItem(itemName)) {
+        Item item = findItem(game.getPlayer().getInventory().getItems(), itemName);
+        if (item != null) {
+            useItem(item);
+        } else {
             showInventoryContents("You don't have a " + itemName + " to use!");
         }
     }
 
+    /**
+     * Uses one item from the inventory
+     * @param item The item, which is in the inventory
+     */
+    private void useItem(Item item) {
+        if (game.getPlayer().useItem(item)) {
+            game.getRunLog().recordItemUse(item.getType());
+        }
+    }
+
     /**
      * Shows the player's inventory contents
      */
@@ -250,9 +505,9 @@ public class CommandProcessor {
      */
     private void showInventoryContents(String message) {
         if (message != null) {
-            System.out.println(message);
+            GameOutput.println(message);
         }
-        System.out.println("\nAvailable items in your inventory:");
+        GameOutput.println("\nAvailable items in your inventory:");
         game.getPlayer().getInventory().showContents();
     }
 
@@ -0,0 +1,266 @@
+package fuzz;
+
+import utils.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throws random and mutated command streams at many games at once to find bugs.
+ * Each worker thread plays games in-process without rendering most of them:
+ * a quarter are typed fresh, the rest are mutations of inputs that reached a
+ * behaviour nobody had reached before (see Coverage). Exceptions, broken
+ * invariants and lines that never finish are reported; the first input of each
+ * kind of failure is shrunk and saved, with a trace next to it, so it can be
+ * replayed with BatchRunner using the seed from the trace.
+ *
+ * Usage: CommandFuzzer [--seconds N] [--threads N] [--seed N] [--out DIR]
+ */
+public class CommandFuzzer {
+    /** A line taking longer than this counts as hanging */
+    private static final long HANG_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /** Time spent shrinking one failing input */
+    private static final long MINIMIZE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /** One in this many games renders its text, to also catch formatting bugs */
+    private static final int RENDER_EVERY = 8;
+
+    /** Inputs kept for mutation; a new one replaces a random old one when full */
+    private static final int MAX_CORPUS = 4096;
+
+    /** Time between two progress lines */
+    private static final long REPORT_MILLIS = 5_000;
+
+    private final Path findings;
+    private final InputGenerator generator = new InputGenerator();
+    private final Coverage coverage = new Coverage();
+    private final List<FuzzInput> corpus = new CopyOnWriteArrayList<>();
+    private final Map<String, Boolean> signatures = new ConcurrentHashMap<>();
+    private final List<WorkerStatus> workers = new CopyOnWriteArrayList<>();
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger hangs = new AtomicInteger();
+    private final SplittableRandom seeds;
+    private volatile boolean stopped;
+
+    /**
+     * Creates a fuzzer
+     * @param findings Where failing inputs are saved
+     * @param seed Seed for the workers' dice
+     */
+    public CommandFuzzer(Path findings, long seed) {
+        this.findings = findings;
+        this.seeds = new SplittableRandom(seed);
+    }
+
+    /**
+     * Fuzzes for a while, printing progress, and waits for the workers to stop
+     * @param threads Number of workers
+     * @param seconds How long to run
+     */
+    public void run(int threads, long seconds) throws InterruptedException {
+        for (int i = 0; i < threads; i++) {
+            startWorker();
+        }
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long lastCommands = 0;
+        long lastReport = start;
+        while (System.nanoTime() < end) {
+            TimeUnit.MILLISECONDS.sleep(Math.min(REPORT_MILLIS, Math.max(1, (end - System.nanoTime()) / 1_000_000)));
+            watchForHangs();
+            long now = System.nanoTime();
+            long total = commands.sum();
+            report(total, (total - lastCommands) * 1e9 / Math.max(1, now - lastReport), now - start);
+            lastCommands = total;
+            lastReport = now;
+        }
+        stopped = true;
+        for (WorkerStatus worker : workers) {
+            if (!worker.isAbandoned()) {
+                worker.getThread().join(MINIMIZE_NANOS / 1_000_000);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("done: %d commands in %d games, %.0f commands/s (%.1fM per minute), "
+                        + "%d behaviours, %d failures, %d hangs, %d unique saved in %s%n",
+                commands.sum(), games.sum(), commands.sum() * 1e9 / elapsed, commands.sum() * 60e3 / elapsed,
+                coverage.size(), failures.get(), hangs.get(), signatures.size(), findings);
+    }
+
+    private void report(long total, double perSecond, long elapsedNanos) {
+        Metrics.set("fuzz.commandsPerSecond", perSecond);
+        Metrics.set("fuzz.behaviours", coverage.size());
+        System.out.printf("%4.0fs %,d commands, %.0f/s, %,d games, corpus %d, %d behaviours, %d failures, %d hangs%n",
+                elapsedNanos / 1e9, total, perSecond, games.sum(), corpus.size(), coverage.size(),
+                failures.get(), hangs.get());
+    }
+
+    private void startWorker() {
+        SplittableRandom random;
+        synchronized (seeds) {
+            random = seeds.split();
+        }
+        Thread thread = new Thread(() -> work(random));
+        WorkerStatus status = new WorkerStatus(thread);
+        thread.setName("fuzz-" + workers.size());
+        thread.setDaemon(true);
+        workers.add(status);
+        thread.start();
+    }
+
+    /**
+     * Plays games until the fuzzer stops or the watchdog gives up on this worker
+     */
+    private void work(SplittableRandom random) {
+        WorkerStatus status = null;
+        for (WorkerStatus worker : workers) {
+            if (worker.getThread() == Thread.currentThread()) {
+                status = worker;
+            }
+        }
+        while (!stopped && !status.isAbandoned()) {
+            boolean render = random.nextInt(RENDER_EVERY) == 0;
+            int size = corpus.size();
+            Execution result;
+            FuzzInput input;
+            if (size == 0 || random.nextInt(4) == 0) {
+                input = new FuzzInput(random.nextLong(), random.nextInt(4) == 0, render, List.of());
+                result = Execution.generate(input, generator, random, coverage, status);
+            } else {
+                FuzzInput parent = corpus.get(random.nextInt(size));
+                FuzzInput donor = corpus.get(random.nextInt(size));
+                input = new FuzzInput(random.nextInt(10) == 0 ? random.nextLong() : parent.seed,
+                        parent.admin, render, generator.mutate(parent.lines, donor.lines, random));
+                result = Execution.replay(input, coverage, status);
+            }
+            if (status.isAbandoned()) {
+                return;
+            }
+            games.increment();
+            commands.add(result.played.size());
+            Metrics.increment("fuzz.commands", result.played.size());
+
+            if (result.failure != null) {
+                failures.incrementAndGet();
+                Metrics.increment("fuzz.failures", 1);
+                if (signatures.putIfAbsent(result.failure.signature, Boolean.TRUE) == null) {
+                    FuzzInput failing = input.withLines(result.played);
+                    FuzzInput smallest = Minimizer.minimize(failing, result.failure.signature,
+                            System.nanoTime() + MINIMIZE_NANOS);
+                    save(result.failure.kind, result.failure.signature, result.failure.details, failing, smallest);
+                }
+            } else if (result.newCoverage) {
+                FuzzInput kept = input.withLines(result.played);
+                if (corpus.size() < MAX_CORPUS) {
+                    corpus.add(kept);
+                } else {
+                    corpus.set(random.nextInt(MAX_CORPUS), kept);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports workers stuck on one line and replaces them.
+     * A stuck thread cannot be stopped safely, so it is left to run as a daemon.
+     */
+    private void watchForHangs() {
+        long now = System.nanoTime();
+        for (WorkerStatus worker : workers) {
+            if (!worker.isStuck(now, HANG_NANOS)) {
+                continue;
+            }
+            worker.abandon();
+            hangs.incrementAndGet();
+            Metrics.increment("fuzz.hangs", 1);
+            StringBuilder trace = new StringBuilder();
+            for (StackTraceElement frame : worker.getThread().getStackTrace()) {
+                trace.append("\tat ").append(frame).append('\n');
+            }
+            String signature = "hang in " + worker.getThread().getStackTrace()[0];
+            if (signatures.putIfAbsent(signature, Boolean.TRUE) == null) {
+                FuzzInput input = worker.snapshot();
+                save("hang", signature, trace.toString(), input, input);
+            }
+            startWorker();
+        }
+    }
+
+    /**
+     * Saves a failing input as a script, and how to replay it next to it
+     */
+    private void save(String kind, String signature, String details, FuzzInput original, FuzzInput smallest) {
+        String name = String.format("%s-%08x", kind, signature.hashCode());
+        try {
+            Files.createDirectories(findings);
+            Files.write(findings.resolve(name + ".txt"), smallest.lines, StandardCharsets.UTF_8);
+            List<String> trace = new ArrayList<>();
+            trace.add(signature);
+            trace.add(String.format("seed %d, admin %b, render %b, %d lines shrunk from %d",
+                    smallest.seed, smallest.admin, smallest.render, smallest.lines.size(), original.lines.size()));
+            trace.add(String.format("replay: BatchRunner --seed %d%s %s.txt",
+                    smallest.seed, smallest.admin ? " --admin" : "", name));
+            trace.add("");
+            trace.add(details);
+            Files.write(findings.resolve(name + ".trace"), trace, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not save " + name, e);
+        }
+        System.out.printf("new %s: %s (%d lines, saved as %s)%n", kind, signature, smallest.lines.size(), name);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long seconds = 60;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = System.nanoTime();
+        Path findings = Paths.get("fuzz-findings");
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--seconds":
+                        seconds = Long.parseLong(value(args, ++i));
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value(args, ++i));
+                        break;
+                    case "--out":
+                        findings = Paths.get(value(args, ++i));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: CommandFuzzer [--seconds N] [--threads N] [--seed N] [--out DIR]");
+            return;
+        }
+        new CommandFuzzer(findings, seed).run(threads, seconds);
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(args[index - 1] + " needs a value");
+        }
+        return args[index];
+    }
+}
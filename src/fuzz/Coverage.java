@@ -0,0 +1,44 @@
+package fuzz;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers which game behaviours the fuzzer has already seen.
+ * There is no code coverage to read from inside the game, so a behaviour is
+ * a step from one coarse game state to another by one command word, hashed
+ * into a fixed bitmap shared by all workers. Hash collisions only make the
+ * fuzzer miss a few new behaviours, never report old ones as new.
+ */
+final class Coverage {
+    /** Bits in the map, a power of two */
+    private static final int BITS = 1 << 20;
+
+    private final AtomicLongArray words = new AtomicLongArray(BITS / 64);
+    private final AtomicInteger covered = new AtomicInteger();
+
+    /**
+     * Marks a behaviour as seen
+     * @param feature Hash of the behaviour
+     * @return true if it was not seen before
+     */
+    boolean mark(int feature) {
+        int bit = feature & (BITS - 1);
+        int index = bit >>> 6;
+        long mask = 1L << (bit & 63);
+        long word = words.get(index);
+        while ((word & mask) == 0) {
+            if (words.compareAndSet(index, word, word | mask)) {
+                covered.incrementAndGet();
+                return true;
+            }
+            word = words.get(index);
+        }
+        return false;
+    }
+
+    /** Number of different behaviours seen so far */
+    int size() {
+        return covered.get();
+    }
+}
@@ -0,0 +1,179 @@
+package fuzz;
+
+import command.Command;
+import game.Game;
+import utils.GameOutput;
+import world.Room;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Plays one fuzz input in a fresh game and watches for trouble after every line:
+ * exceptions, whether thrown or only shown to the player as invalid input, and
+ * broken invariants. Also notes which behaviours the game went through.
+ */
+final class Execution {
+    /** No hint search time: each search worker plays out one fight, enough to exercise the code */
+    private static final long HINT_BUDGET_MILLIS = 0;
+
+    /** Slot of the command word in a behaviour when the line has no known word */
+    private static final int UNKNOWN_WORD = 31;
+
+    /**
+     * Something that went wrong
+     */
+    static final class Failure {
+        /** "crash" or "invariant" */
+        final String kind;
+        /** What makes two failures the same bug */
+        final String signature;
+        /** The stack trace or the broken rule */
+        final String details;
+
+        Failure(String kind, String signature, String details) {
+            this.kind = kind;
+            this.signature = signature;
+            this.details = details;
+        }
+    }
+
+    /** Every line played, including lines typed while the game ran */
+    final List<String> played = new ArrayList<>();
+    Failure failure;
+    boolean newCoverage;
+
+    private Execution() {
+    }
+
+    /**
+     * Plays recorded lines
+     * @param input What to play
+     * @param coverage Where to note behaviours, or null when only replaying
+     * @param status Where the watchdog sees the line being played, or null
+     * @return What happened
+     */
+    static Execution replay(FuzzInput input, Coverage coverage, WorkerStatus status) {
+        return run(input, input.lines, null, null, coverage, status);
+    }
+
+    /**
+     * Plays a new game, typing lines as it goes
+     * @param input The seed and options; its lines are ignored
+     * @param generator Types the lines
+     * @param random The worker's dice
+     * @param coverage Where to note behaviours
+     * @param status Where the watchdog sees the line being played
+     * @return What happened; played holds the lines that were typed
+     */
+    static Execution generate(FuzzInput input, InputGenerator generator, SplittableRandom random,
+                              Coverage coverage, WorkerStatus status) {
+        return run(input, null, generator, random, coverage, status);
+    }
+
+    private static Execution run(FuzzInput input, List<String> lines, InputGenerator generator,
+                                 SplittableRandom random, Coverage coverage, WorkerStatus status) {
+        Execution execution = new Execution();
+        Game game = new Game(input.seed);
+        game.setAdmin(input.admin);
+        game.getCommandProcessor().getCombatSystem().setHintBudget(HINT_BUDGET_MILLIS);
+        GameOutput.bind(input.render
+                ? new GameOutput(Writer.nullWriter(), GameOutput.FlushPolicy.PER_COMMAND)
+                : GameOutput.discard());
+        if (status != null) {
+            status.begin(input, execution.played);
+        }
+        try {
+            game.begin();
+            int state = state(game);
+            int count = lines != null ? lines.size() : InputGenerator.MAX_LINES;
+            for (int i = 0; i < count && !game.isOver(); i++) {
+                String line = lines != null ? lines.get(i) : generator.next(game, random);
+                execution.played.add(line);
+                if (status != null) {
+                    status.lineStarted();
+                }
+                game.handleLine(line);
+                GameOutput.current().flush();
+
+                RuntimeException error = game.getLastCommandError();
+                if (error != null) {
+                    execution.failure = crash(error);
+                    break;
+                }
+                Invariants.Violation broken = Invariants.check(game);
+                if (broken != null) {
+                    execution.failure = new Failure("invariant", broken.rule, broken.details);
+                    break;
+                }
+                if (coverage != null) {
+                    int next = state(game);
+                    int feature = ((state * 31 + word(line)) * 0x9E3779B1) ^ next;
+                    if (coverage.mark(feature)) {
+                        execution.newCoverage = true;
+                    }
+                    state = next;
+                }
+            }
+        } catch (RuntimeException | StackOverflowError e) {
+            execution.failure = crash(e);
+        } finally {
+            if (status != null) {
+                status.end();
+            }
+            GameOutput.bind(null);
+        }
+        return execution;
+    }
+
+    /**
+     * A coarse picture of the game: phase, room type, enemies, items,
+     * inventory, cooldown, bosses and whether the player lives
+     */
+    private static int state(Game game) {
+        int state = game.getPhase().ordinal();
+        Room room = game.getCurrentRoom();
+        if (room != null) {
+            state = state * 8 + room.getType().ordinal();
+            state = state * 4 + Math.min(3, room.getEnemies().size());
+            state = state * 4 + Math.min(3, room.getItems().size());
+        }
+        if (game.getPlayer() != null) {
+            int carried = game.getPlayer().getInventory().getItems().size();
+            state = state * 4 + (carried == 0 ? 0 : carried < 5 ? 1 : carried < 10 ? 2 : 3);
+            state = state * 2 + (game.getPlayer().getSpecialAbility().getCurrentCooldown() > 0 ? 1 : 0);
+            state = state * 2 + (game.getPlayer().isAlive() ? 1 : 0);
+            state = state * 4 + (game.getDungeonProgress().isFinalBossDefeated() ? 3
+                    : game.getDungeonProgress().isSecondBossDefeated() ? 2
+                    : game.getDungeonProgress().isFirstBossDefeated() ? 1 : 0);
+        }
+        return state;
+    }
+
+    /**
+     * The command word of a line, as a small number
+     */
+    private static int word(String line) {
+        String trimmed = line.trim();
+        int space = trimmed.indexOf(' ');
+        Command command = Command.fromString(space < 0 ? trimmed : trimmed.substring(0, space));
+        return command == null ? UNKNOWN_WORD : command.ordinal();
+    }
+
+    private static Failure crash(Throwable error) {
+        String where = "";
+        for (StackTraceElement frame : error.getStackTrace()) {
+            if (!frame.getClassName().startsWith("java.")) {
+                where = " at " + frame;
+                break;
+            }
+        }
+        StringWriter trace = new StringWriter();
+        error.printStackTrace(new PrintWriter(trace));
+        return new Failure("crash", error.getClass().getName() + where, trace.toString());
+    }
+}
@@ -0,0 +1,25 @@
+package fuzz;
+
+import java.util.List;
+
+/**
+ * One game the fuzzer can play again: the seed, whether admin commands
+ * are allowed, whether text is rendered, and every line typed.
+ */
+final class FuzzInput {
+    final long seed;
+    final boolean admin;
+    final boolean render;
+    final List<String> lines;
+
+    FuzzInput(long seed, boolean admin, boolean render, List<String> lines) {
+        this.seed = seed;
+        this.admin = admin;
+        this.render = render;
+        this.lines = lines;
+    }
+
+    FuzzInput withLines(List<String> lines) {
+        return new FuzzInput(seed, admin, render, lines);
+    }
+}
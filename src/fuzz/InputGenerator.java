@@ -0,0 +1,265 @@
+package fuzz;
+
+import character.enemy.Enemy;
+import character.enemy.EnemyType;
+import character.player.HeroClass;
+import command.Command;
+import game.Game;
+import items.Item;
+import items.ItemsType;
+import world.Direction;
+import world.Room;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Makes up lines of input, and changes recorded ones.
+ * New games are typed line by line while they run, so some arguments can
+ * name what is really in the room; recorded games are mutated blindly.
+ * Lines never contain line breaks, so a saved input replays line for line.
+ */
+final class InputGenerator {
+    /** Longest input the fuzzer types or mutates into */
+    static final int MAX_LINES = 200;
+
+    /** Text players are not expected to type */
+    private static final String[] ODD_TEXT = {
+            "", " ", "   ", "\t", "%s", "%n", "%d%%", "{}", "\u0000", "\u00e9t\u00e9", "\u65e5\u672c",
+            "\ud83d\ude00", "\u202eright to left", "' or 1=1", "null", "-1", "0", "2147483648",
+            "a".repeat(300), "north north", "NORTH", "  look  ", "\\n"
+    };
+
+    private final String[] words;
+    private final String[] arguments;
+    private final String[] classes;
+
+    InputGenerator() {
+        List<String> commandWords = new ArrayList<>();
+        for (Command command : Command.values()) {
+            commandWords.add(command.getName());
+        }
+        commandWords.add("help");
+        commandWords.add("go");
+        commandWords.add("atack");
+        words = commandWords.toArray(new String[0]);
+
+        List<String> known = new ArrayList<>();
+        for (Direction direction : Direction.values()) {
+            known.add(direction.name().toLowerCase(Locale.ROOT));
+        }
+        known.add("n");
+        known.add("s");
+        known.add("east");
+        for (ItemsType type : ItemsType.values()) {
+            known.add(type.getDisplayName(type.getBasicPower()).toLowerCase(Locale.ROOT));
+            known.add(type.getDisplayName(type.getValuablePower()).toLowerCase(Locale.ROOT));
+            known.add(type.getName().toLowerCase(Locale.ROOT));
+        }
+        for (EnemyType type : EnemyType.values()) {
+            known.add(type.getName().toLowerCase(Locale.ROOT));
+        }
+        known.add("potion");
+        known.add("boss");
+        arguments = known.toArray(new String[0]);
+
+        List<String> classNames = new ArrayList<>();
+        for (HeroClass heroClass : HeroClass.values()) {
+            classNames.add(heroClass.name().toLowerCase(Locale.ROOT));
+        }
+        classes = classNames.toArray(new String[0]);
+    }
+
+    /**
+     * Types the next line of a new game
+     * @param game The game so far
+     * @param random The worker's dice
+     * @return A line of input
+     */
+    String next(Game game, SplittableRandom random) {
+        switch (game.getPhase()) {
+            case CHOOSING_NAME:
+                return random.nextInt(8) == 0 ? odd(random) : "bot" + random.nextInt(1000);
+            case CHOOSING_CLASS:
+                return random.nextInt(8) == 0 ? odd(random) : classes[random.nextInt(classes.length)];
+            default:
+                return command(game, random);
+        }
+    }
+
+    private String command(Game game, SplittableRandom random) {
+        int roll = random.nextInt(20);
+        if (roll == 0) {
+            return odd(random);
+        }
+        String word = roll == 1 ? odd(random) : words[random.nextInt(words.length)];
+        if (random.nextInt(3) == 0) {
+            return word;
+        }
+        String argument;
+        int pick = random.nextInt(10);
+        if (pick < 5) {
+            argument = fromRoom(game, random);
+        } else if (pick < 9) {
+            argument = arguments[random.nextInt(arguments.length)];
+        } else {
+            argument = odd(random);
+        }
+        return word + " " + argument;
+    }
+
+    /**
+     * Names something the player can see or carry
+     */
+    private String fromRoom(Game game, SplittableRandom random) {
+        Room room = game.getCurrentRoom();
+        List<String> names = new ArrayList<>();
+        if (room != null) {
+            for (Enemy enemy : room.getEnemies()) {
+                names.add(enemy.getCharacterName());
+            }
+            for (Item item : room.getItems()) {
+                names.add(item.getName());
+            }
+        }
+        if (game.getPlayer() != null) {
+            for (Item item : game.getPlayer().getInventory().getItems()) {
+                names.add(item.getName());
+            }
+        }
+        if (names.isEmpty()) {
+            return arguments[random.nextInt(arguments.length)];
+        }
+        String name = names.get(random.nextInt(names.size()));
+        return random.nextBoolean() ? name.toLowerCase(Locale.ROOT) : name;
+    }
+
+    private String odd(SplittableRandom random) {
+        if (random.nextInt(4) == 0) {
+            StringBuilder text = new StringBuilder();
+            int length = 1 + random.nextInt(12);
+            for (int i = 0; i < length; i++) {
+                text.append(randomChar(random));
+            }
+            return text.toString();
+        }
+        return ODD_TEXT[random.nextInt(ODD_TEXT.length)];
+    }
+
+    /**
+     * Any character except line breaks, mostly printable ASCII
+     */
+    private static char randomChar(SplittableRandom random) {
+        char c = random.nextInt(4) == 0 ? (char) random.nextInt(0x10000) : (char) (0x20 + random.nextInt(0x5f));
+        return c == '\n' || c == '\r' ? ' ' : c;
+    }
+
+    /**
+     * Changes a recorded game a little
+     * @param lines The recorded lines
+     * @param donor Another recorded game to borrow lines from
+     * @param random The worker's dice
+     * @return New lines; the recorded ones are left alone
+     */
+    List<String> mutate(List<String> lines, List<String> donor, SplittableRandom random) {
+        List<String> result = new ArrayList<>(lines);
+        int changes = 1 + random.nextInt(4);
+        for (int i = 0; i < changes; i++) {
+            mutateOnce(result, donor, random);
+        }
+        while (result.size() > MAX_LINES) {
+            result.remove(result.size() - 1);
+        }
+        return result;
+    }
+
+    private void mutateOnce(List<String> lines, List<String> donor, SplittableRandom random) {
+        int size = lines.size();
+        switch (random.nextInt(8)) {
+            case 0:
+                if (size > 0) {
+                    lines.remove(random.nextInt(size));
+                }
+                break;
+            case 1:
+                lines.add(random.nextInt(size + 1), randomCommand(random));
+                break;
+            case 2:
+                if (size > 0) {
+                    lines.set(random.nextInt(size), randomCommand(random));
+                }
+                break;
+            case 3:
+                if (size > 0) {
+                    int from = random.nextInt(size);
+                    int to = Math.min(size, from + 1 + random.nextInt(8));
+                    lines.addAll(to, new ArrayList<>(lines.subList(from, to)));
+                }
+                break;
+            case 4:
+                if (size > 1) {
+                    int a = random.nextInt(size);
+                    int b = random.nextInt(size);
+                    String line = lines.get(a);
+                    lines.set(a, lines.get(b));
+                    lines.set(b, line);
+                }
+                break;
+            case 5:
+                if (!donor.isEmpty()) {
+                    int keep = random.nextInt(size + 1);
+                    int from = random.nextInt(donor.size());
+                    lines.subList(keep, size).clear();
+                    lines.addAll(donor.subList(from, donor.size()));
+                }
+                break;
+            case 6:
+                if (size > 2) {
+                    lines.subList(2 + random.nextInt(size - 2), size).clear();
+                }
+                break;
+            default:
+                if (size > 0) {
+                    int index = random.nextInt(size);
+                    lines.set(index, mutateText(lines.get(index), random));
+                }
+                break;
+        }
+    }
+
+    /**
+     * A command with a known word and argument, without looking at the game
+     */
+    private String randomCommand(SplittableRandom random) {
+        String word = words[random.nextInt(words.length)];
+        return random.nextBoolean() ? word : word + " " + arguments[random.nextInt(arguments.length)];
+    }
+
+    private static String mutateText(String line, SplittableRandom random) {
+        StringBuilder text = new StringBuilder(line);
+        int at = text.length() == 0 ? 0 : random.nextInt(text.length());
+        switch (random.nextInt(4)) {
+            case 0:
+                text.insert(at, randomChar(random));
+                break;
+            case 1:
+                if (text.length() > 0) {
+                    text.deleteCharAt(at);
+                }
+                break;
+            case 2:
+                if (text.length() > 0) {
+                    char c = text.charAt(at);
+                    text.setCharAt(at, Character.isUpperCase(c)
+                            ? Character.toLowerCase(c) : Character.toUpperCase(c));
+                }
+                break;
+            default:
+                text.append(' ').append(text);
+                break;
+        }
+        return text.toString();
+    }
+}
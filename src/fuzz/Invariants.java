@@ -0,0 +1,102 @@
+package fuzz;
+
+import character.ability.Ability;
+import character.Character;
+import character.enemy.Enemy;
+import character.player.Player;
+import game.Game;
+import items.Inventory;
+import world.Room;
+
+/**
+ * Rules the game state must follow after every line of input.
+ * Only the player and the room they are in are checked, which keeps the
+ * check cheap enough to run after every command.
+ */
+final class Invariants {
+    /**
+     * A broken rule
+     */
+    static final class Violation {
+        /** Which rule, the same every time it breaks */
+        final String rule;
+        /** What was found */
+        final String details;
+
+        Violation(String rule, String details) {
+            this.rule = rule;
+            this.details = details;
+        }
+    }
+
+    private Invariants() {
+    }
+
+    /**
+     * Checks a game
+     * @param game The game after a line of input
+     * @return The first broken rule, or null if all rules hold
+     */
+    static Violation check(Game game) {
+        Player player = game.getPlayer();
+        if (player == null) {
+            return game.getPhase() == Game.Phase.PLAYING ? new Violation("playing without a player", "") : null;
+        }
+        Violation health = checkHealth("player", player);
+        if (health != null) {
+            return health;
+        }
+        if (!player.isAlive() && game.getPhase() == Game.Phase.PLAYING) {
+            return new Violation("game goes on after the player died", "");
+        }
+        Inventory inventory = player.getInventory();
+        if (inventory.getItems().size() > Inventory.MAX_CAPACITY) {
+            return new Violation("inventory over capacity", inventory.getItems().size() + " items");
+        }
+        if (inventory.getItems().contains(null)) {
+            return new Violation("inventory holds a null item", "");
+        }
+        Ability ability = player.getSpecialAbility();
+        if (ability.getCurrentCooldown() < 0 || ability.getCurrentCooldown() > ability.getCooldown()) {
+            return new Violation("ability cooldown out of range",
+                    ability.getCurrentCooldown() + " of " + ability.getCooldown());
+        }
+
+        Room room = game.getCurrentRoom();
+        if (room == null) {
+            return new Violation("player is in no room", "");
+        }
+        for (Enemy enemy : room.getEnemies()) {
+            if (enemy.getCurrentRoom() != room) {
+                return new Violation("enemy listed in a room it does not think it is in", enemy.getCharacterName());
+            }
+            health = checkHealth(enemy.getType().getName(), enemy);
+            if (health != null) {
+                return health;
+            }
+            if (!enemy.isAlive() && game.getPhase() == Game.Phase.PLAYING) {
+                return new Violation("defeated enemy still in the room", enemy.getCharacterName());
+            }
+        }
+        if (game.getDungeonProgress().getCurrentDepth() < 0) {
+            return new Violation("negative depth", "");
+        }
+        return null;
+    }
+
+    /**
+     * Checks that a character's HP is between 0 and its maximum
+     * @param role What the character is, part of the rule so players and each kind of enemy count apart
+     */
+    private static Violation checkHealth(String role, Character character) {
+        int health = character.getCurrentHealthPoints();
+        String details = character.getCharacterName() + " has " + health + " of " + character.getMaxHealthPoints();
+        if (health < 0) {
+            return new Violation("negative HP for " + role, details);
+        }
+        if (health > character.getMaxHealthPoints()) {
+            return new Violation("HP above maximum for " + role, details);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+package fuzz;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shrinks an input that fails to a smaller one that fails the same way.
+ * First drops chunks of lines, halving the chunk size whenever nothing can
+ * be dropped (delta debugging), then cuts the remaining lines down to their
+ * command word where that is enough.
+ */
+final class Minimizer {
+    private Minimizer() {
+    }
+
+    /**
+     * Shrinks an input
+     * @param input The failing input
+     * @param signature The failure to keep
+     * @param deadlineNanos When to stop and return the smallest input so far
+     * @return The smallest failing input found
+     */
+    static FuzzInput minimize(FuzzInput input, String signature, long deadlineNanos) {
+        List<String> lines = new ArrayList<>(input.lines);
+        int chunks = 2;
+        while (lines.size() >= 2 && System.nanoTime() < deadlineNanos) {
+            int chunkSize = (lines.size() + chunks - 1) / chunks;
+            boolean dropped = false;
+            for (int start = 0; start < lines.size(); start += chunkSize) {
+                List<String> rest = new ArrayList<>(lines.subList(0, start));
+                rest.addAll(lines.subList(Math.min(lines.size(), start + chunkSize), lines.size()));
+                if (fails(input, rest, signature)) {
+                    lines = rest;
+                    chunks = Math.max(chunks - 1, 2);
+                    dropped = true;
+                    break;
+                }
+            }
+            if (!dropped) {
+                if (chunkSize == 1) {
+                    break;
+                }
+                chunks = Math.min(lines.size(), chunks * 2);
+            }
+        }
+
+        for (int i = 0; i < lines.size() && System.nanoTime() < deadlineNanos; i++) {
+            String line = lines.get(i).trim();
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                continue;
+            }
+            List<String> shorter = new ArrayList<>(lines);
+            shorter.set(i, line.substring(0, space));
+            if (fails(input, shorter, signature)) {
+                lines = shorter;
+            }
+        }
+        return input.withLines(lines);
+    }
+
+    private static boolean fails(FuzzInput input, List<String> lines, String signature) {
+        Execution.Failure failure = Execution.replay(input.withLines(lines), null, null).failure;
+        return failure != null && failure.signature.equals(signature);
+    }
+}
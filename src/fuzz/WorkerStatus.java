@@ -0,0 +1,72 @@
+package fuzz;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+/**
+ * What one fuzz worker is doing, so the watchdog can spot a line that never finishes
+ */
+final class WorkerStatus {
+    private final Thread thread;
+    private volatile FuzzInput input;
+    private volatile List<String> played;
+    private volatile long lineStartedNanos;
+    private volatile boolean busy;
+    private volatile boolean abandoned;
+
+    WorkerStatus(Thread thread) {
+        this.thread = thread;
+    }
+
+    void begin(FuzzInput input, List<String> played) {
+        this.input = input;
+        this.played = played;
+        lineStarted();
+        busy = true;
+    }
+
+    void lineStarted() {
+        lineStartedNanos = System.nanoTime();
+    }
+
+    void end() {
+        busy = false;
+    }
+
+    /**
+     * Checks if the current line has been running for too long
+     * @param limitNanos How long a line may take
+     */
+    boolean isStuck(long now, long limitNanos) {
+        return busy && !abandoned && now - lineStartedNanos > limitNanos;
+    }
+
+    /**
+     * Gives up on the worker; it is left running but its results are ignored
+     */
+    void abandon() {
+        abandoned = true;
+    }
+
+    boolean isAbandoned() {
+        return abandoned;
+    }
+
+    Thread getThread() {
+        return thread;
+    }
+
+    /**
+     * The input being played, up to and including the stuck line
+     */
+    FuzzInput snapshot() {
+        List<String> lines;
+        try {
+            lines = new ArrayList<>(played);
+        } catch (ConcurrentModificationException e) {
+            lines = new ArrayList<>();
+        }
+        return input.withLines(lines);
+    }
+}
@@ -3,12 +3,29 @@ package game;
 import character.ability.Ability;
 import character.player.HeroClass;
 import character.player.Player;
+import command.Command;
 import command.CommandProcessor;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Collectors;
+import analytics.StreamAnalytics;
+import archive.RunArchive;
+import archive.RunRecord;
+import leaderboard.Leaderboard;
+import leaderboard.RunScore;
+import profile.PlayerProfile;
+import profile.ProfileStore;
+import utils.GameOutput;
+import utils.GameRandom;
 import world.Direction;
 import world.DungeonProgress;
 import world.Room;
+import world.RoomChanges;
 import world.generator.DungeonGeneration;
 
 /**
@@ -33,127 +50,299 @@ public class Game {
                     "Beyond it lies the entrance to a dangerous dungeon.\n" +
                     "Many have entered, few have returned...";
 
+    /** Where the game is between two lines of input */
+    public enum Phase {
+        /** Waiting for the player's name */
+        CHOOSING_NAME,
+        /** Waiting for the player's class */
+        CHOOSING_CLASS,
+        /** Waiting for a command */
+        PLAYING,
+        /** The game is over, no more input is read */
+        ENDED
+    }
+
     /** Core game components */
-    private final Scanner scanner;
     private final CommandProcessor commandProcessor;
     private final DungeonProgress dungeonProgress;
+    private final RunLog runLog;
+    private final RoomChanges roomChanges;
+    private final long seed;
+    private final Random random;
     
     /** Game state tracking */
+    private Phase phase;
+    private String playerName;
     private Room currentRoom;
+    private Room homeRoom;
+    private DungeonGeneration generator;
     private List<Room> allRooms;
     private Player player;
     private boolean isGameRunning;
+    private int turns;
+    private ProfileStore profiles;
+    private Leaderboard leaderboard;
+    private RunArchive archive;
+    private StreamAnalytics analytics;
+    private boolean admin;
+    private RuntimeException lastCommandError;
 
     /**
      * Creates a new game instance and sets up the basic components.
-     * This includes the command processor, scanner for input, and dungeon progress tracker.
+     * This includes the command processor and dungeon progress tracker.
      */
     public Game() {
-        this.scanner = new Scanner(System.in);
+        this(new Random().nextLong());
+    }
+
+    /**
+     * Creates a new game whose dungeon and enemies are decided by a seed.
+     * Playing the same commands with the same seed gives the same game.
+     * @param seed The seed for all random choices in this game
+     */
+    public Game(long seed) {
+        this(seed, new GameRandom(seed));
+    }
+
+    private Game(long seed, Random random) {
+        this.seed = seed;
+        this.random = random;
         this.dungeonProgress = new DungeonProgress();
+        this.runLog = new RunLog();
+        this.roomChanges = new RoomChanges();
         this.commandProcessor = new CommandProcessor(this);
+        this.phase = Phase.CHOOSING_NAME;
         this.isGameRunning = false;
     }
 
     /**
-     * Starts the game and manages the main game loop.
+     * Puts a saved game back together, for example after it was hibernated.
+     * @param seed The seed the game was started with
+     * @param random The game's dice, exactly as they were saved
+     * @param phase Where the game was
+     * @param playerName The name typed so far, when the class is still to be picked
+     * @param player The player, or null before the class is picked
+     * @param progress How far the player got
+     * @param turns How many commands were played
+     * @param homeRoom The starting room, or null before the dungeon exists
+     * @param currentRoom The room the player is in
+     * @return The game, ready for the next line of input
+     */
+    public static Game resume(long seed, Random random, Phase phase, String playerName, Player player,
+                              DungeonProgress progress, int turns, Room homeRoom, Room currentRoom) {
+        Game game = new Game(seed, random);
+        game.phase = phase;
+        game.playerName = playerName;
+        game.player = player;
+        game.dungeonProgress.restoreFrom(progress);
+        game.turns = turns;
+        game.homeRoom = homeRoom;
+        game.currentRoom = currentRoom;
+        if (homeRoom != null) {
+            game.generator = new DungeonGeneration(game.dungeonProgress, random);
+            homeRoom.trackChanges(game.roomChanges);
+        }
+        game.isGameRunning = phase == Phase.PLAYING;
+        return game;
+    }
+
+    /**
+     * Starts the game on the console and manages the main game loop.
      * This method:
      * - Shows the introduction
-     * - Creates the player character
-     * - Generates the game world
-     * - Runs the main game loop
+     * - Reads the player's lines one at a time
      * - Handles cleanup when the game ends
+     * Output is collected per command and written once before the game waits for input.
      */
     public void start() {
+        BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
         try {
-            initializeGame();
-            runGameLoop();
+            play(console, new GameOutput(System.out, GameOutput.FlushPolicy.PER_COMMAND));
         } catch (Exception e) {
             System.err.println("An unexpected error occurred: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Plays the game from the first prompt until it ends or the input runs out.
+     * All lines are read through the one reader, so nothing it buffers ahead is lost.
+     * @param input Where the player's lines come from
+     * @param output Where the game's text goes, written per command unless its policy says otherwise
+     * @throws UncheckedIOException if the input cannot be read
+     */
+    public void play(BufferedReader input, GameOutput output) {
+        GameOutput.bind(output);
+        try {
+            begin();
+            while (!isOver()) {
+                if (output.getPolicy() != GameOutput.FlushPolicy.WHEN_FULL) {
+                    output.flush();
+                }
+                String line = input.readLine();
+                if (line == null) {
+                    break;
+                }
+                handleLine(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the player's input", e);
         } finally {
-            cleanup();
+            output.flush();
+            GameOutput.bind(null);
         }
     }
 
     /**
-     * Initializes all game components and displays introduction.
+     * Shows the introduction and asks for the player's name.
+     * Call once before the first line of input.
      */
-    private void initializeGame() {
+    public void begin() {
         displayIntroduction();
-        createPlayerCharacter();
-        generateDungeonLayout();
+        GameOutput.print("\nEnter your character's name: ");
+    }
+
+    /**
+     * Handles one line typed by the player and prints what happens,
+     * ending with the next prompt.
+     * @param line The line, without the line break
+     */
+    public void handleLine(String line) {
+        switch (phase) {
+            case CHOOSING_NAME:
+                chooseName(line.trim());
+                break;
+            case CHOOSING_CLASS:
+                chooseClass(line.trim());
+                break;
+            case PLAYING:
+                playTurn(line);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Checks if the game will read no more input
+     * @return true once the game has ended
+     */
+    public boolean isOver() {
+        return phase == Phase.ENDED;
     }
 
     /**
      * Displays the game's introduction message.
      */
     private void displayIntroduction() {
-        System.out.printf(INTRO_MESSAGE);
+        GameOutput.printf(INTRO_MESSAGE);
     }
 
     /**
-     * Creates the player character by getting user input.
+     * Takes the player's name and moves on to picking a class.
+     * @param name The name the player typed
      */
-    private void createPlayerCharacter() {
-        Scanner scanner = new Scanner(System.in);
-        String name;
-        HeroClass selectedClass = null;
-
-        // Get player name
-        System.out.print("\nEnter your character's name: ");
-        name = scanner.nextLine().trim();
-        while (name.isEmpty()) {
-            System.out.print("Name cannot be empty. Try again: ");
-            name = scanner.nextLine().trim();
+    private void chooseName(String name) {
+        if (name.isEmpty()) {
+            GameOutput.print("Name cannot be empty. Try again: ");
+            return;
         }
+        playerName = name;
+        phase = Phase.CHOOSING_CLASS;
+        greetReturningPlayer(name);
 
         // Select character class
-        System.out.println("\nChoose your class:");
+        GameOutput.println("\nChoose your class:");
         for (HeroClass heroClass : HeroClass.values()) {
-            System.out.printf("%s - %s%n",
+            GameOutput.printf("%s - %s%n",
                     heroClass.getName(),
                     heroClass.getDescription());
         }
+        GameOutput.print("\nI'd like to pick: ");
+    }
 
-        while (selectedClass == null) {
-            System.out.print("\nI'd like to pick: ");
-            String choice = scanner.nextLine().trim();
-            try {
-                selectedClass = HeroClass.valueOf(choice.toUpperCase());
-                System.out.printf("\nYou have chosen the path of the %s!%n", selectedClass.getName());
-            } catch (IllegalArgumentException e) {
-                System.out.println("Invalid class. Please try again.");
-            }
+    /**
+     * Shows a returning player what they achieved in earlier runs.
+     * @param name The name the player typed
+     */
+    private void greetReturningPlayer(String name) {
+        if (profiles == null) {
+            return;
+        }
+        PlayerProfile profile = profiles.get(name);
+        if (profile.isNew()) {
+            return;
+        }
+        GameOutput.printf("\nWelcome back, %s! Runs: %d, victories: %d, deaths: %d, deepest room: %d%n",
+                name, profile.getRuns(), profile.getWins(), profile.getDeaths(), profile.getBestDepth());
+        if (!profile.getClearedClasses().isEmpty()) {
+            GameOutput.println("The labyrinth has fallen to your " + profile.getClearedClasses().stream()
+                    .map(HeroClass::getName)
+                    .map(heroName -> heroName.toLowerCase(Locale.ROOT))
+                    .collect(Collectors.joining(", ")) + ".");
+        }
+    }
+
+    /**
+     * Creates the player character from the chosen class and builds the dungeon.
+     * @param choice The class the player typed
+     */
+    private void chooseClass(String choice) {
+        HeroClass selectedClass;
+        try {
+            selectedClass = HeroClass.valueOf(choice.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            GameOutput.println("Invalid class. Please try again.");
+            GameOutput.print("\nI'd like to pick: ");
+            return;
         }
+        GameOutput.printf("\nYou have chosen the path of the %s!%n", selectedClass.getName());
 
-        player = new Player(name, selectedClass);
+        player = new Player(playerName, selectedClass);
+        playerName = null;
+        generateDungeonLayout();
+        phase = Phase.PLAYING;
+        isGameRunning = true;
         displayWelcomeMessage();
     }
 
-
     /**
      * Displays welcome message after character creation.
      */
     private void displayWelcomeMessage() {
-        System.out.printf("\nWelcome, %s the %s!%n",
+        GameOutput.printf("\nWelcome, %s the %s!%n",
                 player.getCharacterName(),
                 player.getHeroClass().getName());
-        System.out.println("Your adventure is about to begin...");
-        System.out.println(DUNGEON_INTRO);
+        GameOutput.println("Your adventure is about to begin...");
+        GameOutput.println(DUNGEON_INTRO);
         displayAvailableCommands(true);
-        System.out.println("\nWhat would you like to do?"); // Move this here
+        GameOutput.println("\nWhat would you like to do?"); // Move this here
     }
 
     /**
      * Generates the dungeon layout using the dungeon generator.
      */
     private void generateDungeonLayout() {
-        DungeonGeneration generator = new DungeonGeneration(dungeonProgress);
+        generator = new DungeonGeneration(dungeonProgress, random);
         Room startingRoom = generator.createStartingArea();
+        this.homeRoom = startingRoom;
         this.currentRoom = startingRoom;
+        startingRoom.trackChanges(roomChanges);
     }
 
 
+    /**
+     * Builds the next room north of a room, if the dungeon goes on.
+     * @param from The room the player wants to leave
+     * @return true if a new room was added
+     */
+    public boolean extendDungeon(Room from) {
+        if (!dungeonProgress.canGenerateNextRoom()) {
+            return false;
+        }
+        generator.generateRoomAfter(from);
+        return true;
+    }
+
     /**
      * Shows the player what they can do right now.
      * Different options appear based on where they are and what they can see.
@@ -161,11 +350,16 @@ public class Game {
      * @param isInitial true if player is at the start, false if they moved
      */
     private void displayAvailableCommands(boolean isInitial) {
-        System.out.println("\nAvailable commands:");
+        if (GameOutput.isReduced(GameOutput.Detail.NO_MENU)) {
+            // The server is busy, players know the commands by now
+            return;
+        }
+        GameOutput.beginSection(GameOutput.Section.MENU);
+        GameOutput.println("\nAvailable commands:");
 
         if (isInitial) {
             // At the start, you can only go into the dungeon
-            System.out.println("- move north    : Enter the dungeon");
+            GameOutput.println("- move north    : Enter the dungeon");
         } else {
             // Show which ways you can walk
             for (Direction dir : currentRoom.getExits().keySet()) {
@@ -178,70 +372,107 @@ public class Game {
                 } else {
                     moveDescription = "Move to next room";
                 }
-                System.out.printf("- move %-8s: %s%n", dir.name().toLowerCase(), moveDescription);
+                GameOutput.printf("- move %-8s: %s%n", dir.name().toLowerCase(), moveDescription);
             }
 
             // Show what you can do in this room
             if (currentRoom.hasEnemies()) {
-                System.out.println("- attack <name> : Attack an enemy");
+                GameOutput.println("- attack <name> : Attack an enemy");
 
                 // Show your special power and when you can use it again
                 Ability ability = player.getSpecialAbility();
                 String cooldownInfo = ability.getCurrentCooldown() > 0 ?
                         String.format(" (Cooldown: %d)", ability.getCurrentCooldown()) : "";
-                System.out.printf("- ability      : %s - %s%s%n",
+                GameOutput.printf("- ability      : %s - %s%s%n",
                         ability.getName(),
                         ability.getDescription(),
                         cooldownInfo);
             }
             if (currentRoom.hasItems()) {
-                System.out.println("- take <item>   : Pick up an item");
+                GameOutput.println("- take <item>   : Pick up an item");
             }
             // Show if you can use items from your bag
             if (player.getInventory().hasItems()) {
-                System.out.println("- use <item>    : Use an item from inventory");
+                GameOutput.println("- use <item>    : Use an item from inventory");
             }
         }
 
         // Things you can always do
-        System.out.println("- look          : Examine your surroundings");
-        System.out.println("- inventory     : Check your items");
-        System.out.println("- help          : Show all commands");
-        System.out.println("- quit          : Exit the game");
+        GameOutput.println("- look          : Examine your surroundings");
+        GameOutput.println("- inventory     : Check your items");
+        GameOutput.println("- hint          : Ask for advice on your next move");
+        GameOutput.println("- leaderboard   : See the best runs");
+        if (commandProcessor.canUndo()) {
+            GameOutput.println("- undo          : Take back your last action");
+        }
+        GameOutput.println("- help          : Show all commands");
+        GameOutput.println("- quit          : Exit the game");
+        GameOutput.endSection();
     }
 
     /**
-     * Main game loop that handles player input and game state updates.
-     * Continues until the player dies or exits the game.
+     * Plays one command and prompts for the next one,
+     * or ends the game when the player died, won or quit.
+     * @param line The command the player typed
      */
-    private void runGameLoop() {
-        isGameRunning = true;
-        String input = getValidatedInput(); // Get first input after welcome message
-        processCommand(input);              // Process first command
-
-        while (isGameRunning && player.isAlive()) {
+    private void playTurn(String line) {
+        String input = normalizeInput(line);
+        if (input.isEmpty()) {
+            GameOutput.println("Type a command, or 'help' to see them all.");
+        } else {
             try {
-                promptAction();
-                input = getValidatedInput();
                 processCommand(input);
-            } catch (Exception e) {
-                System.out.println("Invalid input: " + e.getMessage());
+            } catch (RuntimeException e) {
+                lastCommandError = e;
+                GameOutput.println("Invalid input: " + e.getMessage());
             }
         }
-        handleGameEnd();
+        finishTurn();
     }
 
     /**
-     * Gets and validates user input.
-     * @return validated user input
-     * @throws IllegalArgumentException if input is invalid
+     * Plays one command picked by position rather than typed, like a line
+     * would, see CommandProcessor.processCommand for what the target means.
+     * @param command The command
+     * @param target The position of what the command acts on
+     * @return false, with nothing changed, if the game is not waiting for a
+     *         command or the target does not exist
      */
-    private String getValidatedInput() {
-        String input = scanner.nextLine().trim().toLowerCase();
-        if (input.isEmpty()) {
-            throw new IllegalArgumentException("Input cannot be empty");
+    public boolean handleCommand(Command command, int target) {
+        if (phase != Phase.PLAYING || !commandProcessor.isValidTarget(command, target)) {
+            return false;
         }
-        return input;
+        turns++;
+        try {
+            isGameRunning = commandProcessor.processCommand(command, target);
+        } catch (RuntimeException e) {
+            lastCommandError = e;
+            GameOutput.println("Invalid input: " + e.getMessage());
+        }
+        finishTurn();
+        return true;
+    }
+
+    /**
+     * Prompts for the next command, or ends the game when the player died, won or quit
+     */
+    private void finishTurn() {
+        if (isGameRunning && player.isAlive() && !dungeonProgress.isFinalBossDefeated()) {
+            promptAction();
+        } else {
+            handleGameEnd();
+            isGameRunning = false;
+            phase = Phase.ENDED;
+        }
+    }
+
+    /**
+     * Cleans up a line of user input.
+     * @param line the line the player typed
+     * @return the command in lower case, empty for a blank line
+     */
+    private String normalizeInput(String line) {
+        return line.trim().toLowerCase();
     }
 
     /**
@@ -249,6 +480,7 @@ public class Game {
      * @param input the player's input command
      */
     private void processCommand(String input) {
+        turns++;
         isGameRunning = commandProcessor.processInput(input);
     }
 
@@ -257,7 +489,7 @@ public class Game {
      */
     private void promptAction() {
         displayAvailableCommands(false);
-        System.out.println("\nWhat would you like to do?");
+        GameOutput.println("\nWhat would you like to do?");
     }
 
     /**
@@ -265,18 +497,42 @@ public class Game {
      */
     private void handleGameEnd() {
         if (!player.isAlive()) {
-            System.out.println("Game Over! You have been defeated...");
+            GameOutput.println("Game Over! You have been defeated...");
+        } else if (dungeonProgress.isFinalBossDefeated()) {
+            GameOutput.println("The Shadow Lord has fallen! The labyrinth is free, and you are a hero.");
         } else {
-            System.out.println("Thanks for playing! Goodbye.");
+            GameOutput.println("Thanks for playing! Goodbye.");
         }
+        recordRun();
     }
 
     /**
-     * Cleans up resources when the game ends.
+     * Adds the finished run to the player's profile and the run archive,
+     * and to the leaderboard when the run was played to the end rather than quit
      */
-    private void cleanup() {
-        if (scanner != null) {
-            scanner.close();
+    private void recordRun() {
+        int bosses = (dungeonProgress.isFirstBossDefeated() ? 1 : 0)
+                + (dungeonProgress.isSecondBossDefeated() ? 1 : 0)
+                + (dungeonProgress.isFinalBossDefeated() ? 1 : 0);
+        boolean won = dungeonProgress.isFinalBossDefeated();
+        boolean died = !player.isAlive();
+        if (profiles != null) {
+            profiles.recordRun(player.getCharacterName(), player.getHeroClass(),
+                    dungeonProgress.getCurrentDepth(), bosses, won, died);
+        }
+        if (archive != null) {
+            archive.append(new RunRecord(player.getHeroClass(), seed,
+                    won ? RunRecord.Outcome.WON : died ? RunRecord.Outcome.DIED : RunRecord.Outcome.QUIT,
+                    dungeonProgress.getCurrentDepth(), turns, died ? currentRoom.getType() : null,
+                    runLog.getKiller(), runLog.getItemsUsed(), runLog.getRoundDamage()));
+        }
+        if (leaderboard != null && (won || died)) {
+            RunScore run = new RunScore(player.getCharacterName(), player.getHeroClass(),
+                    dungeonProgress.getCurrentDepth(), bosses, turns, System.currentTimeMillis());
+            if (leaderboard.submit(run)) {
+                GameOutput.printf("A new personal best! You are #%d on the leaderboard.%n",
+                        leaderboard.rankOf(run));
+            }
         }
     }
 
@@ -289,6 +545,18 @@ public class Game {
         this.currentRoom = room;
     }
 
+    public Room getHomeRoom() {
+        return homeRoom;
+    }
+
+    /**
+     * Gets the rooms that changed since the last snapshot took them
+     * @return The game's change list, empty before the dungeon exists
+     */
+    public RoomChanges getRoomChanges() {
+        return roomChanges;
+    }
+
     public Player getPlayer() {
         return player;
     }
@@ -304,4 +572,93 @@ public class Game {
     public DungeonProgress getDungeonProgress() {
         return dungeonProgress;
     }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    public CommandProcessor getCommandProcessor() {
+        return commandProcessor;
+    }
+
+    /**
+     * Keeps the player's lifetime progress in a profile store
+     * @param profiles The store, or null to play without profiles
+     */
+    public void setProfileStore(ProfileStore profiles) {
+        this.profiles = profiles;
+    }
+
+    /**
+     * Enters finished runs on a leaderboard
+     * @param leaderboard The leaderboard, or null to play without one
+     */
+    public void setLeaderboard(Leaderboard leaderboard) {
+        this.leaderboard = leaderboard;
+    }
+
+    /**
+     * Archives every finished run for later analysis
+     * @param archive The archive, or null to play without one
+     */
+    public void setRunArchive(RunArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Counts how the game is played in analytics shared with other games
+     * @param analytics The analytics, or null to count nothing
+     */
+    public void setAnalytics(StreamAnalytics analytics) {
+        this.analytics = analytics;
+        commandProcessor.getCombatSystem().setAnalytics(analytics);
+    }
+
+    public StreamAnalytics getAnalytics() {
+        return analytics;
+    }
+
+    /**
+     * Lets the player use admin commands like stats
+     * @param admin true for an admin
+     */
+    public void setAdmin(boolean admin) {
+        this.admin = admin;
+    }
+
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    public Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    /**
+     * Gets the error a command failed with, which the player only saw as invalid input
+     * @return The last such error, or null if every command went through
+     */
+    public RuntimeException getLastCommandError() {
+        return lastCommandError;
+    }
+
+    public int getTurns() {
+        return turns;
+    }
+
+    public RunLog getRunLog() {
+        return runLog;
+    }
 }
\ No newline at end of file
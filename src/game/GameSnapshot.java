@@ -0,0 +1,255 @@
+package game;
+
+import character.effect.StatusEffects;
+import character.enemy.Enemy;
+import character.player.Player;
+import combat.CombatSystem;
+import items.Item;
+import utils.GameRandom;
+import world.Direction;
+import world.DungeonProgress;
+import world.Room;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A saved copy of a running game that never changes once it is made.
+ * Snapshots share everything that did not change with the snapshot before them:
+ * items are never copied, and a room that was not touched keeps the exact
+ * saved room of the previous snapshot. Taking a snapshot after a turn only
+ * copies the player and the rooms the turn changed, which the game's
+ * RoomChanges lists, so the rest of the dungeon is never walked.
+ * The game's and the enemies' dice and the enemies already in the fight are
+ * saved too, so playing the same command again after an undo gives the same
+ * result.
+ */
+public final class GameSnapshot {
+    private final int playerHealth;
+    private final int abilityCooldown;
+    private final StatusEffects playerEffects;
+    private final List<Item> inventory;
+    private final DungeonProgress progress;
+    private final Room currentRoom;
+    private final IdentityHashMap<Room, RoomSnapshot> rooms;
+    private final List<Enemy> engaged;
+    private final long randomState;
+
+    private GameSnapshot(int playerHealth, int abilityCooldown, StatusEffects playerEffects, List<Item> inventory,
+                         DungeonProgress progress, Room currentRoom, IdentityHashMap<Room, RoomSnapshot> rooms,
+                         List<Enemy> engaged, long randomState) {
+        this.playerHealth = playerHealth;
+        this.abilityCooldown = abilityCooldown;
+        this.playerEffects = playerEffects;
+        this.inventory = inventory;
+        this.progress = progress;
+        this.currentRoom = currentRoom;
+        this.rooms = rooms;
+        this.engaged = engaged;
+        this.randomState = randomState;
+    }
+
+    /**
+     * Saves the state of a game
+     * @param game The running game
+     * @param previous An earlier snapshot of the same game to share parts with, or null
+     * @return The new snapshot
+     */
+    public static GameSnapshot capture(Game game, GameSnapshot previous) {
+        Player player = game.getPlayer();
+
+        StatusEffects effects = previous != null && previous.playerEffects.sameAs(player.getStatusEffects()) ?
+                previous.playerEffects : player.getStatusEffects().copy();
+
+        List<Item> items = player.getInventory().getItems();
+        List<Item> inventory = previous != null && sameItems(previous.inventory, items) ?
+                previous.inventory : Collections.unmodifiableList(items);
+
+        DungeonProgress progress = game.getDungeonProgress();
+        DungeonProgress savedProgress = previous != null && sameProgress(previous.progress, progress) ?
+                previous.progress : progress.copy();
+
+        List<Room> changed = new ArrayList<>();
+        game.getRoomChanges().drainTo(changed);
+        IdentityHashMap<Room, RoomSnapshot> rooms;
+        if (previous == null) {
+            rooms = new IdentityHashMap<>();
+            changed = reachableRooms(game.getHomeRoom());
+        } else {
+            rooms = copyOf(previous.rooms);
+            // Fights change enemies without changing their room, and only happen where the player is or was
+            changed.add(previous.currentRoom);
+            changed.add(game.getCurrentRoom());
+        }
+        for (Room room : changed) {
+            RoomSnapshot saved = room != null ? rooms.get(room) : null;
+            if (room != null && (saved == null || !saved.matches(room))) {
+                rooms.put(room, RoomSnapshot.of(room));
+            }
+        }
+
+        List<Enemy> engaged = game.getCommandProcessor().getCombatSystem().getEngagedEnemies(game.getCurrentRoom());
+        if (previous != null && previous.engaged.equals(engaged)) {
+            engaged = previous.engaged;
+        }
+
+        int cooldown = player.getSpecialAbility() != null ? player.getSpecialAbility().getCurrentCooldown() : 0;
+        return new GameSnapshot(player.getCurrentHealthPoints(), cooldown, effects, inventory,
+                savedProgress, game.getCurrentRoom(), rooms, engaged, stateOf(game.getRandom()));
+    }
+
+    /**
+     * Puts a game back the way it was when this snapshot was taken
+     * @param game The game to restore
+     */
+    public void restore(Game game) {
+        Player player = game.getPlayer();
+        player.setCurrentHealthPoints(playerHealth);
+        if (player.getSpecialAbility() != null) {
+            player.getSpecialAbility().setCurrentCooldown(abilityCooldown);
+        }
+        player.getStatusEffects().copyFrom(playerEffects);
+        player.getInventory().replaceItems(inventory);
+        game.getDungeonProgress().restoreFrom(progress);
+
+        for (Map.Entry<Room, RoomSnapshot> entry : rooms.entrySet()) {
+            entry.getValue().restore(entry.getKey());
+        }
+        game.setCurrentRoom(currentRoom);
+        restoreState(game.getRandom(), randomState);
+
+        CombatSystem combat = game.getCommandProcessor().getCombatSystem();
+        combat.reset();
+        combat.resumeFight(currentRoom, engaged);
+    }
+
+    /**
+     * Reads where a generator is in its sequence
+     * @return The place, or -1 for a plain Random whose place can't be read
+     */
+    private static long stateOf(Random random) {
+        return random instanceof GameRandom ? ((GameRandom) random).getState() : -1;
+    }
+
+    private static void restoreState(Random random, long state) {
+        if (state >= 0 && random instanceof GameRandom) {
+            ((GameRandom) random).setState(state);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static IdentityHashMap<Room, RoomSnapshot> copyOf(IdentityHashMap<Room, RoomSnapshot> rooms) {
+        return (IdentityHashMap<Room, RoomSnapshot>) rooms.clone();
+    }
+
+    /**
+     * Finds every room connected to the home room, for a snapshot with nothing to share
+     */
+    private static List<Room> reachableRooms(Room home) {
+        List<Room> found = new ArrayList<>();
+        if (home == null) {
+            return found;
+        }
+        Map<Room, Boolean> seen = new IdentityHashMap<>();
+        Deque<Room> toVisit = new ArrayDeque<>();
+        toVisit.push(home);
+        seen.put(home, Boolean.TRUE);
+        while (!toVisit.isEmpty()) {
+            Room room = toVisit.pop();
+            found.add(room);
+            for (Room next : room.getExits().values()) {
+                if (seen.put(next, Boolean.TRUE) == null) {
+                    toVisit.push(next);
+                }
+            }
+        }
+        return found;
+    }
+
+    private static boolean sameItems(List<Item> saved, List<Item> items) {
+        if (saved.size() != items.size()) {
+            return false;
+        }
+        for (int i = 0; i < saved.size(); i++) {
+            if (saved.get(i) != items.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameProgress(DungeonProgress saved, DungeonProgress progress) {
+        return saved.getCurrentDepth() == progress.getCurrentDepth()
+                && saved.getRoomsSinceLastBoss() == progress.getRoomsSinceLastBoss()
+                && saved.isFirstBossDefeated() == progress.isFirstBossDefeated()
+                && saved.isSecondBossDefeated() == progress.isSecondBossDefeated()
+                && saved.isFinalBossDefeated() == progress.isFinalBossDefeated();
+    }
+
+    /**
+     * A saved copy of one room and the enemies in it
+     */
+    private static final class RoomSnapshot {
+        private final int version;
+        private final List<Item> items;
+        private final List<Enemy> enemies;
+        private final int[] enemyHealth;
+        private final StatusEffects[] enemyEffects;
+        private final long[] enemyRandomStates;
+        private final Map<Direction, Room> exits;
+        private final boolean cleared;
+
+        private RoomSnapshot(Room room) {
+            this.version = room.getVersion();
+            this.items = room.getItems();
+            this.enemies = room.getEnemies();
+            this.enemyHealth = new int[enemies.size()];
+            this.enemyEffects = new StatusEffects[enemies.size()];
+            this.enemyRandomStates = new long[enemies.size()];
+            for (int i = 0; i < enemies.size(); i++) {
+                enemyHealth[i] = enemies.get(i).getCurrentHealthPoints();
+                enemyEffects[i] = enemies.get(i).getStatusEffects().copy();
+                enemyRandomStates[i] = stateOf(enemies.get(i).getRandom());
+            }
+            this.exits = room.getExits();
+            this.cleared = room.isCleared();
+        }
+
+        static RoomSnapshot of(Room room) {
+            return new RoomSnapshot(room);
+        }
+
+        /**
+         * Checks if the room still looks exactly like this saved copy
+         */
+        boolean matches(Room room) {
+            if (room.getVersion() != version) {
+                return false;
+            }
+            for (int i = 0; i < enemies.size(); i++) {
+                Enemy enemy = enemies.get(i);
+                if (enemy.getCurrentHealthPoints() != enemyHealth[i]
+                        || !enemy.getStatusEffects().sameAs(enemyEffects[i])
+                        || stateOf(enemy.getRandom()) != enemyRandomStates[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void restore(Room room) {
+            for (int i = 0; i < enemies.size(); i++) {
+                enemies.get(i).setCurrentHealthPoints(enemyHealth[i]);
+                enemies.get(i).getStatusEffects().copyFrom(enemyEffects[i]);
+                restoreState(enemies.get(i).getRandom(), enemyRandomStates[i]);
+            }
+            room.restore(items, enemies, exits, cleared);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package game;
+
+import character.enemy.EnemyType;
+import items.ItemsType;
+
+import java.util.Arrays;
+
+/**
+ * Notes what happened during one run that the end-of-run records need:
+ * which kinds of items were used, how much damage the player took in each
+ * round of enemy attacks, and which enemy dealt the killing blow.
+ */
+public class RunLog {
+    private int itemsUsed;
+    private int[] roundDamage;
+    private int rounds;
+    private EnemyType killer;
+
+    public RunLog() {
+        this.roundDamage = new int[16];
+    }
+
+    /**
+     * Notes that the player used an item
+     * @param type The kind of item
+     */
+    public void recordItemUse(ItemsType type) {
+        itemsUsed |= 1 << type.ordinal();
+    }
+
+    /**
+     * Notes the damage the player took in one round of enemy turns
+     * @param damage Health lost in the round
+     */
+    public void recordRound(int damage) {
+        if (rounds == roundDamage.length) {
+            roundDamage = Arrays.copyOf(roundDamage, rounds * 2);
+        }
+        roundDamage[rounds++] = Math.max(0, damage);
+    }
+
+    /**
+     * Notes the enemy that killed the player
+     * @param type The enemy's type
+     */
+    public void recordKiller(EnemyType type) {
+        killer = type;
+    }
+
+    /**
+     * Checks if the player used a kind of item
+     * @param type The kind of item
+     * @return true if at least one was used
+     */
+    public boolean hasUsed(ItemsType type) {
+        return (itemsUsed & (1 << type.ordinal())) != 0;
+    }
+
+    /**
+     * Gets the kinds of items used, one bit per ItemsType ordinal
+     * @return The bits
+     */
+    public int getItemsUsed() {
+        return itemsUsed;
+    }
+
+    /**
+     * Gets the damage taken per round
+     * @return A copy, oldest round first
+     */
+    public int[] getRoundDamage() {
+        return Arrays.copyOf(roundDamage, rounds);
+    }
+
+    /**
+     * Gets the enemy that killed the player
+     * @return The enemy's type, or null if no enemy did
+     */
+    public EnemyType getKiller() {
+        return killer;
+    }
+
+    /**
+     * Goes back to the point stored in another log
+     * @param saved The log to copy
+     */
+    public void restoreFrom(RunLog saved) {
+        restore(saved.itemsUsed, saved.getRoundDamage(), saved.killer);
+    }
+
+    /**
+     * Goes back to a saved log
+     * @param itemsUsed The kinds of items used
+     * @param roundDamage The damage taken per round
+     * @param killer The enemy that killed the player, or null
+     */
+    public void restore(int itemsUsed, int[] roundDamage, EnemyType killer) {
+        this.itemsUsed = itemsUsed;
+        this.roundDamage = Arrays.copyOf(roundDamage, Math.max(16, roundDamage.length));
+        this.rounds = roundDamage.length;
+        this.killer = killer;
+    }
+}
@@ -0,0 +1,57 @@
+package game;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Remembers the last few game states so the player can take back actions.
+ */
+public class UndoHistory {
+    private static final int MAX_STEPS = 20;
+
+    private final Deque<GameSnapshot> snapshots;
+
+    public UndoHistory() {
+        this.snapshots = new ArrayDeque<>();
+    }
+
+    /**
+     * Saves the game as it is right now
+     * @param game The running game
+     */
+    public void record(Game game) {
+        snapshots.push(GameSnapshot.capture(game, snapshots.peek()));
+        if (snapshots.size() > MAX_STEPS) {
+            snapshots.removeLast();
+        }
+    }
+
+    /**
+     * Puts the game back to the last saved state
+     * @param game The running game
+     * @return true if there was something to undo
+     */
+    public boolean undo(Game game) {
+        GameSnapshot snapshot = snapshots.poll();
+        if (snapshot == null) {
+            return false;
+        }
+        snapshot.restore(game);
+        return true;
+    }
+
+    /**
+     * Checks if there is anything to undo
+     * @return true if at least one state is saved
+     */
+    public boolean canUndo() {
+        return !snapshots.isEmpty();
+    }
+
+    /**
+     * Forgets all saved states
+     */
+    public void clear() {
+        snapshots.clear();
+    }
+}
@@ -0,0 +1,221 @@
+package gym;
+
+import character.ability.Ability;
+import character.enemy.Enemy;
+import character.player.HeroClass;
+import character.player.Player;
+import combat.CombatSystem;
+import combat.WinProbabilityOracle;
+import items.Item;
+import items.ItemsType;
+import world.Direction;
+import world.DungeonProgress;
+import world.Room;
+import world.generator.DungeonGeneration;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * One game driven by action numbers instead of typed commands.
+ * Uses the real dungeon generator and combat rules, like the run simulator,
+ * but leaves every choice to the caller and never describes rooms.
+ */
+final class DungeonEnv {
+    /** Combat without danger ratings, which a bot has no use for */
+    private static final WinProbabilityOracle NO_ODDS = new WinProbabilityOracle(List.of());
+
+    private static final HeroClass[] HEROES = HeroClass.values();
+    private static final ItemsType[] ITEM_TYPES = ItemsType.values();
+
+    private final HeroClass fixedHero;
+    private DungeonProgress progress;
+    private DungeonGeneration generator;
+    private CombatSystem combat;
+    private Player player;
+    private Room room;
+    private int steps;
+    private int deepest;
+    private int bosses;
+
+    /**
+     * Creates an environment
+     * @param fixedHero The class to always play, or null to pick one from each episode's seed
+     */
+    DungeonEnv(HeroClass fixedHero) {
+        this.fixedHero = fixedHero;
+    }
+
+    /**
+     * Starts a new episode
+     * @param seed Decides the hero (unless fixed), the dungeon and the dice
+     */
+    void reset(long seed) {
+        progress = new DungeonProgress();
+        generator = new DungeonGeneration(progress, new Random(seed));
+        combat = new CombatSystem(progress, NO_ODDS);
+        HeroClass hero = fixedHero != null ? fixedHero : HEROES[(int) Math.floorMod(seed, (long) HEROES.length)];
+        player = new Player("Bot", hero);
+        room = generator.createStartingArea();
+        steps = 0;
+        deepest = 0;
+        bosses = 0;
+    }
+
+    /**
+     * Plays one action
+     * @param action One of the VectorEnv action numbers
+     * @return The reward for the action
+     */
+    float step(int action) {
+        steps++;
+        float reward = VectorEnv.STEP_REWARD;
+        int enemiesBefore = room.getEnemies().size();
+        Room roomBefore = room;
+
+        if (!apply(action)) {
+            reward += VectorEnv.INVALID_ACTION_REWARD;
+        }
+
+        if (room == roomBefore) {
+            reward += (enemiesBefore - room.getEnemies().size()) * VectorEnv.KILL_REWARD;
+        }
+        int depth = progress.getCurrentDepth();
+        if (depth > deepest) {
+            reward += (depth - deepest) * VectorEnv.DEPTH_REWARD;
+            deepest = depth;
+        }
+        int defeated = bossesDefeated();
+        if (defeated > bosses) {
+            reward += (defeated - bosses) * VectorEnv.BOSS_REWARD;
+            bosses = defeated;
+        }
+        if (progress.isFinalBossDefeated()) {
+            reward += VectorEnv.WIN_REWARD;
+        } else if (!player.isAlive()) {
+            reward += VectorEnv.DEATH_REWARD;
+        }
+        return reward;
+    }
+
+    /**
+     * Carries out an action the way the matching command would
+     * @return false if the action was not possible and nothing happened
+     */
+    private boolean apply(int action) {
+        if (action == VectorEnv.MOVE_NORTH || action == VectorEnv.MOVE_SOUTH) {
+            return move(action == VectorEnv.MOVE_NORTH ? Direction.NORTH : Direction.SOUTH);
+        }
+        if (action >= VectorEnv.ATTACK && action < VectorEnv.ATTACK + VectorEnv.ENEMY_SLOTS) {
+            List<Enemy> enemies = room.getEnemies();
+            int slot = action - VectorEnv.ATTACK;
+            if (slot >= enemies.size()) {
+                return false;
+            }
+            combat.handleAttack(player, room, enemies.get(slot));
+            return true;
+        }
+        if (action == VectorEnv.ABILITY) {
+            if (!room.hasEnemies() || player.getSpecialAbility().getCurrentCooldown() > 0) {
+                return false;
+            }
+            combat.handleAbility(player, room);
+            return true;
+        }
+        if (action == VectorEnv.TAKE) {
+            if (!room.hasItems() || player.getInventory().isFull()) {
+                return false;
+            }
+            player.addToInventory(room.removeItem(room.getItems().get(0).getName()));
+            combat.handlePostAction(player, room);
+            return true;
+        }
+        if (action >= VectorEnv.USE && action < VectorEnv.USE + ITEM_TYPES.length) {
+            Item item = findItem(ITEM_TYPES[action - VectorEnv.USE]);
+            if (item == null) {
+                return false;
+            }
+            player.useItem(item.getName());
+            combat.handlePostAction(player, room);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean move(Direction direction) {
+        if (room.hasEnemies()) {
+            return false;
+        }
+        if (direction == Direction.NORTH && !room.hasExit(direction) && progress.canGenerateNextRoom()) {
+            generator.generateRoomAfter(room);
+        }
+        if (!room.hasExit(direction)) {
+            return false;
+        }
+        room = room.getExit(direction);
+        return true;
+    }
+
+    private Item findItem(ItemsType type) {
+        for (Item item : player.getInventory().getItems()) {
+            if (item.getType() == type) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private int bossesDefeated() {
+        return (progress.isFirstBossDefeated() ? 1 : 0)
+                + (progress.isSecondBossDefeated() ? 1 : 0)
+                + (progress.isFinalBossDefeated() ? 1 : 0);
+    }
+
+    /**
+     * Checks if the episode ended by itself
+     * @return true if the player died or won
+     */
+    boolean isTerminated() {
+        return !player.isAlive() || progress.isFinalBossDefeated();
+    }
+
+    int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Writes what the agent sees into a slice of a shared array
+     * @param out The observations of every environment
+     * @param offset Where this environment's slice starts
+     */
+    void observe(float[] out, int offset) {
+        Arrays.fill(out, offset, offset + VectorEnv.OBSERVATION_SIZE, 0f);
+        out[offset + VectorEnv.OBS_HP] = (float) player.getCurrentHealthPoints() / player.getMaxHealthPoints();
+        out[offset + VectorEnv.OBS_MAX_HP] = player.getMaxHealthPoints() / 100f;
+        Ability ability = player.getSpecialAbility();
+        out[offset + VectorEnv.OBS_COOLDOWN] = (float) ability.getCurrentCooldown() / Math.max(1, ability.getCooldown());
+        out[offset + VectorEnv.OBS_ABILITY_READY] = ability.getCurrentCooldown() == 0 ? 1f : 0f;
+        List<Item> items = player.getInventory().getItems();
+        for (int i = 0; i < items.size(); i++) {
+            out[offset + VectorEnv.OBS_INVENTORY + items.get(i).getType().ordinal()] += 0.1f;
+        }
+        out[offset + VectorEnv.OBS_INVENTORY_FULL] = player.getInventory().isFull() ? 1f : 0f;
+        out[offset + VectorEnv.OBS_DEPTH] = progress.getCurrentDepth() / 8f;
+        out[offset + VectorEnv.OBS_BOSSES] = bossesDefeated() / 3f;
+        out[offset + VectorEnv.OBS_ROOM_TYPE + room.getType().ordinal()] = 1f;
+        out[offset + VectorEnv.OBS_FLOOR_ITEMS] = room.getItems().size() / 5f;
+        out[offset + VectorEnv.OBS_STEPS] = (float) steps / VectorEnv.MAX_EPISODE_STEPS;
+        out[offset + VectorEnv.OBS_HERO + player.getHeroClass().ordinal()] = 1f;
+
+        List<Enemy> enemies = room.getEnemies();
+        for (int slot = 0; slot < Math.min(enemies.size(), VectorEnv.ENEMY_SLOTS); slot++) {
+            Enemy enemy = enemies.get(slot);
+            int base = offset + VectorEnv.OBS_ENEMIES + slot * VectorEnv.ENEMY_FIELDS;
+            out[base] = 1f;
+            out[base + 1] = (float) enemy.getCurrentHealthPoints() / enemy.getMaxHealthPoints();
+            out[base + 2] = enemy.getCurrentHealthPoints() / 100f;
+            out[base + 3] = (enemy.getType().ordinal() + 1f) / VectorEnv.ENEMY_TYPES;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package gym;
+
+import character.enemy.EnemyType;
+import character.player.HeroClass;
+import items.ItemsType;
+import utils.GameOutput;
+import utils.Metrics;
+import world.RoomType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A batch of games for training bots, stepped together.
+ * Every game takes one action number per step and reports what it sees as
+ * a fixed row of floats, so a whole batch fits in a few flat arrays that are
+ * reused from step to step. Nothing is printed or formatted; games run in
+ * parallel on a fork-join pool, a chunk of games per worker. A game that ends
+ * starts over right away with the next seed of its own stream, so the same
+ * reset seed and actions always give the same results.
+ */
+public class VectorEnv {
+    /** Actions a game takes */
+    public static final int MOVE_NORTH = 0;
+    public static final int MOVE_SOUTH = 1;
+    /** Attack the enemy in slot 0; slots 1 to 3 follow */
+    public static final int ATTACK = 2;
+    public static final int ABILITY = 6;
+    public static final int TAKE = 7;
+    /** Drink the first item of a type, in ItemsType order */
+    public static final int USE = 8;
+    public static final int ACTION_COUNT = USE + ItemsType.values().length;
+
+    /** Enemies shown per room; enemies past the last slot are hidden */
+    public static final int ENEMY_SLOTS = 4;
+
+    /** Longest an episode can run before it is cut off */
+    public static final int MAX_EPISODE_STEPS = 500;
+
+    /** Where each value sits in a game's row of observations */
+    public static final int OBS_HP = 0;
+    public static final int OBS_MAX_HP = 1;
+    public static final int OBS_COOLDOWN = 2;
+    public static final int OBS_ABILITY_READY = 3;
+    /** Items carried per type, a tenth for each */
+    public static final int OBS_INVENTORY = 4;
+    public static final int OBS_INVENTORY_FULL = OBS_INVENTORY + ItemsType.values().length;
+    public static final int OBS_DEPTH = OBS_INVENTORY_FULL + 1;
+    public static final int OBS_BOSSES = OBS_DEPTH + 1;
+    /** Room type, one-hot */
+    public static final int OBS_ROOM_TYPE = OBS_BOSSES + 1;
+    public static final int OBS_FLOOR_ITEMS = OBS_ROOM_TYPE + RoomType.values().length;
+    public static final int OBS_STEPS = OBS_FLOOR_ITEMS + 1;
+    /** Per enemy slot: present, HP share, HP, type */
+    public static final int OBS_ENEMIES = OBS_STEPS + 1;
+    public static final int ENEMY_FIELDS = 4;
+    /** Hero class, one-hot */
+    public static final int OBS_HERO = OBS_ENEMIES + ENEMY_SLOTS * ENEMY_FIELDS;
+    public static final int OBSERVATION_SIZE = OBS_HERO + HeroClass.values().length;
+
+    static final int ENEMY_TYPES = EnemyType.values().length;
+
+    /** Rewards */
+    static final float STEP_REWARD = -0.01f;
+    static final float INVALID_ACTION_REWARD = -0.1f;
+    static final float KILL_REWARD = 0.5f;
+    static final float DEPTH_REWARD = 1f;
+    static final float BOSS_REWARD = 5f;
+    static final float WIN_REWARD = 10f;
+    static final float DEATH_REWARD = -5f;
+
+    /** Shared by every batch, one worker per core */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /** Fewest games a worker steps at once, so small batches are not split too thin */
+    private static final int MIN_CHUNK = 64;
+
+    private final DungeonEnv[] envs;
+    private final SplittableRandom[] seeders;
+    private final float[] observations;
+    private final float[] rewards;
+    private final boolean[] dones;
+    private final boolean[] truncated;
+    private final ForkJoinPool pool;
+    private final int chunk;
+    private int[] actions;
+
+    /**
+     * Creates a batch where each episode plays a class picked from its seed
+     * @param count Number of games
+     */
+    public VectorEnv(int count) {
+        this(count, null, POOL);
+    }
+
+    /**
+     * Creates a batch
+     * @param count Number of games
+     * @param hero The class every game plays, or null to pick one per episode
+     * @param pool The pool whose workers step the games
+     */
+    public VectorEnv(int count, HeroClass hero, ForkJoinPool pool) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("A batch needs at least one game");
+        }
+        this.envs = new DungeonEnv[count];
+        this.seeders = new SplittableRandom[count];
+        for (int i = 0; i < count; i++) {
+            envs[i] = new DungeonEnv(hero);
+        }
+        this.observations = new float[count * OBSERVATION_SIZE];
+        this.rewards = new float[count];
+        this.dones = new boolean[count];
+        this.truncated = new boolean[count];
+        this.pool = pool;
+        this.chunk = Math.max(MIN_CHUNK, (count + pool.getParallelism() - 1) / pool.getParallelism());
+    }
+
+    /**
+     * Starts every game over
+     * @param seed Decides every game of the batch, including the ones that follow auto-resets
+     * @return The first observations, OBSERVATION_SIZE floats per game
+     */
+    public float[] reset(long seed) {
+        SplittableRandom root = new SplittableRandom(seed);
+        for (int i = 0; i < envs.length; i++) {
+            seeders[i] = root.split();
+        }
+        runChunks(false);
+        return observations;
+    }
+
+    /**
+     * Plays one action in every game.
+     * A game that ends reports its last reward and done flag, and its row of
+     * observations already shows the first state of the next episode.
+     * @param actions One action per game
+     * @return The observations after the step, OBSERVATION_SIZE floats per game
+     */
+    public float[] step(int[] actions) {
+        if (actions.length != envs.length) {
+            throw new IllegalArgumentException("Expected " + envs.length + " actions, got " + actions.length);
+        }
+        if (seeders[0] == null) {
+            throw new IllegalStateException("Call reset before step");
+        }
+        this.actions = actions;
+        long start = System.nanoTime();
+        runChunks(true);
+        long elapsed = System.nanoTime() - start;
+        Metrics.increment("gym.steps", envs.length);
+        Metrics.set("gym.stepsPerSecond", envs.length * 1e9 / Math.max(1, elapsed));
+        return observations;
+    }
+
+    /**
+     * Splits the batch into chunks and waits for the pool to finish them
+     */
+    private void runChunks(boolean stepping) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int start = 0; start < envs.length; start += chunk) {
+            int from = start;
+            int to = Math.min(envs.length, start + chunk);
+            tasks.add(pool.submit(() -> runChunk(from, to, stepping)));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while stepping", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Stepping failed", e.getCause());
+            }
+        }
+    }
+
+    private void runChunk(int from, int to, boolean stepping) {
+        GameOutput.bind(GameOutput.discard());
+        try {
+            for (int i = from; i < to; i++) {
+                if (stepping) {
+                    stepOne(i);
+                } else {
+                    envs[i].reset(seeders[i].nextLong());
+                    rewards[i] = 0;
+                    dones[i] = false;
+                    truncated[i] = false;
+                }
+                envs[i].observe(observations, i * OBSERVATION_SIZE);
+            }
+        } finally {
+            GameOutput.bind(null);
+        }
+    }
+
+    private void stepOne(int i) {
+        DungeonEnv env = envs[i];
+        rewards[i] = env.step(actions[i]);
+        boolean terminated = env.isTerminated();
+        truncated[i] = !terminated && env.getSteps() >= MAX_EPISODE_STEPS;
+        dones[i] = terminated || truncated[i];
+        if (dones[i]) {
+            env.reset(seeders[i].nextLong());
+        }
+    }
+
+    /**
+     * The observations of the last reset or step, OBSERVATION_SIZE floats per game.
+     * The array is reused, so copy it to keep it past the next step.
+     */
+    public float[] getObservations() {
+        return observations;
+    }
+
+    /** Rewards of the last step, one per game */
+    public float[] getRewards() {
+        return rewards;
+    }
+
+    /** Games whose episode ended on the last step, by death, victory or the step limit */
+    public boolean[] getDones() {
+        return dones;
+    }
+
+    /** Games cut off by the step limit on the last step rather than ending by themselves */
+    public boolean[] getTruncated() {
+        return truncated;
+    }
+
+    public int size() {
+        return envs.length;
+    }
+}
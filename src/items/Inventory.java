@@ -2,20 +2,24 @@ package items;
 
 import java.util.ArrayList;
 import java.util.List;
+import utils.GameOutput;
 
 /**
  * Holds and manages a player's items.
  * Can only hold up to 10 items at once.
  */
 public class Inventory {
-    private static final int MAX_CAPACITY = 10;
+    /** Most items an inventory can hold */
+    public static final int MAX_CAPACITY = 10;
     private final List<Item> items;
+    private boolean dirty;
 
     /**
      * Makes a new empty inventory
      */
     public Inventory() {
         this.items = new ArrayList<>();
+        this.dirty = true;
     }
 
     /**
@@ -27,6 +31,7 @@ public class Inventory {
         if (items.size() >= MAX_CAPACITY) {
             return false;
         }
+        dirty = true;
         return items.add(item);
     }
 
@@ -41,12 +46,26 @@ public class Inventory {
             String currentItemName = currentItem.getName();
 
             if (currentItemName.equalsIgnoreCase(itemName)) {
+                dirty = true;
                 return items.remove(i);
             }
         }
         return null;
     }
 
+    /**
+     * Takes one item out of the inventory, even if another item has the same name
+     * @param item The item to remove
+     * @return true if it was in the inventory
+     */
+    public boolean removeItem(Item item) {
+        if (!items.remove(item)) {
+            return false;
+        }
+        dirty = true;
+        return true;
+    }
+
     /**
      * Looks for an item in the inventory
      * @param itemName The name of the item to find
@@ -74,16 +93,16 @@ public class Inventory {
      */
     public void showContents() {
         if (items.isEmpty()) {
-            System.out.println("Your inventory is empty.");
+            GameOutput.println("Your inventory is empty.");
             return;
         }
 
         int currentSize = items.size();
-        System.out.println("\nInventory (" + currentSize + "/" + MAX_CAPACITY + " items):");
+        GameOutput.println("\nInventory (" + currentSize + "/" + MAX_CAPACITY + " items):");
 
         for (Item item : items) {
             String itemName = item.getName();
-            System.out.println("- " + itemName);
+            GameOutput.println("- " + itemName);
         }
     }
 
@@ -95,6 +114,48 @@ public class Inventory {
         return new ArrayList<>(items);
     }
 
+    /**
+     * Counts the items without copying them
+     * @return The number of items held
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Gets an item by slot, in the order getItems lists them
+     * @param slot Position of the item
+     * @return The item
+     */
+    public Item getItem(int slot) {
+        return items.get(slot);
+    }
+
+    /**
+     * Replaces all items, used when going back to a saved state
+     * @param savedItems The items to hold from now on
+     */
+    public void replaceItems(List<Item> savedItems) {
+        items.clear();
+        items.addAll(savedItems);
+        dirty = true;
+    }
+
+    /**
+     * Checks if the inventory changed since the last checkpoint
+     * @return true if there are unsaved changes
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Marks the inventory as saved
+     */
+    public void clearDirty() {
+        dirty = false;
+    }
+
     /**
      * Checks if inventory can hold more items
      * @return true if inventory is full
@@ -1,6 +1,9 @@
 package items;
 
+import character.effect.StatusEffect;
+import character.effect.StatusEffects;
 import character.player.Player;
+import utils.GameOutput;
 
 /**
  * Things players can find and use in the game.
@@ -42,7 +45,7 @@ public class Item {
                 useDodgePotion(player);
                 break;
             default:
-                System.out.println("This item can't be used right now.");
+                GameOutput.println("This item can't be used right now.");
         }
     }
 
@@ -51,24 +54,25 @@ public class Item {
      */
     private void useHealthPotion(Player player) {
         player.heal(value);
-        System.out.println("You drink the health potion and feel better!");
-        System.out.println("Healed for " + value + " health!");
+        GameOutput.println("You drink the health potion and feel better!");
+        GameOutput.println("Healed for " + value + " health!");
     }
 
     /**
      * Makes the player's next attack stronger
      */
     private void useDamagePotion(Player player) {
-        player.setDamageMultiplier(1.0 + (value / 100.0));
-        System.out.println("Your next attack will be " + value + "% stronger!");
+        player.getStatusEffects().apply(StatusEffect.DAMAGE_BOOST, 1, StatusEffects.UNTIL_USED, value);
+        GameOutput.println("Your next attack will be " + value + "% stronger!");
     }
 
     /**
-     * Lets the player dodge the next attack
+     * Lets the player dodge the next attacks (one per point of value)
      */
     private void useDodgePotion(Player player) {
-        player.setDodgeNextAttack(true);
-        System.out.println("You will dodge the next attack!");
+        player.getStatusEffects().apply(StatusEffect.DODGE, value, StatusEffects.UNTIL_USED, 0);
+        GameOutput.println(value > 1 ?
+                "You will dodge the next " + value + " attacks!" : "You will dodge the next attack!");
     }
 
     // Simple getters
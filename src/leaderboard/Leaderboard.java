@@ -0,0 +1,261 @@
+package leaderboard;
+
+import character.player.HeroClass;
+import utils.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Ranks every player by their best finished run.
+ * Runs are kept in a concurrent skip list in ranking order, so the top of the
+ * board is simply its first entries. A rank counter next to it counts runs per
+ * score, which gives any player's rank in O(log n). Neither needs a global
+ * lock: only updates of the same player wait for each other.
+ */
+public class Leaderboard implements AutoCloseable {
+    private static final int MAGIC = 0x4C564C42;
+    private static final int VERSION = 2;
+    /** Files of this version stored hero classes by their position in HeroClass */
+    private static final int ORDINAL_VERSION = 1;
+
+    private final Path file;
+    private final ConcurrentSkipListSet<RunScore> ranking;
+    private final ConcurrentHashMap<String, RunScore> bestByPlayer;
+    private final RankCounter counter;
+    private final AtomicLong changes;
+    private long savedChanges;
+    private ScheduledExecutorService saver;
+
+    private Leaderboard(Path file) {
+        this.file = file;
+        this.ranking = new ConcurrentSkipListSet<>(RunScore.ORDER);
+        this.bestByPlayer = new ConcurrentHashMap<>();
+        this.counter = new RankCounter(RunScore.BUCKETS);
+        this.changes = new AtomicLong();
+    }
+
+    /**
+     * Creates a leaderboard that lives only in memory
+     * @return An empty leaderboard
+     */
+    public static Leaderboard inMemory() {
+        return new Leaderboard(null);
+    }
+
+    /**
+     * Opens the leaderboard saved in a file, or an empty one if the file does not exist yet
+     * @param file Where the leaderboard is saved
+     * @return The leaderboard
+     */
+    public static Leaderboard open(Path file) throws IOException {
+        Leaderboard board = new Leaderboard(file);
+        if (Files.exists(file)) {
+            board.load();
+        }
+        return board;
+    }
+
+    /**
+     * Enters a finished run. Only a player's best run stays on the board.
+     * @param run The run
+     * @return true if it is the player's new best run
+     */
+    public boolean submit(RunScore run) {
+        boolean[] improved = new boolean[1];
+        bestByPlayer.compute(key(run.getPlayerName()), (name, best) -> {
+            if (best != null && !run.beats(best)) {
+                return best;
+            }
+            if (best != null) {
+                ranking.remove(best);
+                counter.add(best.getBucket(), -1);
+            }
+            ranking.add(run);
+            counter.add(run.getBucket(), 1);
+            improved[0] = true;
+            return run;
+        });
+        if (improved[0]) {
+            changes.incrementAndGet();
+            Metrics.increment("leaderboard.improvements", 1);
+        }
+        Metrics.increment("leaderboard.submissions", 1);
+        return improved[0];
+    }
+
+    /**
+     * Gets a player's best run
+     * @param playerName The player's name
+     * @return The run, or null if the player is not on the board
+     */
+    public RunScore getBest(String playerName) {
+        return bestByPlayer.get(key(playerName));
+    }
+
+    /**
+     * Gets the place of a player on the board. Players with the same score share a place.
+     * @param playerName The player's name
+     * @return The place, 1 being the best, or 0 if the player is not on the board
+     */
+    public long rankOf(String playerName) {
+        RunScore best = getBest(playerName);
+        return best == null ? 0 : rankOf(best);
+    }
+
+    /**
+     * Gets the place a run has on the board
+     * @param run A run on the board
+     * @return The place, 1 being the best
+     */
+    public long rankOf(RunScore run) {
+        return counter.countBefore(run.getBucket()) + 1;
+    }
+
+    /**
+     * Gets the best runs
+     * @param count How many runs to get
+     * @return Up to count runs, best first
+     */
+    public List<RunScore> top(int count) {
+        List<RunScore> top = new ArrayList<>(Math.min(count, 64));
+        Iterator<RunScore> runs = ranking.iterator();
+        while (top.size() < count && runs.hasNext()) {
+            top.add(runs.next());
+        }
+        return top;
+    }
+
+    /**
+     * Counts the players on the board
+     * @return The number of players with a finished run
+     */
+    public long size() {
+        return counter.total();
+    }
+
+    /**
+     * Saves the board every few seconds on a background thread
+     * @param periodMillis Time between two saves
+     */
+    public synchronized void startSaving(long periodMillis) {
+        if (saver != null || file == null) {
+            return;
+        }
+        saver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "leaderboard-saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        saver.scheduleWithFixedDelay(() -> {
+            try {
+                save();
+            } catch (IOException e) {
+                // Keep the board in memory and try again next time
+                Metrics.increment("leaderboard.saveFailures", 1);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the board to its file if it changed since the last save.
+     * The file is written next to the old one and then moved over it,
+     * so a crash never leaves half a leaderboard behind.
+     */
+    public synchronized void save() throws IOException {
+        long seen = changes.get();
+        if (file == null || seen == savedChanges) {
+            return;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(Files.newOutputStream(temp), deflater)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            List<RunScore> runs = new ArrayList<>(ranking);
+            out.writeInt(runs.size());
+            for (RunScore run : runs) {
+                out.writeUTF(run.getPlayerName());
+                out.writeUTF(run.getHeroClass().name());
+                out.writeByte(run.getDepth());
+                out.writeByte(run.getBossesDefeated());
+                out.writeInt(run.getTurns());
+                out.writeLong(run.getFinishedMillis());
+            }
+        } finally {
+            deflater.end();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        savedChanges = seen;
+        Metrics.increment("leaderboard.saves", 1);
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(Files.newInputStream(file))))) {
+            int version = in.readInt() == MAGIC ? in.readUnsignedByte() : -1;
+            if (version != VERSION && version != ORDINAL_VERSION) {
+                throw new IOException("Not a leaderboard file: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                HeroClass heroClass = version == ORDINAL_VERSION
+                        ? HeroClass.values()[in.readUnsignedByte()] : heroClass(in.readUTF());
+                submit(new RunScore(name, heroClass, in.readByte(), in.readByte(), in.readInt(), in.readLong()));
+            }
+        }
+        savedChanges = changes.get();
+    }
+
+    /**
+     * Stops saving in the background and saves one last time
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (saver != null) {
+                saver.shutdown();
+                saver = null;
+            }
+        }
+        try {
+            save();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not save leaderboard", e);
+        }
+    }
+
+    private HeroClass heroClass(String name) throws IOException {
+        try {
+            return HeroClass.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown hero class " + name + " in " + file);
+        }
+    }
+
+    private static String key(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,48 @@
+package leaderboard;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts entries per score bucket and sums them over a range of buckets,
+ * both in O(log n). This is a Fenwick tree whose cells are updated with
+ * atomic adds, so any number of threads can count at once without a lock.
+ */
+final class RankCounter {
+    private final AtomicLongArray tree;
+
+    RankCounter(int buckets) {
+        this.tree = new AtomicLongArray(buckets + 1);
+    }
+
+    /**
+     * Changes the count of one bucket
+     * @param bucket The bucket, from 0
+     * @param delta How much to add, negative to remove
+     */
+    void add(int bucket, long delta) {
+        for (int i = bucket + 1; i < tree.length(); i += i & -i) {
+            tree.addAndGet(i, delta);
+        }
+    }
+
+    /**
+     * Counts the entries in the buckets before a bucket
+     * @param bucket The first bucket not counted
+     * @return The number of entries in buckets 0 to bucket - 1
+     */
+    long countBefore(int bucket) {
+        long sum = 0;
+        for (int i = bucket; i > 0; i -= i & -i) {
+            sum += tree.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Counts every entry
+     * @return The number of entries in all buckets
+     */
+    long total() {
+        return countBefore(tree.length() - 1);
+    }
+}
@@ -0,0 +1,81 @@
+package leaderboard;
+
+import character.player.HeroClass;
+import world.DungeonProgress;
+
+import java.util.Comparator;
+
+/**
+ * One finished run as it shows up on the leaderboard.
+ * Deeper runs rank higher, then runs that defeated more bosses,
+ * then runs that needed fewer turns.
+ */
+public final class RunScore {
+    /** Deepest room a run can reach, so every depth gets its own buckets */
+    static final int MAX_DEPTH = DungeonProgress.MAX_DEPTH;
+    /** Most bosses a run can defeat */
+    static final int MAX_BOSSES = 3;
+    /** Runs of this many turns or more tie on turns */
+    static final int TURN_BUCKETS = 2048;
+    /** Number of distinct scores */
+    static final int BUCKETS = (MAX_DEPTH + 1) * (MAX_BOSSES + 1) * TURN_BUCKETS;
+
+    /** Best run first; runs with the same score are ordered by who got there first */
+    static final Comparator<RunScore> ORDER = Comparator.comparingInt(RunScore::getBucket)
+            .thenComparingLong(RunScore::getFinishedMillis)
+            .thenComparing(RunScore::getPlayerName);
+
+    private final String playerName;
+    private final HeroClass heroClass;
+    private final int depth;
+    private final int bossesDefeated;
+    private final int turns;
+    private final long finishedMillis;
+    private final int bucket;
+
+    /**
+     * Creates a score
+     * @param playerName Who played the run
+     * @param heroClass The class they played
+     * @param depth How deep they got
+     * @param bossesDefeated How many bosses fell
+     * @param turns How many commands the run took
+     * @param finishedMillis When the run ended
+     */
+    public RunScore(String playerName, HeroClass heroClass, int depth, int bossesDefeated, int turns,
+                    long finishedMillis) {
+        this.playerName = playerName;
+        this.heroClass = heroClass;
+        this.depth = Math.max(0, Math.min(MAX_DEPTH, depth));
+        this.bossesDefeated = Math.max(0, Math.min(MAX_BOSSES, bossesDefeated));
+        this.turns = Math.max(0, turns);
+        this.finishedMillis = finishedMillis;
+        this.bucket = ((MAX_DEPTH - this.depth) * (MAX_BOSSES + 1) + (MAX_BOSSES - this.bossesDefeated))
+                * TURN_BUCKETS + Math.min(this.turns, TURN_BUCKETS - 1);
+    }
+
+    /**
+     * Checks if this run ranks above another one
+     * @param other The other run
+     * @return true if this run has the better score
+     */
+    public boolean beats(RunScore other) {
+        return bucket < other.bucket;
+    }
+
+    /**
+     * Gets the score as a bucket number, 0 being the best possible score
+     * @return The bucket
+     */
+    int getBucket() {
+        return bucket;
+    }
+
+    // Getters
+    public String getPlayerName() { return playerName; }
+    public HeroClass getHeroClass() { return heroClass; }
+    public int getDepth() { return depth; }
+    public int getBossesDefeated() { return bossesDefeated; }
+    public int getTurns() { return turns; }
+    public long getFinishedMillis() { return finishedMillis; }
+}
@@ -0,0 +1,224 @@
+package load;
+
+import character.player.HeroClass;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One simulated player: what it has read from the game, and when it means
+ * to type next. The next line is due at the time it was planned for, counted
+ * from when the previous line was planned rather than answered, so a slow
+ * host shows up as latency instead of as players quietly typing less.
+ */
+final class BotPlayer implements Delayed {
+    private static final HeroClass[] CLASSES = HeroClass.values();
+
+    private final String name;
+    private final BotProfile profile;
+    private final Random random;
+    private final double thinkScale;
+    private int games;
+    private String session;
+    private int setupLines;
+
+    /** When the next line is meant to be typed, on the System.nanoTime clock */
+    long intendedNanos;
+
+    private boolean inFight;
+    private boolean canTake;
+    private boolean abilityReady;
+    private final List<String> enemies = new ArrayList<>();
+    private final List<String> items = new ArrayList<>();
+    private final List<String> potions = new ArrayList<>();
+    private double healthShare = 1;
+
+    BotPlayer(String name, BotProfile profile, long seed, double thinkScale) {
+        this.name = name;
+        this.profile = profile;
+        this.random = new Random(seed);
+        this.thinkScale = thinkScale;
+    }
+
+    /**
+     * Names the session for the bot's next game
+     * @return The session name
+     */
+    String newGame() {
+        games++;
+        session = name + "-" + games;
+        setupLines = 2;
+        inFight = false;
+        canTake = false;
+        abilityReady = false;
+        enemies.clear();
+        items.clear();
+        potions.clear();
+        healthShare = 1;
+        return session;
+    }
+
+    String getSession() {
+        return session;
+    }
+
+    BotProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Picks the next line: name and class first, then what the profile wants
+     */
+    String nextLine() {
+        if (setupLines == 2) {
+            setupLines--;
+            return name;
+        }
+        if (setupLines == 1) {
+            setupLines--;
+            return CLASSES[random.nextInt(CLASSES.length)].name().toLowerCase(Locale.ROOT);
+        }
+        return profile.next(this, random);
+    }
+
+    /**
+     * Plans the next line a random think time after the last planned one.
+     * A bot that does not think types again as soon as it is answered.
+     * @param nowNanos When the last line was answered
+     */
+    void think(long nowNanos) {
+        double mean = profile.getThinkMillis() * thinkScale;
+        if (mean <= 0) {
+            intendedNanos = nowNanos;
+            return;
+        }
+        intendedNanos += (long) (-Math.log(1 - random.nextDouble()) * mean * 1_000_000);
+    }
+
+    /**
+     * Picks the seed for the bot's next game
+     */
+    long gameSeed() {
+        return random.nextLong();
+    }
+
+    /**
+     * Reads what the game replied to the last line
+     * @param line The line typed
+     * @param reply The game's answer
+     */
+    void read(String line, String reply) {
+        inFight = reply.contains("- attack <name>");
+        canTake = reply.contains("- take <item>");
+        abilityReady = readAbilityReady(reply);
+        readList(reply, "Enemies here:", enemies, inFight);
+        readList(reply, "Items here:", items, canTake);
+        readHealth(reply);
+        if (line.startsWith("take ") && reply.contains("You picked up")) {
+            String item = line.substring(5);
+            items.remove(item);
+            if (item.contains("health potion")) {
+                potions.add(item);
+            }
+        } else if (line.startsWith("use ")) {
+            potions.remove(line.substring(4));
+        }
+    }
+
+    /**
+     * Checks the menu's ability line for a cooldown
+     */
+    private static boolean readAbilityReady(String reply) {
+        int start = reply.indexOf("- ability");
+        if (start < 0) {
+            return false;
+        }
+        int end = reply.indexOf('\n', start);
+        return !reply.substring(start, end < 0 ? reply.length() : end).contains("(Cooldown");
+    }
+
+    /**
+     * Replaces a remembered list with the one in the reply, if the room was described
+     */
+    private static void readList(String reply, String heading, List<String> names, boolean stillThere) {
+        int start = reply.indexOf(heading);
+        if (start < 0) {
+            if (!stillThere) {
+                names.clear();
+            }
+            return;
+        }
+        names.clear();
+        int line = reply.indexOf('\n', start) + 1;
+        while (line > 0 && reply.startsWith("- ", line)) {
+            int end = reply.indexOf('\n', line);
+            if (end < 0) {
+                end = reply.length();
+            }
+            names.add(reply.substring(line + 2, end).toLowerCase(Locale.ROOT));
+            line = end + 1;
+        }
+    }
+
+    private void readHealth(String reply) {
+        String marker = name + " HP: ";
+        int at = reply.lastIndexOf(marker);
+        if (at < 0) {
+            return;
+        }
+        int slash = reply.indexOf('/', at);
+        int end = slash;
+        while (end + 1 < reply.length() && Character.isDigit(reply.charAt(end + 1))) {
+            end++;
+        }
+        try {
+            int current = Integer.parseInt(reply.substring(at + marker.length(), slash));
+            int max = Integer.parseInt(reply.substring(slash + 1, end + 1));
+            healthShare = (double) current / Math.max(1, max);
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            // Not a status line after all, keep the old value
+        }
+    }
+
+    boolean inFight() {
+        return inFight;
+    }
+
+    boolean canTake() {
+        return canTake;
+    }
+
+    boolean abilityReady() {
+        return abilityReady;
+    }
+
+    double healthShare() {
+        return healthShare;
+    }
+
+    String firstEnemy() {
+        return enemies.isEmpty() ? null : enemies.get(0);
+    }
+
+    String firstItem() {
+        return items.isEmpty() ? null : items.get(0);
+    }
+
+    String healthPotion() {
+        return potions.isEmpty() ? null : potions.get(0);
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(intendedNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+        return Long.compare(intendedNanos, ((BotPlayer) other).intendedNanos);
+    }
+}
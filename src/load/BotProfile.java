@@ -0,0 +1,99 @@
+package load;
+
+import java.util.Random;
+
+/**
+ * How an autopilot player behaves: what it types and how long it thinks first.
+ * Bots only know what the game told them, like a player reading the screen.
+ */
+public enum BotProfile {
+    /** Walks deeper as fast as it can, picking up what it finds and fighting what blocks the way */
+    EXPLORER(2_000) {
+        @Override
+        String next(BotPlayer bot, Random random) {
+            if (bot.inFight()) {
+                return random.nextInt(5) == 0 ? "hint" : fight(bot, random);
+            }
+            if (bot.canTake()) {
+                return take(bot);
+            }
+            int roll = random.nextInt(20);
+            if (roll < 14) {
+                return "move north";
+            }
+            return roll < 17 ? "look" : roll < 19 ? "inventory" : "hint";
+        }
+    },
+
+    /** Fights well: drinks potions when hurt, uses the ability when it is ready */
+    FIGHTER(1_000) {
+        @Override
+        String next(BotPlayer bot, Random random) {
+            if (bot.inFight()) {
+                return fight(bot, random);
+            }
+            return bot.canTake() ? take(bot) : "move north";
+        }
+    },
+
+    /** Mostly looks around and checks things, and sometimes leaves */
+    IDLER(10_000) {
+        @Override
+        String next(BotPlayer bot, Random random) {
+            int roll = random.nextInt(100);
+            if (roll == 0) {
+                return "quit";
+            }
+            if (bot.inFight() && roll < 30) {
+                return fight(bot, random);
+            }
+            if (roll < 10) {
+                return "move north";
+            }
+            String[] idle = {"look", "inventory", "help", "leaderboard", "hint"};
+            return idle[random.nextInt(idle.length)];
+        }
+    };
+
+    /** Below this share of max HP a bot drinks a health potion if it has one */
+    private static final double POTION_THRESHOLD = 0.4;
+
+    private final long thinkMillis;
+
+    BotProfile(long thinkMillis) {
+        this.thinkMillis = thinkMillis;
+    }
+
+    /**
+     * Picks the next line to type
+     * @param bot What the bot knows so far
+     * @param random The bot's dice
+     * @return The line
+     */
+    abstract String next(BotPlayer bot, Random random);
+
+    /**
+     * Average time between the game's reply and the next line, like a person reading and typing
+     * @return The mean think time in milliseconds
+     */
+    public long getThinkMillis() {
+        return thinkMillis;
+    }
+
+    private static String fight(BotPlayer bot, Random random) {
+        String potion = bot.healthPotion();
+        if (potion != null && bot.healthShare() < POTION_THRESHOLD) {
+            return "use " + potion;
+        }
+        if (bot.abilityReady() && random.nextBoolean()) {
+            return "ability";
+        }
+        String enemy = bot.firstEnemy();
+        return enemy != null ? "attack " + enemy : "look";
+    }
+
+    private static String take(BotPlayer bot) {
+        String item = bot.firstItem();
+        return item != null ? "take " + item : "look";
+    }
+}
@@ -0,0 +1,109 @@
+package load;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets that grow with the value, so any latency from a
+ * microsecond to an hour is kept to within about 1.6% in a few kilobytes.
+ * Values below SUB_BUCKETS microseconds get a bucket each; above that every
+ * power of two is split into SUB_BUCKETS equal buckets. Safe to record into
+ * from many threads at once.
+ */
+public class LatencyHistogram {
+    /** Buckets per power of two */
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BITS = 6;
+
+    /** Highest power of two kept; larger values go into the last bucket (2^32 us is over an hour) */
+    private static final int MAX_EXPONENT = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(2);
+
+    /**
+     * Adds one latency
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucket(micros));
+        totals.incrementAndGet(0);
+        totals.addAndGet(1, micros);
+    }
+
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * The highest value that falls into a bucket
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long base = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return base + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+        return totals.get(0);
+    }
+
+    /**
+     * Gets the mean latency
+     * @return The mean in microseconds, 0 when empty
+     */
+    public double getMeanMicros() {
+        long count = totals.get(0);
+        return count == 0 ? 0 : (double) totals.get(1) / count;
+    }
+
+    /**
+     * Gets a percentile
+     * @param percentile Between 0 and 100, for example 99.9
+     * @return The latency in microseconds that this share of values is at or below, 0 when empty
+     */
+    public long getPercentileMicros(double percentile) {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(counts.length() - 1);
+    }
+
+    /**
+     * Adds every value of another histogram to this one
+     * @param other The histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totals.addAndGet(0, other.totals.get(0));
+        totals.addAndGet(1, other.totals.get(1));
+    }
+}
@@ -0,0 +1,398 @@
+package load;
+
+import command.Command;
+import session.SessionManager;
+import utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives autopilot players against a game host in this process and measures
+ * how it copes as the number of players goes up.
+ * Players type real commands into a SessionManager through a fixed pool of
+ * host threads, like a server's request workers. Each line is due at a
+ * planned time; its latency counts from that time, not from when it was
+ * actually sent, so time spent waiting behind a busy host is not hidden
+ * (coordinated omission). Each step of the ramp adds players, waits for them
+ * to settle, then measures latency percentiles per command and throughput.
+ * A step fails when p99 goes over the target or the host answers less than
+ * LAG_LIMIT of what the players meant to type; the ramp stops after
+ * two failing steps and reports where the limit is.
+ *
+ * Usage: LoadGenerator [--players 100,200,...] [--max-players N] [--step-seconds N]
+ *        [--host-threads N] [--mix explorer=40,fighter=40,idler=20] [--think-scale X] [--slo-millis N]
+ */
+public class LoadGenerator {
+    /** Share of the planned rate a step must reach to pass */
+    private static final double LAG_LIMIT = 0.9;
+
+    /** Share of each step spent settling before measuring */
+    private static final double WARMUP_SHARE = 0.2;
+
+    /** Failing steps in a row that end the ramp */
+    private static final int FAILED_STEPS_TO_STOP = 2;
+
+    /** Stands for the name and class lines, which are not commands */
+    private static final String SETUP = "setup";
+
+    /** Stands for opening a session */
+    private static final String OPEN = "open";
+
+    private final SessionManager host;
+    private final ExecutorService hostThreads;
+    private final DelayQueue<BotPlayer> due = new DelayQueue<>();
+    private final List<BotPlayer> players = new ArrayList<>();
+    private final Map<BotProfile, Integer> mix;
+    private final double thinkScale;
+    private final Random random;
+    private volatile Step step;
+    private volatile boolean stopped;
+
+    /**
+     * Creates a load generator with its own host
+     * @param hostThreads Number of threads serving players
+     * @param mix Share of players per profile
+     * @param thinkScale Multiplies every think time; 0 makes players type as fast as they are answered
+     * @param seed Seed for the players' dice
+     */
+    public LoadGenerator(int hostThreads, Map<BotProfile, Integer> mix, double thinkScale, long seed) {
+        this.host = new SessionManager();
+        this.hostThreads = Executors.newFixedThreadPool(hostThreads, daemonThreads("host"));
+        this.mix = mix;
+        this.thinkScale = thinkScale;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * What one step of the ramp measured
+     */
+    public static final class Step {
+        private final int players;
+        private final double plannedRate;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram service = new LatencyHistogram();
+        private final Map<String, LatencyHistogram> commands = new ConcurrentHashMap<>();
+        private final LongAdder completed = new LongAdder();
+        private long startNanos;
+        private long elapsedNanos;
+
+        Step(int players, double plannedRate) {
+            this.players = players;
+            this.plannedRate = plannedRate;
+        }
+
+        void record(String command, long latencyNanos, long serviceNanos) {
+            latency.record(latencyNanos);
+            service.record(serviceNanos);
+            commands.computeIfAbsent(command, key -> new LatencyHistogram()).record(latencyNanos);
+            completed.increment();
+        }
+
+        public int getPlayers() { return players; }
+
+        /** Lines per second the players meant to type, infinite when they don't think */
+        public double getPlannedRate() { return plannedRate; }
+
+        /** Lines per second the host answered */
+        public double getThroughput() {
+            return completed.sum() * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        /** Time from when each line was due until it was answered */
+        public LatencyHistogram getLatency() { return latency; }
+
+        /** Time from when each line was actually sent until it was answered */
+        public LatencyHistogram getServiceTime() { return service; }
+
+        public Map<String, LatencyHistogram> getCommands() { return commands; }
+
+        /**
+         * Checks if the host kept up in this step
+         * @param sloMillis Highest p99 latency allowed
+         */
+        public boolean passed(long sloMillis) {
+            boolean fastEnough = latency.getPercentileMicros(99) <= sloMillis * 1000;
+            boolean keptUp = Double.isInfinite(plannedRate) || getThroughput() >= plannedRate * LAG_LIMIT;
+            return fastEnough && keptUp;
+        }
+    }
+
+    /**
+     * Runs the ramp, printing a line per step and where the limit is
+     * @param ramp Number of players in each step, growing
+     * @param stepSeconds Length of each step
+     * @param sloMillis Highest p99 latency a step may have
+     * @return Every step that ran
+     */
+    public List<Step> run(List<Integer> ramp, long stepSeconds, long sloMillis) throws InterruptedException {
+        Thread dispatcher = new Thread(this::dispatch, "load-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        host.startSweeping();
+
+        System.out.printf("%8s %10s %10s %9s %9s %9s %9s %12s%n",
+                "players", "planned/s", "done/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "service p99");
+        List<Step> steps = new ArrayList<>();
+        Step lastPassed = null;
+        int failedInRow = 0;
+        for (int count : ramp) {
+            addPlayers(count - players.size());
+            step = null;
+            TimeUnit.MILLISECONDS.sleep((long) (stepSeconds * 1000 * WARMUP_SHARE));
+            Step measured = new Step(count, plannedRate());
+            measured.startNanos = System.nanoTime();
+            step = measured;
+            TimeUnit.MILLISECONDS.sleep((long) (stepSeconds * 1000 * (1 - WARMUP_SHARE)));
+            measured.elapsedNanos = System.nanoTime() - measured.startNanos;
+            step = null;
+            steps.add(measured);
+            boolean passed = measured.passed(sloMillis);
+            print(measured, passed);
+            Metrics.set("load.throughput", measured.getThroughput());
+            Metrics.set("load.p99Millis", measured.getLatency().getPercentileMicros(99) / 1000.0);
+            if (passed) {
+                lastPassed = measured;
+                failedInRow = 0;
+            } else if (++failedInRow >= FAILED_STEPS_TO_STOP) {
+                break;
+            }
+        }
+        stopped = true;
+        dispatcher.interrupt();
+        hostThreads.shutdownNow();
+        host.close();
+        printLimit(steps, lastPassed, sloMillis);
+        return steps;
+    }
+
+    private void print(Step step, boolean passed) {
+        LatencyHistogram latency = step.getLatency();
+        System.out.printf("%8d %10s %10.0f %9.1f %9.1f %9.1f %9.1f %12.1f  %s%n",
+                step.getPlayers(),
+                Double.isInfinite(step.getPlannedRate()) ? "-" : String.format("%.0f", step.getPlannedRate()),
+                step.getThroughput(),
+                latency.getPercentileMicros(50) / 1000.0,
+                latency.getPercentileMicros(99) / 1000.0,
+                latency.getPercentileMicros(99.9) / 1000.0,
+                latency.getPercentileMicros(100) / 1000.0,
+                step.getServiceTime().getPercentileMicros(99) / 1000.0,
+                passed ? "ok" : "OVER LIMIT");
+        for (Map.Entry<String, LatencyHistogram> command : new TreeMap<>(step.getCommands()).entrySet()) {
+            LatencyHistogram histogram = command.getValue();
+            System.out.printf("%19s %10.0f %9.1f %9.1f %9.1f%n",
+                    command.getKey(),
+                    histogram.getCount() * 1e9 / Math.max(1, step.elapsedNanos),
+                    histogram.getPercentileMicros(50) / 1000.0,
+                    histogram.getPercentileMicros(99) / 1000.0,
+                    histogram.getPercentileMicros(99.9) / 1000.0);
+        }
+    }
+
+    private static void printLimit(List<Step> steps, Step lastPassed, long sloMillis) {
+        Step firstFailed = null;
+        for (Step step : steps) {
+            if (!step.passed(sloMillis)) {
+                firstFailed = step;
+                break;
+            }
+        }
+        if (firstFailed == null) {
+            System.out.printf("No limit reached: %d players at %.0f lines/s stayed within p99 %d ms%n",
+                    steps.get(steps.size() - 1).getPlayers(), steps.get(steps.size() - 1).getThroughput(), sloMillis);
+        } else if (lastPassed == null) {
+            System.out.printf("Over the limit from the first step (%d players); start the ramp lower%n",
+                    firstFailed.getPlayers());
+        } else {
+            System.out.printf("Single-box limit: between %d players (%.0f lines/s, p99 %.1f ms) "
+                            + "and %d players (%.0f lines/s, p99 %.1f ms)%n",
+                    lastPassed.getPlayers(), lastPassed.getThroughput(),
+                    lastPassed.getLatency().getPercentileMicros(99) / 1000.0,
+                    firstFailed.getPlayers(), firstFailed.getThroughput(),
+                    firstFailed.getLatency().getPercentileMicros(99) / 1000.0);
+        }
+    }
+
+    /**
+     * Adds players, spreading their first lines over one think time so they don't all start at once
+     */
+    private void addPlayers(int count) {
+        int total = 0;
+        for (int share : mix.values()) {
+            total += share;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            int roll = random.nextInt(total);
+            BotProfile profile = null;
+            for (Map.Entry<BotProfile, Integer> share : mix.entrySet()) {
+                profile = share.getKey();
+                roll -= share.getValue();
+                if (roll < 0) {
+                    break;
+                }
+            }
+            BotPlayer player = new BotPlayer("bot" + players.size(), profile, random.nextLong(), thinkScale);
+            double spread = profile.getThinkMillis() * thinkScale * 1_000_000;
+            player.intendedNanos = now + (long) (random.nextDouble() * spread);
+            players.add(player);
+            due.add(player);
+        }
+    }
+
+    private double plannedRate() {
+        double rate = 0;
+        for (BotPlayer player : players) {
+            double thinkMillis = player.getProfile().getThinkMillis() * thinkScale;
+            if (thinkMillis <= 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            rate += 1000 / thinkMillis;
+        }
+        return rate;
+    }
+
+    /**
+     * Hands each player to the host threads when its next line is due
+     */
+    private void dispatch() {
+        while (!stopped) {
+            try {
+                BotPlayer player = due.take();
+                hostThreads.execute(() -> play(player));
+            } catch (InterruptedException | RejectedExecutionException e) {
+                // Stopped
+                return;
+            }
+        }
+    }
+
+    /**
+     * Types one line for a player, or opens its next game, and plans the line after
+     */
+    private void play(BotPlayer player) {
+        String command;
+        long sent = System.nanoTime();
+        if (player.getSession() == null || host.getSession(player.getSession()) == null) {
+            host.open(player.newGame(), player.gameSeed());
+            command = OPEN;
+        } else {
+            String line = player.nextLine();
+            String reply;
+            try {
+                reply = host.handleLine(player.getSession(), line);
+            } catch (IllegalArgumentException e) {
+                // The session was closed under the player, the next turn opens a new one
+                reply = "";
+            }
+            command = commandOf(line);
+            player.read(line, reply);
+        }
+        long done = System.nanoTime();
+        Step current = step;
+        if (current != null) {
+            current.record(command, done - player.intendedNanos, done - sent);
+        }
+        player.think(done);
+        if (!stopped) {
+            due.add(player);
+        }
+    }
+
+    private static String commandOf(String line) {
+        int space = line.indexOf(' ');
+        Command command = Command.fromString(space < 0 ? line : line.substring(0, space));
+        return command == null ? (line.equals("help") ? "help" : SETUP) : command.getName();
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        List<Integer> ramp = new ArrayList<>();
+        int maxPlayers = 100_000;
+        long stepSeconds = 10;
+        int hostThreads = Runtime.getRuntime().availableProcessors();
+        Map<BotProfile, Integer> mix = new EnumMap<>(BotProfile.class);
+        double thinkScale = 1;
+        long sloMillis = 100;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--players":
+                        for (String count : value(args, ++i).split(",")) {
+                            ramp.add(Integer.parseInt(count.trim()));
+                        }
+                        break;
+                    case "--max-players":
+                        maxPlayers = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "--step-seconds":
+                        stepSeconds = Long.parseLong(value(args, ++i));
+                        break;
+                    case "--host-threads":
+                        hostThreads = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "--mix":
+                        for (String share : value(args, ++i).split(",")) {
+                            String[] parts = share.split("=");
+                            mix.put(BotProfile.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)),
+                                    Integer.parseInt(parts[1].trim()));
+                        }
+                        break;
+                    case "--think-scale":
+                        thinkScale = Double.parseDouble(value(args, ++i));
+                        break;
+                    case "--slo-millis":
+                        sloMillis = Long.parseLong(value(args, ++i));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: LoadGenerator [--players 100,200,...] [--max-players N] [--step-seconds N] "
+                    + "[--host-threads N] [--mix explorer=40,fighter=40,idler=20] [--think-scale X] [--slo-millis N]");
+            return;
+        }
+        if (ramp.isEmpty()) {
+            for (int count = 100; count <= maxPlayers; count *= 2) {
+                ramp.add(count);
+            }
+        }
+        if (mix.isEmpty()) {
+            mix.put(BotProfile.EXPLORER, 40);
+            mix.put(BotProfile.FIGHTER, 40);
+            mix.put(BotProfile.IDLER, 20);
+        }
+        new LoadGenerator(hostThreads, mix, thinkScale, System.nanoTime()).run(ramp, stepSeconds, sloMillis);
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(args[index - 1] + " needs a value");
+        }
+        return args[index];
+    }
+}
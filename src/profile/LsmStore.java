@@ -0,0 +1,526 @@
+package profile;
+
+import utils.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A small log-structured key-value store on local disk.
+ * Writes go to a write-ahead log and a sorted in-memory table. When the
+ * table is full it is written out as an immutable sorted segment file in the
+ * background, and once there are several segments they are merged into one.
+ * A lookup checks the memory tables first, then the segments from newest to
+ * oldest; each segment's bloom filter skips it without a disk read when it
+ * cannot hold the key. A segment's file number says how new it is, also
+ * after a restart, so a merge takes the number of the newest segment it
+ * replaces.
+ */
+public class LsmStore implements AutoCloseable {
+    private static final String SEGMENT_PREFIX = "sst-";
+    private static final String SEGMENT_SUFFIX = ".db";
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    /** A merged segment being written, before it takes its place */
+    private static final String MERGING_SUFFIX = ".merging";
+    /** A segment file SortedSegment.write had not finished */
+    private static final String PARTIAL_SUFFIX = ".tmp";
+
+    /** Memory table size that triggers writing a segment */
+    private static final long MEMTABLE_LIMIT = 4L * 1024 * 1024;
+
+    /** Segments are merged once there are more than this many */
+    private static final int COMPACT_AFTER = 4;
+
+    /** Rough per-entry overhead of the memory table, used for its size estimate */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final Path directory;
+    private final ExecutorService background;
+    private final ExecutorService compactor;
+    private final ReentrantReadWriteLock segmentLock;
+    private final CRC32 crc;
+    private final AtomicInteger nextFileNumber;
+    private final Object compactionLock;
+
+    private volatile ConcurrentSkipListMap<String, byte[]> memtable;
+    private volatile NavigableMap<String, byte[]> flushing;
+    private volatile List<SortedSegment> segments;
+    private final List<Path> flushingLogs;
+    private FileChannel log;
+    private Path logPath;
+    private long memtableBytes;
+    private Future<?> pendingFlush;
+
+    private LsmStore(Path directory) {
+        this.directory = directory;
+        this.background = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lsm-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Merges get their own thread so a long one never holds up the next flush
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lsm-compact-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.segmentLock = new ReentrantReadWriteLock();
+        this.crc = new CRC32();
+        this.memtable = new ConcurrentSkipListMap<>();
+        this.segments = Collections.emptyList();
+        this.flushingLogs = new ArrayList<>();
+        this.nextFileNumber = new AtomicInteger();
+        this.compactionLock = new Object();
+    }
+
+    /**
+     * Opens a store, replaying anything that was not yet written to a segment
+     * @param directory Where the store keeps its files
+     * @return The open store
+     */
+    public static LsmStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        LsmStore store = new LsmStore(directory);
+        for (Path unfinished : list(directory, SEGMENT_PREFIX, MERGING_SUFFIX)) {
+            // A merge cut off by a crash; the segments it was merging are all still there
+            Files.delete(unfinished);
+        }
+        for (Path unfinished : list(directory, SEGMENT_PREFIX, PARTIAL_SUFFIX)) {
+            // A flush or merge cut off while writing; its logs or input segments are still there
+            Files.delete(unfinished);
+        }
+
+        List<SortedSegment> opened = new ArrayList<>();
+        for (Path file : list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            opened.add(SortedSegment.open(file));
+            store.reserveFileNumber(fileNumber(file, SEGMENT_PREFIX, SEGMENT_SUFFIX));
+        }
+        Collections.reverse(opened);
+        store.segments = Collections.unmodifiableList(opened);
+
+        for (Path file : list(directory, LOG_PREFIX, LOG_SUFFIX)) {
+            store.replay(file);
+            store.flushingLogs.add(file);
+            store.reserveFileNumber(fileNumber(file, LOG_PREFIX, LOG_SUFFIX));
+        }
+        store.openNewLog();
+        return store;
+    }
+
+    /**
+     * Looks up a key
+     * @param key The key
+     * @return The newest value, or null if the key was never written
+     */
+    public byte[] get(String key) {
+        byte[] value = memtable.get(key);
+        if (value != null) {
+            return value;
+        }
+        NavigableMap<String, byte[]> beingWritten = flushing;
+        if (beingWritten != null && (value = beingWritten.get(key)) != null) {
+            return value;
+        }
+        segmentLock.readLock().lock();
+        try {
+            for (SortedSegment segment : segments) {
+                value = segment.get(key);
+                if (value != null) {
+                    return value;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read store", e);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a value, replacing any older one
+     * @param key The key
+     * @param value The value
+     */
+    public synchronized void put(String key, byte[] value) {
+        try {
+            appendToLog(key, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write store log", e);
+        }
+        memtable.put(key, value);
+        memtableBytes += key.length() * 2L + value.length + ENTRY_OVERHEAD;
+        if (memtableBytes >= MEMTABLE_LIMIT) {
+            rotateMemtable();
+        }
+    }
+
+    /**
+     * Writes the memory table to a segment now and waits for it
+     */
+    public void flush() {
+        Future<?> flush;
+        synchronized (this) {
+            if (memtable.isEmpty()) {
+                return;
+            }
+            rotateMemtable();
+            flush = pendingFlush;
+        }
+        await(flush);
+    }
+
+    /**
+     * Swaps in an empty memory table and writes the full one in the background
+     */
+    private void rotateMemtable() {
+        // Only one table is written at a time, so writers wait for the previous one
+        await(pendingFlush);
+        try {
+            log.force(false);
+            log.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close store log", e);
+        }
+        flushingLogs.add(logPath);
+        List<Path> logs = new ArrayList<>(flushingLogs);
+        flushingLogs.clear();
+
+        NavigableMap<String, byte[]> full = memtable;
+        flushing = full;
+        memtable = new ConcurrentSkipListMap<>();
+        memtableBytes = 0;
+        int number = nextFileNumber.getAndIncrement();
+        try {
+            openNewLog();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open store log", e);
+        }
+        pendingFlush = background.submit(() -> writeSegment(full, number, logs));
+    }
+
+    private void writeSegment(NavigableMap<String, byte[]> table, int number, List<Path> logs) {
+        try {
+            Path file = segmentPath(number);
+            SortedSegment.write(file, table.entrySet().iterator(), table.size());
+            SortedSegment segment = SortedSegment.open(file);
+            segmentLock.writeLock().lock();
+            try {
+                List<SortedSegment> updated = new ArrayList<>(segments.size() + 1);
+                updated.add(segment);
+                updated.addAll(segments);
+                segments = Collections.unmodifiableList(updated);
+                flushing = null;
+            } finally {
+                segmentLock.writeLock().unlock();
+            }
+            for (Path old : logs) {
+                Files.deleteIfExists(old);
+            }
+            Metrics.increment("store.flushes", 1);
+            if (segments.size() > COMPACT_AFTER) {
+                compactor.execute(this::compactIfNeeded);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write store segment", e);
+        }
+    }
+
+    /**
+     * Merges the segments on the compaction thread, unless an earlier merge
+     * queued there already did
+     */
+    private void compactIfNeeded() {
+        if (segments.size() <= COMPACT_AFTER) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            System.err.println("Could not compact store " + directory + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Merges every segment into one, keeping only the newest value of each key
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            merge();
+        }
+    }
+
+    private void merge() throws IOException {
+        List<SortedSegment> toMerge = segments;
+        if (toMerge.size() < 2) {
+            return;
+        }
+        // The merged segment takes the newest input's number; a flush that got
+        // its number later is newer, on disk as well as in memory
+        Path target = toMerge.get(0).getPath();
+        int expected = 0;
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+        for (int age = 0; age < toMerge.size(); age++) {
+            SortedSegment segment = toMerge.get(age);
+            expected += segment.getEntryCount();
+            Cursor cursor = new Cursor(segment.iterator(), age);
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+
+        Path file = target.resolveSibling(target.getFileName() + MERGING_SUFFIX);
+        SortedSegment.write(file, new MergeIterator(cursors), expected);
+
+        segmentLock.writeLock().lock();
+        try {
+            for (SortedSegment old : toMerge) {
+                old.close();
+            }
+            // Until the older inputs are deleted they only hold values the merged segment outranks
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            SortedSegment merged = SortedSegment.open(target);
+            List<SortedSegment> updated = new ArrayList<>();
+            for (SortedSegment segment : segments) {
+                if (!toMerge.contains(segment)) {
+                    updated.add(segment);
+                }
+            }
+            updated.add(merged);
+            segments = Collections.unmodifiableList(updated);
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+        for (SortedSegment old : toMerge.subList(1, toMerge.size())) {
+            Files.deleteIfExists(old.getPath());
+        }
+        Metrics.increment("store.compactions", 1);
+    }
+
+    /**
+     * Counts the segment files in use
+     * @return The number of segments
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Writes what is still in memory to a segment and closes the files
+     */
+    @Override
+    public void close() {
+        flush();
+        synchronized (this) {
+            await(pendingFlush);
+            try {
+                // Everything is in segments now, so the logs hold nothing worth replaying
+                log.close();
+                Files.deleteIfExists(logPath);
+                for (Path replayed : flushingLogs) {
+                    Files.deleteIfExists(replayed);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not close store log", e);
+            }
+        }
+        background.shutdown();
+        compactor.shutdown();
+        try {
+            // A merge still reads the segments, so let it finish before they close
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segmentLock.writeLock().lock();
+        try {
+            for (SortedSegment segment : segments) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close store", e);
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+    }
+
+    private void appendToLog(String key, byte[] value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(key.length() + value.length + 16);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeUTF(key);
+        body.writeInt(value.length);
+        body.write(value);
+        byte[] record = bytes.toByteArray();
+        crc.reset();
+        crc.update(record, 0, record.length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(record.length + 8);
+        buffer.putInt(record.length).putInt((int) crc.getValue()).put(record).flip();
+        while (buffer.hasRemaining()) {
+            log.write(buffer);
+        }
+    }
+
+    /**
+     * Reads a log back into the memory table, stopping at a torn tail
+     */
+    private void replay(Path file) throws IOException {
+        CRC32 check = new CRC32();
+        long size = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0 || length > size) {
+                    // A length half written or never written, not a record
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                check.reset();
+                check.update(record, 0, length);
+                if ((int) check.getValue() != checksum) {
+                    break;
+                }
+                DataInputStream entry = new DataInputStream(new ByteArrayInputStream(record));
+                String key = entry.readUTF();
+                byte[] value = new byte[entry.readInt()];
+                entry.readFully(value);
+                memtable.put(key, value);
+                memtableBytes += key.length() * 2L + value.length + ENTRY_OVERHEAD;
+            }
+        } catch (EOFException e) {
+            // End of the log, or a record cut off by a crash
+        }
+    }
+
+    private void openNewLog() throws IOException {
+        logPath = directory.resolve(String.format("%s%08d%s", LOG_PREFIX, nextFileNumber.getAndIncrement(), LOG_SUFFIX));
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private void reserveFileNumber(int used) {
+        nextFileNumber.accumulateAndGet(used + 1, Math::max);
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static void await(Future<?> task) {
+        if (task == null) {
+            return;
+        }
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Background store work failed", e.getCause());
+        }
+    }
+
+    private static List<Path> list(Path directory, String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(prefix) && name.endsWith(suffix);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static int fileNumber(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    /**
+     * The next unread entry of one segment during a merge
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+        private final Iterator<Map.Entry<String, byte[]>> entries;
+        /** 0 for the newest segment, so its value wins on equal keys */
+        private final int age;
+        private Map.Entry<String, byte[]> current;
+
+        Cursor(Iterator<Map.Entry<String, byte[]>> entries, int age) {
+            this.entries = entries;
+            this.age = age;
+        }
+
+        boolean advance() {
+            current = entries.hasNext() ? entries.next() : null;
+            return current != null;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int order = current.getKey().compareTo(other.current.getKey());
+            return order != 0 ? order : Integer.compare(age, other.age);
+        }
+    }
+
+    /**
+     * Walks several sorted segments at once, giving each key once with its newest value
+     */
+    private static final class MergeIterator implements Iterator<Map.Entry<String, byte[]>> {
+        private final PriorityQueue<Cursor> cursors;
+
+        MergeIterator(PriorityQueue<Cursor> cursors) {
+            this.cursors = cursors;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !cursors.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, byte[]> next() {
+            Cursor newest = cursors.poll();
+            Map.Entry<String, byte[]> entry = newest.current;
+            if (newest.advance()) {
+                cursors.add(newest);
+            }
+            // Older values of the same key are skipped
+            while (!cursors.isEmpty() && cursors.peek().current.getKey().equals(entry.getKey())) {
+                Cursor older = cursors.poll();
+                if (older.advance()) {
+                    cursors.add(older);
+                }
+            }
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package profile;
+
+import character.player.HeroClass;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks that the profile store gives back everything it was given after it
+ * is opened again: from segments, from a merged segment next to a newer
+ * flush, from the write-ahead log after a crash, and after a crash cut the
+ * log or a segment off in the middle. A crash is played by dropping a store
+ * without closing it. Throws on the first wrong value.
+ *
+ * Usage: LsmStoreTest [directory, by default a new temporary one]
+ */
+public class LsmStoreTest {
+    private static final int KEYS = 2000;
+
+    public static void main(String[] args) throws IOException {
+        Path root = args.length > 0 ? Paths.get(args[0]) : Files.createTempDirectory("lsm-test");
+        reopenAfterFlush(root.resolve("flush"));
+        reopenAfterMerge(root.resolve("merge"));
+        recoverFromLog(root.resolve("log"));
+        tornLogTail(root.resolve("torn-log"));
+        tornSegment(root.resolve("torn-segment"));
+        profilesSurviveRestart(root.resolve("profiles"));
+        System.out.println("All store checks passed in " + root);
+    }
+
+    /**
+     * Values written to segments and values still in memory both come back after a clean close
+     */
+    private static void reopenAfterFlush(Path directory) throws IOException {
+        Map<String, String> expected = new TreeMap<>();
+        try (LsmStore store = LsmStore.open(directory)) {
+            putAll(store, expected, 0, KEYS, "first");
+            store.flush();
+            putAll(store, expected, 0, KEYS / 2, "second");
+        }
+        try (LsmStore store = LsmStore.open(directory)) {
+            checkAll(store, expected, "reopen after flush");
+        }
+    }
+
+    /**
+     * A merge keeps the newest value of every key, and a segment flushed after
+     * the merge still wins over it once the store is opened again
+     */
+    private static void reopenAfterMerge(Path directory) throws IOException {
+        Map<String, String> expected = new TreeMap<>();
+        try (LsmStore store = LsmStore.open(directory)) {
+            for (int round = 0; round < 6; round++) {
+                putAll(store, expected, round * 100, KEYS, "round" + round);
+                store.flush();
+            }
+            store.compact();
+            check(store.getSegmentCount() == 1, "merge left " + store.getSegmentCount() + " segments");
+            checkAll(store, expected, "after merge");
+
+            putAll(store, expected, 0, 50, "after-merge");
+            store.flush();
+            check(store.getSegmentCount() == 2, "flush after merge left " + store.getSegmentCount() + " segments");
+        }
+        try (LsmStore store = LsmStore.open(directory)) {
+            checkAll(store, expected, "reopen after merge");
+        }
+    }
+
+    /**
+     * Values that never reached a segment are replayed from the log
+     */
+    private static void recoverFromLog(Path directory) throws IOException {
+        Map<String, String> expected = new TreeMap<>();
+        LsmStore crashed = LsmStore.open(directory);
+        putAll(crashed, expected, 0, KEYS, "logged");
+        try (LsmStore store = LsmStore.open(directory)) {
+            checkAll(store, expected, "replay after crash");
+        }
+        // The replayed log is written to a segment on close, so nothing is lost the second time either
+        try (LsmStore store = LsmStore.open(directory)) {
+            checkAll(store, expected, "reopen after replay");
+        }
+    }
+
+    /**
+     * A record cut off by a crash, or junk after the last record, ends the
+     * replay there and keeps every record before it
+     */
+    private static void tornLogTail(Path directory) throws IOException {
+        Map<String, String> expected = new TreeMap<>();
+        LsmStore crashed = LsmStore.open(directory);
+        putAll(crashed, expected, 0, KEYS, "before");
+        crashed.put(key(KEYS), value("cut"));
+        Path log = only(directory, "wal-", ".log");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (LsmStore store = LsmStore.open(directory)) {
+            checkAll(store, expected, "replay of a cut record");
+            check(store.get(key(KEYS)) == null, "a cut record was replayed");
+        }
+
+        crashed = LsmStore.open(directory);
+        putAll(crashed, expected, 0, KEYS / 4, "again");
+        log = only(directory, "wal-", ".log");
+        byte[] junk = new byte[64];
+        Arrays.fill(junk, (byte) 0xFF);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(junk));
+        }
+        try (LsmStore store = LsmStore.open(directory)) {
+            checkAll(store, expected, "replay with junk after the last record");
+        }
+    }
+
+    /**
+     * A segment a crash cut off while it was written is thrown away on open;
+     * its values are still in the log it was written from
+     */
+    private static void tornSegment(Path directory) throws IOException {
+        Map<String, String> expected = new TreeMap<>();
+        Path segment;
+        try (LsmStore store = LsmStore.open(directory)) {
+            putAll(store, expected, 0, KEYS, "flushed");
+            store.flush();
+            segment = only(directory, "sst-", ".db");
+        }
+        LsmStore crashed = LsmStore.open(directory);
+        putAll(crashed, expected, 0, KEYS / 2, "logged");
+
+        byte[] whole = Files.readAllBytes(segment);
+        Path partial = directory.resolve("sst-99999999.db.tmp");
+        Files.write(partial, Arrays.copyOf(whole, whole.length / 2));
+        try (LsmStore store = LsmStore.open(directory)) {
+            check(!Files.exists(partial), "a cut off segment was left behind");
+            checkAll(store, expected, "reopen next to a cut off segment");
+        }
+    }
+
+    /**
+     * Profiles come back the same after the profile store is closed and opened again
+     */
+    private static void profilesSurviveRestart(Path directory) throws IOException {
+        try (ProfileStore profiles = ProfileStore.open(directory)) {
+            for (int i = 0; i < 500; i++) {
+                profiles.recordRun("Player" + i, HeroClass.WIZARD, i % 9, i % 3, false, true);
+            }
+            profiles.flush();
+            for (int i = 0; i < 500; i += 5) {
+                profiles.recordRun("player" + i, HeroClass.ROGUE, 9, 3, true, false);
+            }
+        }
+        try (ProfileStore profiles = ProfileStore.open(directory)) {
+            for (int i = 0; i < 500; i++) {
+                PlayerProfile profile = profiles.get("PLAYER" + i);
+                int runs = i % 5 == 0 ? 2 : 1;
+                check(profile.getRuns() == runs, "player" + i + " has " + profile.getRuns() + " runs, not " + runs);
+                check(profile.getClearedClasses().contains(HeroClass.ROGUE) == (i % 5 == 0),
+                        "player" + i + " has the wrong cleared classes");
+            }
+            check(profiles.get("nobody").isNew(), "a player who never played has a profile");
+        }
+    }
+
+    private static void putAll(LsmStore store, Map<String, String> expected, int from, int to, String tag) {
+        for (int i = from; i < to; i++) {
+            String value = tag + "-" + i;
+            store.put(key(i), value(value));
+            expected.put(key(i), value);
+        }
+    }
+
+    private static void checkAll(LsmStore store, Map<String, String> expected, String when) {
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            byte[] value = store.get(entry.getKey());
+            String found = value == null ? null : new String(value, StandardCharsets.UTF_8);
+            check(entry.getValue().equals(found), when + ": " + entry.getKey() + " is " + found
+                    + ", not " + entry.getValue());
+        }
+    }
+
+    private static Path only(Path directory, String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> found = files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(prefix) && name.endsWith(suffix);
+            }).sorted().collect(Collectors.toList());
+            // The newest file is the one in use
+            return found.get(found.size() - 1);
+        }
+    }
+
+    private static String key(int i) {
+        return String.format("key%06d", i);
+    }
+
+    private static byte[] value(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
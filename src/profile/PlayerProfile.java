@@ -0,0 +1,143 @@
+package profile;
+
+import character.player.HeroClass;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * What a player achieved over all their runs.
+ * Profiles never change; recording a run gives a new profile.
+ */
+public final class PlayerProfile {
+    private static final int FORMAT = 1;
+
+    private final String name;
+    private final int runs;
+    private final int wins;
+    private final int deaths;
+    private final int bossesDefeated;
+    private final int bestDepth;
+    private final int clearedClasses;
+    private final long lastPlayedMillis;
+
+    private PlayerProfile(String name, int runs, int wins, int deaths, int bossesDefeated,
+                          int bestDepth, int clearedClasses, long lastPlayedMillis) {
+        this.name = name;
+        this.runs = runs;
+        this.wins = wins;
+        this.deaths = deaths;
+        this.bossesDefeated = bossesDefeated;
+        this.bestDepth = bestDepth;
+        this.clearedClasses = clearedClasses;
+        this.lastPlayedMillis = lastPlayedMillis;
+    }
+
+    /**
+     * Creates the profile of a player who never played
+     * @param name The player's name
+     * @return An empty profile
+     */
+    public static PlayerProfile empty(String name) {
+        return new PlayerProfile(name, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Adds one finished run
+     * @param heroClass The class the player picked
+     * @param depth How deep the player got
+     * @param bosses How many bosses fell in the run
+     * @param won Whether the final boss fell
+     * @param died Whether the player died
+     * @param playedMillis When the run ended
+     * @return The updated profile
+     */
+    public PlayerProfile withRun(HeroClass heroClass, int depth, int bosses, boolean won, boolean died,
+                                 long playedMillis) {
+        return new PlayerProfile(name,
+                runs + 1,
+                wins + (won ? 1 : 0),
+                deaths + (died ? 1 : 0),
+                bossesDefeated + bosses,
+                Math.max(bestDepth, depth),
+                won ? clearedClasses | (1 << heroClass.ordinal()) : clearedClasses,
+                playedMillis);
+    }
+
+    /**
+     * Checks if the player ever played
+     * @return true if no run was recorded yet
+     */
+    public boolean isNew() {
+        return runs == 0;
+    }
+
+    /**
+     * Gets the classes the player beat the final boss with
+     * @return The classes, in declaration order
+     */
+    public Set<HeroClass> getClearedClasses() {
+        Set<HeroClass> cleared = EnumSet.noneOf(HeroClass.class);
+        for (HeroClass heroClass : HeroClass.values()) {
+            if ((clearedClasses & (1 << heroClass.ordinal())) != 0) {
+                cleared.add(heroClass);
+            }
+        }
+        return cleared;
+    }
+
+    /**
+     * Packs the profile into bytes for the store
+     * @return The packed profile
+     */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(40);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT);
+            out.writeInt(runs);
+            out.writeInt(wins);
+            out.writeInt(deaths);
+            out.writeInt(bossesDefeated);
+            out.writeInt(bestDepth);
+            out.writeInt(clearedClasses);
+            out.writeLong(lastPlayedMillis);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not pack profile", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Unpacks a profile read from the store
+     * @param name The player's name
+     * @param bytes The packed profile
+     * @return The profile
+     */
+    static PlayerProfile decode(String name, byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int format = in.readUnsignedByte();
+            if (format != FORMAT) {
+                throw new IllegalStateException("Unknown profile format " + format);
+            }
+            return new PlayerProfile(name, in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                    in.readInt(), in.readInt(), in.readLong());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not unpack profile", e);
+        }
+    }
+
+    // Getters
+    public String getName() { return name; }
+    public int getRuns() { return runs; }
+    public int getWins() { return wins; }
+    public int getDeaths() { return deaths; }
+    public int getBossesDefeated() { return bossesDefeated; }
+    public int getBestDepth() { return bestDepth; }
+    public long getLastPlayedMillis() { return lastPlayedMillis; }
+}
@@ -0,0 +1,88 @@
+package profile;
+
+import character.player.HeroClass;
+import utils.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Keeps every player's profile on disk, looked up by name.
+ * Names are compared without case, so "Bob" and "bob" share a profile.
+ */
+public class ProfileStore implements AutoCloseable {
+    /** Number of locks that updates of different players spread over */
+    private static final int LOCK_STRIPES = 64;
+
+    private final LsmStore store;
+    private final Object[] locks;
+
+    private ProfileStore(LsmStore store) {
+        this.store = store;
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Opens the profiles kept in a directory, creating it if needed
+     * @param directory Where the profiles live
+     * @return The open store
+     */
+    public static ProfileStore open(Path directory) throws IOException {
+        return new ProfileStore(LsmStore.open(directory));
+    }
+
+    /**
+     * Looks up a player's profile
+     * @param name The player's name
+     * @return The profile, empty if the player never finished a run
+     */
+    public PlayerProfile get(String name) {
+        long start = System.nanoTime();
+        byte[] bytes = store.get(key(name));
+        Metrics.set("profiles.lastLookupMicros", (System.nanoTime() - start) / 1e3);
+        return bytes == null ? PlayerProfile.empty(name) : PlayerProfile.decode(name, bytes);
+    }
+
+    /**
+     * Adds a finished run to a player's profile
+     * @param name The player's name
+     * @param heroClass The class the player picked
+     * @param depth How deep the player got
+     * @param bosses How many bosses fell in the run
+     * @param won Whether the final boss fell
+     * @param died Whether the player died
+     * @return The updated profile
+     */
+    public PlayerProfile recordRun(String name, HeroClass heroClass, int depth, int bosses,
+                                   boolean won, boolean died) {
+        String key = key(name);
+        // Two runs of the same player ending together must not lose one of them
+        synchronized (locks[Math.floorMod(key.hashCode(), LOCK_STRIPES)]) {
+            PlayerProfile updated = get(name).withRun(heroClass, depth, bosses, won, died,
+                    System.currentTimeMillis());
+            store.put(key, updated.encode());
+            Metrics.increment("profiles.runsRecorded", 1);
+            return updated;
+        }
+    }
+
+    /**
+     * Writes everything still in memory to disk
+     */
+    public void flush() {
+        store.flush();
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    private static String key(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
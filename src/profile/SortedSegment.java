@@ -0,0 +1,306 @@
+package profile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable file of key-value pairs sorted by key.
+ * Only every INDEX_INTERVAL-th key and a bloom filter are kept in memory;
+ * a lookup asks the filter first, then reads the one small block that can
+ * hold the key with a single positional read.
+ *
+ * Layout: header, sorted entries, sparse index, bloom filter, fixed-size footer.
+ */
+final class SortedSegment implements AutoCloseable {
+    private static final int MAGIC = 0x4C534D31;
+    private static final int INDEX_INTERVAL = 16;
+    private static final int HEADER_SIZE = 4;
+    private static final int FOOTER_SIZE = 8 + 8 + 8 + 4 + 4;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final String[] indexKeys;
+    private final long[] indexOffsets;
+    private final long dataEnd;
+    private final BloomFilter bloom;
+    private final int entryCount;
+
+    private SortedSegment(Path path, FileChannel channel, String[] indexKeys, long[] indexOffsets,
+                          long dataEnd, BloomFilter bloom, int entryCount) {
+        this.path = path;
+        this.channel = channel;
+        this.indexKeys = indexKeys;
+        this.indexOffsets = indexOffsets;
+        this.dataEnd = dataEnd;
+        this.bloom = bloom;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Writes sorted entries to a new segment file.
+     * The file only appears under its name once it is complete.
+     * @param path Where the segment goes
+     * @param entries Entries in ascending key order
+     * @param expectedCount About how many entries there are, to size the bloom filter
+     */
+    static void write(Path path, Iterator<Map.Entry<String, byte[]>> entries, int expectedCount)
+            throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        BloomFilter bloom = new BloomFilter(expectedCount);
+        List<String> indexKeys = new ArrayList<>();
+        List<Long> indexOffsets = new ArrayList<>();
+        int count = 0;
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CountingOutput counter = new CountingOutput(Channels.newOutputStream(channel));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(counter, 64 * 1024));
+            out.writeInt(MAGIC);
+            String previous = null;
+            while (entries.hasNext()) {
+                Map.Entry<String, byte[]> entry = entries.next();
+                String key = entry.getKey();
+                if (previous != null && previous.compareTo(key) >= 0) {
+                    throw new IllegalArgumentException("Keys must be unique and sorted: " + key);
+                }
+                if (count % INDEX_INTERVAL == 0) {
+                    out.flush();
+                    indexKeys.add(key);
+                    indexOffsets.add(counter.written);
+                }
+                out.writeUTF(key);
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+                bloom.add(key);
+                previous = key;
+                count++;
+            }
+            out.flush();
+            long dataEnd = counter.written;
+            long indexOffset = dataEnd;
+
+            out.writeInt(indexKeys.size());
+            for (int i = 0; i < indexKeys.size(); i++) {
+                out.writeUTF(indexKeys.get(i));
+                out.writeLong(indexOffsets.get(i));
+            }
+            out.flush();
+            long bloomOffset = counter.written;
+            bloom.writeTo(out);
+
+            out.writeLong(dataEnd);
+            out.writeLong(indexOffset);
+            out.writeLong(bloomOffset);
+            out.writeInt(count);
+            out.writeInt(MAGIC);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Opens a segment file, loading its index and bloom filter
+     * @param path The segment file
+     * @return The open segment
+     */
+    static SortedSegment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            readFully(channel, footer, size - FOOTER_SIZE);
+            footer.flip();
+            long dataEnd = footer.getLong();
+            long indexOffset = footer.getLong();
+            long bloomOffset = footer.getLong();
+            int entryCount = footer.getInt();
+            if (footer.getInt() != MAGIC) {
+                throw new IOException("Not a segment file: " + path);
+            }
+
+            ByteBuffer tail = ByteBuffer.allocate((int) (size - FOOTER_SIZE - indexOffset));
+            readFully(channel, tail, indexOffset);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(tail.array()));
+            int indexSize = in.readInt();
+            String[] keys = new String[indexSize];
+            long[] offsets = new long[indexSize];
+            for (int i = 0; i < indexSize; i++) {
+                keys[i] = in.readUTF();
+                offsets[i] = in.readLong();
+            }
+            if (bloomOffset != indexOffset + (tail.capacity() - in.available())) {
+                throw new IOException("Damaged segment index: " + path);
+            }
+            BloomFilter bloom = BloomFilter.readFrom(in);
+            return new SortedSegment(path, channel, keys, offsets, dataEnd, bloom, entryCount);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up a key
+     * @param key The key
+     * @return The value, or null if this segment does not hold the key
+     */
+    byte[] get(String key) throws IOException {
+        if (indexKeys.length == 0 || !bloom.mightContain(key)) {
+            return null;
+        }
+        int block = floorIndex(key);
+        if (block < 0) {
+            return null;
+        }
+        long start = indexOffsets[block];
+        long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        readFully(channel, buffer, start);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+        while (in.available() > 0) {
+            String entryKey = in.readUTF();
+            int length = in.readInt();
+            int order = entryKey.compareTo(key);
+            if (order == 0) {
+                byte[] value = new byte[length];
+                in.readFully(value);
+                return value;
+            }
+            if (order > 0) {
+                return null;
+            }
+            in.skipBytes(length);
+        }
+        return null;
+    }
+
+    /**
+     * Reads every entry in key order, for compaction
+     * @return An iterator over the entries
+     */
+    Iterator<Map.Entry<String, byte[]>> iterator() throws IOException {
+        InputStream file = Files.newInputStream(path);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(file, 64 * 1024));
+        in.skipBytes(HEADER_SIZE);
+        return new Iterator<Map.Entry<String, byte[]>>() {
+            private int read = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (read < entryCount) {
+                    return true;
+                }
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Reading is finished, a failing close changes nothing
+                }
+                return false;
+            }
+
+            @Override
+            public Map.Entry<String, byte[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    String key = in.readUTF();
+                    byte[] value = new byte[in.readInt()];
+                    in.readFully(value);
+                    read++;
+                    return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not read segment " + path, e);
+                }
+            }
+        };
+    }
+
+    private int floorIndex(String key) {
+        int low = 0;
+        int high = indexKeys.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (indexKeys[middle].compareTo(key) <= 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Segment file is cut short");
+            }
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    int getEntryCount() {
+        return entryCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Counts bytes written, so entries can be indexed by file offset
+     */
+    private static final class CountingOutput extends OutputStream {
+        private final OutputStream target;
+        long written;
+
+        CountingOutput(OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            target.write(bytes, offset, length);
+            written += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+    }
+}
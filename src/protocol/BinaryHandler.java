@@ -0,0 +1,116 @@
+package protocol;
+
+import character.player.HeroClass;
+import command.Command;
+import game.Game;
+import session.GameSession;
+import session.SessionManager;
+import utils.Metrics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Plays the binary requests of one client against its session, see
+ * BinaryProtocol. A transport feeds it whatever bytes arrived and sends
+ * whatever it wrote back; partial requests wait for the next bytes.
+ */
+public class BinaryHandler {
+    private final SessionManager sessions;
+    private final String sessionId;
+    private final BinaryProtocol.Request request = new BinaryProtocol.Request();
+    /** The state each frame is written from, copied under the session's lock */
+    private final GameState state = new GameState();
+    /** Made once, so no lambda is made per request */
+    private final Function<Game, Void> capture = game -> {
+        state.capture(game);
+        return null;
+    };
+    /** What the client was last sent, once it asked for deltas */
+    private StateTracker tracker;
+
+    /**
+     * Creates a handler for a session that is already open
+     * @param sessions Where the session lives
+     * @param sessionId The session's name
+     */
+    public BinaryHandler(SessionManager sessions, String sessionId) {
+        this.sessions = sessions;
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * Plays every whole request that arrived, answering each with one frame
+     * @param in Bytes from the client; played requests are consumed
+     * @param out Where the frames go; requests wait while it has less than
+     *            BinaryProtocol.MAX_FRAME_BYTES of room
+     * @return How many requests were played
+     */
+    public int handle(ByteBuffer in, ByteBuffer out) {
+        int handled = 0;
+        while (out.remaining() >= BinaryProtocol.MAX_FRAME_BYTES && BinaryProtocol.decode(in, request)) {
+            handle(request, out);
+            handled++;
+        }
+        Metrics.increment("protocol.binaryRequests", handled);
+        return handled;
+    }
+
+    private void handle(BinaryProtocol.Request request, ByteBuffer out) {
+        // Kept so the last state can still be sent after the game ends and its session closes
+        GameSession session = sessions.getSession(sessionId);
+        if (session == null) {
+            BinaryProtocol.encodeStatus(BinaryProtocol.REFUSED, out);
+            return;
+        }
+        int status;
+        int opcode = request.getOpcode();
+        Command command = request.getCommand();
+        if (opcode == BinaryProtocol.STATE) {
+            status = BinaryProtocol.OK;
+        } else if (opcode == BinaryProtocol.DELTAS || opcode == BinaryProtocol.RESYNC) {
+            if (tracker == null) {
+                tracker = new StateTracker();
+            }
+            tracker.resync();
+            status = BinaryProtocol.OK;
+        } else if (opcode == BinaryProtocol.HELLO) {
+            status = hello(session, request);
+        } else if (command == null) {
+            status = BinaryProtocol.UNKNOWN_OPCODE;
+        } else if (command == Command.HINT || command == Command.LEADERBOARD || command == Command.STATS) {
+            status = BinaryProtocol.TEXT_ONLY;
+        } else {
+            status = sessions.handleCommand(sessionId, command, request.getTarget()) ?
+                    BinaryProtocol.OK : BinaryProtocol.REFUSED;
+        }
+        session.inspect(capture);
+        if (tracker != null) {
+            tracker.encode(state, status, out);
+        } else {
+            BinaryProtocol.encodeTurn(state, status, out);
+        }
+    }
+
+    /**
+     * Names the hero and picks their class by playing the two lines a typing player would
+     */
+    private int hello(GameSession session, BinaryProtocol.Request request) {
+        if (request.getVersion() != BinaryProtocol.VERSION) {
+            return BinaryProtocol.UNSUPPORTED_VERSION;
+        }
+        Game.Phase phase = session.inspect(Game::getPhase);
+        HeroClass[] classes = HeroClass.values();
+        if (phase != Game.Phase.CHOOSING_NAME || request.getHeroClass() >= classes.length) {
+            return BinaryProtocol.REFUSED;
+        }
+        String name = new String(request.getName(), 0, request.getNameLength(), StandardCharsets.UTF_8);
+        if (name.trim().isEmpty()) {
+            return BinaryProtocol.REFUSED;
+        }
+        sessions.handleLine(sessionId, name);
+        sessions.handleLine(sessionId, classes[request.getHeroClass()].name());
+        return session.inspect(Game::getPhase) == Game.Phase.PLAYING ? BinaryProtocol.OK : BinaryProtocol.REFUSED;
+    }
+}
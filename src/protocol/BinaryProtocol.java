@@ -0,0 +1,325 @@
+package protocol;
+
+import command.Command;
+import game.Game;
+import world.Direction;
+import world.DungeonProgress;
+import world.Room;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A compact binary alternative to typing commands, for game clients and bots.
+ * Requests name things by position instead of by name, and every reply is
+ * the state after the turn rather than text. Nothing is parsed as text and,
+ * apart from the game itself, decoding and encoding allocate nothing.
+ *
+ * Requests, each one complete on its own:
+ *   command  [opcode][target]              opcode is the command's fixed number, see OPCODES;
+ *                                          target is the Direction ordinal for move, the enemy's
+ *                                          index in the room for attack, the item's index in the
+ *                                          room for take and its inventory slot for use and drop, else 0
+ *   hello    [HELLO][version][class][length][name]
+ *                                          names the hero and picks the HeroClass ordinal; the
+ *                                          name is UTF-8, at most 255 bytes. A version other than
+ *                                          VERSION is answered UNSUPPORTED_VERSION
+ *   state    [STATE]                       asks for the state without playing
+ *   deltas   [DELTAS]                      from now on answers with SNAPSHOT and DELTA frames
+ *                                          instead of TURN frames, see StateTracker
+ *   resync   [RESYNC]                      asks for a SNAPSHOT, after a client saw a gap in
+ *                                          the sequence numbers
+ *
+ * Replies are frames: [type][status][body length, 2 bytes][body]. A TURN body holds
+ *   phase, flags (over, first/second/final boss defeated), turns (2), hp (2), max hp (2),
+ *   turns until the ability is ready, depth, room type (NONE before the dungeon exists),
+ *   exits (one bit per Direction ordinal),
+ *   enemy count, per enemy: type, boss, hp (2), max hp (2),
+ *   floor item count, per item: type, value (2),
+ *   inventory count, per item: type, value (2).
+ * Numbers are unsigned and big-endian. Types, classes, phases and
+ * directions are sent as enum ordinals; reordering any of those enums, or
+ * changing what a frame holds, needs a new VERSION.
+ */
+public final class BinaryProtocol {
+    /** Names the hero and picks their class */
+    public static final int HELLO = 0x80;
+    /** Asks for the state without playing */
+    public static final int STATE = 0x81;
+    /** Switches to snapshot and delta frames */
+    public static final int DELTAS = 0x82;
+    /** Asks for a snapshot in delta mode */
+    public static final int RESYNC = 0x83;
+
+    /** Version of the protocol a client says it speaks in its hello */
+    public static final int VERSION = 1;
+
+    /** Frame type of the state after a request */
+    public static final int TURN = 0x01;
+    /** Frame type of what changed since the last frame, in delta mode */
+    public static final int DELTA = 0x02;
+    /** Frame type of the whole state, in delta mode */
+    public static final int SNAPSHOT = 0x03;
+
+    /** The request was played */
+    public static final int OK = 0;
+    /** The game was not waiting for this request, or its target does not exist; nothing changed */
+    public static final int REFUSED = 1;
+    /** The opcode means nothing */
+    public static final int UNKNOWN_OPCODE = 2;
+    /** The command only answers in text, like hint; use the text protocol for it */
+    public static final int TEXT_ONLY = 3;
+    /** The hello asked for another version of the protocol; nothing changed */
+    public static final int UNSUPPORTED_VERSION = 4;
+
+    /** Room type byte before the dungeon exists */
+    public static final int NONE = 0xFF;
+
+    /** Bytes before a frame's body */
+    public static final int FRAME_HEADER_BYTES = 4;
+
+    /**
+     * More than any frame takes, even a delta in which every list changed;
+     * enemies and floor items are capped at 255 each
+     */
+    public static final int MAX_FRAME_BYTES = 8 * 1024;
+
+    /** Size of the longest request, a hello with a 255 byte name */
+    public static final int MAX_REQUEST_BYTES = 4 + 255;
+
+    /**
+     * The command each opcode stands for, by opcode. Numbers are fixed once
+     * given out, so adding or moving a Command never changes the wire
+     * format; a new command gets the next free number at the end.
+     */
+    private static final Command[] OPCODES = {
+            Command.MOVE, Command.LOOK, Command.ATTACK, Command.TAKE, Command.USE, Command.ABILITY,
+            Command.INVENTORY, Command.DROP, Command.HINT, Command.LEADERBOARD, Command.STATS, Command.UNDO,
+            Command.QUIT
+    };
+
+    /** The opcode of each command, by Command ordinal; -1 if it has none */
+    private static final int[] OPCODE_OF = new int[Command.values().length];
+
+    static {
+        Arrays.fill(OPCODE_OF, -1);
+        for (int opcode = 0; opcode < OPCODES.length; opcode++) {
+            OPCODE_OF[OPCODES[opcode].ordinal()] = opcode;
+        }
+    }
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final int OVER = 1;
+    private static final int FIRST_BOSS = 1 << 1;
+    private static final int SECOND_BOSS = 1 << 2;
+    private static final int FINAL_BOSS = 1 << 3;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * One request, reused for every request of a connection
+     */
+    public static final class Request {
+        private final byte[] name = new byte[255];
+        private int opcode;
+        private int target;
+        private int version;
+        private int heroClass;
+        private int nameLength;
+
+        public int getOpcode() {
+            return opcode;
+        }
+
+        /**
+         * Gets the command of a command request
+         * @return The command, or null for HELLO, STATE and unknown opcodes
+         */
+        public Command getCommand() {
+            return opcode < OPCODES.length ? OPCODES[opcode] : null;
+        }
+
+        public int getTarget() {
+            return target;
+        }
+
+        /**
+         * Gets the protocol version a hello asked for
+         * @return The version, to compare with VERSION
+         */
+        public int getVersion() {
+            return version;
+        }
+
+        public int getHeroClass() {
+            return heroClass;
+        }
+
+        public byte[] getName() {
+            return name;
+        }
+
+        public int getNameLength() {
+            return nameLength;
+        }
+    }
+
+    /**
+     * Reads one request
+     * @param in Bytes from the client; on success the position moves past the request,
+     *           otherwise it is left alone until more bytes arrive
+     * @param request Filled in with the request
+     * @return true if a whole request was read
+     */
+    public static boolean decode(ByteBuffer in, Request request) {
+        int start = in.position();
+        int available = in.remaining();
+        if (available < 1) {
+            return false;
+        }
+        int opcode = in.get(start) & 0xFF;
+        if (opcode == STATE || opcode == DELTAS || opcode == RESYNC) {
+            in.position(start + 1);
+            request.opcode = opcode;
+            return true;
+        }
+        if (opcode == HELLO) {
+            if (available < 4) {
+                return false;
+            }
+            int length = in.get(start + 3) & 0xFF;
+            if (available < 4 + length) {
+                return false;
+            }
+            request.opcode = opcode;
+            request.version = in.get(start + 1) & 0xFF;
+            request.heroClass = in.get(start + 2) & 0xFF;
+            request.nameLength = length;
+            in.position(start + 4);
+            in.get(request.name, 0, length);
+            return true;
+        }
+        if (available < 2) {
+            return false;
+        }
+        request.opcode = opcode;
+        request.target = in.get(start + 1) & 0xFF;
+        in.position(start + 2);
+        return true;
+    }
+
+    /**
+     * Writes a command request, for clients
+     * @param command The command
+     * @param target The position of what it acts on, 0 if nothing
+     * @param out Where to write
+     * @throws IllegalArgumentException if the command has no opcode yet
+     */
+    public static void encodeCommand(Command command, int target, ByteBuffer out) {
+        int opcode = OPCODE_OF[command.ordinal()];
+        if (opcode < 0) {
+            throw new IllegalArgumentException(command + " has no opcode in the binary protocol");
+        }
+        out.put((byte) opcode).put((byte) target);
+    }
+
+    /**
+     * Writes a hello request, for clients
+     * @param heroClass Ordinal of the hero's class
+     * @param name The hero's name as UTF-8, at most 255 bytes
+     * @param out Where to write
+     */
+    public static void encodeHello(int heroClass, byte[] name, ByteBuffer out) {
+        out.put((byte) HELLO).put((byte) VERSION).put((byte) heroClass).put((byte) name.length).put(name);
+    }
+
+    /**
+     * Writes the state of a game as a TURN frame
+     * @param state The game's state, copied under its session's lock
+     * @param status How the request went, OK or one of the other statuses
+     * @param out Where to write; needs room for MAX_FRAME_BYTES
+     */
+    public static void encodeTurn(GameState state, int status, ByteBuffer out) {
+        int start = out.position();
+        out.put((byte) TURN).put((byte) status).putShort((short) 0);
+        writeState(state, out);
+        endFrame(start, out);
+    }
+
+    /**
+     * Writes the body of a TURN frame, which SNAPSHOT frames share
+     */
+    static void writeState(GameState state, ByteBuffer out) {
+        out.put((byte) state.phase).put((byte) state.flags).putShort((short) state.turns)
+                .putShort((short) state.hp).putShort((short) state.maxHp).put((byte) state.cooldown)
+                .put((byte) state.depth).put((byte) state.roomType).put((byte) state.exits);
+        GameState.Entries enemies = state.enemies;
+        out.put((byte) enemies.count);
+        for (int i = 0; i < enemies.count; i++) {
+            putEnemy(enemies, i, out);
+        }
+        putItems(state.floor, out);
+        putItems(state.inventory, out);
+    }
+
+    private static void putItems(GameState.Entries items, ByteBuffer out) {
+        out.put((byte) items.count);
+        for (int i = 0; i < items.count; i++) {
+            putItem(items, i, out);
+        }
+    }
+
+    /**
+     * Gets whether the game is over and which bosses fell, one bit each
+     */
+    static int flags(Game game) {
+        DungeonProgress progress = game.getDungeonProgress();
+        return (game.isOver() ? OVER : 0)
+                | (progress.isFirstBossDefeated() ? FIRST_BOSS : 0)
+                | (progress.isSecondBossDefeated() ? SECOND_BOSS : 0)
+                | (progress.isFinalBossDefeated() ? FINAL_BOSS : 0);
+    }
+
+    /**
+     * Fills in the body length of a frame once its body is written
+     * @param start Where the frame starts
+     */
+    static void endFrame(int start, ByteBuffer out) {
+        out.putShort(start + 2, (short) (out.position() - start - FRAME_HEADER_BYTES));
+    }
+
+    /**
+     * Gets a room's exits as one bit per Direction ordinal
+     */
+    static int exitMask(Room room) {
+        int exits = 0;
+        for (Direction direction : DIRECTIONS) {
+            if (room.hasExit(direction)) {
+                exits |= 1 << direction.ordinal();
+            }
+        }
+        return exits;
+    }
+
+    static void putEnemy(GameState.Entries enemies, int index, ByteBuffer out) {
+        out.put((byte) enemies.types[index])
+                .put((byte) enemies.bosses[index])
+                .putShort((short) enemies.tracked[index])
+                .putShort((short) enemies.values[index]);
+    }
+
+    /**
+     * Writes an empty frame, for requests that were not played and have no game to show
+     * @param status Why
+     * @param out Where to write
+     */
+    public static void encodeStatus(int status, ByteBuffer out) {
+        out.put((byte) TURN).put((byte) status).putShort((short) 0);
+    }
+
+    static void putItem(GameState.Entries items, int index, ByteBuffer out) {
+        out.put((byte) items.types[index]).putShort((short) items.values[index]);
+    }
+}
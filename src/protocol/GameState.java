@@ -0,0 +1,124 @@
+package protocol;
+
+import character.enemy.Enemy;
+import character.player.Player;
+import game.Game;
+import items.Inventory;
+import items.Item;
+import world.DungeonProgress;
+import world.Room;
+
+import java.util.Arrays;
+
+/**
+ * What a binary frame shows of a game, copied out of it, so that the frame
+ * can be written after the session's lock is released, for example on a
+ * spectator fan-out thread. The room, enemies and items are kept only to be
+ * compared by reference; every number written comes from the copy.
+ */
+public final class GameState {
+    /** Longest list a frame carries */
+    static final int MAX_ENTRIES = 255;
+
+    int phase;
+    int flags;
+    int turns;
+    int hp;
+    int maxHp;
+    int cooldown;
+    int depth;
+    /** The room, compared by reference; null before the dungeon exists */
+    Room room;
+    int roomType;
+    int exits;
+    final Entries enemies = new Entries();
+    final Entries floor = new Entries();
+    final Entries inventory = new Entries();
+
+    /**
+     * Copies a game's state
+     * @param game The game, read under its session's lock
+     * @return A copy that no later turn changes
+     */
+    public static GameState of(Game game) {
+        GameState state = new GameState();
+        state.capture(game);
+        return state;
+    }
+
+    /**
+     * Copies a game's state over this one, for a reader that keeps one copy around
+     * @param game The game, read under its session's lock
+     */
+    void capture(Game game) {
+        DungeonProgress progress = game.getDungeonProgress();
+        phase = game.getPhase().ordinal();
+        flags = BinaryProtocol.flags(game);
+        turns = game.getTurns();
+        Player player = game.getPlayer();
+        hp = player == null ? 0 : player.getCurrentHealthPoints();
+        maxHp = player == null ? 0 : player.getMaxHealthPoints();
+        cooldown = player == null ? 0 : player.getSpecialAbility().getCurrentCooldown();
+        depth = progress.getCurrentDepth();
+        room = game.getCurrentRoom();
+        roomType = room == null ? BinaryProtocol.NONE : room.getType().ordinal();
+        exits = room == null ? 0 : BinaryProtocol.exitMask(room);
+
+        int count = room == null ? 0 : Math.min(MAX_ENTRIES, room.getEnemyCount());
+        enemies.clear(count);
+        for (int i = 0; i < count; i++) {
+            Enemy enemy = room.getEnemy(i);
+            enemies.add(enemy, enemy.getType().ordinal(), enemy.isBoss() ? 1 : 0,
+                    enemy.getCurrentHealthPoints(), enemy.getMaxHealthPoints());
+        }
+        count = room == null ? 0 : Math.min(MAX_ENTRIES, room.getItemCount());
+        floor.clear(count);
+        for (int i = 0; i < count; i++) {
+            Item item = room.getItem(i);
+            floor.add(item, item.getType().ordinal(), 0, 0, item.getValue());
+        }
+        Inventory bag = player == null ? null : player.getInventory();
+        count = bag == null ? 0 : Math.min(MAX_ENTRIES, bag.size());
+        inventory.clear(count);
+        for (int i = 0; i < count; i++) {
+            Item item = bag.getItem(i);
+            inventory.add(item, item.getType().ordinal(), 0, 0, item.getValue());
+        }
+    }
+
+    /**
+     * One list of enemies or items. For an enemy the value is its max hp and
+     * the tracked number its hp; items only have a value.
+     */
+    static final class Entries {
+        Object[] refs = new Object[0];
+        int[] types = new int[0];
+        int[] bosses = new int[0];
+        /** The number a delta follows without resending the entry, an enemy's hp */
+        int[] tracked = new int[0];
+        int[] values = new int[0];
+        int count;
+
+        void clear(int capacity) {
+            if (refs.length < capacity) {
+                int size = Math.max(capacity, refs.length * 2);
+                refs = new Object[size];
+                types = new int[size];
+                bosses = new int[size];
+                tracked = new int[size];
+                values = new int[size];
+            } else {
+                Arrays.fill(refs, 0, count, null);
+            }
+            count = 0;
+        }
+
+        void add(Object ref, int type, int boss, int trackedValue, int value) {
+            refs[count] = ref;
+            types[count] = type;
+            bosses[count] = boss;
+            tracked[count] = trackedValue;
+            values[count++] = value;
+        }
+    }
+}
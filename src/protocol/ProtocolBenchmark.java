@@ -0,0 +1,237 @@
+package protocol;
+
+import character.enemy.Enemy;
+import character.player.HeroClass;
+import command.Command;
+import game.Game;
+import items.Item;
+import session.SessionManager;
+import world.Direction;
+import world.Room;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares the binary protocol with typed commands on the same games.
+ * Both sides play identical seeds with the same simple bot (attack the first
+ * enemy, else pick up the first item, else go north), so they play the same
+ * turns; only how commands arrive and how replies leave differs: typed lines
+ * with text replies, binary requests with whole-state TURN frames, and binary
+ * requests with DELTA frames. Reports server time, reply bytes and allocation
+ * per turn, checks that decoding and encoding alone allocate nothing, and
+ * checks after every delta that the client's mirror matches the game.
+ *
+ * Usage: ProtocolBenchmark [--games N] [--rounds N]
+ */
+public class ProtocolBenchmark {
+    /** Turns a game is played at most before it is replaced */
+    private static final int MAX_TURNS = 300;
+
+    /** How replies leave */
+    private enum Path {
+        TEXT, TURN, DELTA
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int games = 2000;
+        int rounds = 5;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--games":
+                    games = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--rounds":
+                    rounds = Integer.parseInt(value(args, ++i));
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.err.println("Usage: ProtocolBenchmark [--games N] [--rounds N]");
+                    System.exit(2);
+            }
+        }
+        checkCodecAllocation();
+        System.out.printf("%-6s %5s %9s %10s %12s %14s%n",
+                "path", "round", "turns", "us/turn", "bytes/turn", "alloc B/turn");
+        for (int round = 1; round <= rounds; round++) {
+            // The last round counts; the others warm the JIT up
+            Result text = run(games, Path.TEXT);
+            Result turn = run(games, Path.TURN);
+            Result delta = run(games, Path.DELTA);
+            text.print("text", round);
+            turn.print("turn", round);
+            delta.print("delta", round);
+            if (text.turns != turn.turns || text.turns != delta.turns) {
+                System.out.println("The paths played different games: " + text.turns + ", " + turn.turns
+                        + " and " + delta.turns + " turns");
+            }
+            if (delta.mismatches > 0) {
+                System.out.println("The delta mirror went wrong on " + delta.mismatches + " turns");
+            }
+        }
+    }
+
+    /**
+     * Decodes and encodes in a loop and makes sure the heap did not grow
+     */
+    private static void checkCodecAllocation() {
+        try (SessionManager sessions = new SessionManager()) {
+            sessions.open("codec", 1);
+            sessions.handleLine("codec", "bench");
+            sessions.handleLine("codec", "warrior");
+            ByteBuffer in = ByteBuffer.allocate(2);
+            ByteBuffer out = ByteBuffer.allocate(BinaryProtocol.MAX_FRAME_BYTES);
+            BinaryProtocol.Request request = new BinaryProtocol.Request();
+            GameState state = new GameState();
+            sessions.inspect("codec", game -> {
+                long before = 0;
+                for (int pass = 0; pass < 2; pass++) {
+                    // The first pass warms up, the second is measured
+                    before = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+                    for (int i = 0; i < 100_000; i++) {
+                        in.clear();
+                        BinaryProtocol.encodeCommand(Command.ATTACK, 0, in);
+                        in.flip();
+                        BinaryProtocol.decode(in, request);
+                        out.clear();
+                        state.capture(game);
+                        BinaryProtocol.encodeTurn(state, BinaryProtocol.OK, out);
+                    }
+                }
+                long allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+                System.out.printf("codec: %d bytes allocated over 100000 decodes and encodes, frame %d bytes%n",
+                        allocated, out.position());
+                return null;
+            });
+        }
+    }
+
+    private static Result run(int games, Path path) {
+        Result result = new Result();
+        ByteBuffer in = ByteBuffer.allocate(64);
+        // Room for the replies to hello and deltas at once
+        ByteBuffer out = ByteBuffer.allocate(2 * BinaryProtocol.MAX_FRAME_BYTES);
+        ByteBuffer expected = ByteBuffer.allocate(BinaryProtocol.MAX_FRAME_BYTES);
+        ByteBuffer mirrored = ByteBuffer.allocate(BinaryProtocol.MAX_FRAME_BYTES);
+        try (SessionManager sessions = new SessionManager()) {
+            for (int g = 0; g < games; g++) {
+                String id = "bench-" + g;
+                sessions.open(id, g);
+                BinaryHandler handler = new BinaryHandler(sessions, id);
+                StateMirror mirror = new StateMirror();
+                if (path == Path.TEXT) {
+                    sessions.handleLine(id, "bench");
+                    sessions.handleLine(id, "warrior");
+                } else {
+                    in.clear();
+                    BinaryProtocol.encodeHello(HeroClass.WARRIOR.ordinal(), "bench".getBytes(StandardCharsets.UTF_8), in);
+                    if (path == Path.DELTA) {
+                        in.put((byte) BinaryProtocol.DELTAS);
+                    }
+                    in.flip();
+                    out.clear();
+                    handler.handle(in, out);
+                    out.flip();
+                    while (out.hasRemaining()) {
+                        mirror.apply(out);
+                    }
+                }
+                for (int turn = 0; turn < MAX_TURNS && sessions.getSession(id) != null; turn++) {
+                    Move move = sessions.inspect(id, ProtocolBenchmark::choose);
+                    long allocatedBefore = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+                    long start = System.nanoTime();
+                    if (path == Path.TEXT) {
+                        result.bytes += sessions.handleLine(id, move.line).getBytes(StandardCharsets.UTF_8).length;
+                    } else {
+                        in.clear();
+                        BinaryProtocol.encodeCommand(move.command, move.target, in);
+                        in.flip();
+                        out.clear();
+                        handler.handle(in, out);
+                        result.bytes += out.position();
+                    }
+                    result.nanos += System.nanoTime() - start;
+                    result.allocated += THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+                    result.turns++;
+                    if (path == Path.DELTA && !matches(sessions, id, out, mirror, expected, mirrored)) {
+                        result.mismatches++;
+                    }
+                }
+                sessions.close(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Applies a delta frame to the mirror and compares the mirror with the game
+     */
+    private static boolean matches(SessionManager sessions, String id, ByteBuffer frame, StateMirror mirror,
+                                   ByteBuffer expected, ByteBuffer mirrored) {
+        frame.flip();
+        if (!mirror.apply(frame)) {
+            return false;
+        }
+        if (sessions.getSession(id) == null) {
+            // The game ended and its session closed; nothing left to compare with
+            return true;
+        }
+        expected.clear();
+        BinaryProtocol.writeState(sessions.inspect(id, GameState::of), expected);
+        mirrored.clear();
+        mirror.writeState(mirrored);
+        return expected.flip().equals(mirrored.flip());
+    }
+
+    /**
+     * Attacks the first enemy, else takes the first item, else goes north
+     */
+    private static Move choose(Game game) {
+        Room room = game.getCurrentRoom();
+        if (room.getEnemyCount() > 0) {
+            Enemy enemy = room.getEnemy(0);
+            return new Move(Command.ATTACK, 0, "attack " + enemy.getCharacterName());
+        }
+        if (room.getItemCount() > 0 && !game.getPlayer().getInventory().isFull()) {
+            Item item = room.getItem(0);
+            return new Move(Command.TAKE, 0, "take " + item.getName());
+        }
+        return new Move(Command.MOVE, Direction.NORTH.ordinal(), "move north");
+    }
+
+    private static final class Move {
+        final Command command;
+        final int target;
+        final String line;
+
+        Move(Command command, int target, String line) {
+            this.command = command;
+            this.target = target;
+            this.line = line;
+        }
+    }
+
+    private static final class Result {
+        long turns;
+        long nanos;
+        long bytes;
+        long allocated;
+        long mismatches;
+
+        void print(String path, int round) {
+            System.out.printf("%-6s %5d %9d %10.2f %12.1f %14.0f%n", path, round, turns,
+                    nanos / 1e3 / turns, (double) bytes / turns, (double) allocated / turns);
+        }
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(args[index - 1] + " needs a value");
+        }
+        return args[index];
+    }
+}
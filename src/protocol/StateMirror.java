@@ -0,0 +1,193 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The client side of StateTracker: rebuilds the game state from SNAPSHOT and
+ * DELTA frames, for Java clients and bots, and notices missed frames.
+ */
+public class StateMirror {
+    /** Bytes per enemy and per item in a frame */
+    private static final int ENEMY_BYTES = 6;
+    private static final int ITEM_BYTES = 3;
+
+    private final List<byte[]> enemies = new ArrayList<>();
+    private final List<byte[]> floor = new ArrayList<>();
+    private final List<byte[]> inventory = new ArrayList<>();
+    private int sequence;
+    private boolean synced;
+    private int phase;
+    private int flags;
+    private int turns;
+    private int hp;
+    private int maxHp;
+    private int cooldown;
+    private int depth;
+    private int roomType = BinaryProtocol.NONE;
+    private int exits;
+
+    /**
+     * Applies one frame
+     * @param frame A whole frame; its position moves past it
+     * @return false if frames were missed and the client should send RESYNC;
+     *         deltas are ignored until the next snapshot
+     */
+    public boolean apply(ByteBuffer frame) {
+        int type = frame.get() & 0xFF;
+        frame.get();
+        int length = frame.getShort() & 0xFFFF;
+        int end = frame.position() + length;
+        if (type != BinaryProtocol.SNAPSHOT && type != BinaryProtocol.DELTA) {
+            frame.position(end);
+            return true;
+        }
+        int number = frame.getInt();
+        if (type == BinaryProtocol.SNAPSHOT) {
+            readState(frame);
+            synced = true;
+        } else if (!synced || number != sequence + 1) {
+            synced = false;
+        } else {
+            readDelta(frame);
+        }
+        sequence = number;
+        frame.position(end);
+        return synced;
+    }
+
+    private void readState(ByteBuffer in) {
+        phase = in.get() & 0xFF;
+        flags = in.get() & 0xFF;
+        turns = in.getShort() & 0xFFFF;
+        hp = in.getShort() & 0xFFFF;
+        maxHp = in.getShort() & 0xFFFF;
+        cooldown = in.get() & 0xFF;
+        depth = in.get() & 0xFF;
+        roomType = in.get() & 0xFF;
+        exits = in.get() & 0xFF;
+        readList(in, enemies, ENEMY_BYTES);
+        readList(in, floor, ITEM_BYTES);
+        readList(in, inventory, ITEM_BYTES);
+    }
+
+    private void readDelta(ByteBuffer in) {
+        int fields = in.getShort() & 0xFFFF;
+        if ((fields & StateTracker.PHASE) != 0) {
+            phase = in.get() & 0xFF;
+            flags = in.get() & 0xFF;
+        }
+        if ((fields & StateTracker.TURNS) != 0) {
+            turns = in.getShort() & 0xFFFF;
+        }
+        if ((fields & StateTracker.HP) != 0) {
+            hp = in.getShort() & 0xFFFF;
+        }
+        if ((fields & StateTracker.MAX_HP) != 0) {
+            maxHp = in.getShort() & 0xFFFF;
+        }
+        if ((fields & StateTracker.COOLDOWN) != 0) {
+            cooldown = in.get() & 0xFF;
+        }
+        if ((fields & StateTracker.DEPTH) != 0) {
+            depth = in.get() & 0xFF;
+        }
+        if ((fields & StateTracker.ROOM) != 0) {
+            roomType = in.get() & 0xFF;
+        }
+        if ((fields & StateTracker.EXITS) != 0) {
+            exits = in.get() & 0xFF;
+        }
+        if ((fields & StateTracker.ENEMIES) != 0) {
+            readList(in, enemies, ENEMY_BYTES);
+        }
+        if ((fields & StateTracker.ENEMY_CHANGES) != 0) {
+            readChanges(in, enemies, ENEMY_BYTES);
+            int changed = in.get() & 0xFF;
+            for (int i = 0; i < changed; i++) {
+                byte[] enemy = enemies.get(in.get() & 0xFF);
+                enemy[2] = in.get();
+                enemy[3] = in.get();
+            }
+        }
+        if ((fields & StateTracker.FLOOR) != 0) {
+            readList(in, floor, ITEM_BYTES);
+        }
+        if ((fields & StateTracker.FLOOR_CHANGES) != 0) {
+            readChanges(in, floor, ITEM_BYTES);
+        }
+        if ((fields & StateTracker.INVENTORY) != 0) {
+            readList(in, inventory, ITEM_BYTES);
+        }
+        if ((fields & StateTracker.INVENTORY_CHANGES) != 0) {
+            readChanges(in, inventory, ITEM_BYTES);
+        }
+    }
+
+    private static void readList(ByteBuffer in, List<byte[]> list, int entryBytes) {
+        list.clear();
+        readEntries(in, list, entryBytes);
+    }
+
+    private static void readChanges(ByteBuffer in, List<byte[]> list, int entryBytes) {
+        int removed = in.get() & 0xFF;
+        for (int i = 0; i < removed; i++) {
+            list.remove(in.get() & 0xFF);
+        }
+        readEntries(in, list, entryBytes);
+    }
+
+    private static void readEntries(ByteBuffer in, List<byte[]> list, int entryBytes) {
+        int count = in.get() & 0xFF;
+        for (int i = 0; i < count; i++) {
+            byte[] entry = new byte[entryBytes];
+            in.get(entry);
+            list.add(entry);
+        }
+    }
+
+    /**
+     * Writes the mirrored state the way a TURN body has it, for example to compare with the server's
+     * @param out Where to write
+     */
+    public void writeState(ByteBuffer out) {
+        out.put((byte) phase).put((byte) flags).putShort((short) turns)
+                .putShort((short) hp).putShort((short) maxHp).put((byte) cooldown).put((byte) depth)
+                .put((byte) roomType).put((byte) exits);
+        writeList(enemies, out);
+        writeList(floor, out);
+        writeList(inventory, out);
+    }
+
+    private static void writeList(List<byte[]> list, ByteBuffer out) {
+        out.put((byte) list.size());
+        for (byte[] entry : list) {
+            out.put(entry);
+        }
+    }
+
+    public boolean isSynced() {
+        return synced;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public int getHp() {
+        return hp;
+    }
+
+    public int getTurns() {
+        return turns;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getEnemyCount() {
+        return enemies.size();
+    }
+}
@@ -0,0 +1,155 @@
+package protocol;
+
+import character.player.HeroClass;
+import command.Command;
+import session.GameSession;
+import session.SessionManager;
+import world.Direction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Checks that a StateMirror fed the SNAPSHOT and DELTA frames of a
+ * BinaryHandler always holds the same state as the game itself. Games are
+ * played with random commands, undo included, and are hibernated now and
+ * then so they wake up with new rooms. A client that misses a frame must see
+ * the gap and be right again after a RESYNC. Throws on the first frame after
+ * which the two differ.
+ *
+ * Usage: StateMirrorTest [directory for hibernated games, by default a new temporary one]
+ */
+public class StateMirrorTest {
+    private static final int GAMES = 40;
+    private static final int MAX_TURNS = 400;
+    /** Idle games are put to sleep this often, in turns */
+    private static final int HIBERNATE_EVERY = 60;
+    /** Every this many turns a frame is lost on the way to the client */
+    private static final int LOSE_EVERY = 17;
+
+    /** Commands picked from; moves and attacks are the most common, like in a real game */
+    private static final Command[] COMMANDS = {
+            Command.MOVE, Command.MOVE, Command.MOVE, Command.ATTACK, Command.ATTACK, Command.ATTACK,
+            Command.TAKE, Command.TAKE, Command.USE, Command.DROP, Command.ABILITY, Command.INVENTORY,
+            Command.LOOK, Command.UNDO, Command.HINT
+    };
+
+    public static void main(String[] args) throws IOException {
+        Path spill = args.length > 0 ? Paths.get(args[0]) : Files.createTempDirectory("mirror-test");
+        long turns = 0;
+        for (int game = 0; game < GAMES; game++) {
+            turns += play(spill, game, false);
+        }
+        for (int game = 0; game < GAMES / 4; game++) {
+            turns += play(spill, game, true);
+        }
+        System.out.println("All mirror checks passed over " + turns + " turns in " + spill);
+    }
+
+    /**
+     * Plays one game to its end or MAX_TURNS, checking the mirror after every frame
+     * @param loseFrames Drops a frame now and then, and checks the mirror notices and recovers
+     * @return How many turns were played
+     */
+    private static int play(Path spill, int seed, boolean loseFrames) {
+        Random random = new Random(seed);
+        ByteBuffer in = ByteBuffer.allocate(BinaryProtocol.MAX_REQUEST_BYTES);
+        ByteBuffer out = ByteBuffer.allocate(2 * BinaryProtocol.MAX_FRAME_BYTES);
+        ByteBuffer expected = ByteBuffer.allocate(BinaryProtocol.MAX_FRAME_BYTES);
+        ByteBuffer mirrored = ByteBuffer.allocate(BinaryProtocol.MAX_FRAME_BYTES);
+        String id = "mirror-" + seed;
+        int turn = 0;
+        try (SessionManager sessions = new SessionManager(1, spill)) {
+            sessions.open(id, seed);
+            // Kept so the state can still be read after the game ends and its session closes
+            GameSession session = sessions.getSession(id);
+            BinaryHandler handler = new BinaryHandler(sessions, id);
+            StateMirror mirror = new StateMirror();
+
+            in.clear();
+            HeroClass hero = HeroClass.values()[random.nextInt(HeroClass.values().length)];
+            BinaryProtocol.encodeHello(hero.ordinal(), "mirror".getBytes(StandardCharsets.UTF_8), in);
+            in.put((byte) BinaryProtocol.DELTAS);
+            send(handler, in, out);
+            while (out.hasRemaining()) {
+                mirror.apply(out);
+            }
+            compare(session, mirror, expected, mirrored, id + " after hello");
+
+            for (; turn < MAX_TURNS && sessions.getSession(id) != null; turn++) {
+                if (turn % HIBERNATE_EVERY == HIBERNATE_EVERY - 1) {
+                    hibernate(sessions);
+                    check(session.isHibernating(), id + " turn " + turn + ": an idle game did not hibernate");
+                }
+                Command command = COMMANDS[random.nextInt(COMMANDS.length)];
+                int target = command == Command.MOVE ? random.nextInt(Direction.values().length) : random.nextInt(3);
+                in.clear();
+                BinaryProtocol.encodeCommand(command, target, in);
+                send(handler, in, out);
+
+                if (loseFrames && turn % LOSE_EVERY == LOSE_EVERY - 1) {
+                    // Lost on the way; the next frame shows the gap
+                    continue;
+                }
+                boolean synced = mirror.apply(out);
+                check(!out.hasRemaining(), id + " turn " + turn + ": more than one frame for one request");
+                if (loseFrames && turn % LOSE_EVERY == 0 && turn > 0) {
+                    check(!synced && !mirror.isSynced(), id + " turn " + turn + ": a lost frame was not noticed");
+                    if (sessions.getSession(id) == null) {
+                        break;
+                    }
+                    in.clear();
+                    in.put((byte) BinaryProtocol.RESYNC);
+                    send(handler, in, out);
+                    synced = mirror.apply(out);
+                }
+                check(synced, id + " turn " + turn + ": the mirror lost track");
+                compare(session, mirror, expected, mirrored, id + " turn " + turn + " (" + command + " " + target + ")");
+            }
+            if (sessions.getSession(id) != null) {
+                sessions.close(id);
+            }
+        }
+        return turn;
+    }
+
+    /**
+     * Puts the idle game to sleep, so its next command wakes it up with new rooms
+     */
+    private static void hibernate(SessionManager sessions) {
+        try {
+            Thread.sleep(2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sessions.sweep();
+    }
+
+    private static void send(BinaryHandler handler, ByteBuffer in, ByteBuffer out) {
+        in.flip();
+        out.clear();
+        handler.handle(in, out);
+        check(!in.hasRemaining(), "a request was not played");
+        out.flip();
+    }
+
+    private static void compare(GameSession session, StateMirror mirror, ByteBuffer expected, ByteBuffer mirrored,
+                                String when) {
+        expected.clear();
+        BinaryProtocol.writeState(session.inspect(GameState::of), expected);
+        mirrored.clear();
+        mirror.writeState(mirrored);
+        check(expected.flip().equals(mirrored.flip()), when + ": the mirror differs from the game");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
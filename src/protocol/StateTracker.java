@@ -0,0 +1,281 @@
+package protocol;
+
+import world.Room;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Remembers what one client was last sent, so that the next frame only
+ * carries what changed since. The first frame, and the one after a resync,
+ * is a SNAPSHOT with the whole state; every other frame is a DELTA. Each
+ * frame has the next sequence number, so a client that missed one sees a
+ * gap and asks for a RESYNC instead of drawing a wrong picture.
+ *
+ * SNAPSHOT body: [sequence, 4][the same as a TURN body]
+ * DELTA body:    [sequence, 4][fields, 2][each field whose bit is set, in bit order]
+ *   PHASE              phase, flags
+ *   TURNS              turns (2)
+ *   HP                 hp (2)
+ *   MAX_HP             max hp (2)
+ *   COOLDOWN           turns until the ability is ready
+ *   DEPTH              depth
+ *   ROOM               room type; the player is in another room, so its
+ *                      enemies and floor items follow in full
+ *   EXITS              exits
+ *   ENEMIES            the whole list: count, per enemy: type, boss, hp (2), max hp (2)
+ *   ENEMY_CHANGES      removed count, their old indices from last to first;
+ *                      added count, the added enemies appended as above;
+ *                      hp count, per enemy: index once removed and added are applied, hp (2)
+ *   FLOOR              the whole list: count, per item: type, value (2)
+ *   FLOOR_CHANGES      removed count, old indices from last to first; added count, the added items
+ *   INVENTORY          the whole list, like FLOOR
+ *   INVENTORY_CHANGES  like FLOOR_CHANGES
+ * A turn that changed nothing is a DELTA of 10 bytes.
+ */
+public class StateTracker {
+    public static final int PHASE = 1;
+    public static final int TURNS = 1 << 1;
+    public static final int HP = 1 << 2;
+    public static final int MAX_HP = 1 << 3;
+    public static final int COOLDOWN = 1 << 4;
+    public static final int DEPTH = 1 << 5;
+    public static final int ROOM = 1 << 6;
+    public static final int EXITS = 1 << 7;
+    public static final int ENEMIES = 1 << 8;
+    public static final int ENEMY_CHANGES = 1 << 9;
+    public static final int FLOOR = 1 << 10;
+    public static final int FLOOR_CHANGES = 1 << 11;
+    public static final int INVENTORY = 1 << 12;
+    public static final int INVENTORY_CHANGES = 1 << 13;
+
+    private static final int MAX_ENTRIES = GameState.MAX_ENTRIES;
+
+    private final Baseline enemies = new Baseline();
+    private final Baseline floor = new Baseline();
+    private final Baseline inventory = new Baseline();
+
+    private int sequence;
+    private boolean synced;
+    private int phase;
+    private int flags;
+    private int turns;
+    private int hp;
+    private int maxHp;
+    private int cooldown;
+    private int depth;
+    private int exits;
+    /** The room last sent, compared by reference; a woken game has new rooms, which is sent as a room change */
+    private Room room;
+
+    /**
+     * Makes the next frame a snapshot
+     */
+    public void resync() {
+        synced = false;
+    }
+
+    /**
+     * Gets the sequence number of the last frame written
+     * @return The number, 0 before the first frame
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Writes a SNAPSHOT or DELTA frame and remembers what the client now knows
+     * @param state The game's state, copied under its session's lock; the
+     *              encoding itself needs no lock
+     * @param status How the request went
+     * @param out Where to write; needs room for BinaryProtocol.MAX_FRAME_BYTES
+     */
+    public void encode(GameState state, int status, ByteBuffer out) {
+        int start = out.position();
+        if (!synced) {
+            out.put((byte) BinaryProtocol.SNAPSHOT).put((byte) status).putShort((short) 0).putInt(++sequence);
+            BinaryProtocol.writeState(state, out);
+            BinaryProtocol.endFrame(start, out);
+            remember(state);
+            synced = true;
+            return;
+        }
+        out.put((byte) BinaryProtocol.DELTA).put((byte) status).putShort((short) 0).putInt(++sequence);
+        int fieldsAt = out.position();
+        out.putShort((short) 0);
+        int fields = 0;
+
+        if (state.phase != phase || state.flags != flags) {
+            fields |= PHASE;
+            out.put((byte) state.phase).put((byte) state.flags);
+        }
+        if (state.turns != turns) {
+            fields |= TURNS;
+            out.putShort((short) state.turns);
+        }
+        if (state.hp != hp) {
+            fields |= HP;
+            out.putShort((short) state.hp);
+        }
+        if (state.maxHp != maxHp) {
+            fields |= MAX_HP;
+            out.putShort((short) state.maxHp);
+        }
+        if (state.cooldown != cooldown) {
+            fields |= COOLDOWN;
+            out.put((byte) state.cooldown);
+        }
+        if (state.depth != depth) {
+            fields |= DEPTH;
+            out.put((byte) state.depth);
+        }
+        boolean moved = state.room != room;
+        if (moved) {
+            fields |= ROOM;
+            out.put((byte) state.roomType);
+        }
+        if (state.exits != exits) {
+            fields |= EXITS;
+            out.put((byte) state.exits);
+        }
+
+        fields |= writeList(enemies, state.enemies, true, moved, ENEMIES, ENEMY_CHANGES, out);
+        fields |= writeList(floor, state.floor, false, moved, FLOOR, FLOOR_CHANGES, out);
+        fields |= writeList(inventory, state.inventory, false, false, INVENTORY, INVENTORY_CHANGES, out);
+
+        out.putShort(fieldsAt, (short) fields);
+        BinaryProtocol.endFrame(start, out);
+        remember(state);
+    }
+
+    /**
+     * Remembers the scalar fields; the lists remember themselves as they are written
+     */
+    private void remember(GameState state) {
+        phase = state.phase;
+        flags = state.flags;
+        turns = state.turns;
+        hp = state.hp;
+        maxHp = state.maxHp;
+        cooldown = state.cooldown;
+        depth = state.depth;
+        room = state.room;
+        exits = state.exits;
+        if (!synced) {
+            enemies.remember(state.enemies);
+            floor.remember(state.floor);
+            inventory.remember(state.inventory);
+        }
+    }
+
+    /**
+     * Writes how a list changed, as removals, additions and new values when it
+     * can be said that way, else as the whole list
+     * @param baseline What the client has
+     * @param current The list now
+     * @param isEnemies true for enemies, whose hp changes are sent on their own
+     * @param whole true to send the whole list anyway
+     * @return The field bit that was written, or 0 if nothing changed
+     */
+    private int writeList(Baseline baseline, GameState.Entries current, boolean isEnemies, boolean whole,
+                          int wholeField, int changesField, ByteBuffer out) {
+        int field = 0;
+        int count = current.count;
+        if (whole || !baseline.compare(current)) {
+            field = wholeField;
+            out.put((byte) count);
+            for (int i = 0; i < count; i++) {
+                putEntry(current, i, isEnemies, out);
+            }
+        } else if (baseline.changed(count)) {
+            field = changesField;
+            out.put((byte) baseline.removedCount);
+            for (int i = baseline.removedCount - 1; i >= 0; i--) {
+                out.put((byte) baseline.removed[i]);
+            }
+            out.put((byte) (count - baseline.keptCount));
+            for (int i = baseline.keptCount; i < count; i++) {
+                putEntry(current, i, isEnemies, out);
+            }
+            if (isEnemies) {
+                out.put((byte) baseline.valueChangeCount);
+                for (int i = 0; i < baseline.valueChangeCount; i++) {
+                    int index = baseline.valueChanges[i];
+                    out.put((byte) index).putShort((short) current.tracked[index]);
+                }
+            }
+        }
+        baseline.remember(current);
+        return field;
+    }
+
+    private static void putEntry(GameState.Entries entries, int index, boolean isEnemy, ByteBuffer out) {
+        if (isEnemy) {
+            BinaryProtocol.putEnemy(entries, index, out);
+        } else {
+            BinaryProtocol.putItem(entries, index, out);
+        }
+    }
+
+    /**
+     * One list as the client last saw it, compared by reference
+     */
+    private static final class Baseline {
+        final Object[] sent = new Object[MAX_ENTRIES];
+        final int[] sentValues = new int[MAX_ENTRIES];
+        int size;
+        /** Results of the last compare */
+        final int[] removed = new int[MAX_ENTRIES];
+        final int[] valueChanges = new int[MAX_ENTRIES];
+        int removedCount;
+        int keptCount;
+        int valueChangeCount;
+
+        /**
+         * Works out which entries went away, which were appended and which kept
+         * entries have a new tracked value
+         * @return false if the list changed in some other way, like a new order
+         */
+        boolean compare(GameState.Entries entries) {
+            Object[] current = entries.refs;
+            int[] values = entries.tracked;
+            int count = entries.count;
+            removedCount = 0;
+            valueChangeCount = 0;
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (kept < count && current[kept] == sent[i]) {
+                    if (values[kept] != sentValues[i]) {
+                        valueChanges[valueChangeCount++] = kept;
+                    }
+                    kept++;
+                } else {
+                    removed[removedCount++] = i;
+                }
+            }
+            keptCount = kept;
+            for (int j = kept; j < count; j++) {
+                for (int i = 0; i < size; i++) {
+                    if (current[j] == sent[i]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        boolean changed(int count) {
+            return removedCount > 0 || keptCount < count || valueChangeCount > 0;
+        }
+
+        void remember(GameState.Entries entries) {
+            int count = entries.count;
+            System.arraycopy(entries.refs, 0, sent, 0, count);
+            System.arraycopy(entries.tracked, 0, sentValues, 0, count);
+            if (count < size) {
+                Arrays.fill(sent, count, size, null);
+            }
+            size = count;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package scheduler;
+
+import command.Command;
+import load.LatencyHistogram;
+import utils.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the commands of many sessions on one bounded pool of worker threads.
+ * Each session's tasks run one at a time in the order they were given, as if
+ * every session had its own single thread, while the sessions share the
+ * workers fairly:
+ * <ul>
+ *   <li>Weighted fair queuing: every session has a virtual clock that advances
+ *       by the time its tasks took divided by its weight, and the session whose
+ *       next task would start earliest in virtual time goes first. A session
+ *       that sends a flood of commands falls behind in virtual time instead of
+ *       holding up everyone who sends one now and then.</li>
+ *   <li>A token bucket per session: a task needs a token, tokens come back at a
+ *       steady rate up to a burst, and a session without one waits until its
+ *       next token is due.</li>
+ *   <li>Lanes: a session whose next task is a fight move (see Lane) goes before
+ *       sessions whose next task is not, but only COMBAT_SHARE times in a row;
+ *       after that a waiting session of the other lane gets its turn, so a
+ *       busy fight lane cannot starve everything else.</li>
+ * </ul>
+ * A task that throws is counted in Metrics as scheduler.taskFailures and does
+ * not hold up its session or its worker. Queue depth and the time tasks wait
+ * are exported to Metrics as well.
+ */
+public class FairScheduler implements AutoCloseable {
+    /** Tasks per second a session may run when nobody asks for another limit */
+    public static final double DEFAULT_RATE = 20;
+
+    /** Tasks a session may run back to back after being quiet */
+    public static final int DEFAULT_BURST = 40;
+
+    /** Weight of the newest wait in the moving average of recent waits */
+    private static final double RECENT_WAIT_WEIGHT = 1.0 / 8;
+
+    /** Tasks between updates of the wait time gauges */
+    private static final int EXPORT_INTERVAL = 1024;
+
+    /** Fight moves run in a row while other tasks wait, before one of those goes */
+    private static final int COMBAT_SHARE = 4;
+
+    /** Earliest virtual start first, then first come first served */
+    private static final Comparator<SessionQueue> BY_START = (a, b) -> a.startTag != b.startTag
+            ? Double.compare(a.startTag, b.startTag)
+            : Long.compare(a.ticket, b.ticket);
+
+    /**
+     * Which queue a task waits in
+     */
+    public enum Lane {
+        /** Fight moves, which the player is waiting on the most */
+        COMBAT,
+        /** Everything else, like looking around or checking the bag */
+        NORMAL;
+
+        /**
+         * Picks the lane for a command
+         * @param command The command, or null if it is not known
+         * @return COMBAT for ATTACK and ABILITY, NORMAL otherwise
+         */
+        public static Lane of(Command command) {
+            return command == Command.ATTACK || command == Command.ABILITY ? COMBAT : NORMAL;
+        }
+
+        /**
+         * Picks the lane for a line the player typed, by its first word
+         * @param line The line
+         * @return The lane of the command the line starts with
+         */
+        public static Lane of(String line) {
+            String trimmed = line.trim();
+            int space = trimmed.indexOf(' ');
+            return of(Command.fromString(space < 0 ? trimmed : trimmed.substring(0, space)));
+        }
+    }
+
+    private final double rate;
+    private final int burst;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final Map<String, SessionQueue> queues = new HashMap<>();
+    private final PriorityQueue<SessionQueue> combat = new PriorityQueue<>(BY_START);
+    private final PriorityQueue<SessionQueue> normal = new PriorityQueue<>(BY_START);
+    private final PriorityQueue<SessionQueue> throttled =
+            new PriorityQueue<>(Comparator.comparingLong(queue -> queue.eligibleNanos));
+    private final LatencyHistogram[] waits = {new LatencyHistogram(), new LatencyHistogram()};
+    private final Thread[] workers;
+    private double virtualTime;
+    private double recentWaitNanos;
+    private long nextTicket;
+    private int combatInARow;
+    private int queuedTasks;
+    private long started;
+    private boolean running = true;
+
+    /**
+     * Creates a scheduler with the default rate limit and starts its workers
+     * @param name Name prefix of the worker threads
+     * @param threads Number of worker threads
+     */
+    public FairScheduler(String name, int threads) {
+        this(name, threads, DEFAULT_RATE, DEFAULT_BURST);
+    }
+
+    /**
+     * Creates a scheduler and starts its workers
+     * @param name Name prefix of the worker threads
+     * @param threads Number of worker threads
+     * @param rate Tasks per second each session may run, or 0 for no limit
+     * @param burst Tasks a session may run back to back after being quiet
+     */
+    public FairScheduler(String name, int threads, double rate, int burst) {
+        if (threads < 1 || rate < 0 || burst < 1) {
+            throw new IllegalArgumentException("Need at least one thread, a rate of 0 or more and a burst of 1 or more");
+        }
+        this.rate = rate;
+        this.burst = burst;
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::work, name + "-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queues a task behind the session's earlier tasks
+     * @param session The session the task belongs to
+     * @param lane The lane the task waits in once it is next in its session
+     * @param task The work
+     * @return false if the scheduler is closed
+     */
+    public boolean execute(String session, Lane lane, Runnable task) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            SessionQueue queue = queues.computeIfAbsent(session, key -> new SessionQueue(burst, now));
+            queue.tasks.offerLast(new Task(task, lane, now));
+            queuedTasks++;
+            if (!queue.running && queue.tasks.size() == 1) {
+                schedule(queue, now);
+            }
+            Metrics.set("scheduler.queueDepth", queuedTasks);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives a session a bigger or smaller share of the workers
+     * @param session The session
+     * @param weight Its share compared to a session of weight 1
+     */
+    public void setWeight(String session, double weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be above 0");
+        }
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            queues.computeIfAbsent(session, key -> new SessionQueue(burst, now)).weight = weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops a session's waiting tasks and its place in the queues, for example
+     * when its client went away; a task already running finishes
+     * @param session The session
+     */
+    public void forget(String session) {
+        lock.lock();
+        try {
+            SessionQueue queue = queues.remove(session);
+            if (queue == null) {
+                return;
+            }
+            queuedTasks -= queue.tasks.size();
+            queue.tasks.clear();
+            queue.forgotten = true;
+            combat.remove(queue);
+            normal.remove(queue);
+            throttled.remove(queue);
+            Metrics.set("scheduler.queueDepth", queuedTasks);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the tasks waiting to run
+     * @return Tasks queued in every session, not counting running ones
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queuedTasks;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets how long tasks waited for a worker lately, leaving out time their
+     * session spent over its rate limit
+     * @return A moving average in milliseconds, or 0 if nothing is waiting for a worker now
+     */
+    public double getRecentWaitMillis() {
+        lock.lock();
+        try {
+            return combat.isEmpty() && normal.isEmpty() ? 0 : recentWaitNanos / 1e6;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets how long tasks of a lane waited between being queued and starting
+     * @param lane The lane
+     * @return Every wait so far; safe to read while tasks run
+     */
+    public LatencyHistogram getWaitTimes(Lane lane) {
+        return waits[lane.ordinal()];
+    }
+
+    /**
+     * Stops the workers once their running tasks finish; waiting tasks are dropped
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts a session with waiting tasks in line, or in the throttled queue if
+     * it has no token; lock held
+     */
+    private void schedule(SessionQueue queue, long now) {
+        if (rate > 0) {
+            queue.tokens = Math.min(burst, queue.tokens + (now - queue.refilledNanos) * rate / 1e9);
+            queue.refilledNanos = now;
+            if (queue.tokens < 1) {
+                queue.eligibleNanos = now + (long) ((1 - queue.tokens) / rate * 1e9);
+                throttled.offer(queue);
+                Metrics.increment("scheduler.throttled", 1);
+                workAvailable.signal();
+                return;
+            }
+        }
+        queue.startTag = Math.max(virtualTime, queue.finishTag);
+        queue.ticket = nextTicket++;
+        queue.readyNanos = now;
+        (queue.tasks.peekFirst().lane == Lane.COMBAT ? combat : normal).offer(queue);
+        workAvailable.signal();
+    }
+
+    private void work() {
+        while (true) {
+            SessionQueue queue;
+            Task task;
+            lock.lock();
+            try {
+                long now;
+                while (true) {
+                    if (!running) {
+                        return;
+                    }
+                    now = System.nanoTime();
+                    SessionQueue due;
+                    while ((due = throttled.peek()) != null && due.eligibleNanos <= now) {
+                        throttled.poll();
+                        schedule(due, now);
+                    }
+                    queue = next();
+                    if (queue != null) {
+                        break;
+                    }
+                    try {
+                        if (due == null) {
+                            workAvailable.await();
+                        } else {
+                            workAvailable.awaitNanos(due.eligibleNanos - now);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                task = queue.tasks.pollFirst();
+                queue.running = true;
+                queue.tokens--;
+                queuedTasks--;
+                virtualTime = Math.max(virtualTime, queue.startTag);
+                waits[task.lane.ordinal()].record(now - task.queuedNanos);
+                long ready = Math.max(task.queuedNanos, queue.readyNanos);
+                recentWaitNanos += (now - ready - recentWaitNanos) * RECENT_WAIT_WEIGHT;
+                Metrics.set("scheduler.queueDepth", queuedTasks);
+                if (++started % EXPORT_INTERVAL == 0) {
+                    exportWaits();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            long start = System.nanoTime();
+            try {
+                task.runnable.run();
+            } catch (Throwable e) {
+                // One failed command must not take the worker or the session's later commands with it
+                Metrics.increment("scheduler.taskFailures", 1);
+            } finally {
+                finish(queue, start);
+            }
+        }
+    }
+
+    /**
+     * Takes the session whose task runs next, giving fight moves their share
+     * first; lock held
+     * @return The session, or null if none is waiting for a worker
+     */
+    private SessionQueue next() {
+        if (!combat.isEmpty() && (combatInARow < COMBAT_SHARE || normal.isEmpty())) {
+            combatInARow++;
+            return combat.poll();
+        }
+        combatInARow = 0;
+        return normal.poll();
+    }
+
+    /**
+     * Lets a session's next task be scheduled once its running one is done
+     * @param start When the task started, in System.nanoTime
+     */
+    private void finish(SessionQueue queue, long start) {
+        long end = System.nanoTime();
+        lock.lock();
+        try {
+            queue.running = false;
+            queue.finishTag = queue.startTag + (end - start) / queue.weight;
+            if (!queue.forgotten && !queue.tasks.isEmpty()) {
+                schedule(queue, end);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void exportWaits() {
+        for (Lane lane : Lane.values()) {
+            LatencyHistogram histogram = waits[lane.ordinal()];
+            String prefix = "scheduler." + lane.name().toLowerCase() + "Wait";
+            Metrics.set(prefix + "P50Micros", histogram.getPercentileMicros(50));
+            Metrics.set(prefix + "P99Micros", histogram.getPercentileMicros(99));
+        }
+    }
+
+    /**
+     * One session's waiting tasks and its place in the fair queue
+     */
+    private static final class SessionQueue {
+        final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        double weight = 1;
+        double tokens;
+        long refilledNanos;
+        long eligibleNanos;
+        long readyNanos;
+        double startTag;
+        double finishTag;
+        long ticket;
+        boolean running;
+        boolean forgotten;
+
+        SessionQueue(int burst, long now) {
+            this.tokens = burst;
+            this.refilledNanos = now;
+        }
+    }
+
+    /**
+     * A task with the lane it waits in and when it was queued
+     */
+    private static final class Task {
+        final Runnable runnable;
+        final Lane lane;
+        final long queuedNanos;
+
+        Task(Runnable runnable, Lane lane, long queuedNanos) {
+            this.runnable = runnable;
+            this.lane = lane;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+}
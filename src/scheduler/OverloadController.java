@@ -0,0 +1,147 @@
+package scheduler;
+
+import session.SessionManager;
+import utils.GameOutput.Detail;
+import utils.Metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trades output detail for time when the server is overloaded.
+ * Every tick it looks at how long commands wait for a worker and how busy
+ * this process keeps the CPU. While either is above its high mark, every session goes one step
+ * down in GameOutput.Detail per tick: first the command menu goes, then the
+ * combat log shrinks to one line, then rooms lose their descriptive text.
+ * Once both are below their low marks for a few ticks in a row, detail comes
+ * back one step at a time. Every switch is counted in Metrics. A switch is
+ * one write to SessionManager's level, which sessions read for every line,
+ * so it costs the same however many sessions are open.
+ */
+public class OverloadController implements AutoCloseable {
+    /** Time between looks at the load */
+    public static final long DEFAULT_TICK_MILLIS = 500;
+
+    /** Wait for a worker past which detail is dropped */
+    public static final double HIGH_WAIT_MILLIS = 20;
+
+    /** Wait for a worker below which detail may come back */
+    public static final double LOW_WAIT_MILLIS = 5;
+
+    /** Share of the CPU this process uses past which detail is dropped */
+    public static final double HIGH_CPU = 0.9;
+
+    /** Share of the CPU this process uses below which detail may come back */
+    public static final double LOW_CPU = 0.7;
+
+    /** Calm ticks in a row before a step of detail comes back */
+    private static final int CALM_TICKS = 4;
+
+    private static final Detail[] LEVELS = Detail.values();
+
+    private final SessionManager sessions;
+    private final FairScheduler scheduler;
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private ScheduledExecutorService ticker;
+    private Detail level = Detail.FULL;
+    private int calmTicks;
+
+    /**
+     * Creates a controller; it does nothing until started
+     * @param sessions The sessions whose detail it switches
+     * @param scheduler The scheduler whose queue it watches
+     */
+    public OverloadController(SessionManager sessions, FairScheduler scheduler) {
+        this.sessions = sessions;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Starts looking at the load every DEFAULT_TICK_MILLIS on a background thread
+     */
+    public void start() {
+        start(DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * Starts looking at the load on a background thread
+     * @param tickMillis Time between looks
+     */
+    public synchronized void start(long tickMillis) {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "overload-controller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        double cpu = cpuLoad();
+        double wait = scheduler.getRecentWaitMillis();
+        Metrics.set("overload.cpu", cpu);
+        Metrics.set("overload.waitMillis", wait);
+        update(wait, cpu);
+    }
+
+    /**
+     * Takes one look at the load and switches detail if it calls for it
+     * @param waitMillis How long commands wait for a worker lately
+     * @param cpu Share of the CPU this process uses, from 0 to 1, or below 0 if not known
+     */
+    public synchronized void update(double waitMillis, double cpu) {
+        if (waitMillis > HIGH_WAIT_MILLIS || cpu > HIGH_CPU) {
+            calmTicks = 0;
+            if (level.ordinal() < LEVELS.length - 1) {
+                switchTo(LEVELS[level.ordinal() + 1]);
+            }
+        } else if (waitMillis < LOW_WAIT_MILLIS && cpu < LOW_CPU) {
+            if (++calmTicks >= CALM_TICKS && level != Detail.FULL) {
+                calmTicks = 0;
+                switchTo(LEVELS[level.ordinal() - 1]);
+            }
+        } else {
+            calmTicks = 0;
+        }
+    }
+
+    public synchronized Detail getLevel() {
+        return level;
+    }
+
+    private void switchTo(Detail next) {
+        Metrics.increment(next.compareTo(level) > 0 ? "overload.shed" : "overload.restored", 1);
+        Metrics.set("overload.level", next.ordinal());
+        level = next;
+        sessions.setDetail(next);
+    }
+
+    /**
+     * Reads how busy this process keeps the CPU; other programs on the machine
+     * are left out, since shedding detail here cannot make them any faster
+     * @return Share of the whole machine this process uses, or -1 if the JVM cannot tell
+     */
+    private double cpuLoad() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+        }
+        return -1;
+    }
+
+    /**
+     * Stops looking at the load; the detail stays where it is
+     */
+    @Override
+    public synchronized void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package scheduler;
+
+import load.LatencyHistogram;
+import session.SessionManager;
+import utils.Metrics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shows what a few noisy clients do to everyone else's reply times.
+ * Quiet sessions send a command now and then, alternating fight moves and
+ * looking around, and wait for each reply; noisy sessions keep a deep queue
+ * of commands waiting all the time. The same load runs on a plain shared
+ * thread pool, on a FairScheduler without rate limits, on one with the
+ * default limits and on one without limits watched by an OverloadController,
+ * and the quiet sessions' reply times and the size of the replies are compared.
+ *
+ * Usage: SchedulerBenchmark [--quiet N] [--noisy N] [--noisy-depth N]
+ *        [--think-millis N] [--threads N] [--seconds N]
+ */
+public class SchedulerBenchmark {
+    private final SessionManager sessions = new SessionManager();
+    private final int quiet;
+    private final int noisy;
+    private final int noisyDepth;
+    private final long thinkNanos;
+    private final LatencyHistogram combat = new LatencyHistogram();
+    private final LatencyHistogram normal = new LatencyHistogram();
+    private final AtomicLong noisyCommands = new AtomicLong();
+    private final AtomicLong replyChars = new AtomicLong();
+    private final AtomicLong replies = new AtomicLong();
+    private volatile boolean stopped;
+
+    private SchedulerBenchmark(int quiet, int noisy, int noisyDepth, long thinkMillis) {
+        this.quiet = quiet;
+        this.noisy = noisy;
+        this.noisyDepth = noisyDepth;
+        this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int quiet = 50;
+        int noisy = 4;
+        int noisyDepth = 32;
+        long thinkMillis = 50;
+        int threads = 2;
+        int seconds = 5;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--quiet":
+                    quiet = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--noisy":
+                    noisy = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--noisy-depth":
+                    noisyDepth = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--think-millis":
+                    thinkMillis = Long.parseLong(value(args, ++i));
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(value(args, ++i));
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.err.println("Usage: SchedulerBenchmark [--quiet N] [--noisy N] [--noisy-depth N] "
+                            + "[--think-millis N] [--threads N] [--seconds N]");
+                    System.exit(2);
+            }
+        }
+        System.out.printf("%-12s %12s %12s %12s %12s %12s %9s%n", "host", "combat p50", "combat p99",
+                "normal p50", "normal p99", "noisy cmd/s", "reply B");
+        // A short first run warms the JIT up
+        new SchedulerBenchmark(quiet, noisy, noisyDepth, thinkMillis).run(pool(threads), Math.max(1, seconds / 5), null);
+        new SchedulerBenchmark(quiet, noisy, noisyDepth, thinkMillis).run(pool(threads), seconds, "shared pool");
+        new SchedulerBenchmark(quiet, noisy, noisyDepth, thinkMillis)
+                .run(fair(new FairScheduler("bench-fair", threads, 0, 1)), seconds, "fair");
+        new SchedulerBenchmark(quiet, noisy, noisyDepth, thinkMillis)
+                .run(fair(new FairScheduler("bench-limited", threads)), seconds, "fair+limit");
+
+        SchedulerBenchmark shedding = new SchedulerBenchmark(quiet, noisy, noisyDepth, thinkMillis);
+        FairScheduler scheduler = new FairScheduler("bench-shed", threads, 0, 1);
+        try (OverloadController controller = new OverloadController(shedding.sessions, scheduler)) {
+            controller.start(100);
+            shedding.run(fair(scheduler), seconds, "fair+shed");
+            System.out.printf("%nShed %d times, restored %d times, ended at %s%n", Metrics.count("overload.shed"),
+                    Metrics.count("overload.restored"), controller.getLevel());
+        }
+    }
+
+    /**
+     * Where commands are sent to be played
+     */
+    private interface Host extends AutoCloseable {
+        void execute(String session, FairScheduler.Lane lane, Runnable task);
+
+        @Override
+        void close();
+    }
+
+    private static Host pool(int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "bench-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return new Host() {
+            @Override
+            public void execute(String session, FairScheduler.Lane lane, Runnable task) {
+                pool.execute(task);
+            }
+
+            @Override
+            public void close() {
+                pool.shutdownNow();
+            }
+        };
+    }
+
+    private static Host fair(FairScheduler scheduler) {
+        return new Host() {
+            @Override
+            public void execute(String session, FairScheduler.Lane lane, Runnable task) {
+                scheduler.execute(session, lane, task);
+            }
+
+            @Override
+            public void close() {
+                scheduler.close();
+            }
+        };
+    }
+
+    private void run(Host host, int seconds, String name) throws InterruptedException {
+        try (host) {
+            for (int i = 0; i < quiet; i++) {
+                open("quiet-" + i);
+            }
+            for (int i = 0; i < noisy; i++) {
+                String id = "noisy-" + i;
+                open(id);
+                for (int d = 0; d < noisyDepth; d++) {
+                    playNoisy(host, id, d);
+                }
+            }
+
+            AtomicBoolean[] waiting = new AtomicBoolean[quiet];
+            long[] turns = new long[quiet];
+            for (int i = 0; i < quiet; i++) {
+                waiting[i] = new AtomicBoolean();
+            }
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            long interval = thinkNanos / Math.max(1, quiet);
+            long due = start;
+            for (int next = 0; System.nanoTime() < end; next = (next + 1) % quiet) {
+                LockSupport.parkNanos(due - System.nanoTime());
+                due += interval;
+                AtomicBoolean busy = waiting[next];
+                if (!busy.compareAndSet(false, true)) {
+                    continue;
+                }
+                String line = turns[next]++ % 2 == 0 ? "attack" : "look";
+                FairScheduler.Lane lane = FairScheduler.Lane.of(line);
+                LatencyHistogram latency = lane == FairScheduler.Lane.COMBAT ? combat : normal;
+                String id = "quiet-" + next;
+                long sent = System.nanoTime();
+                host.execute(id, lane, () -> {
+                    count(sessions.handleLine(id, line));
+                    latency.record(System.nanoTime() - sent);
+                    busy.set(false);
+                });
+            }
+            stopped = true;
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            if (name != null) {
+                System.out.printf("%-12s %9d us %9d us %9d us %9d us %12.0f %9d%n", name,
+                        combat.getPercentileMicros(50), combat.getPercentileMicros(99),
+                        normal.getPercentileMicros(50), normal.getPercentileMicros(99),
+                        noisyCommands.get() / elapsed, replyChars.get() / Math.max(1, replies.get()));
+            }
+        }
+        sessions.close();
+    }
+
+    private void open(String id) {
+        sessions.open(id, id.hashCode());
+        sessions.handleLine(id, id);
+        sessions.handleLine(id, "warrior");
+    }
+
+    /**
+     * Sends a noisy session's next command, and another one each time it is played
+     */
+    private void playNoisy(Host host, String id, int turn) {
+        if (stopped) {
+            return;
+        }
+        String line = turn % 2 == 0 ? "look" : "inventory";
+        host.execute(id, FairScheduler.Lane.of(line), () -> {
+            count(sessions.handleLine(id, line));
+            noisyCommands.incrementAndGet();
+            playNoisy(host, id, turn + 1);
+        });
+    }
+
+    private void count(String reply) {
+        replyChars.addAndGet(reply.length());
+        replies.incrementAndGet();
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(args[index - 1] + " needs a value");
+        }
+        return args[index];
+    }
+}
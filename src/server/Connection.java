@@ -0,0 +1,414 @@
+package server;
+
+import protocol.BinaryHandler;
+import protocol.BinaryProtocol;
+import session.Reply;
+import utils.GameOutput.Section;
+import utils.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One client socket and the game session behind it.
+ * The selector thread reads and writes the socket and hands complete lines
+ * to the server's FairScheduler, which plays a session's lines one at a time
+ * on a worker thread, so a slow command never holds up the selector.
+ * Replies wait in a bounded queue, one entry per section, and the selector
+ * thread copies them into a pooled direct buffer as the socket takes them.
+ * A worker only ever adds to the queue, so it never waits for a slow client:
+ * once the queue grows past COALESCE_BYTES a new room description, combat
+ * status or menu replaces the older one still waiting, and a client that
+ * falls MAX_QUEUED_BYTES behind anyway is disconnected.
+ * A binary client (see BinaryProtocol) is read the same way, except that its
+ * bytes are kept as they are until a worker plays the whole requests among
+ * them, and each reply frame is queued as it is.
+ */
+final class Connection {
+    /** Lines that may wait to be played before the connection stops reading */
+    static final int MAX_PENDING_LINES = 32;
+
+    /** Queued bytes past which out of date sections are dropped */
+    static final int COALESCE_BYTES = 16 * 1024;
+
+    /** Queued bytes past which the client is given up on */
+    static final int MAX_QUEUED_BYTES = 64 * 1024;
+
+    /** Binary bytes that may wait to be played; the connection stops reading before a read could overflow it */
+    static final int MAX_RECEIVED_BYTES = 2 * TelnetServer.BUFFER_SIZE;
+
+    private final SocketChannel channel;
+    private final SelectorLoop loop;
+    private final String sessionId;
+    private final LineDecoder decoder = new LineDecoder();
+    private final Queue<String> lines = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<Outbound> outbound = new ArrayDeque<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    /** Plays a binary client's requests, or null for a telnet client */
+    private final BinaryHandler binary;
+    /** Binary bytes read but not handed to a worker yet; guarded by itself */
+    private final ByteBuffer received;
+    /** Binary bytes handed to a worker, at most one partial request between plays; worker only */
+    private final ByteBuffer unplayed;
+    /** Where the worker writes one reply frame at a time */
+    private final ByteBuffer frame;
+    private int queuedBytes;
+    private int headOffset;
+    private boolean abandoned;
+    private ByteBuffer writing;
+    private SelectionKey key;
+    private volatile boolean closeAfterFlush;
+    private volatile boolean closed;
+
+    /**
+     * Creates a connection
+     * @param binary Plays the client's binary requests, or null for a telnet client
+     */
+    Connection(SocketChannel channel, SelectorLoop loop, String sessionId, BinaryHandler binary) {
+        this.channel = channel;
+        this.loop = loop;
+        this.sessionId = sessionId;
+        this.binary = binary;
+        this.received = binary == null ? null : ByteBuffer.allocate(MAX_RECEIVED_BYTES);
+        this.unplayed = binary == null ? null : ByteBuffer.allocate(MAX_RECEIVED_BYTES + BinaryProtocol.MAX_REQUEST_BYTES);
+        this.frame = binary == null ? null : ByteBuffer.allocate(BinaryProtocol.MAX_FRAME_BYTES);
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    String getSessionId() {
+        return sessionId;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean isBinary() {
+        return binary != null;
+    }
+
+    /**
+     * Cuts freshly read bytes into lines and queues them, or keeps them as
+     * they are for a binary client; selector thread only
+     * @param input The bytes, flipped for reading
+     * @return true if the client should be read from again, false if too much is waiting
+     */
+    boolean received(ByteBuffer input) {
+        if (binary == null) {
+            decoder.decode(input, this::lineReceived);
+        } else if (input.hasRemaining()) {
+            synchronized (received) {
+                received.put(input);
+            }
+            // Whatever arrived is played by one task
+            waiting.incrementAndGet();
+        }
+        return canRead();
+    }
+
+    /**
+     * Checks if there is room for what the next read may bring
+     */
+    private boolean canRead() {
+        if (waiting.get() >= MAX_PENDING_LINES) {
+            return false;
+        }
+        if (binary == null) {
+            return true;
+        }
+        synchronized (received) {
+            return received.remaining() >= TelnetServer.BUFFER_SIZE;
+        }
+    }
+
+    private void lineReceived(String line) {
+        lines.offer(line);
+        waiting.incrementAndGet();
+    }
+
+    boolean hasLines() {
+        return !lines.isEmpty();
+    }
+
+    String nextLine() {
+        return lines.poll();
+    }
+
+    /**
+     * Counts off a line handed out by nextLine once it has been played
+     */
+    void linePlayed() {
+        waiting.decrementAndGet();
+    }
+
+    /**
+     * Plays the whole binary requests that arrived so far and queues a reply
+     * frame for each; a partial request waits for the rest of its bytes.
+     * Worker thread only, one task of the connection at a time.
+     */
+    void playBinary() {
+        synchronized (received) {
+            received.flip();
+            unplayed.put(received);
+            received.clear();
+        }
+        unplayed.flip();
+        try {
+            // The frame buffer holds one frame, so the handler plays one request per call
+            while (binary.handle(unplayed, frame) > 0) {
+                frame.flip();
+                byte[] bytes = new byte[frame.remaining()];
+                frame.get(bytes);
+                frame.clear();
+                send(bytes);
+            }
+        } finally {
+            unplayed.compact();
+        }
+    }
+
+    /**
+     * Queues plain text for the client
+     * @param text What the game printed
+     */
+    void send(String text) {
+        if (closed) {
+            return;
+        }
+        boolean behind;
+        synchronized (outbound) {
+            queue(Section.TEXT, telnetBytes(text));
+            behind = checkBehind();
+        }
+        if (behind) {
+            giveUp();
+        }
+    }
+
+    /**
+     * Queues a reply for the client, section by section
+     * @param reply What the game printed
+     */
+    void send(Reply reply) {
+        if (closed) {
+            return;
+        }
+        boolean behind;
+        synchronized (outbound) {
+            for (int i = 0; i < reply.getSectionCount(); i++) {
+                queue(reply.getSection(i), telnetBytes(reply.getSectionText(i)));
+            }
+            behind = checkBehind();
+        }
+        if (behind) {
+            giveUp();
+        }
+    }
+
+    /**
+     * Queues a binary reply frame for the client, never dropped for a newer one
+     * @param frame The frame's bytes
+     */
+    private void send(byte[] frame) {
+        if (closed) {
+            return;
+        }
+        boolean behind;
+        synchronized (outbound) {
+            queue(Section.TEXT, frame);
+            behind = checkBehind();
+        }
+        if (behind) {
+            giveUp();
+        }
+    }
+
+    /**
+     * Turns text into bytes, with line breaks as CR LF as telnet expects
+     */
+    private static byte[] telnetBytes(String text) {
+        return text.replace("\n", "\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Adds one section to the queue and drops the older sections it replaces if the queue is long
+     */
+    private void queue(Section section, byte[] bytes) {
+        if (bytes.length == 0 || abandoned) {
+            return;
+        }
+        if (section != Section.TEXT && queuedBytes + bytes.length > COALESCE_BYTES) {
+            Iterator<Outbound> waiting = outbound.iterator();
+            while (waiting.hasNext()) {
+                Outbound older = waiting.next();
+                if (older == outbound.peekFirst() && headOffset > 0) {
+                    // Partly written already
+                    continue;
+                }
+                if (older.section == section) {
+                    waiting.remove();
+                    queuedBytes -= older.bytes.length;
+                    Metrics.increment("server.sectionsCoalesced", 1);
+                }
+            }
+        }
+        outbound.offerLast(new Outbound(section, bytes));
+        queuedBytes += bytes.length;
+    }
+
+    /**
+     * Checks, once, whether the client has fallen too far behind to catch up
+     */
+    private boolean checkBehind() {
+        if (abandoned || queuedBytes <= MAX_QUEUED_BYTES) {
+            return false;
+        }
+        abandoned = true;
+        outbound.clear();
+        queuedBytes = 0;
+        headOffset = 0;
+        return true;
+    }
+
+    private void giveUp() {
+        Metrics.increment("server.slowClientsDropped", 1);
+        loop.execute(() -> loop.close(this));
+    }
+
+    /**
+     * Asks the selector thread to write what is queued, once per batch of
+     * replies, and to read from the client again if it had stopped
+     */
+    void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushRequested.set(false);
+                flush();
+                if (!closed && !closeAfterFlush && key.isValid() && canRead()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+            });
+        }
+    }
+
+    /**
+     * Closes the connection once everything queued is written
+     */
+    void closeAfterFlush() {
+        closeAfterFlush = true;
+        requestFlush();
+    }
+
+    /**
+     * Writes queued sections until the socket is full; selector thread only
+     */
+    void flush() {
+        if (closed) {
+            return;
+        }
+        try {
+            while (true) {
+                if (writing == null) {
+                    synchronized (outbound) {
+                        if (outbound.isEmpty()) {
+                            break;
+                        }
+                    }
+                    writing = loop.getPool().acquire();
+                }
+                fill(writing);
+                writing.flip();
+                if (!writing.hasRemaining()) {
+                    loop.getPool().release(writing);
+                    writing = null;
+                    break;
+                }
+                channel.write(writing);
+                boolean full = writing.hasRemaining();
+                writing.compact();
+                if (full) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closeAfterFlush) {
+                loop.close(this);
+            }
+        } catch (IOException e) {
+            loop.close(this);
+        }
+    }
+
+    /**
+     * Copies queued sections into the write buffer while it has room
+     * @param buffer The write buffer, ready to be written into
+     */
+    private void fill(ByteBuffer buffer) {
+        synchronized (outbound) {
+            Outbound head;
+            while (buffer.hasRemaining() && (head = outbound.peekFirst()) != null) {
+                int length = Math.min(buffer.remaining(), head.bytes.length - headOffset);
+                buffer.put(head.bytes, headOffset, length);
+                headOffset += length;
+                queuedBytes -= length;
+                if (headOffset == head.bytes.length) {
+                    outbound.pollFirst();
+                    headOffset = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the socket and gives the buffer back; selector thread only
+     */
+    void release() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        synchronized (outbound) {
+            outbound.clear();
+            queuedBytes = 0;
+            headOffset = 0;
+        }
+        if (writing != null) {
+            loop.getPool().release(writing);
+            writing = null;
+        }
+        lines.clear();
+    }
+
+    /**
+     * One section waiting to be written
+     */
+    private static final class Outbound {
+        final Section section;
+        final byte[] bytes;
+
+        Outbound(Section section, byte[] bytes) {
+            this.section = section;
+            this.bytes = bytes;
+        }
+    }
+}
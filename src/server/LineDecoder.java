@@ -0,0 +1,100 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Cuts the bytes a telnet client sends into lines.
+ * Telnet commands (IAC sequences such as option negotiation) are dropped,
+ * a line ends at LF with an optional CR before it, a CR followed by NUL
+ * also ends a line, and lines are decoded as UTF-8. Bytes past
+ * MAX_LINE_BYTES are dropped so a client cannot grow a line forever.
+ * Keeps the unfinished line between reads; one decoder per connection.
+ */
+final class LineDecoder {
+    /** Longest line kept, in bytes */
+    static final int MAX_LINE_BYTES = 1024;
+
+    private static final int IAC = 0xFF;
+    private static final int SB = 250;
+    private static final int SE = 240;
+    private static final int WILL = 251;
+    private static final int DONT = 254;
+
+    private enum State { TEXT, CR, COMMAND, OPTION, SUBNEGOTIATION, SUBNEGOTIATION_IAC }
+
+    private final byte[] line = new byte[MAX_LINE_BYTES];
+    private int length;
+    private State state = State.TEXT;
+
+    /**
+     * Reads every byte left in a buffer
+     * @param input Bytes from the socket, flipped for reading
+     * @param lines Gets each finished line, without its line break
+     */
+    void decode(ByteBuffer input, Consumer<String> lines) {
+        while (input.hasRemaining()) {
+            int b = input.get() & 0xFF;
+            switch (state) {
+                case CR:
+                    state = State.TEXT;
+                    if (b == '\n' || b == 0) {
+                        break;
+                    }
+                    text(b, lines);
+                    break;
+                case COMMAND:
+                    if (b == IAC) {
+                        state = State.TEXT;
+                        append(b);
+                    } else if (b == SB) {
+                        state = State.SUBNEGOTIATION;
+                    } else if (b >= WILL && b <= DONT) {
+                        state = State.OPTION;
+                    } else {
+                        state = State.TEXT;
+                    }
+                    break;
+                case OPTION:
+                    state = State.TEXT;
+                    break;
+                case SUBNEGOTIATION:
+                    if (b == IAC) {
+                        state = State.SUBNEGOTIATION_IAC;
+                    }
+                    break;
+                case SUBNEGOTIATION_IAC:
+                    state = b == SE ? State.TEXT : State.SUBNEGOTIATION;
+                    break;
+                default:
+                    text(b, lines);
+                    break;
+            }
+        }
+    }
+
+    private void text(int b, Consumer<String> lines) {
+        if (b == IAC) {
+            state = State.COMMAND;
+        } else if (b == '\r') {
+            state = State.CR;
+            finishLine(lines);
+        } else if (b == '\n') {
+            finishLine(lines);
+        } else {
+            append(b);
+        }
+    }
+
+    private void append(int b) {
+        if (length < line.length) {
+            line[length++] = (byte) b;
+        }
+    }
+
+    private void finishLine(Consumer<String> lines) {
+        lines.accept(new String(line, 0, length, StandardCharsets.UTF_8));
+        length = 0;
+    }
+}
@@ -0,0 +1,157 @@
+package server;
+
+import utils.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * One selector thread serving many connections.
+ * Reads go through a single direct buffer owned by the thread, since only one
+ * socket is read at a time; the bytes are cut into lines straight away. Other
+ * threads never touch the selector's keys: they hand the loop small tasks
+ * (register a socket, write replies, read again) and wake it up.
+ */
+final class SelectorLoop implements Runnable, Executor {
+    private final Selector selector;
+    private final BufferPool pool;
+    private final ByteBuffer readBuffer;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final TelnetServer server;
+    private volatile boolean running = true;
+
+    SelectorLoop(TelnetServer server, BufferPool pool) {
+        this.server = server;
+        this.pool = pool;
+        this.readBuffer = pool.acquire();
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open a selector", e);
+        }
+    }
+
+    BufferPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Runs a task on the selector thread
+     */
+    @Override
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Takes over a freshly accepted socket
+     */
+    void register(Connection connection) {
+        execute(() -> {
+            try {
+                connection.getChannel().configureBlocking(false);
+                SelectionKey key = connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+                connection.setKey(key);
+                server.opened(connection);
+            } catch (IOException e) {
+                close(connection);
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isWritable()) {
+                        connection.flush();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(key, connection);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                System.err.println("Selector loop stopped: " + e.getMessage());
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close((Connection) key.attachment());
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Shutting down anyway
+            }
+        }
+    }
+
+    private void read(SelectionKey key, Connection connection) {
+        SocketChannel channel = connection.getChannel();
+        try {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close(connection);
+                return;
+            }
+            Metrics.increment("server.bytesIn", read);
+            readBuffer.flip();
+            if (!connection.received(readBuffer)) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            if (connection.isBinary()) {
+                if (read > 0) {
+                    server.playBinary(connection);
+                }
+            } else if (connection.hasLines()) {
+                server.play(connection);
+            }
+        } catch (IOException e) {
+            close(connection);
+        }
+    }
+
+    /**
+     * Closes a connection and ends its session; selector thread only
+     */
+    void close(Connection connection) {
+        if (connection == null || connection.isClosed()) {
+            return;
+        }
+        connection.release();
+        server.closed(connection);
+    }
+
+    /**
+     * Stops the loop and closes its connections
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,268 @@
+package server;
+
+import protocol.BinaryHandler;
+import scheduler.FairScheduler;
+import session.Reply;
+import session.SessionManager;
+import utils.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the text game over TCP, one game session per connection, for any
+ * telnet client. An accept thread hands new sockets round-robin to a few
+ * selector threads (see SelectorLoop), which read lines without a thread per
+ * socket; lines are played through the session manager on the worker
+ * threads of a FairScheduler, so a client that types fast cannot crowd out
+ * the others, and replies go back through the selector threads.
+ * The same threads can also serve the binary protocol (see BinaryProtocol)
+ * on a second port, for game clients and bots.
+ */
+public class TelnetServer implements AutoCloseable {
+    /** Port used when none is given */
+    public static final int DEFAULT_PORT = 4000;
+
+    /** Port used for the binary protocol when none is given */
+    public static final int DEFAULT_BINARY_PORT = 4001;
+
+    /** Size of the pooled direct buffers used for reading and writing */
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    /** Free buffers kept for reuse */
+    private static final int MAX_POOLED_BUFFERS = 4096;
+
+    private final SessionManager sessions;
+    private final ServerSocketChannel acceptor;
+    private final SelectorLoop[] loops;
+    private final FairScheduler workers;
+    private final BufferPool pool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Thread acceptThread;
+    private volatile ServerSocketChannel binaryAcceptor;
+
+    private TelnetServer(SessionManager sessions, ServerSocketChannel acceptor, int selectorThreads, int workerThreads) {
+        this.sessions = sessions;
+        this.acceptor = acceptor;
+        this.loops = new SelectorLoop[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++) {
+            loops[i] = new SelectorLoop(this, pool);
+            Thread thread = new Thread(loops[i], "telnet-selector-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        this.workers = new FairScheduler("telnet-worker", workerThreads);
+        this.acceptThread = new Thread(() -> acceptLoop(acceptor, false), "telnet-accept");
+        this.acceptThread.setDaemon(true);
+    }
+
+    /**
+     * Starts listening
+     * @param sessions Where each connection's game is played
+     * @param address Where to listen, for example a loopback port; port 0 picks a free one
+     * @param selectorThreads Threads reading and writing sockets
+     * @param workerThreads Threads playing lines
+     * @return The running server
+     * @throws IOException if the address cannot be bound
+     */
+    public static TelnetServer start(SessionManager sessions, InetSocketAddress address,
+                                     int selectorThreads, int workerThreads) throws IOException {
+        ServerSocketChannel acceptor = ServerSocketChannel.open();
+        acceptor.bind(address, 1024);
+        TelnetServer server = new TelnetServer(sessions, acceptor, selectorThreads, workerThreads);
+        server.acceptThread.start();
+        return server;
+    }
+
+    /**
+     * Also serves the binary protocol, on its own port
+     * @param address Where to listen; port 0 picks a free one
+     * @throws IOException if the address cannot be bound
+     */
+    public synchronized void listenBinary(InetSocketAddress address) throws IOException {
+        if (binaryAcceptor != null) {
+            throw new IllegalStateException("Already serving the binary protocol");
+        }
+        ServerSocketChannel binary = ServerSocketChannel.open();
+        binary.bind(address, 1024);
+        binaryAcceptor = binary;
+        Thread thread = new Thread(() -> acceptLoop(binary, true), "binary-accept");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Gets the port the server listens on
+     * @return The port, useful when started on port 0
+     */
+    public int getPort() {
+        return acceptor.socket().getLocalPort();
+    }
+
+    /**
+     * Gets the port of the binary protocol
+     * @return The port, or -1 if the binary protocol is not served
+     */
+    public int getBinaryPort() {
+        ServerSocketChannel binary = binaryAcceptor;
+        return binary == null ? -1 : binary.socket().getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Gets the scheduler that plays the connections' lines, for example to watch its queue
+     * @return The scheduler
+     */
+    public FairScheduler getScheduler() {
+        return workers;
+    }
+
+    /**
+     * Waits until the server is closed
+     */
+    public void join() throws InterruptedException {
+        acceptThread.join();
+    }
+
+    /**
+     * Picks an id for a new connection's session, skipping ids taken by games
+     * recovered from before a restart
+     */
+    private String nextSessionId(String prefix) {
+        String id;
+        do {
+            id = prefix + nextId.incrementAndGet();
+        } while (sessions.getSession(id) != null);
+        return id;
+    }
+
+    private void acceptLoop(ServerSocketChannel acceptor, boolean binary) {
+        int next = 0;
+        while (acceptor.isOpen()) {
+            try {
+                SocketChannel channel = acceptor.accept();
+                channel.socket().setTcpNoDelay(true);
+                SelectorLoop loop = loops[next];
+                next = (next + 1) % loops.length;
+                String id = nextSessionId(binary ? "binary-" : "telnet-");
+                loop.register(new Connection(channel, loop, id, binary ? new BinaryHandler(sessions, id) : null));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Could not accept a connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Opens the game of a new connection and sends its introduction
+     */
+    void opened(Connection connection) {
+        Metrics.set("server.connections", connections.incrementAndGet());
+        workers.execute(connection.getSessionId(), FairScheduler.Lane.NORMAL, () -> {
+            String introduction = sessions.open(connection.getSessionId());
+            if (!connection.isBinary()) {
+                // A binary client names its hero with a hello request instead
+                connection.send(introduction);
+                connection.requestFlush();
+            }
+        });
+    }
+
+    /**
+     * Hands a connection's new lines to the scheduler, each played after the ones before it;
+     * selector thread only
+     */
+    void play(Connection connection) {
+        String line;
+        while ((line = connection.nextLine()) != null) {
+            String played = line;
+            workers.execute(connection.getSessionId(), FairScheduler.Lane.of(line), () -> play(connection, played));
+        }
+    }
+
+    private void play(Connection connection, String line) {
+        try {
+            if (connection.isClosed()) {
+                return;
+            }
+            Metrics.increment("server.linesIn", 1);
+            Reply reply;
+            try {
+                reply = sessions.handleLineInSections(connection.getSessionId(), line);
+            } catch (IllegalArgumentException e) {
+                // The session is gone, for example closed by the server
+                connection.closeAfterFlush();
+                return;
+            }
+            connection.send(reply);
+            if (sessions.getSession(connection.getSessionId()) == null) {
+                connection.closeAfterFlush();
+                return;
+            }
+            connection.requestFlush();
+        } finally {
+            connection.linePlayed();
+        }
+    }
+
+    /**
+     * Hands the bytes a binary connection just sent to the scheduler; selector thread only.
+     * They wait in the normal lane, as one read may hold several commands of any kind.
+     */
+    void playBinary(Connection connection) {
+        workers.execute(connection.getSessionId(), FairScheduler.Lane.NORMAL, () -> {
+            try {
+                if (connection.isClosed()) {
+                    return;
+                }
+                connection.playBinary();
+                if (sessions.getSession(connection.getSessionId()) == null) {
+                    connection.closeAfterFlush();
+                    return;
+                }
+                connection.requestFlush();
+            } finally {
+                connection.linePlayed();
+            }
+        });
+    }
+
+    /**
+     * Ends the session of a closed connection
+     */
+    void closed(Connection connection) {
+        Metrics.set("server.connections", connections.decrementAndGet());
+        workers.forget(connection.getSessionId());
+        sessions.close(connection.getSessionId());
+    }
+
+    /**
+     * Stops accepting, closes every connection and stops the threads
+     */
+    @Override
+    public void close() {
+        try {
+            acceptor.close();
+            ServerSocketChannel binary = binaryAcceptor;
+            if (binary != null) {
+                binary.close();
+            }
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        for (SelectorLoop loop : loops) {
+            loop.shutdown();
+        }
+        workers.close();
+    }
+}
@@ -0,0 +1,598 @@
+package session;
+
+import character.enemy.Enemy;
+import character.player.Player;
+import game.Game;
+import game.RunLog;
+import utils.Metrics;
+import world.Direction;
+import world.DungeonProgress;
+import world.Room;
+import world.RoomType;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Saves live sessions to disk a little at a time.
+ * Every pass writes only the parts of each game that changed since the last
+ * pass (the player, the progress, single rooms) as records appended to a
+ * segment file. Full segments are closed and, once there are a few of them,
+ * merged in the background into one segment holding only the newest record
+ * of every part. Recovery reads all segments and rebuilds each game from the
+ * newest records.
+ *
+ * Record layout: length, CRC32 of the body, then the body
+ * (sequence number, session id, kind, part number, payload).
+ */
+public class Checkpointer implements AutoCloseable {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /** A segment is closed once it grows past this size */
+    private static final long SEGMENT_LIMIT = 4L * 1024 * 1024;
+
+    /** Closed segments are merged once there are this many */
+    private static final int COMPACT_AFTER = 4;
+
+    private final Path directory;
+    private final Object compactionLock;
+    private final List<Path> closedSegments;
+    private final ByteArrayOutputStream batch;
+    private final DataOutputStream batchOut;
+    private final CRC32 crc;
+    private FileChannel active;
+    private Path activePath;
+    private long activeSize;
+    private int nextSegmentNumber;
+    private long sequence;
+    private ScheduledExecutorService worker;
+
+    /**
+     * Opens the checkpoint directory, starting a fresh segment after any that exist
+     * @param directory Where the segment files live
+     */
+    public Checkpointer(Path directory) {
+        this.directory = directory;
+        this.compactionLock = new Object();
+        this.closedSegments = new ArrayList<>();
+        this.batch = new ByteArrayOutputStream(4096);
+        this.batchOut = new DataOutputStream(batch);
+        this.crc = new CRC32();
+        try {
+            Files.createDirectories(directory);
+            for (Path segment : listSegments(directory)) {
+                closedSegments.add(segment);
+                nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(segment) + 1);
+                for (Record record : readSegment(segment)) {
+                    sequence = Math.max(sequence, record.sequence);
+                }
+            }
+            openNewSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open checkpoints in " + directory, e);
+        }
+    }
+
+    /**
+     * Starts checkpointing every session of a manager in the background
+     * @param sessions The sessions to save
+     * @param intervalMillis Time between two passes
+     */
+    public synchronized void start(SessionManager sessions, long intervalMillis) {
+        if (worker != null) {
+            return;
+        }
+        worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        worker.scheduleWithFixedDelay(() -> {
+            checkpointAll(sessions.getSessions());
+            compactIfNeeded();
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Saves what changed in every awake session and syncs the segment once
+     * @param sessions The sessions to save
+     */
+    public void checkpointAll(Collection<GameSession> sessions) {
+        long start = System.nanoTime();
+        int records = 0;
+        synchronized (this) {
+            for (GameSession session : sessions) {
+                records += collect(session);
+            }
+            writeBatch();
+        }
+        Metrics.increment("checkpoint.passes", 1);
+        Metrics.set("checkpoint.lastPassMillis", (System.nanoTime() - start) / 1e6);
+        Metrics.increment("checkpoint.records", records);
+    }
+
+    /**
+     * Saves what changed in one session right away, for example before it hibernates
+     * @param session The session to save
+     */
+    public synchronized void checkpoint(GameSession session) {
+        Metrics.increment("checkpoint.records", collect(session));
+        writeBatch();
+    }
+
+    /**
+     * Records that a session is gone, so recovery and compaction drop it
+     * @param sessionId The closed session
+     */
+    public synchronized void recordClosed(String sessionId) {
+        try {
+            appendRecord(sessionId, SessionCheckpoint.CLOSED, 0, new byte[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not record closed session", e);
+        }
+        writeBatch();
+    }
+
+    private int collect(GameSession session) {
+        try {
+            return session.writeChanges(this::appendRecord);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not checkpoint session " + session.getId(), e);
+        }
+    }
+
+    /**
+     * Adds one record to the batch waiting to be written
+     */
+    private void appendRecord(String sessionId, byte kind, int part, byte[] payload) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(payload.length + 32);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeLong(++sequence);
+        out.writeUTF(sessionId);
+        out.writeByte(kind);
+        out.writeInt(part);
+        out.write(payload);
+        byte[] bytes = body.toByteArray();
+
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        batchOut.writeInt(bytes.length);
+        batchOut.writeInt((int) crc.getValue());
+        batchOut.write(bytes);
+    }
+
+    /**
+     * Writes the batch to the active segment in one go and syncs it
+     */
+    private void writeBatch() {
+        if (batch.size() == 0) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+            while (buffer.hasRemaining()) {
+                active.write(buffer);
+            }
+            active.force(false);
+            activeSize += batch.size();
+            Metrics.increment("checkpoint.bytes", batch.size());
+            batch.reset();
+            if (activeSize >= SEGMENT_LIMIT) {
+                rollSegment();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write checkpoint", e);
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        active.close();
+        synchronized (compactionLock) {
+            closedSegments.add(activePath);
+        }
+        openNewSegment();
+    }
+
+    private void openNewSegment() throws IOException {
+        activePath = segmentPath(nextSegmentNumber++);
+        active = FileChannel.open(activePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        activeSize = 0;
+    }
+
+    /**
+     * Merges the closed segments once there are enough of them
+     */
+    public void compactIfNeeded() {
+        List<Path> toMerge;
+        int number;
+        synchronized (compactionLock) {
+            if (closedSegments.size() < COMPACT_AFTER) {
+                return;
+            }
+            toMerge = new ArrayList<>(closedSegments);
+        }
+        synchronized (this) {
+            number = nextSegmentNumber++;
+        }
+        try {
+            compact(toMerge, segmentPath(number));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not compact checkpoints", e);
+        }
+        synchronized (compactionLock) {
+            closedSegments.removeAll(toMerge);
+            closedSegments.add(0, segmentPath(number));
+        }
+        Metrics.increment("checkpoint.compactions", 1);
+    }
+
+    /**
+     * Writes the newest record of every part still in use into one new segment,
+     * then deletes the merged segments
+     */
+    private void compact(List<Path> segments, Path target) throws IOException {
+        Map<String, SessionRecords> sessions = newestRecords(segments);
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            for (SessionRecords records : sessions.values()) {
+                for (Record record : records.live()) {
+                    out.writeInt(record.body.length);
+                    out.writeInt(record.checksum);
+                    out.write(record.body);
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        for (Path segment : segments) {
+            Files.deleteIfExists(segment);
+        }
+    }
+
+    /**
+     * Reads every segment and puts the saved games back together
+     * @return The games by session id
+     */
+    public Map<String, Game> recover() {
+        List<Path> segments;
+        try {
+            segments = listSegments(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list checkpoints", e);
+        }
+        Map<String, Game> games = new LinkedHashMap<>();
+        for (Map.Entry<String, SessionRecords> entry : newestRecords(segments).entrySet()) {
+            Game game = entry.getValue().rebuild();
+            if (game != null) {
+                games.put(entry.getKey(), game);
+            }
+        }
+        return games;
+    }
+
+    /**
+     * Stops the background worker and closes the active segment
+     */
+    @Override
+    public synchronized void close() {
+        if (worker != null) {
+            worker.shutdownNow();
+            worker = null;
+        }
+        try {
+            writeBatch();
+            active.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close checkpoints", e);
+        }
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static int segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Reads the records of a segment, stopping at a torn or damaged tail
+     */
+    private static List<Record> readSegment(Path segment) {
+        List<Record> records = new ArrayList<>();
+        CRC32 check = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int checksum = in.readInt();
+                if (length <= 0 || length > SEGMENT_LIMIT) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                check.reset();
+                check.update(body, 0, length);
+                if ((int) check.getValue() != checksum) {
+                    break;
+                }
+                records.add(Record.parse(body, checksum));
+            }
+        } catch (EOFException e) {
+            // A record cut off by a crash, everything before it is good
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read checkpoint " + segment, e);
+        }
+        return records;
+    }
+
+    private static Map<String, SessionRecords> newestRecords(List<Path> segments) {
+        Map<String, SessionRecords> sessions = new HashMap<>();
+        for (Path segment : segments) {
+            for (Record record : readSegment(segment)) {
+                sessions.computeIfAbsent(record.sessionId, id -> new SessionRecords()).add(record);
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * One record read back from a segment
+     */
+    private static final class Record {
+        final long sequence;
+        final String sessionId;
+        final byte kind;
+        final int part;
+        final byte[] body;
+        final int checksum;
+        final int payloadOffset;
+
+        private Record(long sequence, String sessionId, byte kind, int part, byte[] body, int checksum,
+                       int payloadOffset) {
+            this.sequence = sequence;
+            this.sessionId = sessionId;
+            this.kind = kind;
+            this.part = part;
+            this.body = body;
+            this.checksum = checksum;
+            this.payloadOffset = payloadOffset;
+        }
+
+        static Record parse(byte[] body, int checksum) throws IOException {
+            ByteArrayInputStream bytes = new ByteArrayInputStream(body);
+            DataInputStream in = new DataInputStream(bytes);
+            long sequence = in.readLong();
+            String sessionId = in.readUTF();
+            byte kind = in.readByte();
+            int part = in.readInt();
+            return new Record(sequence, sessionId, kind, part, body, checksum, body.length - bytes.available());
+        }
+
+        ObjectInputStream payload() throws IOException {
+            InputStream bytes = new ByteArrayInputStream(body, payloadOffset, body.length - payloadOffset);
+            return new ObjectInputStream(bytes);
+        }
+
+        long key() {
+            return ((long) kind << 32) | (part & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * The newest record of every part of one session
+     */
+    private static final class SessionRecords {
+        private final Map<Long, Record> newest = new HashMap<>();
+        private long closedAt = -1;
+
+        void add(Record record) {
+            if (record.kind == SessionCheckpoint.CLOSED) {
+                closedAt = Math.max(closedAt, record.sequence);
+                return;
+            }
+            Record previous = newest.get(record.key());
+            if (previous == null || previous.sequence < record.sequence) {
+                newest.put(record.key(), record);
+            }
+        }
+
+        /**
+         * The records still needed: nothing from before the session closed,
+         * and no rooms the game can no longer reach
+         */
+        List<Record> live() {
+            List<Record> records = new ArrayList<>();
+            Record meta = current(SessionCheckpoint.META, 0);
+            if (meta == null) {
+                return records;
+            }
+            Set<Integer> reachable = reachableRooms(meta);
+            for (Record record : newest.values()) {
+                if (record.sequence > closedAt
+                        && (record.kind != SessionCheckpoint.ROOM || reachable.contains(record.part))) {
+                    records.add(record);
+                }
+            }
+            records.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+            return records;
+        }
+
+        private Record current(byte kind, int part) {
+            Record record = newest.get(((long) kind << 32) | (part & 0xFFFFFFFFL));
+            return record != null && record.sequence > closedAt ? record : null;
+        }
+
+        private Set<Integer> reachableRooms(Record meta) {
+            Set<Integer> reachable = new HashSet<>();
+            try (ObjectInputStream in = meta.payload()) {
+                in.readLong();
+                in.readObject();
+                in.readByte();
+                SessionCodec.readOptionalText(in);
+                // Turns and the run log come before the rooms, see SessionCheckpoint.writeMeta
+                in.readInt();
+                SessionCodec.readRunLog(in);
+                int home = in.readInt();
+                List<Integer> toVisit = new ArrayList<>();
+                if (home != SessionCheckpoint.NO_ROOM) {
+                    toVisit.add(home);
+                    reachable.add(home);
+                }
+                while (!toVisit.isEmpty()) {
+                    Record room = current(SessionCheckpoint.ROOM, toVisit.remove(toVisit.size() - 1));
+                    if (room == null) {
+                        continue;
+                    }
+                    int[] exits = readRoomRecord(room, null);
+                    for (int i = 1; i < exits.length; i += 2) {
+                        if (reachable.add(exits[i])) {
+                            toVisit.add(exits[i]);
+                        }
+                    }
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                throw new IllegalStateException("Damaged checkpoint record", e);
+            }
+            return reachable;
+        }
+
+        /**
+         * Puts the game back together from the newest records
+         * @return The game, or null if the session was closed
+         */
+        Game rebuild() {
+            Record meta = current(SessionCheckpoint.META, 0);
+            if (meta == null) {
+                return null;
+            }
+            try (ObjectInputStream in = meta.payload()) {
+                long seed = in.readLong();
+                Random random = (Random) in.readObject();
+                Game.Phase phase = Game.Phase.values()[in.readByte()];
+                String playerName = SessionCodec.readOptionalText(in);
+                int turns = in.readInt();
+                RunLog runLog = SessionCodec.readRunLog(in);
+                int home = in.readInt();
+                int current = in.readInt();
+
+                Record playerRecord = current(SessionCheckpoint.PLAYER, 0);
+                Player player = null;
+                if (playerRecord != null) {
+                    try (ObjectInputStream playerIn = playerRecord.payload()) {
+                        player = SessionCodec.readPlayer(playerIn);
+                    }
+                }
+                DungeonProgress progress = new DungeonProgress();
+                Record progressRecord = current(SessionCheckpoint.PROGRESS, 0);
+                if (progressRecord != null) {
+                    try (ObjectInputStream progressIn = progressRecord.payload()) {
+                        progress = SessionCodec.readProgress(progressIn);
+                    }
+                }
+
+                Map<Integer, Room> rooms = new HashMap<>();
+                Map<Integer, int[]> exits = new HashMap<>();
+                for (Record record : newest.values()) {
+                    if (record.kind == SessionCheckpoint.ROOM && record.sequence > closedAt) {
+                        Room[] built = new Room[1];
+                        exits.put(record.part, readRoomRecord(record, built));
+                        rooms.put(record.part, built[0]);
+                    }
+                }
+                for (Map.Entry<Integer, int[]> entry : exits.entrySet()) {
+                    int[] links = entry.getValue();
+                    for (int i = 0; i < links.length; i += 2) {
+                        Room target = rooms.get(links[i + 1]);
+                        if (target != null) {
+                            rooms.get(entry.getKey()).setExit(Direction.values()[links[i]], target);
+                        }
+                    }
+                }
+
+                Room currentRoom = rooms.get(current);
+                Game game = Game.resume(seed, random, phase, playerName, player, progress, turns,
+                        rooms.get(home), currentRoom);
+                game.getRunLog().restoreFrom(runLog);
+                int engagedCount = in.readByte();
+                if (currentRoom != null && engagedCount > 0) {
+                    List<Enemy> inRoom = currentRoom.getEnemies();
+                    List<Enemy> engaged = new ArrayList<>(engagedCount);
+                    for (int i = 0; i < engagedCount; i++) {
+                        engaged.add(inRoom.get(in.readByte()));
+                    }
+                    game.getCommandProcessor().getCombatSystem().resumeFight(currentRoom, engaged);
+                }
+                return game;
+            } catch (IOException | ClassNotFoundException e) {
+                throw new IllegalStateException("Damaged checkpoint record", e);
+            }
+        }
+
+        /**
+         * Reads a room record
+         * @param built Receives the room, or null to only read the exits
+         * @return The room's exits as pairs of direction and room number
+         */
+        private static int[] readRoomRecord(Record record, Room[] built)
+                throws IOException, ClassNotFoundException {
+            try (ObjectInputStream in = record.payload()) {
+                Room room = new Room(RoomType.values()[in.readByte()]);
+                int[] exits = SessionCodec.readRoom(in, room);
+                if (built != null) {
+                    built[0] = room;
+                }
+                return exits;
+            }
+        }
+    }
+}
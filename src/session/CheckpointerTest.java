@@ -0,0 +1,220 @@
+package session;
+
+import game.Game;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks that games saved by the Checkpointer come back the same: after a
+ * clean close, after the segments were merged, after a session was closed,
+ * and after a crash left a record cut off or junk at the end of a segment.
+ * A recovered game counts as the same when it answers the rest of the
+ * commands exactly like the game that kept running. Throws on the first
+ * game that differs.
+ *
+ * Usage: CheckpointerTest [directory, by default a new temporary one]
+ */
+public class CheckpointerTest {
+    private static final int GAMES = 20;
+
+    /** Commands played before the checkpoint, then after it on both games */
+    private static final String[] COMMANDS = {
+            "bob", "wizard", "move north", "take small health potion", "move north", "attack", "ability",
+            "attack goblin", "attack goblin", "attack skeleton", "look", "inventory",
+            "use small health potion", "attack skeleton"
+    };
+    private static final int SAVED_AFTER = 9;
+
+    public static void main(String[] args) throws IOException {
+        Path root = args.length > 0 ? Paths.get(args[0]) : Files.createTempDirectory("checkpoint-test");
+        roundTrip(root.resolve("round-trip"));
+        afterMerge(root.resolve("merge"));
+        closedSessionsStayClosed(root.resolve("closed"));
+        tornSegmentTail(root.resolve("torn"));
+        System.out.println("All checkpoint checks passed in " + root);
+    }
+
+    /**
+     * Every game comes back from one checkpoint pass
+     */
+    private static void roundTrip(Path directory) {
+        SessionManager live = play(directory, SAVED_AFTER);
+        compare(live, directory, GAMES, "round trip");
+    }
+
+    /**
+     * Passes spread over several segments merge into one that still holds every game
+     */
+    private static void afterMerge(Path directory) throws IOException {
+        SessionManager live = new SessionManager(SessionManager.DEFAULT_IDLE_MILLIS, null);
+        openGames(live);
+        for (int command = 0; command < SAVED_AFTER; command++) {
+            // A new checkpointer starts a new segment, closing the one before
+            Checkpointer checkpointer = new Checkpointer(directory);
+            playAll(live, COMMANDS[command]);
+            checkpointer.checkpointAll(live.getSessions());
+            checkpointer.close();
+        }
+        Checkpointer checkpointer = new Checkpointer(directory);
+        checkpointer.compactIfNeeded();
+        checkpointer.close();
+        check(segments(directory).size() <= 2, "merge left " + segments(directory).size() + " segments");
+        compare(live, directory, GAMES, "after merge");
+    }
+
+    /**
+     * A closed session is not brought back
+     */
+    private static void closedSessionsStayClosed(Path directory) {
+        SessionManager live = new SessionManager(SessionManager.DEFAULT_IDLE_MILLIS, null);
+        Checkpointer checkpointer = new Checkpointer(directory);
+        live.setCheckpointer(checkpointer);
+        openGames(live);
+        for (int command = 0; command < SAVED_AFTER; command++) {
+            playAll(live, COMMANDS[command]);
+        }
+        checkpointer.checkpointAll(live.getSessions());
+        live.close("game0");
+        checkpointer.close();
+
+        Map<String, Game> recovered = new Checkpointer(directory).recover();
+        check(!recovered.containsKey("game0"), "a closed session came back");
+        check(recovered.size() == GAMES - 1, recovered.size() + " games came back, not " + (GAMES - 1));
+    }
+
+    /**
+     * A crash in the middle of a pass leaves a cut off record or junk at the
+     * end of the segment; recovery stops there and keeps everything before it,
+     * and a checkpointer opened afterwards writes on in a new segment
+     */
+    private static void tornSegmentTail(Path directory) throws IOException {
+        SessionManager live = play(directory, SAVED_AFTER);
+        Path segment = newest(directory);
+        long saved = Files.size(segment);
+
+        // Only one game is in the save that is cut off
+        Checkpointer checkpointer = new Checkpointer(directory);
+        live.handleLine("game0", "look");
+        live.handleLine("game0", "inventory");
+        checkpointer.checkpoint(live.getSession("game0"));
+        checkpointer.close();
+        Path cut = newest(directory);
+        try (FileChannel channel = FileChannel.open(cut, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        byte[] junk = new byte[64];
+        Arrays.fill(junk, (byte) 0x7F);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(junk));
+        }
+        check(Files.size(segment) == saved + junk.length, "junk was not added");
+
+        Map<String, Game> recovered = new Checkpointer(directory).recover();
+        check(recovered.size() == GAMES, recovered.size() + " games came back after a crash, not " + GAMES);
+
+        // Saving again after the crash writes past the torn segments
+        SessionManager resumed = new SessionManager(SessionManager.DEFAULT_IDLE_MILLIS, null);
+        recovered.forEach(resumed::resume);
+        checkpointer = new Checkpointer(directory);
+        resumed.handleLine("game1", "look");
+        live.handleLine("game1", "look");
+        checkpointer.checkpointAll(resumed.getSessions());
+        checkpointer.close();
+        compare(live, directory, GAMES, "after a crash", "game0");
+    }
+
+    /**
+     * Opens the games and plays the first commands, then saves them all in one pass
+     */
+    private static SessionManager play(Path directory, int commands) {
+        SessionManager live = new SessionManager(SessionManager.DEFAULT_IDLE_MILLIS, null);
+        Checkpointer checkpointer = new Checkpointer(directory);
+        openGames(live);
+        for (int command = 0; command < commands; command++) {
+            playAll(live, COMMANDS[command]);
+        }
+        checkpointer.checkpointAll(live.getSessions());
+        checkpointer.close();
+        return live;
+    }
+
+    private static void openGames(SessionManager sessions) {
+        for (int i = 0; i < GAMES; i++) {
+            sessions.open("game" + i, i);
+        }
+    }
+
+    private static void playAll(SessionManager sessions, String command) {
+        for (int i = 0; i < GAMES; i++) {
+            sessions.handleLine("game" + i, command);
+        }
+    }
+
+    /**
+     * Recovers the directory and plays the rest of the commands on both sides
+     * @param skip Sessions whose newest records may be lost, only checked to come back
+     */
+    private static void compare(SessionManager live, Path directory, int games, String when, String... skip) {
+        Map<String, Game> recovered = new Checkpointer(directory).recover();
+        check(recovered.size() == games, when + ": " + recovered.size() + " games came back, not " + games);
+        SessionManager resumed = new SessionManager(SessionManager.DEFAULT_IDLE_MILLIS, null);
+        recovered.forEach(resumed::resume);
+        List<String> skipped = Arrays.asList(skip);
+        for (int i = 0; i < games; i++) {
+            String id = "game" + i;
+            if (skipped.contains(id)) {
+                continue;
+            }
+            for (int command = SAVED_AFTER; command < COMMANDS.length; command++) {
+                String expected = comparable(live.handleLine(id, COMMANDS[command]));
+                String found = comparable(resumed.handleLine(id, COMMANDS[command]));
+                check(expected.equals(found), when + ": " + id + " answered \"" + COMMANDS[command]
+                        + "\" differently:\n" + expected + "\n-----\n" + found);
+            }
+        }
+    }
+
+    /**
+     * Drops what a recovered game shows differently on purpose: the room
+     * prose is picked at random and there is nothing to undo yet
+     */
+    private static String comparable(String reply) {
+        return reply.replaceAll("(?m)^(=== .* ===)\\r?\\n.*$", "$1")
+                .replaceAll("(?m)^- undo .*\\r?\\n", "");
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("segment-"))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static Path newest(Path directory) throws IOException {
+        List<Path> found = segments(directory);
+        // An empty segment is the one a checkpointer opened and never wrote to
+        for (int i = found.size() - 1; i >= 0; i--) {
+            if (Files.size(found.get(i)) > 0) {
+                return found.get(i);
+            }
+        }
+        throw new IllegalStateException("No segment was written in " + directory);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package session;
+
+import command.Command;
+import game.Game;
+import utils.GameOutput;
+import utils.GameOutput.Section;
+import utils.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * One player's game, driven one line at a time.
+ * While the player is idle the session can hibernate: the game is packed
+ * into a compressed byte array (or a file) and the live objects are dropped.
+ * The next line wakes the game up again without the player noticing.
+ */
+public class GameSession {
+    /** Output shared by every session handled on the same thread */
+    private static final ThreadLocal<SessionOutput> OUTPUT = ThreadLocal.withInitial(SessionOutput::new);
+
+    /** Output for commands whose reply is not text, so nothing gets formatted */
+    private static final GameOutput SILENT = GameOutput.discard();
+
+    private final String id;
+    private final TimerWheel.Timer<GameSession> idleTimer;
+    private final Consumer<Game> attach;
+    private final Supplier<GameOutput.Detail> detail;
+    private Game game;
+    private byte[] packed;
+    private Path spillFile;
+    private long lastActiveMillis;
+    private SessionCheckpoint checkpoint;
+    private boolean changedSinceCheckpoint;
+
+    /**
+     * Creates a session for a new game
+     * @param id The session's name
+     * @param game The game to play, not started yet
+     * @param wheel The wheel that watches the session for idleness
+     * @param attach Connects a game to the stores its finished run is recorded in,
+     *               called again whenever the game wakes up
+     * @param detail How much the game prints, read again for every line, so a
+     *               change reaches every session without visiting them
+     */
+    GameSession(String id, Game game, TimerWheel<GameSession> wheel, Consumer<Game> attach,
+                Supplier<GameOutput.Detail> detail) {
+        this.id = id;
+        this.game = game;
+        this.attach = attach;
+        this.detail = detail;
+        attach.accept(game);
+        this.idleTimer = wheel.newTimer(this);
+        this.lastActiveMillis = System.currentTimeMillis();
+        this.checkpoint = new SessionCheckpoint();
+        this.changedSinceCheckpoint = true;
+    }
+
+    /**
+     * Starts the game
+     * @return The introduction and first prompt
+     */
+    public synchronized String begin() {
+        run(null);
+        return OUTPUT.get().take();
+    }
+
+    /**
+     * Plays one line of input, waking the game up first if it was hibernating
+     * @param line What the player typed
+     * @return Everything the game printed in reply, ending with the next prompt
+     */
+    public synchronized String handleLine(String line) {
+        if (isOver()) {
+            return "";
+        }
+        wake();
+        run(line);
+        return OUTPUT.get().take();
+    }
+
+    /**
+     * Plays one line of input like handleLine, keeping the sections of the reply apart
+     * @param line What the player typed
+     * @return Everything the game printed in reply, cut into sections
+     */
+    public synchronized Reply handleLineInSections(String line) {
+        if (isOver()) {
+            return Reply.EMPTY;
+        }
+        wake();
+        run(line);
+        return OUTPUT.get().takeReply();
+    }
+
+    /**
+     * Plays one command picked by position rather than typed, without
+     * rendering any text, waking the game up first if it was hibernating
+     * @param command The command
+     * @param target The position of what the command acts on, see Game.handleCommand
+     * @return false, with nothing changed, if the game is not waiting for a
+     *         command or the target does not exist
+     */
+    public synchronized boolean handleCommand(Command command, int target) {
+        if (isOver()) {
+            return false;
+        }
+        wake();
+        lastActiveMillis = System.currentTimeMillis();
+        GameOutput.bind(SILENT);
+        try {
+            if (!game.handleCommand(command, target)) {
+                return false;
+            }
+        } finally {
+            GameOutput.bind(null);
+        }
+        changedSinceCheckpoint = true;
+        return true;
+    }
+
+    /**
+     * Reads from the game while no line is being played, waking it up first if it was hibernating
+     * @param reader Reads what it needs; must not keep the game or change it
+     * @return What the reader returned
+     */
+    public synchronized <T> T inspect(Function<Game, T> reader) {
+        wake();
+        return reader.apply(game);
+    }
+
+    private void run(String line) {
+        lastActiveMillis = System.currentTimeMillis();
+        changedSinceCheckpoint = true;
+        SessionOutput output = OUTPUT.get();
+        output.output.setDetail(detail.get());
+        GameOutput.bind(output.output);
+        try {
+            if (line == null) {
+                game.begin();
+            } else {
+                game.handleLine(line);
+            }
+        } finally {
+            GameOutput.bind(null);
+        }
+    }
+
+    /**
+     * Packs the game away and drops the live objects
+     * @param idleMillis Only hibernate if nothing happened for this long
+     * @param spillDirectory Where to write the packed game, or null to keep it in memory
+     * @return true if the session is now hibernating
+     */
+    synchronized boolean hibernate(long idleMillis, Path spillDirectory) {
+        if (game == null || game.isOver() || System.currentTimeMillis() - lastActiveMillis < idleMillis) {
+            return false;
+        }
+        byte[] bytes = SessionCodec.encode(game);
+        if (spillDirectory != null) {
+            spillFile = spillDirectory.resolve(id + ".session");
+            try {
+                Files.write(spillFile, bytes);
+            } catch (IOException e) {
+                // Disk trouble is no reason to lose the game, keep it in memory instead
+                spillFile = null;
+                packed = bytes;
+            }
+        } else {
+            packed = bytes;
+        }
+        game = null;
+        Metrics.increment("sessions.hibernated", 1);
+        Metrics.increment("sessions.hibernatedBytes", bytes.length);
+        return true;
+    }
+
+    /**
+     * Brings a hibernating game back to life
+     */
+    private void wake() {
+        if (game != null) {
+            return;
+        }
+        try {
+            byte[] bytes = spillFile != null ? Files.readAllBytes(spillFile) : packed;
+            game = SessionCodec.decode(bytes);
+            attach.accept(game);
+            if (spillFile != null) {
+                Files.deleteIfExists(spillFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not wake session " + id, e);
+        }
+        packed = null;
+        spillFile = null;
+        // Every object of the woken game is new, so it is saved again in full
+        checkpoint = new SessionCheckpoint();
+        Metrics.increment("sessions.rehydrated", 1);
+    }
+
+    /**
+     * Writes the parts of the game that changed since the last checkpoint
+     * @param sink Where the records go
+     * @return How many records were written
+     */
+    synchronized int writeChanges(SessionCheckpoint.RecordSink sink) throws IOException {
+        if (game == null || !changedSinceCheckpoint) {
+            return 0;
+        }
+        changedSinceCheckpoint = false;
+        return checkpoint.writeChanges(id, game, sink);
+    }
+
+    /**
+     * Removes anything the session left on disk
+     */
+    synchronized void discard() {
+        if (spillFile != null) {
+            try {
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                // Nothing left to do, the file is only a leftover
+            }
+            spillFile = null;
+        }
+        packed = null;
+    }
+
+    public synchronized boolean isHibernating() {
+        return game == null;
+    }
+
+    public synchronized boolean isOver() {
+        return game != null && game.isOver();
+    }
+
+    /**
+     * Gets the size of the packed game
+     * @return Bytes held in memory while hibernating, 0 when awake or spilled to disk
+     */
+    public synchronized int getPackedSize() {
+        return packed != null ? packed.length : 0;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    TimerWheel.Timer<GameSession> getIdleTimer() {
+        return idleTimer;
+    }
+
+    /**
+     * A game output that collects into a string and remembers where each section starts
+     */
+    private static final class SessionOutput extends Writer implements GameOutput.SectionSink {
+        final StringBuilder text = new StringBuilder(1024);
+        final GameOutput output = new GameOutput(this, GameOutput.FlushPolicy.PER_COMMAND);
+        int[] starts = new int[8];
+        Section[] sections = new Section[8];
+        int count = 1;
+
+        SessionOutput() {
+            sections[0] = Section.TEXT;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            text.append(chars, offset, length);
+        }
+
+        @Override
+        public void section(Section section) {
+            if (starts[count - 1] == text.length()) {
+                // Nothing was printed in the last section
+                count--;
+            }
+            if (count > 0 && sections[count - 1] == section) {
+                return;
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                sections = Arrays.copyOf(sections, count * 2);
+            }
+            starts[count] = text.length();
+            sections[count++] = section;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        String take() {
+            output.startSection(Section.TEXT);
+            output.flush();
+            String result = text.toString();
+            reset();
+            return result;
+        }
+
+        Reply takeReply() {
+            output.startSection(Section.TEXT);
+            output.flush();
+            int used = starts[count - 1] == text.length() ? count - 1 : count;
+            Reply reply = new Reply(text.toString(), Arrays.copyOf(starts, used), Arrays.copyOf(sections, used), used);
+            reset();
+            return reply;
+        }
+
+        private void reset() {
+            text.setLength(0);
+            sections[0] = Section.TEXT;
+            count = 1;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package session;
+
+import utils.GameOutput.Section;
+
+/**
+ * The game's reply to one line, cut into the sections it was printed in
+ * (see GameOutput.Section), so a slow connection can leave out the ones a
+ * newer reply makes out of date.
+ */
+public final class Reply {
+    /** Reply of a game that is already over */
+    public static final Reply EMPTY = new Reply("", new int[0], new Section[0], 0);
+
+    private final String text;
+    private final int[] starts;
+    private final Section[] sections;
+    private final int count;
+
+    Reply(String text, int[] starts, Section[] sections, int count) {
+        this.text = text;
+        this.starts = starts;
+        this.sections = sections;
+        this.count = count;
+    }
+
+    /** Everything the game printed, as handleLine would return it */
+    public String getText() {
+        return text;
+    }
+
+    public int getSectionCount() {
+        return count;
+    }
+
+    /**
+     * Gets the kind of a section
+     * @param index The section's position, from 0
+     * @return What kind of text the section holds
+     */
+    public Section getSection(int index) {
+        return sections[index];
+    }
+
+    /**
+     * Gets the text of a section
+     * @param index The section's position, from 0
+     * @return The section's text, never empty
+     */
+    public String getSectionText(int index) {
+        int end = index + 1 < count ? starts[index + 1] : text.length();
+        return text.substring(starts[index], end);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
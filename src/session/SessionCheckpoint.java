@@ -0,0 +1,153 @@
+package session;
+
+import character.enemy.Enemy;
+import game.Game;
+import world.Room;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the checkpointer remembers about one live game: the number given to
+ * each room, so a changed room can be written on its own and still be linked
+ * to its neighbours when the game is put back together.
+ * A game that was woken from hibernation gets a fresh one, because all its
+ * objects are new.
+ */
+final class SessionCheckpoint {
+    /** Kinds of record in a segment file */
+    static final byte META = 0;
+    static final byte PLAYER = 1;
+    static final byte PROGRESS = 2;
+    static final byte ROOM = 3;
+    static final byte CLOSED = 4;
+
+    static final int NO_ROOM = -1;
+
+    /**
+     * Receives the parts of a game that changed
+     */
+    interface RecordSink {
+        void record(String sessionId, byte kind, int part, byte[] payload) throws IOException;
+    }
+
+    private final Map<Room, Integer> roomNumbers = new IdentityHashMap<>();
+    private int nextRoomNumber;
+
+    /**
+     * Writes every part of a game that changed since the last call and marks it saved.
+     * Only flags are read for parts that did not change.
+     * @param sessionId The session the game belongs to
+     * @param game The game, not hibernating
+     * @param sink Where the records go
+     * @return How many records were written
+     */
+    int writeChanges(String sessionId, Game game, RecordSink sink) throws IOException {
+        int records = 0;
+        if (game.getPlayer() != null && game.getPlayer().isDirty()) {
+            sink.record(sessionId, PLAYER, 0, payload(out -> SessionCodec.writePlayer(out, game.getPlayer())));
+            game.getPlayer().clearDirty();
+            records++;
+        }
+        if (game.getDungeonProgress().isDirty()) {
+            sink.record(sessionId, PROGRESS, 0,
+                    payload(out -> SessionCodec.writeProgress(out, game.getDungeonProgress())));
+            game.getDungeonProgress().clearDirty();
+            records++;
+        }
+
+        Room home = game.getHomeRoom();
+        if (home != null) {
+            Map<Room, Boolean> seen = new IdentityHashMap<>();
+            Deque<Room> toVisit = new ArrayDeque<>();
+            toVisit.push(home);
+            seen.put(home, Boolean.TRUE);
+            while (!toVisit.isEmpty()) {
+                Room room = toVisit.pop();
+                if (isDirty(room)) {
+                    sink.record(sessionId, ROOM, numberOf(room),
+                            payload(out -> SessionCodec.writeRoom(out, room, this::numberOf)));
+                    markSaved(room);
+                    records++;
+                }
+                for (Room next : room.getExits().values()) {
+                    if (seen.put(next, Boolean.TRUE) == null) {
+                        toVisit.push(next);
+                    }
+                }
+            }
+        }
+
+        sink.record(sessionId, META, 0, payload(out -> writeMeta(out, game)));
+        return records + 1;
+    }
+
+    private void writeMeta(ObjectOutputStream out, Game game) throws IOException {
+        out.writeLong(game.getSeed());
+        out.writeObject(game.getRandom());
+        out.writeByte(game.getPhase().ordinal());
+        SessionCodec.writeOptionalText(out, game.getPlayerName());
+        out.writeInt(game.getTurns());
+        SessionCodec.writeRunLog(out, game.getRunLog());
+        out.writeInt(game.getHomeRoom() != null ? numberOf(game.getHomeRoom()) : NO_ROOM);
+        Room current = game.getCurrentRoom();
+        out.writeInt(current != null ? numberOf(current) : NO_ROOM);
+
+        List<Enemy> engaged = current != null ?
+                game.getCommandProcessor().getCombatSystem().getEngagedEnemies(current) : List.of();
+        List<Enemy> inRoom = current != null ? current.getEnemies() : List.of();
+        out.writeByte(engaged.size());
+        for (Enemy enemy : engaged) {
+            out.writeByte(inRoom.indexOf(enemy));
+        }
+    }
+
+    private int numberOf(Room room) {
+        Integer number = roomNumbers.get(room);
+        if (number == null) {
+            number = nextRoomNumber++;
+            roomNumbers.put(room, number);
+        }
+        return number;
+    }
+
+    private boolean isDirty(Room room) {
+        if (room.isDirty() || !roomNumbers.containsKey(room)) {
+            return true;
+        }
+        for (Enemy enemy : room.getEnemies()) {
+            if (enemy.isDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void markSaved(Room room) {
+        room.clearDirty();
+        for (Enemy enemy : room.getEnemies()) {
+            enemy.clearDirty();
+        }
+    }
+
+    /**
+     * Writes one part of a game
+     */
+    private interface PartWriter {
+        void write(ObjectOutputStream out) throws IOException;
+    }
+
+    private static byte[] payload(PartWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            writer.write(out);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,361 @@
+package session;
+
+import character.effect.StatusEffect;
+import character.effect.StatusEffects;
+import character.enemy.Enemy;
+import character.enemy.EnemyType;
+import character.player.HeroClass;
+import character.player.Player;
+import game.Game;
+import game.RunLog;
+import items.Item;
+import items.ItemsType;
+import world.Direction;
+import world.DungeonProgress;
+import world.Room;
+import world.RoomType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Turns a whole game into a small compressed byte array and back.
+ * Rooms are numbered in the order they are found from the home room, so exits
+ * are stored as numbers. Enums are stored by position and every random number
+ * generator is stored exactly, so a game that was packed and unpacked plays on
+ * with the same dice it would have had.
+ */
+public final class SessionCodec {
+    private static final int MAGIC = 0x4C564742;
+    private static final int VERSION = 3;
+    private static final int NO_ROOM = -1;
+
+    private SessionCodec() {
+    }
+
+    /**
+     * Packs a game
+     * @param game The game, between two lines of input
+     * @return The compressed game
+     */
+    public static byte[] encode(Game game) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (ObjectOutputStream out = new ObjectOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(game.getSeed());
+            out.writeObject(game.getRandom());
+            out.writeByte(game.getPhase().ordinal());
+            writeOptionalText(out, game.getPlayerName());
+
+            Player player = game.getPlayer();
+            out.writeBoolean(player != null);
+            if (player != null) {
+                writePlayer(out, player);
+            }
+            writeProgress(out, game.getDungeonProgress());
+            out.writeInt(game.getTurns());
+            writeRunLog(out, game.getRunLog());
+            writeRooms(out, game);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not pack game", e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Unpacks a game
+     * @param data Bytes made by encode
+     * @return The game, ready for the next line of input
+     */
+    public static Game decode(byte[] data) {
+        try (ObjectInputStream in = new ObjectInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IllegalArgumentException("Not a packed game");
+            }
+            long seed = in.readLong();
+            Random random = (Random) in.readObject();
+            Game.Phase phase = Game.Phase.values()[in.readByte()];
+            String playerName = readOptionalText(in);
+            Player player = in.readBoolean() ? readPlayer(in) : null;
+            DungeonProgress progress = readProgress(in);
+            int turns = in.readInt();
+            RunLog runLog = readRunLog(in);
+
+            int roomCount = in.readInt();
+            Room[] rooms = new Room[roomCount];
+            int[][] exits = new int[roomCount][];
+            for (int i = 0; i < roomCount; i++) {
+                rooms[i] = new Room(RoomType.values()[in.readByte()]);
+                exits[i] = readRoom(in, rooms[i]);
+            }
+            for (int i = 0; i < roomCount; i++) {
+                for (int d = 0; d < exits[i].length; d += 2) {
+                    rooms[i].setExit(Direction.values()[exits[i][d]], rooms[exits[i][d + 1]]);
+                }
+            }
+            int current = in.readInt();
+            Room home = roomCount > 0 ? rooms[0] : null;
+            Room currentRoom = current != NO_ROOM ? rooms[current] : null;
+
+            Game game = Game.resume(seed, random, phase, playerName, player, progress, turns, home, currentRoom);
+            game.getRunLog().restoreFrom(runLog);
+            int engagedCount = in.readByte();
+            if (currentRoom != null && engagedCount > 0) {
+                List<Enemy> inRoom = currentRoom.getEnemies();
+                List<Enemy> engaged = new ArrayList<>(engagedCount);
+                for (int i = 0; i < engagedCount; i++) {
+                    engaged.add(inRoom.get(in.readByte()));
+                }
+                game.getCommandProcessor().getCombatSystem().resumeFight(currentRoom, engaged);
+            }
+            return game;
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalArgumentException("Could not unpack game", e);
+        }
+    }
+
+    static void writePlayer(ObjectOutputStream out, Player player) throws IOException {
+        out.writeUTF(player.getCharacterName());
+        out.writeByte(player.getHeroClass().ordinal());
+        out.writeShort(player.getCurrentHealthPoints());
+        out.writeByte(player.getSpecialAbility().getCurrentCooldown());
+        writeEffects(out, player.getStatusEffects());
+        List<Item> items = player.getInventory().getItems();
+        out.writeByte(items.size());
+        for (Item item : items) {
+            writeItem(out, item);
+        }
+    }
+
+    static Player readPlayer(ObjectInputStream in) throws IOException {
+        String name = in.readUTF();
+        Player player = new Player(name, HeroClass.values()[in.readByte()]);
+        player.setCurrentHealthPoints(in.readShort());
+        player.getSpecialAbility().setCurrentCooldown(in.readByte());
+        readEffects(in, player.getStatusEffects());
+        int itemCount = in.readByte();
+        List<Item> items = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            items.add(readItem(in));
+        }
+        player.getInventory().replaceItems(items);
+        return player;
+    }
+
+    static void writeProgress(ObjectOutputStream out, DungeonProgress progress) throws IOException {
+        out.writeByte(progress.getCurrentDepth());
+        out.writeByte(progress.getRoomsSinceLastBoss());
+        out.writeByte((progress.isFirstBossDefeated() ? 1 : 0)
+                | (progress.isSecondBossDefeated() ? 2 : 0)
+                | (progress.isFinalBossDefeated() ? 4 : 0));
+    }
+
+    static DungeonProgress readProgress(ObjectInputStream in) throws IOException {
+        int depth = in.readByte();
+        int roomsSinceLastBoss = in.readByte();
+        int bosses = in.readByte();
+        return new DungeonProgress(depth, roomsSinceLastBoss,
+                (bosses & 1) != 0, (bosses & 2) != 0, (bosses & 4) != 0);
+    }
+
+    static void writeRunLog(ObjectOutputStream out, RunLog log) throws IOException {
+        out.writeByte(log.getItemsUsed());
+        out.writeByte(log.getKiller() != null ? log.getKiller().ordinal() : -1);
+        int[] rounds = log.getRoundDamage();
+        out.writeShort(rounds.length);
+        for (int damage : rounds) {
+            out.writeShort(damage);
+        }
+    }
+
+    static RunLog readRunLog(ObjectInputStream in) throws IOException {
+        int itemsUsed = in.readByte();
+        int killer = in.readByte();
+        int[] rounds = new int[in.readUnsignedShort()];
+        for (int i = 0; i < rounds.length; i++) {
+            rounds[i] = in.readShort();
+        }
+        RunLog log = new RunLog();
+        log.restore(itemsUsed, rounds, killer >= 0 ? EnemyType.values()[killer] : null);
+        return log;
+    }
+
+    /**
+     * Writes every room reachable from home, then the player's room and the fight in it
+     */
+    private static void writeRooms(ObjectOutputStream out, Game game) throws IOException {
+        List<Room> rooms = new ArrayList<>();
+        Map<Room, Integer> numbers = new IdentityHashMap<>();
+        Room home = game.getHomeRoom();
+        if (home != null) {
+            Deque<Room> toVisit = new ArrayDeque<>();
+            toVisit.add(home);
+            numbers.put(home, 0);
+            while (!toVisit.isEmpty()) {
+                Room room = toVisit.poll();
+                rooms.add(room);
+                for (Room next : room.getExits().values()) {
+                    if (!numbers.containsKey(next)) {
+                        numbers.put(next, numbers.size());
+                        toVisit.add(next);
+                    }
+                }
+            }
+        }
+
+        out.writeInt(rooms.size());
+        for (Room room : rooms) {
+            writeRoom(out, room, numbers::get);
+        }
+
+        Room current = game.getCurrentRoom();
+        Integer currentNumber = current != null ? numbers.get(current) : null;
+        out.writeInt(currentNumber != null ? currentNumber : NO_ROOM);
+
+        List<Enemy> engaged = current != null ?
+                game.getCommandProcessor().getCombatSystem().getEngagedEnemies(current) : List.of();
+        List<Enemy> inRoom = current != null ? current.getEnemies() : List.of();
+        out.writeByte(engaged.size());
+        for (Enemy enemy : engaged) {
+            out.writeByte(inRoom.indexOf(enemy));
+        }
+    }
+
+    /**
+     * Writes one room: its type, contents and exits
+     * @param numberOf Gives the number of a room an exit leads to
+     */
+    static void writeRoom(ObjectOutputStream out, Room room, ToIntFunction<Room> numberOf) throws IOException {
+        out.writeByte(room.getType().ordinal());
+        out.writeBoolean(room.isCleared());
+        List<Item> items = room.getItems();
+        out.writeByte(items.size());
+        for (Item item : items) {
+            writeItem(out, item);
+        }
+        List<Enemy> enemies = room.getEnemies();
+        out.writeByte(enemies.size());
+        for (Enemy enemy : enemies) {
+            writeEnemy(out, enemy);
+        }
+        Map<Direction, Room> exits = room.getExits();
+        out.writeByte(exits.size());
+        for (Map.Entry<Direction, Room> exit : exits.entrySet()) {
+            out.writeByte(exit.getKey().ordinal());
+            out.writeInt(numberOf.applyAsInt(exit.getValue()));
+        }
+    }
+
+    /**
+     * Reads one room's contents (its type was already read)
+     * @return The room's exits as pairs of direction and room number
+     */
+    static int[] readRoom(ObjectInputStream in, Room room) throws IOException, ClassNotFoundException {
+        room.setCleared(in.readBoolean());
+        int itemCount = in.readByte();
+        for (int i = 0; i < itemCount; i++) {
+            room.addItem(readItem(in));
+        }
+        int enemyCount = in.readByte();
+        for (int i = 0; i < enemyCount; i++) {
+            room.addEnemy(readEnemy(in));
+        }
+        int[] exits = new int[in.readByte() * 2];
+        for (int i = 0; i < exits.length; i += 2) {
+            exits[i] = in.readByte();
+            exits[i + 1] = in.readInt();
+        }
+        return exits;
+    }
+
+    static void writeEnemy(ObjectOutputStream out, Enemy enemy) throws IOException {
+        out.writeUTF(enemy.getCharacterName());
+        out.writeByte(enemy.getType().ordinal());
+        out.writeBoolean(enemy.isBoss());
+        out.writeShort(enemy.getCurrentHealthPoints());
+        writeEffects(out, enemy.getStatusEffects());
+        out.writeObject(enemy.getRandom());
+    }
+
+    static Enemy readEnemy(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        String name = in.readUTF();
+        EnemyType type = EnemyType.values()[in.readByte()];
+        boolean boss = in.readBoolean();
+        int health = in.readShort();
+        StatusEffects effects = new StatusEffects();
+        readEffects(in, effects);
+        Random random = (Random) in.readObject();
+        Enemy enemy = new Enemy(name, type, boss, random);
+        enemy.setCurrentHealthPoints(health);
+        enemy.getStatusEffects().copyFrom(effects);
+        return enemy;
+    }
+
+    static void writeItem(ObjectOutputStream out, Item item) throws IOException {
+        out.writeUTF(item.getName());
+        out.writeByte(item.getType().ordinal());
+        out.writeShort(item.getValue());
+        out.writeUTF(item.getDescription());
+    }
+
+    static Item readItem(ObjectInputStream in) throws IOException {
+        String name = in.readUTF();
+        ItemsType type = ItemsType.values()[in.readByte()];
+        int value = in.readShort();
+        return new Item(name, type, value, in.readUTF());
+    }
+
+    static void writeEffects(ObjectOutputStream out, StatusEffects effects) throws IOException {
+        int mask = effects.getActiveMask();
+        out.writeByte(mask);
+        for (StatusEffect effect : StatusEffect.values()) {
+            if ((mask & effect.bit()) != 0) {
+                out.writeShort(effects.getStacks(effect));
+                out.writeShort(effects.getRemainingTurns(effect));
+                out.writeShort(effects.getMagnitude(effect));
+            }
+        }
+    }
+
+    static void readEffects(ObjectInputStream in, StatusEffects effects) throws IOException {
+        effects.clear();
+        int mask = in.readByte();
+        for (StatusEffect effect : StatusEffect.values()) {
+            if ((mask & effect.bit()) != 0) {
+                int stacks = in.readShort();
+                int turns = in.readShort();
+                effects.apply(effect, stacks, turns, in.readShort());
+            }
+        }
+    }
+
+    static void writeOptionalText(ObjectOutputStream out, String text) throws IOException {
+        out.writeBoolean(text != null);
+        if (text != null) {
+            out.writeUTF(text);
+        }
+    }
+
+    static String readOptionalText(ObjectInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,368 @@
+package session;
+
+import analytics.StreamAnalytics;
+import command.Command;
+import game.Game;
+import archive.RunArchive;
+import leaderboard.Leaderboard;
+import profile.ProfileStore;
+import utils.GameOutput;
+import utils.Metrics;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Keeps track of every open game session and puts idle ones to sleep.
+ * Each line of input pushes its session's idle deadline back on a timer wheel;
+ * when a deadline passes, the session is packed into a compressed byte array
+ * (or a file in the spill directory) until the player types again.
+ */
+public class SessionManager implements AutoCloseable {
+    /** How long a session may sit at the prompt before it is packed away */
+    public static final long DEFAULT_IDLE_MILLIS = 60_000;
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SLOTS = 512;
+
+    private final ConcurrentHashMap<String, GameSession> sessions;
+    private final TimerWheel<GameSession> idleTimers;
+    private final long idleMillis;
+    private final Path spillDirectory;
+    private final Random seeds;
+    private ScheduledExecutorService sweeper;
+    private volatile Checkpointer checkpointer;
+    private volatile ProfileStore profiles;
+    private volatile Leaderboard leaderboard;
+    private volatile RunArchive archive;
+    private volatile StreamAnalytics analytics;
+    private volatile TurnListener turnListener;
+    private volatile GameOutput.Detail detail = GameOutput.Detail.FULL;
+
+    /**
+     * Creates a manager that keeps hibernated games in memory
+     */
+    public SessionManager() {
+        this(DEFAULT_IDLE_MILLIS, null);
+    }
+
+    /**
+     * Creates a manager
+     * @param idleMillis How long a session may be idle before it hibernates
+     * @param spillDirectory Where to write hibernated games, or null to keep them in memory
+     */
+    public SessionManager(long idleMillis, Path spillDirectory) {
+        this.sessions = new ConcurrentHashMap<>();
+        this.idleTimers = new TimerWheel<>(Math.min(TICK_MILLIS, Math.max(1, idleMillis)), WHEEL_SLOTS,
+                System.currentTimeMillis());
+        this.idleMillis = idleMillis;
+        this.spillDirectory = spillDirectory;
+        this.seeds = new Random();
+    }
+
+    /**
+     * Starts a background thread that hibernates idle sessions
+     */
+    public synchronized void startSweeping() {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tick = Math.min(TICK_MILLIS, Math.max(1, idleMillis));
+        sweeper.scheduleAtFixedRate(this::sweep, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Saves sessions through a checkpointer: closed sessions are recorded and
+     * sessions are checkpointed before they hibernate
+     * @param checkpointer The checkpointer, or null to stop saving
+     */
+    public void setCheckpointer(Checkpointer checkpointer) {
+        this.checkpointer = checkpointer;
+    }
+
+    /**
+     * Records every finished run in a profile store
+     * @param profiles The store, or null to stop recording
+     */
+    public void setProfileStore(ProfileStore profiles) {
+        this.profiles = profiles;
+    }
+
+    /**
+     * Ranks every finished run on a leaderboard
+     * @param leaderboard The leaderboard, or null to stop ranking
+     */
+    public void setLeaderboard(Leaderboard leaderboard) {
+        this.leaderboard = leaderboard;
+    }
+
+    /**
+     * Archives every finished run
+     * @param archive The archive, or null to stop archiving
+     */
+    public void setRunArchive(RunArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Counts how every game is played
+     * @param analytics The analytics, or null to stop counting
+     */
+    public void setAnalytics(StreamAnalytics analytics) {
+        this.analytics = analytics;
+    }
+
+    /**
+     * Tells a listener about every turn, for example to show games to spectators
+     * @param listener The listener, or null to stop telling
+     */
+    public void setTurnListener(TurnListener listener) {
+        this.turnListener = listener;
+    }
+
+    /**
+     * Sets how much every session prints from its next line on, for example to
+     * save time while the server is overloaded. Sessions read the level for
+     * every line they play, so this is one write however many are open.
+     * @param detail The level of detail
+     */
+    public void setDetail(GameOutput.Detail detail) {
+        this.detail = detail;
+    }
+
+    public GameOutput.Detail getDetail() {
+        return detail;
+    }
+
+    private void attach(Game game) {
+        game.setProfileStore(profiles);
+        game.setLeaderboard(leaderboard);
+        game.setRunArchive(archive);
+        game.setAnalytics(analytics);
+    }
+
+    /**
+     * Takes over a game that was saved earlier, for example after recovery
+     * @param id The session's name, unique among open sessions
+     * @param game The game, already started
+     */
+    public void resume(String id, Game game) {
+        GameSession session = new GameSession(id, game, idleTimers, this::attach, this::getDetail);
+        if (sessions.putIfAbsent(id, session) != null) {
+            throw new IllegalArgumentException("Session " + id + " is already open");
+        }
+        touch(session);
+    }
+
+    /**
+     * Opens a session with a new game
+     * @param id The session's name, unique among open sessions
+     * @return The new session's first output
+     */
+    public String open(String id) {
+        return open(id, seeds.nextLong());
+    }
+
+    /**
+     * Opens a session with a new game from a seed
+     * @param id The session's name, unique among open sessions
+     * @param seed The seed for the game
+     * @return The new session's first output
+     */
+    public String open(String id, long seed) {
+        GameSession session = new GameSession(id, new Game(seed), idleTimers, this::attach, this::getDetail);
+        if (sessions.putIfAbsent(id, session) != null) {
+            throw new IllegalArgumentException("Session " + id + " is already open");
+        }
+        Metrics.increment("sessions.opened", 1);
+        String intro = session.begin();
+        touch(session);
+        return intro;
+    }
+
+    /**
+     * Plays a line of input in a session
+     * @param id The session's name
+     * @param line What the player typed
+     * @return The game's reply; the session is closed if the game ended
+     */
+    public String handleLine(String id, String line) {
+        GameSession session = sessions.get(id);
+        if (session == null) {
+            throw new IllegalArgumentException("No session called " + id);
+        }
+        String reply = session.handleLine(line);
+        afterLine(session);
+        return reply;
+    }
+
+    /**
+     * Plays a line of input like handleLine, keeping the sections of the reply apart
+     * @param id The session's name
+     * @param line What the player typed
+     * @return The game's reply, cut into sections; the session is closed if the game ended
+     */
+    public Reply handleLineInSections(String id, String line) {
+        GameSession session = sessions.get(id);
+        if (session == null) {
+            throw new IllegalArgumentException("No session called " + id);
+        }
+        Reply reply = session.handleLineInSections(line);
+        afterLine(session);
+        return reply;
+    }
+
+    private void afterLine(GameSession session) {
+        announce(session);
+        if (session.isOver()) {
+            close(session.getId());
+        } else {
+            touch(session);
+        }
+    }
+
+    /**
+     * Plays a command picked by position rather than typed, see Game.handleCommand
+     * @param id The session's name
+     * @param command The command
+     * @param target The position of what the command acts on
+     * @return false if the command was refused; the session is closed if the game ended
+     */
+    public boolean handleCommand(String id, Command command, int target) {
+        GameSession session = sessions.get(id);
+        if (session == null) {
+            throw new IllegalArgumentException("No session called " + id);
+        }
+        boolean played = session.handleCommand(command, target);
+        if (played) {
+            announce(session);
+        }
+        if (session.isOver()) {
+            close(id);
+        } else {
+            touch(session);
+        }
+        return played;
+    }
+
+    /**
+     * Reads from a session's game, for example to show its state
+     * @param id The session's name
+     * @param reader Reads what it needs; must not keep the game or change it
+     * @return What the reader returned
+     */
+    public <T> T inspect(String id, Function<Game, T> reader) {
+        GameSession session = sessions.get(id);
+        if (session == null) {
+            throw new IllegalArgumentException("No session called " + id);
+        }
+        T result = session.inspect(reader);
+        touch(session);
+        return result;
+    }
+
+    /**
+     * Closes a session and forgets its game
+     * @param id The session's name
+     */
+    public void close(String id) {
+        GameSession session = sessions.remove(id);
+        if (session != null) {
+            idleTimers.cancel(session.getIdleTimer());
+            session.discard();
+            Checkpointer saver = checkpointer;
+            if (saver != null) {
+                saver.recordClosed(id);
+            }
+            Metrics.increment("sessions.closed", 1);
+            TurnListener listener = turnListener;
+            if (listener != null) {
+                listener.sessionClosed(id);
+            }
+        }
+    }
+
+    /**
+     * Shows the turn just played to the turn listener, if it watches the session
+     */
+    private void announce(GameSession session) {
+        TurnListener listener = turnListener;
+        if (listener != null && listener.isWatching(session.getId())) {
+            session.inspect(game -> {
+                listener.turnPlayed(session.getId(), game);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Hibernates every session whose idle deadline has passed
+     */
+    public void sweep() {
+        idleTimers.advance(System.currentTimeMillis(), session -> {
+            if (sessions.get(session.getId()) != session) {
+                return;
+            }
+            Checkpointer saver = checkpointer;
+            if (saver != null) {
+                saver.checkpoint(session);
+            }
+            if (!session.hibernate(idleMillis, spillDirectory) && !session.isHibernating()) {
+                // Became busy again after the deadline was picked, check again later
+                touch(session);
+            }
+        });
+    }
+
+    private void touch(GameSession session) {
+        idleTimers.schedule(session.getIdleTimer(), System.currentTimeMillis() + idleMillis);
+    }
+
+    public GameSession getSession(String id) {
+        return sessions.get(id);
+    }
+
+    public Collection<GameSession> getSessions() {
+        return sessions.values();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Counts the sessions that are packed away right now
+     * @return The number of hibernating sessions
+     */
+    public int getHibernatingCount() {
+        int count = 0;
+        for (GameSession session : sessions.values()) {
+            if (session.isHibernating()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stops the background sweeper
+     */
+    @Override
+    public synchronized void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+}
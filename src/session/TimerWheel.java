@@ -0,0 +1,151 @@
+package session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timer wheel: deadlines are dropped into one of a fixed number of
+ * slots, and the wheel visits one slot per tick. Scheduling, moving and
+ * cancelling a timer are all constant time, which matters when every line
+ * from every session pushes that session's idle deadline back.
+ * @param <T> What a timer carries
+ */
+public class TimerWheel<T> {
+    /**
+     * A scheduled timer, kept so it can be moved or cancelled
+     * @param <T> What the timer carries
+     */
+    public static final class Timer<T> {
+        private final T item;
+        private long deadlineTick;
+        private Timer<T> previous;
+        private Timer<T> next;
+        private int slot = -1;
+
+        private Timer(T item) {
+            this.item = item;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final Timer<T>[] slots;
+    private long currentTick;
+
+    /**
+     * Creates a wheel
+     * @param tickMillis How long one tick lasts
+     * @param slotCount How many slots the wheel has (longer delays wrap around)
+     * @param nowMillis The current time
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis, int slotCount, long nowMillis) {
+        if (tickMillis <= 0 || slotCount <= 0) {
+            throw new IllegalArgumentException("Tick length and slot count must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.startMillis = nowMillis;
+        this.slots = (Timer<T>[]) new Timer<?>[slotCount];
+        this.currentTick = 0;
+    }
+
+    /**
+     * Makes a timer that is not scheduled yet
+     * @param item What the timer carries
+     * @return The new timer
+     */
+    public Timer<T> newTimer(T item) {
+        return new Timer<>(item);
+    }
+
+    /**
+     * Schedules a timer, moving it if it was already scheduled
+     * @param timer The timer
+     * @param deadlineMillis When the timer should fire
+     */
+    public synchronized void schedule(Timer<T> timer, long deadlineMillis) {
+        unlink(timer);
+        long tick = Math.max(currentTick + 1, (deadlineMillis - startMillis + tickMillis - 1) / tickMillis);
+        timer.deadlineTick = tick;
+        int slot = (int) (tick % slots.length);
+        timer.slot = slot;
+        timer.previous = null;
+        timer.next = slots[slot];
+        if (slots[slot] != null) {
+            slots[slot].previous = timer;
+        }
+        slots[slot] = timer;
+    }
+
+    /**
+     * Stops a timer from firing
+     * @param timer The timer
+     */
+    public synchronized void cancel(Timer<T> timer) {
+        unlink(timer);
+    }
+
+    /**
+     * Moves the wheel up to the current time and fires every timer that is due.
+     * Fired timers are no longer scheduled; the callback runs outside the wheel's lock,
+     * so it may schedule the same timers again.
+     * @param nowMillis The current time
+     * @param onExpired Called with the item of every timer that fired
+     */
+    public void advance(long nowMillis, Consumer<T> onExpired) {
+        for (T item : collectDue(nowMillis)) {
+            onExpired.accept(item);
+        }
+    }
+
+    /**
+     * Takes every due timer off the wheel and copies out their items.
+     * The timers' links belong to the slot lists alone, so nothing is shared
+     * with code that schedules them again once the lock is released.
+     */
+    private synchronized List<T> collectDue(long nowMillis) {
+        long targetTick = (nowMillis - startMillis) / tickMillis;
+        List<T> due = new ArrayList<>();
+        // A full turn visits every slot, so there is no need to go round more than once
+        long firstTick = Math.max(currentTick + 1, targetTick - slots.length + 1);
+        for (long tick = firstTick; tick <= targetTick; tick++) {
+            Timer<T> timer = slots[(int) (tick % slots.length)];
+            while (timer != null) {
+                Timer<T> next = timer.next;
+                if (timer.deadlineTick <= targetTick) {
+                    unlink(timer);
+                    due.add(timer.item);
+                }
+                timer = next;
+            }
+        }
+        currentTick = Math.max(currentTick, targetTick);
+        return due;
+    }
+
+    private void unlink(Timer<T> timer) {
+        if (timer.slot < 0) {
+            return;
+        }
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            slots[timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.previous = null;
+        timer.next = null;
+        timer.slot = -1;
+    }
+}
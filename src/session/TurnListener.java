@@ -0,0 +1,31 @@
+package session;
+
+import game.Game;
+
+/**
+ * Hears about every turn played in a SessionManager, for example to show it
+ * to people watching. Called on the thread that played the turn, under the
+ * session's lock, so it should only copy what it needs and leave encoding
+ * and sending to another thread.
+ */
+public interface TurnListener {
+    /**
+     * Checks if anyone cares about a session, before its game is looked at
+     * @param sessionId The session's name
+     * @return true to hear about its turns
+     */
+    boolean isWatching(String sessionId);
+
+    /**
+     * Called after a turn, under the session's lock
+     * @param sessionId The session's name
+     * @param game The game after the turn; must not be kept or changed
+     */
+    void turnPlayed(String sessionId, Game game);
+
+    /**
+     * Called once a session is closed, after its last turn
+     * @param sessionId The session's name
+     */
+    void sessionClosed(String sessionId);
+}
@@ -0,0 +1,186 @@
+package spectate;
+
+import protocol.BinaryProtocol;
+import protocol.GameState;
+import protocol.StateTracker;
+import utils.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The frames of one watched game and the spectators they go to.
+ * The player's thread only queues a copy of the state after each turn; a
+ * fan-out thread encodes it, once, and hands the same bytes to every
+ * spectator. Frames are deltas with a keyframe now and then; a new
+ * spectator first gets the last keyframe and the deltas after it.
+ */
+final class Broadcast {
+    /** Frames between two keyframes, which is also the most a new spectator catches up on */
+    static final int KEYFRAME_INTERVAL = 32;
+
+    private final Executor fanOut;
+    private final ConcurrentLinkedQueue<Turn> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    // Only used by the draining thread
+    private final StateTracker tracker = new StateTracker();
+    private final ByteBuffer scratch = ByteBuffer.allocate(BinaryProtocol.MAX_FRAME_BYTES);
+    private int sinceKeyframe;
+
+    // Guarded by this
+    private final List<Frame> recent = new ArrayList<>();
+    private final List<Spectator> spectators = new ArrayList<>();
+    private volatile boolean ending;
+    private boolean ended;
+
+    /** The spectators a frame goes to, copied from the list on the fan-out thread */
+    private Spectator[] targets = new Spectator[16];
+
+    Broadcast(Executor fanOut) {
+        this.fanOut = fanOut;
+    }
+
+    /**
+     * Queues the state after a turn to become the next frame; called under the
+     * session's lock, which keeps the turns in order
+     * @param state The game's state, copied under the lock
+     * @param keyframe true to send the whole state, for example to a first spectator
+     */
+    void publish(GameState state, boolean keyframe) {
+        pending.add(new Turn(state, keyframe));
+        schedule();
+    }
+
+    /**
+     * Ends the broadcast once the frames already published are sent
+     */
+    void end() {
+        ending = true;
+        schedule();
+    }
+
+    /**
+     * Adds a spectator and queues what they need to catch up
+     * @return false if the broadcast already ended
+     */
+    synchronized boolean add(Spectator spectator) {
+        if (ended) {
+            return false;
+        }
+        spectator.attach(this);
+        for (Frame frame : recent) {
+            spectator.offer(frame);
+        }
+        spectators.add(spectator);
+        return true;
+    }
+
+    synchronized void remove(Spectator spectator) {
+        spectators.remove(spectator);
+    }
+
+    synchronized boolean hasSpectators() {
+        return !spectators.isEmpty();
+    }
+
+    private void schedule() {
+        if (draining.compareAndSet(false, true)) {
+            fanOut.execute(this::drain);
+        }
+    }
+
+    /**
+     * Sends the queued frames in order; runs on one fan-out thread at a time
+     */
+    private void drain() {
+        Turn turn;
+        while ((turn = pending.poll()) != null) {
+            Frame frame = encode(turn);
+            int count;
+            synchronized (this) {
+                if (frame.isKeyframe()) {
+                    recent.clear();
+                }
+                recent.add(frame);
+                count = spectators.size();
+                targets = spectators.toArray(targets);
+            }
+            int gone = 0;
+            for (int i = 0; i < count; i++) {
+                if (!targets[i].offer(frame)) {
+                    gone++;
+                }
+            }
+            Arrays.fill(targets, 0, count, null);
+            Metrics.increment("spectate.deliveries", count - gone);
+            if (gone > 0) {
+                dropClosed();
+            }
+        }
+        if (ending) {
+            closeAll();
+        }
+        draining.set(false);
+        // Frames or the end may have come in after the checks above, while this drain still looked busy
+        if (!pending.isEmpty() || (ending && !isEnded())) {
+            schedule();
+        }
+    }
+
+    private Frame encode(Turn turn) {
+        boolean whole = turn.keyframe || ++sinceKeyframe >= KEYFRAME_INTERVAL;
+        if (whole) {
+            tracker.resync();
+            sinceKeyframe = 0;
+        }
+        scratch.clear();
+        tracker.encode(turn.state, BinaryProtocol.OK, scratch);
+        Frame frame = new Frame(Arrays.copyOf(scratch.array(), scratch.position()), tracker.getSequence(), whole);
+        Metrics.increment("spectate.frames", 1);
+        Metrics.increment("spectate.frameBytes", frame.size());
+        return frame;
+    }
+
+    private synchronized void dropClosed() {
+        spectators.removeIf(Spectator::isClosed);
+    }
+
+    private synchronized boolean isEnded() {
+        return ended;
+    }
+
+    private void closeAll() {
+        Spectator[] closing;
+        synchronized (this) {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            closing = spectators.toArray(new Spectator[0]);
+            spectators.clear();
+            recent.clear();
+        }
+        for (Spectator spectator : closing) {
+            spectator.closeQuietly();
+        }
+    }
+
+    /**
+     * A turn waiting to be encoded
+     */
+    private static final class Turn {
+        final GameState state;
+        final boolean keyframe;
+
+        Turn(GameState state, boolean keyframe) {
+            this.state = state;
+            this.keyframe = keyframe;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package spectate;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One encoded frame of a watched game, shared by every spectator.
+ * The bytes are written once and never change; each reader gets its own
+ * view with its own position.
+ */
+public final class Frame {
+    private final ByteBuffer bytes;
+    private final int sequence;
+    private final boolean keyframe;
+
+    Frame(byte[] bytes, int sequence, boolean keyframe) {
+        this.bytes = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        this.sequence = sequence;
+        this.keyframe = keyframe;
+    }
+
+    /**
+     * Gets the frame's bytes, see protocol.StateTracker for what they hold
+     * @return A read-only view of the shared bytes, positioned at the start
+     */
+    public ByteBuffer getBytes() {
+        return bytes.duplicate();
+    }
+
+    public int size() {
+        return bytes.capacity();
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Checks if the frame holds the whole state, so a spectator can start from it
+     * @return true for snapshots
+     */
+    public boolean isKeyframe() {
+        return keyframe;
+    }
+}
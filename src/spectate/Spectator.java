@@ -0,0 +1,155 @@
+package spectate;
+
+import utils.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One person watching a game, with a bounded queue of frames waiting to be
+ * sent to them. A spectator who reads too slowly never holds the game up;
+ * what happens to them instead depends on the policy.
+ */
+public class Spectator {
+    /**
+     * What to do when a spectator's queue is full
+     */
+    public enum Policy {
+        /** Drop what is queued and everything after it until the next keyframe, then carry on from there */
+        SKIP_TO_KEYFRAME,
+        /** Stop watching; the spectator has to start over */
+        DISCONNECT
+    }
+
+    private final ArrayDeque<Frame> queue;
+    private final int capacity;
+    private final Policy policy;
+    private Broadcast broadcast;
+    private boolean skipping;
+    private boolean closed;
+    private long delivered;
+    private long skipped;
+
+    Spectator(int capacity, Policy policy) {
+        this.queue = new ArrayDeque<>(capacity);
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    synchronized void attach(Broadcast broadcast) {
+        this.broadcast = broadcast;
+    }
+
+    /**
+     * Queues a frame, never waiting
+     * @return false if the spectator is closed and can be dropped
+     */
+    synchronized boolean offer(Frame frame) {
+        if (closed) {
+            return false;
+        }
+        if (skipping) {
+            if (!frame.isKeyframe()) {
+                skipped++;
+                Metrics.increment("spectate.skipped", 1);
+                return true;
+            }
+            skipping = false;
+        }
+        if (queue.size() == capacity) {
+            if (policy == Policy.DISCONNECT) {
+                Metrics.increment("spectate.disconnected", 1);
+                closeQuietly();
+                return false;
+            }
+            skipped += queue.size();
+            Metrics.increment("spectate.skipped", queue.size());
+            queue.clear();
+            if (!frame.isKeyframe()) {
+                skipping = true;
+                skipped++;
+                Metrics.increment("spectate.skipped", 1);
+                return true;
+            }
+        }
+        queue.add(frame);
+        delivered++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Takes the next frame without waiting
+     * @return The frame, or null if none is queued
+     */
+    public synchronized Frame poll() {
+        return queue.poll();
+    }
+
+    /**
+     * Takes the next frame, waiting for one if needed
+     * @param timeout How long to wait at most
+     * @param unit The unit of the timeout
+     * @return The frame, or null if none came in time or the spectator was closed and everything was read
+     */
+    public synchronized Frame take(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (queue.isEmpty() && !closed) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return queue.poll();
+    }
+
+    /**
+     * Stops watching
+     */
+    public void close() {
+        Broadcast from;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            from = broadcast;
+            closeQuietly();
+        }
+        if (from != null) {
+            from.remove(this);
+        }
+    }
+
+    /**
+     * Marks the spectator closed, for example when the game ended; queued frames can still be read
+     */
+    synchronized void closeQuietly() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Checks if the spectator stopped watching, was cut off, or the game ended
+     * @return true once no more frames will come; queued frames can still be read
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Counts the frames queued so far
+     * @return Frames that were queued for this spectator
+     */
+    public synchronized long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Counts the frames this spectator missed for reading too slowly
+     * @return Frames dropped
+     */
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+}
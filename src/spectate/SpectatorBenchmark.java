@@ -0,0 +1,236 @@
+package spectate;
+
+import command.Command;
+import game.Game;
+import load.LatencyHistogram;
+import protocol.StateMirror;
+import session.SessionManager;
+import utils.Metrics;
+import world.Direction;
+import world.Room;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shows that watching a game does not slow its player down. A bot plays
+ * games at a steady pace, once with nobody watching and once with many
+ * spectators, some of whom read far too slowly; the player's turn times are
+ * compared, and a sample of the fast spectators rebuild the game from their
+ * frames to check that they saw every turn.
+ *
+ * Usage: SpectatorBenchmark [--spectators N] [--slow-percent N] [--turns-per-second N]
+ *        [--seconds N] [--capacity N] [--slow-policy skip|disconnect]
+ */
+public class SpectatorBenchmark {
+    /** Fast spectators that rebuild the game to check their frames */
+    private static final int CHECKED_SPECTATORS = 100;
+
+    /** How often slow spectators read */
+    private static final long SLOW_READ_MILLIS = 1000;
+
+    private final int spectatorCount;
+    private final int slowPercent;
+    private final int turnsPerSecond;
+    private final int capacity;
+    private final Spectator.Policy slowPolicy;
+    private volatile Spectator[] fast = new Spectator[0];
+    private volatile StateMirror[] mirrors = new StateMirror[0];
+    private volatile Spectator[] slow = new Spectator[0];
+    private volatile boolean stopped;
+    private long gaps;
+    private long framesRead;
+
+    private SpectatorBenchmark(int spectatorCount, int slowPercent, int turnsPerSecond, int capacity,
+                               Spectator.Policy slowPolicy) {
+        this.spectatorCount = spectatorCount;
+        this.slowPercent = slowPercent;
+        this.turnsPerSecond = turnsPerSecond;
+        this.capacity = capacity;
+        this.slowPolicy = slowPolicy;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int spectators = 10_000;
+        int slowPercent = 10;
+        int turnsPerSecond = 200;
+        int seconds = 10;
+        int capacity = 64;
+        Spectator.Policy slowPolicy = Spectator.Policy.SKIP_TO_KEYFRAME;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--spectators":
+                    spectators = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--slow-percent":
+                    slowPercent = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--turns-per-second":
+                    turnsPerSecond = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--capacity":
+                    capacity = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--slow-policy":
+                    slowPolicy = value(args, ++i).equals("disconnect") ?
+                            Spectator.Policy.DISCONNECT : Spectator.Policy.SKIP_TO_KEYFRAME;
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.err.println("Usage: SpectatorBenchmark [--spectators N] [--slow-percent N] "
+                            + "[--turns-per-second N] [--seconds N] [--capacity N] [--slow-policy skip|disconnect]");
+                    System.exit(2);
+            }
+        }
+        System.out.printf("%11s %7s %9s %9s %9s %9s %12s %9s %9s %6s%n", "spectators", "turns", "p50 us",
+                "p99 us", "p99.9 us", "max us", "deliveries/s", "skipped", "dropped", "gaps");
+        // A short first run warms the JIT up
+        new SpectatorBenchmark(spectators, slowPercent, turnsPerSecond, capacity, slowPolicy).run(Math.max(1, seconds / 5), false);
+        new SpectatorBenchmark(0, slowPercent, turnsPerSecond, capacity, slowPolicy).run(seconds, true);
+        new SpectatorBenchmark(spectators, slowPercent, turnsPerSecond, capacity, slowPolicy).run(seconds, true);
+    }
+
+    private void run(int seconds, boolean print) throws InterruptedException {
+        long deliveriesBefore = metric("spectate.deliveries");
+        long skippedBefore = metric("spectate.skipped");
+        long droppedBefore = metric("spectate.disconnected");
+        Thread fastReader = new Thread(this::readFast, "fast-spectators");
+        Thread slowReader = new Thread(this::readSlow, "slow-spectators");
+        fastReader.setDaemon(true);
+        slowReader.setDaemon(true);
+        fastReader.start();
+        slowReader.start();
+
+        LatencyHistogram turns = new LatencyHistogram();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long interval = TimeUnit.SECONDS.toNanos(1) / turnsPerSecond;
+        long due = start;
+        try (SessionManager sessions = new SessionManager();
+             SpectatorHub hub = new SpectatorHub(sessions, Math.max(1, Runtime.getRuntime().availableProcessors() / 2))) {
+            for (int g = 0; System.nanoTime() < end; g++) {
+                String id = "game-" + g;
+                sessions.open(id, g);
+                sessions.handleLine(id, "streamer");
+                sessions.handleLine(id, "paladin");
+                watch(hub, id);
+                while (sessions.getSession(id) != null && System.nanoTime() < end) {
+                    due += interval;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    int[] move = sessions.inspect(id, SpectatorBenchmark::choose);
+                    long turnStart = System.nanoTime();
+                    sessions.handleCommand(id, Command.values()[move[0]], move[1]);
+                    turns.record(System.nanoTime() - turnStart);
+                }
+                sessions.close(id);
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        stopped = true;
+        fastReader.join();
+        slowReader.join();
+        if (print) {
+            System.out.printf("%11d %7d %9d %9d %9d %9d %12.0f %9d %9d %6d%n", spectatorCount, turns.getCount(),
+                    turns.getPercentileMicros(50), turns.getPercentileMicros(99), turns.getPercentileMicros(99.9),
+                    turns.getPercentileMicros(100), (metric("spectate.deliveries") - deliveriesBefore) / elapsed,
+                    metric("spectate.skipped") - skippedBefore, metric("spectate.disconnected") - droppedBefore, gaps);
+        }
+    }
+
+    /**
+     * Sets up the spectators of a new game
+     */
+    private void watch(SpectatorHub hub, String id) {
+        int slowCount = spectatorCount * slowPercent / 100;
+        Spectator[] newFast = new Spectator[spectatorCount - slowCount];
+        Spectator[] newSlow = new Spectator[slowCount];
+        for (int i = 0; i < newFast.length; i++) {
+            newFast[i] = hub.watch(id, capacity, Spectator.Policy.SKIP_TO_KEYFRAME);
+        }
+        for (int i = 0; i < newSlow.length; i++) {
+            newSlow[i] = hub.watch(id, capacity, slowPolicy);
+        }
+        StateMirror[] newMirrors = new StateMirror[Math.min(CHECKED_SPECTATORS, newFast.length)];
+        for (int i = 0; i < newMirrors.length; i++) {
+            newMirrors[i] = new StateMirror();
+        }
+        synchronized (this) {
+            mirrors = newMirrors;
+            fast = newFast;
+            slow = newSlow;
+        }
+    }
+
+    /**
+     * Reads everything the fast spectators get, as soon as it comes
+     */
+    private void readFast() {
+        while (!stopped) {
+            Spectator[] spectators;
+            StateMirror[] checked;
+            synchronized (this) {
+                spectators = fast;
+                checked = mirrors;
+            }
+            boolean any = false;
+            for (int i = 0; i < spectators.length; i++) {
+                Frame frame;
+                while ((frame = spectators[i].poll()) != null) {
+                    any = true;
+                    framesRead++;
+                    if (i < checked.length && !checked[i].apply(frame.getBytes())) {
+                        gaps++;
+                    }
+                }
+            }
+            if (!any) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+    }
+
+    /**
+     * Reads what the slow spectators got only now and then
+     */
+    private void readSlow() {
+        while (!stopped) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(SLOW_READ_MILLIS));
+            for (Spectator spectator : slow) {
+                while (spectator.poll() != null) {
+                    // Thrown away; only the reading pace matters
+                }
+            }
+        }
+    }
+
+    /**
+     * Attacks the first enemy, else goes north, as command ordinal and target
+     */
+    private static int[] choose(Game game) {
+        Room room = game.getCurrentRoom();
+        if (room.getEnemyCount() > 0) {
+            return new int[] {Command.ATTACK.ordinal(), 0};
+        }
+        if (room.getItemCount() > 0 && !game.getPlayer().getInventory().isFull()) {
+            return new int[] {Command.TAKE.ordinal(), 0};
+        }
+        return new int[] {Command.MOVE.ordinal(), Direction.NORTH.ordinal()};
+    }
+
+    private static long metric(String name) {
+        return Metrics.count(name);
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(args[index - 1] + " needs a value");
+        }
+        return args[index];
+    }
+}
@@ -0,0 +1,105 @@
+package spectate;
+
+import game.Game;
+import protocol.GameState;
+import session.SessionManager;
+import session.TurnListener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lets people watch games being played live, for streams and tournaments.
+ * The state after every turn of a watched game is copied under the
+ * session's lock; a few fan-out threads encode it once, as a binary
+ * StateTracker frame, and queue the same bytes for every spectator. The
+ * player's turn only pays for the copy, however many people watch and
+ * however slowly they read.
+ */
+public class SpectatorHub implements TurnListener, AutoCloseable {
+    private final SessionManager sessions;
+    private final ConcurrentHashMap<String, Broadcast> broadcasts = new ConcurrentHashMap<>();
+    private final ExecutorService fanOut;
+
+    /**
+     * Creates a hub and starts listening to a session manager's turns
+     * @param sessions The games that can be watched
+     * @param fanOutThreads Threads handing frames to spectators
+     */
+    public SpectatorHub(SessionManager sessions, int fanOutThreads) {
+        this.sessions = sessions;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.fanOut = Executors.newFixedThreadPool(fanOutThreads, task -> {
+            Thread thread = new Thread(task, "spectate-fanout-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        sessions.setTurnListener(this);
+    }
+
+    /**
+     * Starts watching a game
+     * @param sessionId The session to watch
+     * @param capacity Frames queued for the spectator before the policy applies
+     * @param policy What to do when the spectator falls that far behind
+     * @return The spectator, whose first frame is a keyframe
+     * @throws IllegalArgumentException if there is no such session
+     */
+    public Spectator watch(String sessionId, int capacity, Spectator.Policy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("A spectator needs room for at least one frame");
+        }
+        Spectator spectator = new Spectator(capacity, policy);
+        Broadcast broadcast = broadcasts.computeIfAbsent(sessionId, id -> new Broadcast(fanOut));
+        if (!broadcast.hasSpectators()) {
+            // Turns nobody watched were not sent, so start again from the whole state;
+            // later spectators catch up from the frames since the last keyframe
+            try {
+                sessions.inspect(sessionId, game -> {
+                    broadcast.publish(GameState.of(game), true);
+                    return null;
+                });
+            } catch (IllegalArgumentException e) {
+                broadcasts.remove(sessionId, broadcast);
+                throw e;
+            }
+        }
+        if (!broadcast.add(spectator)) {
+            throw new IllegalArgumentException("No session called " + sessionId);
+        }
+        return spectator;
+    }
+
+    @Override
+    public boolean isWatching(String sessionId) {
+        Broadcast broadcast = broadcasts.get(sessionId);
+        return broadcast != null && broadcast.hasSpectators();
+    }
+
+    @Override
+    public void turnPlayed(String sessionId, Game game) {
+        Broadcast broadcast = broadcasts.get(sessionId);
+        if (broadcast != null) {
+            broadcast.publish(GameState.of(game), false);
+        }
+    }
+
+    @Override
+    public void sessionClosed(String sessionId) {
+        Broadcast broadcast = broadcasts.remove(sessionId);
+        if (broadcast != null) {
+            broadcast.end();
+        }
+    }
+
+    /**
+     * Stops listening and stops the fan-out threads
+     */
+    @Override
+    public void close() {
+        sessions.setTurnListener(null);
+        fanOut.shutdownNow();
+    }
+}
@@ -0,0 +1,296 @@
+package utils;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Formatter;
+
+/**
+ * Collects everything the game prints for one turn and writes it out in one go.
+ * Game code prints through the static helpers (println, printf, ...), which
+ * append to the output bound to the current thread. The game loop decides
+ * when the collected text is actually written, based on the flush policy.
+ */
+public class GameOutput {
+    /** Write early once this many characters are waiting, to keep memory bounded */
+    private static final int MAX_BUFFERED_CHARS = 64 * 1024;
+
+    /** Output used when nothing was bound to the current thread */
+    private static final ThreadLocal<GameOutput> DEFAULT =
+            ThreadLocal.withInitial(() -> new GameOutput(System.out, FlushPolicy.PER_LINE));
+
+    /** Output bound to the current thread by the game loop */
+    private static final ThreadLocal<GameOutput> CURRENT = new ThreadLocal<>();
+
+    /**
+     * When collected text gets written to the sink.
+     */
+    public enum FlushPolicy {
+        /** Only write when the game loop calls flush (once per command) */
+        PER_COMMAND,
+        /** Write after every finished line, like plain System.out */
+        PER_LINE,
+        /** Only write when the buffer fills up or the game is over, for transcripts nobody reads live */
+        WHEN_FULL
+    }
+
+    /**
+     * Kinds of output. A newer room description, combat status or command menu
+     * makes an older one out of date, so a reader that falls behind may be
+     * sent only the newest; plain text is never left out.
+     */
+    public enum Section {
+        TEXT,
+        ROOM,
+        COMBAT_STATUS,
+        MENU
+    }
+
+    /**
+     * How much the game prints, from everything down to the bare facts.
+     * Each level also leaves out what the levels before it leave out, so a
+     * busy server can trade detail for time one step at a time.
+     */
+    public enum Detail {
+        /** Everything */
+        FULL,
+        /** No list of available commands after each turn */
+        NO_MENU,
+        /** A one line summary instead of the full combat log */
+        SHORT_COMBAT,
+        /** Rooms without their descriptive text */
+        NO_ROOM_PROSE
+    }
+
+    /**
+     * A sink that wants to know where each section starts
+     */
+    public interface SectionSink {
+        /**
+         * Called before the text of a new section is written
+         * @param section The kind of text written from now on
+         */
+        void section(Section section);
+    }
+
+    private final Writer sink;
+    private final FlushPolicy policy;
+    private final boolean muted;
+    private final StringBuilder buffer;
+    private final Formatter formatter;
+    private char[] chunk;
+    private Section section = Section.TEXT;
+    private Detail detail = Detail.FULL;
+
+    /**
+     * Creates an output that writes to a print stream
+     * @param stream Where the text ends up (usually System.out)
+     * @param policy When collected text should be written
+     */
+    public GameOutput(PrintStream stream, FlushPolicy policy) {
+        this(new OutputStreamWriter(stream), policy);
+    }
+
+    /**
+     * Creates an output that writes to any writer
+     * @param sink Where the text ends up
+     * @param policy When collected text should be written
+     */
+    public GameOutput(Writer sink, FlushPolicy policy) {
+        this(sink, policy, false);
+    }
+
+    private GameOutput(Writer sink, FlushPolicy policy, boolean muted) {
+        this.sink = sink;
+        this.policy = policy;
+        this.muted = muted;
+        this.buffer = new StringBuilder(1024);
+        this.formatter = new Formatter(buffer);
+        this.chunk = new char[1024];
+    }
+
+    /**
+     * Creates an output that throws everything away without formatting it.
+     * Used when the game runs without anyone watching, like in simulations.
+     * @return A muted output
+     */
+    public static GameOutput discard() {
+        return new GameOutput(Writer.nullWriter(), FlushPolicy.PER_COMMAND, true);
+    }
+
+    /**
+     * Makes this output the one used by the static helpers on this thread
+     * @param output The output to use, or null to go back to the default
+     */
+    public static void bind(GameOutput output) {
+        if (output == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(output);
+        }
+    }
+
+    /**
+     * Gets the output used by the static helpers on this thread
+     * @return The bound output, or a plain console output if none is bound
+     */
+    public static GameOutput current() {
+        GameOutput output = CURRENT.get();
+        return output != null ? output : DEFAULT.get();
+    }
+
+    // Static helpers used by game code instead of System.out
+    public static void println(String text) {
+        current().line(text);
+    }
+
+    public static void println() {
+        current().line("");
+    }
+
+    public static void print(String text) {
+        current().text(text);
+    }
+
+    public static void printf(String format, Object... args) {
+        current().format(format, args);
+    }
+
+    /**
+     * Checks if game code should leave something out on this thread
+     * @param level The level at which it is left out
+     * @return true if the bound output prints at that level of detail or less
+     */
+    public static boolean isReduced(Detail level) {
+        return current().detail.compareTo(level) >= 0;
+    }
+
+    /**
+     * Marks what follows as a section of its own, until endSection.
+     * Sections do not nest.
+     * @param section The kind of text that follows
+     */
+    public static void beginSection(Section section) {
+        current().startSection(section);
+    }
+
+    /**
+     * Goes back to plain text after beginSection
+     */
+    public static void endSection() {
+        current().startSection(Section.TEXT);
+    }
+
+    /**
+     * Starts a new section, writing what came before it first if the sink keeps sections apart
+     * @param section The kind of text that follows
+     */
+    public void startSection(Section section) {
+        if (muted || section == this.section) {
+            return;
+        }
+        this.section = section;
+        if (sink instanceof SectionSink) {
+            flush();
+            ((SectionSink) sink).section(section);
+        }
+    }
+
+    /**
+     * Adds a full line of text
+     * @param text The text, without the line break
+     */
+    public void line(String text) {
+        if (muted) {
+            return;
+        }
+        buffer.append(text).append('\n');
+        afterAppend(true);
+    }
+
+    /**
+     * Adds text without a line break
+     * @param text The text to add
+     */
+    public void text(String text) {
+        if (muted) {
+            return;
+        }
+        buffer.append(text);
+        afterAppend(text.indexOf('\n') >= 0);
+    }
+
+    /**
+     * Adds formatted text, same rules as String.format
+     * @param format The format string
+     * @param args Values for the format string
+     */
+    public void format(String format, Object... args) {
+        if (muted) {
+            return;
+        }
+        formatter.format(format, args);
+        afterAppend(format.indexOf('\n') >= 0 || format.contains("%n"));
+    }
+
+    /**
+     * Writes everything collected so far to the sink in a single write.
+     */
+    public void flush() {
+        int length = buffer.length();
+        if (length == 0) {
+            return;
+        }
+        if (chunk.length < length) {
+            chunk = new char[Math.max(length, chunk.length * 2)];
+        }
+        buffer.getChars(0, length, chunk, 0);
+        buffer.setLength(0);
+        try {
+            sink.write(chunk, 0, length);
+            sink.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write game output", e);
+        }
+    }
+
+    /**
+     * Checks if there is collected text that has not been written yet
+     * @return true if a flush would write something
+     */
+    public boolean hasPendingOutput() {
+        return buffer.length() > 0;
+    }
+
+    /**
+     * Checks if this output throws everything away
+     * @return true for outputs made by discard
+     */
+    public boolean isMuted() {
+        return muted;
+    }
+
+    public FlushPolicy getPolicy() {
+        return policy;
+    }
+
+    public Detail getDetail() {
+        return detail;
+    }
+
+    /**
+     * Sets how much the game prints through this output from now on
+     * @param detail The level of detail
+     */
+    public void setDetail(Detail detail) {
+        this.detail = detail;
+    }
+
+    private void afterAppend(boolean endedLine) {
+        if ((policy == FlushPolicy.PER_LINE && endedLine) || buffer.length() >= MAX_BUFFERED_CHARS) {
+            flush();
+        }
+    }
+}
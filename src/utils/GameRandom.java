@@ -0,0 +1,65 @@
+package utils;
+
+import java.util.Random;
+
+/**
+ * A Random whose place in its sequence can be read and put back, so taking
+ * back a turn also takes back the rolls made during it.
+ * Gives exactly the same numbers as a java.util.Random made with the same seed.
+ * Unlike Random it is not safe to share between threads; every game and
+ * enemy has its own.
+ */
+public class GameRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    // The linear congruential generator documented for java.util.Random
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    // Set by setSeed, which Random's constructors call, so it has no initializer
+    private long state;
+
+    /**
+     * Makes a generator with a seed that is very likely different from any other
+     */
+    public GameRandom() {
+        super();
+    }
+
+    /**
+     * Makes a generator that gives the same numbers as new Random(seed)
+     * @param seed The seed
+     */
+    public GameRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        super.setSeed(seed);
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    /**
+     * Gets where the generator is in its sequence
+     * @return A value for setState
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Puts the generator back to a place read with getState
+     * @param state The saved place
+     */
+    public void setState(long state) {
+        setSeed(state ^ MULTIPLIER);
+    }
+}
@@ -0,0 +1,86 @@
+package utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and gauges that any part of the game can update from any thread.
+ * Counters only go up and are cheap to bump from many threads at once;
+ * gauges hold the latest value of something, like a rate.
+ */
+public final class Metrics {
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Double> GAUGES = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Adds to a counter, creating it on first use
+     * @param name The counter's name, like "hint.playouts"
+     * @param amount How much to add
+     */
+    public static void increment(String name, long amount) {
+        COUNTERS.computeIfAbsent(name, key -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * Sets a gauge to its latest value
+     * @param name The gauge's name
+     * @param value The value now
+     */
+    public static void set(String name, double value) {
+        GAUGES.put(name, value);
+    }
+
+    /**
+     * Gets the total of a counter
+     * @param name The counter's name
+     * @return The total, or 0 if the counter was never used
+     */
+    public static long count(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    /**
+     * Gets the latest value of a gauge
+     * @param name The gauge's name
+     * @return The value, or 0 if the gauge was never set
+     */
+    public static double gauge(String name) {
+        return GAUGES.getOrDefault(name, 0.0);
+    }
+
+    /**
+     * Takes a sorted copy of every counter and gauge
+     * @return Metric names with their current values
+     */
+    public static Map<String, Number> snapshot() {
+        Map<String, Number> values = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> values.put(name, counter.sum()));
+        values.putAll(GAUGES);
+        return values;
+    }
+
+    /**
+     * Writes every metric as "name = value" lines
+     * @return The report text
+     */
+    public static String report() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Number> entry : snapshot().entrySet()) {
+            Number value = entry.getValue();
+            text.append(entry.getKey()).append(" = ");
+            if (value instanceof Double) {
+                text.append(String.format("%.1f", value.doubleValue()));
+            } else {
+                text.append(value);
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+}
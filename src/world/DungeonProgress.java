@@ -22,11 +22,15 @@ public class DungeonProgress {
     private static final int SECOND_BOSS_DEPTH = 5;  // After 2 more rooms
     private static final int FINAL_BOSS_DEPTH = 8;   // After 2 final rooms
 
+    /** Deepest the player can get: rooms stop once the final boss's depth is passed */
+    public static final int MAX_DEPTH = FINAL_BOSS_DEPTH + 1;
+
     private int currentDepth;
     private int roomsSinceLastBoss;
     private boolean firstBossDefeated;
     private boolean secondBossDefeated;
     private boolean finalBossDefeated;
+    private boolean dirty;
 
     /**
      * Creates a new dungeon progress tracker
@@ -37,6 +41,25 @@ public class DungeonProgress {
         this.firstBossDefeated = false;
         this.secondBossDefeated = false;
         this.finalBossDefeated = false;
+        this.dirty = true;
+    }
+
+    /**
+     * Creates a tracker at a saved point of the dungeon
+     * @param currentDepth How deep the player is
+     * @param roomsSinceLastBoss Rooms passed since the last boss
+     * @param firstBossDefeated Whether the first boss fell
+     * @param secondBossDefeated Whether the second boss fell
+     * @param finalBossDefeated Whether the final boss fell
+     */
+    public DungeonProgress(int currentDepth, int roomsSinceLastBoss, boolean firstBossDefeated,
+                           boolean secondBossDefeated, boolean finalBossDefeated) {
+        this.currentDepth = currentDepth;
+        this.roomsSinceLastBoss = roomsSinceLastBoss;
+        this.firstBossDefeated = firstBossDefeated;
+        this.secondBossDefeated = secondBossDefeated;
+        this.finalBossDefeated = finalBossDefeated;
+        this.dirty = true;
     }
 
     /**
@@ -45,6 +68,7 @@ public class DungeonProgress {
      */
     public int moveDeeper() {
         currentDepth++;
+        dirty = true;
         roomsSinceLastBoss++;
         return currentDepth;
     }
@@ -92,6 +116,7 @@ public class DungeonProgress {
      * @param bossType The type of boss that was defeated
      */
     public void recordBossDefeat(EnemyType bossType) {
+        dirty = true;
         switch (bossType) {
             case FLAME_WARDEN:
                 firstBossDefeated = true;
@@ -131,6 +156,44 @@ public class DungeonProgress {
         }
     }
 
+    /**
+     * Makes an independent copy of this progress
+     * @return A new tracker at the same point of the dungeon
+     */
+    public DungeonProgress copy() {
+        DungeonProgress copy = new DungeonProgress();
+        copy.restoreFrom(this);
+        return copy;
+    }
+
+    /**
+     * Goes back to the point stored in another tracker
+     * @param saved The progress to copy
+     */
+    public void restoreFrom(DungeonProgress saved) {
+        this.currentDepth = saved.currentDepth;
+        this.roomsSinceLastBoss = saved.roomsSinceLastBoss;
+        this.firstBossDefeated = saved.firstBossDefeated;
+        this.secondBossDefeated = saved.secondBossDefeated;
+        this.finalBossDefeated = saved.finalBossDefeated;
+        this.dirty = true;
+    }
+
+    /**
+     * Checks if the progress changed since the last checkpoint
+     * @return true if there are unsaved changes
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Marks the progress as saved
+     */
+    public void clearDirty() {
+        dirty = false;
+    }
+
     // Getters
     public int getCurrentDepth() { return currentDepth; }
     public boolean isFirstBossDefeated() { return firstBossDefeated; }
@@ -1,7 +1,11 @@
 package world;
 
 import character.enemy.Enemy;
+import character.player.Player;
+import combat.WinProbabilityOracle;
 import items.Item;
+import utils.GameOutput;
+
 import java.util.*;
 
 /**
@@ -18,6 +22,10 @@ public class Room {
     private final List<Enemy> enemies;
     private final Map<Direction, Room> exits;
     private boolean isCleared;
+    private int version;
+    private int savedVersion;
+    private RoomChanges changes;
+    private boolean changePending;
 
     /**
      * Creates a new room
@@ -27,39 +35,47 @@ public class Room {
         this.type = type;
         this.items = new ArrayList<>();
         this.enemies = new ArrayList<>();
-        this.exits = new HashMap<>();
+        // Enum order, so exits are always listed the same way
+        this.exits = new EnumMap<>(Direction.class);
         this.isCleared = false;
+        this.version = 0;
+        this.savedVersion = -1;
     }
 
     /**
      * Shows room description and contents to player
      */
     public void describeRoom() {
+        GameOutput.beginSection(GameOutput.Section.ROOM);
+
         // Display room name and description
-        System.out.println("\n=== " + type.getName() + " ===");
-        System.out.println(type.getDescription());
+        GameOutput.println("\n=== " + type.getName() + " ===");
+        if (!GameOutput.isReduced(GameOutput.Detail.NO_ROOM_PROSE)) {
+            GameOutput.println(type.getDescription());
+        }
 
         // List enemies if any are present
         if (hasEnemies()) {
-            System.out.println("\nEnemies here:");
+            GameOutput.println("\nEnemies here:");
             for (Enemy enemy : enemies) {
-                System.out.println("- " + enemy.getCharacterName());
+                GameOutput.println("- " + enemy.getCharacterName());
             }
         }
 
         // List items if any are present
         if (hasItems()) {
-            System.out.println("\nItems here:");
+            GameOutput.println("\nItems here:");
             for (Item item : items) {
-                System.out.println("- " + item.getName());
+                GameOutput.println("- " + item.getName());
             }
         }
 
         // Show available exits
-        System.out.println("\nPossible exits:");
+        GameOutput.println("\nPossible exits:");
         for (Direction dir : exits.keySet()) {
-            System.out.println("- " + dir.name().toLowerCase());
+            GameOutput.println("- " + dir.name().toLowerCase());
         }
+        GameOutput.endSection();
     }
 
     /**
@@ -85,6 +101,10 @@ public class Room {
      */
     public void setExit(Direction direction, Room room) {
         exits.put(direction, room);
+        changed();
+        if (changes != null) {
+            room.trackChanges(changes);
+        }
     }
 
     /**
@@ -111,6 +131,7 @@ public class Room {
      */
     public void addItem(Item item) {
         items.add(item);
+        changed();
     }
 
     /**
@@ -122,18 +143,33 @@ public class Room {
         for (Item item : items) {
             if (item.getName().equalsIgnoreCase(itemName)) {
                 items.remove(item);
+                changed();
                 return item;
             }
         }
         return null;
     }
 
+    /**
+     * Removes one item from the room, even if another item has the same name
+     * @param item The item to remove
+     * @return true if it was in the room
+     */
+    public boolean removeItem(Item item) {
+        if (!items.remove(item)) {
+            return false;
+        }
+        changed();
+        return true;
+    }
+
     /**
      * Adds an enemy to the room and sets the enemy's location
      * @param enemy Enemy to add
      */
     public void addEnemy(Enemy enemy) {
         enemies.add(enemy);
+        changed();
         enemy.setCurrentRoom(this);  // Set this room as enemy's current location
     }
 
@@ -143,6 +179,7 @@ public class Room {
      */
     public void removeEnemy(Enemy enemy) {
         enemies.remove(enemy);
+        changed();
         enemy.setCurrentRoom(null);  // Clear enemy's room reference
 
         // Check if room is cleared
@@ -192,6 +229,7 @@ public class Room {
      */
     public void setCleared(boolean cleared) {
         this.isCleared = cleared;
+        changed();
     }
 
     /**
@@ -210,12 +248,46 @@ public class Room {
         return new ArrayList<>(enemies);
     }
 
+    /**
+     * Counts the items on the floor without copying them
+     * @return The number of items
+     */
+    public int getItemCount() {
+        return items.size();
+    }
+
+    /**
+     * Gets an item on the floor by position, in the order getItems lists them
+     * @param index Position of the item
+     * @return The item
+     */
+    public Item getItem(int index) {
+        return items.get(index);
+    }
+
+    /**
+     * Counts the enemies without copying them
+     * @return The number of enemies
+     */
+    public int getEnemyCount() {
+        return enemies.size();
+    }
+
+    /**
+     * Gets an enemy by position, in the order getEnemies lists them
+     * @param index Position of the enemy
+     * @return The enemy
+     */
+    public Enemy getEnemy(int index) {
+        return enemies.get(index);
+    }
+
     /**
      * Gets available exits
      * @return A new map containing the room's exits
      */
     public Map<Direction, Room> getExits() {
-        return new HashMap<>(exits);
+        return new EnumMap<>(exits);
     }
 
     /**
@@ -237,6 +309,25 @@ public class Room {
         return info;
     }
 
+    /**
+     * Displays information about attackable enemies, with a danger rating
+     * for the player when the oracle knows this fight
+     * @param player The player who would fight
+     * @param oracle Precomputed win chances
+     * @param engaged The enemies already fighting the player
+     * @return String containing the formatted enemy information
+     */
+    public String getAttackableEnemiesInfo(Player player, WinProbabilityOracle oracle, List<Enemy> engaged) {
+        String info = getAttackableEnemiesInfo();
+        if (hasEnemies()) {
+            String danger = oracle.describeDanger(player, enemies, engaged);
+            if (danger != null) {
+                info = info + "\n" + danger;
+            }
+        }
+        return info;
+    }
+
     /**
      * Creates a new exit in the specified direction
      * @param direction Direction of the new exit
@@ -244,6 +335,95 @@ public class Room {
      */
     public void addExit(Direction direction, Room room) {
         exits.put(direction, room);
+        changed();
+        if (changes != null) {
+            room.trackChanges(changes);
+        }
+    }
+
+    /**
+     * Gets a number that changes every time the room's contents or exits change.
+     * Snapshots use it to reuse a saved copy of a room that did not change.
+     * @return The room's change counter
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Starts telling a game's change list about this room and every room it
+     * leads to. Rooms connected later join by themselves.
+     * @param changes The game's list of changed rooms
+     */
+    public void trackChanges(RoomChanges changes) {
+        Deque<Room> toVisit = new ArrayDeque<>();
+        toVisit.push(this);
+        while (!toVisit.isEmpty()) {
+            Room room = toVisit.pop();
+            if (room.changes == changes) {
+                continue;
+            }
+            room.changes = changes;
+            room.changePending = false;
+            room.changed();
+            toVisit.addAll(room.exits.values());
+        }
+    }
+
+    private void changed() {
+        version++;
+        if (changes != null && !changePending) {
+            changePending = true;
+            changes.add(this);
+        }
+    }
+
+    /**
+     * Lets the room add itself to its change list again
+     */
+    void changeTaken() {
+        changePending = false;
+    }
+
+    /**
+     * Checks if the room's contents or exits changed since the last checkpoint.
+     * Enemies track their own health, see Character.isDirty.
+     * @return true if there are unsaved changes
+     */
+    public boolean isDirty() {
+        return version != savedVersion;
+    }
+
+    /**
+     * Marks the room as saved
+     */
+    public void clearDirty() {
+        savedVersion = version;
+    }
+
+    /**
+     * Puts the room back the way it was saved
+     * @param savedItems Items that were in the room
+     * @param savedEnemies Enemies that were in the room
+     * @param savedExits Exits the room had
+     * @param cleared Whether the room was cleared
+     */
+    public void restore(List<Item> savedItems, List<Enemy> savedEnemies,
+                        Map<Direction, Room> savedExits, boolean cleared) {
+        for (Enemy enemy : enemies) {
+            enemy.setCurrentRoom(null);
+        }
+        items.clear();
+        items.addAll(savedItems);
+        enemies.clear();
+        for (Enemy enemy : savedEnemies) {
+            enemies.add(enemy);
+            enemy.setCurrentRoom(this);
+        }
+        exits.clear();
+        exits.putAll(savedExits);
+        isCleared = cleared;
+        changed();
     }
 
     /**
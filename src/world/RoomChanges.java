@@ -0,0 +1,34 @@
+package world;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The rooms of one game that changed since someone last asked.
+ * A room joins when it is connected to a room that is already followed,
+ * and after that adds itself here once every time it changes, so a reader
+ * only has to look at the rooms that did change instead of walking the dungeon.
+ */
+public final class RoomChanges {
+    private final List<Room> changed = new ArrayList<>();
+
+    /**
+     * Records that a room changed, called by the room itself
+     */
+    void add(Room room) {
+        changed.add(room);
+    }
+
+    /**
+     * Hands over the rooms that changed and starts a new list
+     * @param out Where to put each changed room, once
+     */
+    public void drainTo(Collection<Room> out) {
+        for (Room room : changed) {
+            room.changeTaken();
+            out.add(room);
+        }
+        changed.clear();
+    }
+}
@@ -1,5 +1,6 @@
 package world.generator;
 
+import balance.BalanceConfig;
 import character.enemy.Enemy;
 import character.enemy.EnemyType;
 import items.Item;
@@ -8,6 +9,7 @@ import world.Direction;
 import world.Room;
 import world.RoomType;
 import world.DungeonProgress;
+import utils.GameRandom;
 
 import java.util.Random;
 
@@ -22,19 +24,38 @@ import java.util.Random;
  * 6. Final Boss (Shadow Lord)
  */
 public class DungeonGeneration {
-    private static final double TREASURE_ROOM_CHANCE = 0.40;
-    private static final double ITEM_SPAWN_CHANCE = 0.65;
     private static final int MAX_ITEMS_PER_ROOM = 2;
     private static final int MAX_ENEMIES_PER_ROOM = 2;
     private static final int ROOMS_BEFORE_FIRST_BOSS = 1;
 
     private final DungeonProgress progress;
     private final Random random;
+    private final BalanceConfig balance;
     private Room lastGeneratedRoom;
 
     public DungeonGeneration(DungeonProgress progress) {
+        this(progress, new Random());
+    }
+
+    /**
+     * Creates a generator that always builds the same dungeon for the same seed
+     * @param progress The player's progress through the dungeon
+     * @param random Source of randomness for rooms, items and enemies
+     */
+    public DungeonGeneration(DungeonProgress progress, Random random) {
+        this(progress, random, BalanceConfig.current());
+    }
+
+    /**
+     * Creates a generator with specific spawn chances and enemy stats
+     * @param progress The player's progress through the dungeon
+     * @param random Source of randomness for rooms, items and enemies
+     * @param balance Spawn chances and enemy stats to use
+     */
+    public DungeonGeneration(DungeonProgress progress, Random random, BalanceConfig balance) {
         this.progress = progress;
-        this.random = new Random();
+        this.random = random;
+        this.balance = balance;
         this.lastGeneratedRoom = null;
     }
 
@@ -84,6 +105,17 @@ public class DungeonGeneration {
         return room;
     }
 
+    /**
+     * Creates the next room and connects it north of a room.
+     * @param from The room the player leaves
+     * @return The new room
+     */
+    public Room generateRoomAfter(Room from) {
+        Room next = generateNextRoom();
+        connectRooms(from, next, Direction.NORTH);
+        return next;
+    }
+
     /**
      * Decides what type the next room should be based on progression.
      */
@@ -100,7 +132,7 @@ public class DungeonGeneration {
         }
 
         // Between bosses, chance for treasure rooms
-        if (random.nextDouble() < TREASURE_ROOM_CHANCE) {
+        if (random.nextDouble() < balance.getTreasureRoomChance()) {
             return RoomType.TREASURE;
         }
 
@@ -139,7 +171,7 @@ public class DungeonGeneration {
             throw new IllegalStateException("Tried to create boss room without valid boss type");
         }
 
-        Enemy boss = new Enemy(bossType.getName(), bossType, true);
+        Enemy boss = new Enemy(bossType.getName(), bossType, true, new GameRandom(random.nextLong()), balance);
         room.addEnemy(boss);
         addTreasureToRoom(room); // Boss rooms always have treasure
     }
@@ -152,7 +184,7 @@ public class DungeonGeneration {
     private void addTreasureToRoom(Room room) {
         room.addItem(generateValuableItem());
 
-        if (random.nextDouble() < ITEM_SPAWN_CHANCE) {
+        if (random.nextDouble() < balance.getItemSpawnChance()) {
             room.addItem(generateValuableItem());
         }
     }
@@ -164,7 +196,7 @@ public class DungeonGeneration {
         // Force single weak enemy for the first combat room
         if (!progress.isFirstBossDefeated() &&
                 progress.getCurrentDepth() == ROOMS_BEFORE_FIRST_BOSS) {
-            Enemy enemy = new Enemy("Goblin Trainee", EnemyType.GOBLIN, false);
+            Enemy enemy = new Enemy("Goblin Trainee", EnemyType.GOBLIN, false, new GameRandom(random.nextLong()), balance);
             room.addEnemy(enemy);
             return;
         }
@@ -174,7 +206,7 @@ public class DungeonGeneration {
         for (int i = 0; i < enemyCount; i++) {
             EnemyType type = getRandomEnemyType();
             String enemyName = type.getName() + " " + (i + 1);
-            Enemy enemy = new Enemy(enemyName, type, false);
+            Enemy enemy = new Enemy(enemyName, type, false, new GameRandom(random.nextLong()), balance);
             room.addEnemy(enemy);
         }
     }
@@ -186,7 +218,7 @@ public class DungeonGeneration {
         int itemCount = random.nextInt(MAX_ITEMS_PER_ROOM + 1);
 
         for (int i = 0; i < itemCount; i++) {
-            if (random.nextDouble() < ITEM_SPAWN_CHANCE) {
+            if (random.nextDouble() < balance.getItemSpawnChance()) {
                 room.addItem(generateRandomItem());
             }
         }
@@ -227,9 +259,9 @@ public class DungeonGeneration {
      */
     private EnemyType getRandomEnemyType() {
         double roll = random.nextDouble();
-        if (roll < 0.4) {
+        if (roll < balance.getGoblinChance()) {
             return EnemyType.GOBLIN;
-        } else if (roll < 0.7) {
+        } else if (roll < balance.getGoblinChance() + balance.getSkeletonChance()) {
             return EnemyType.SKELETON;
         } else {
             return EnemyType.WITCH;